@@ -0,0 +1,485 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.log;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;   //-- For Tester only.
+import java.io.ByteArrayInputStream;    //-- For Tester only.
+import java.io.PrintWriter;             //-- For Tester only.
+
+// EncodedLogReader
+/******************************************************************************
+* This class reads log entries written by EncodedLoggerTarget in its BINARY
+* format, and can convert them to JSON lines or to formatted text lines, so
+* that archived binary logs can be inspected offline.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenarios for using this class are:
+*
+*     - To read the entries of a binary log file:
+*           EncodedLogReader reader = new EncodedLogReader
+*                               (new FileInputStream("/my/log/file.bin"));
+*           Logger.Entry entry;
+*           while ((entry = reader.readEntry()) != null)
+*           {
+*               ...
+*           }
+*           reader.close();
+*
+*     - To convert a binary log file to JSON lines:
+*           EncodedLogReader.convertToJSON
+*                               (new FileInputStream("/my/log/file.bin"),
+*                                new FileOutputStream("/my/log/file.json"));
+*
+*     - To convert a binary log file to formatted text lines:
+*           EncodedLogReader.convertToText
+*                               (new FileInputStream("/my/log/file.bin"),
+*                                new FileWriter("/my/log/file.log"));
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*   - Reads from the specified InputStream.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*   - See EncodedLoggerTarget for a description of the BINARY format.
+*   - A truncated or corrupt record causes a CorruptRecordException, not
+*     a premature end of the entries, so that a damaged file is not 
+*     mistaken for a complete one.
+*<b>Implementation Notes:</b>
+*   - The record buffer grows only as the bytes of a record actually 
+*     arrive, so a corrupt record length cannot cause a huge allocation
+*     before the stream runs out.  Record lengths beyond the maximum 
+*     record length are rejected without reading.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see     EncodedLoggerTarget
+******************************************************************************/
+public class EncodedLogReader
+{
+
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+    private int             m_intMaxRecordLength = intDEFAULT_MAX_RECORD_LENGTH;
+
+    //--
+    //-- Internal instance variables
+    //--
+    private DataInputStream m_in       = null;
+    private byte[]          m_abRecord = new byte[1024];
+
+    //--
+    //-- Other constants.
+    //--
+
+    /**************************************************************************
+    * Default maximum length of a record, in bytes.
+    **************************************************************************/
+    public static final int intDEFAULT_MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    /**************************************************************************
+    * This exception is thrown when the binary data is not a valid record.
+    **************************************************************************/
+    public static class CorruptRecordException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+        public CorruptRecordException(String msg) { super(msg); }
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  in         The InputStream of binary log records to read.
+    **************************************************************************/
+    public EncodedLogReader(InputStream in)
+    {
+        m_in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    /**************************************************************************
+    * Set the maximum length of a record, in bytes.  Longer records are 
+    * treated as corrupt.  Default = intDEFAULT_MAX_RECORD_LENGTH.
+    *@param  intNew     The new maximum length.
+    **************************************************************************/
+    public void setMaxRecordLength(int intNew)
+    {
+        m_intMaxRecordLength = intNew;
+    }
+
+    /**************************************************************************
+    * Get the maximum length of a record, in bytes.
+    *@return            The maximum length.
+    **************************************************************************/
+    public int getMaxRecordLength()
+    {
+        return m_intMaxRecordLength;
+    }
+
+    /**************************************************************************
+    * Read the next log entry.
+    *@return                The log entry, or null at the end of the stream.
+    *@throws CorruptRecordException
+    *                       When the stream contains an invalid or truncated
+    *                       record, including a truncated record length.
+    *@throws IOException    When an error occurs reading the stream.
+    **************************************************************************/
+    public Logger.Entry readEntry()
+                        throws IOException
+    {
+        //-- Only an end of stream before the first byte of the record 
+        //-- length is a clean end of the entries.
+        int intFirstByte = m_in.read();
+        if (intFirstByte < 0)
+        {
+            return null;
+        }
+        int intRecordLength;
+        try
+        {
+            intRecordLength = (intFirstByte << 24)
+                              | (m_in.readUnsignedByte() << 16)
+                              | (m_in.readUnsignedByte() << 8)
+                              | m_in.readUnsignedByte();
+        }
+        catch (EOFException e)
+        {
+            throw new CorruptRecordException("Truncated record length.");
+        }
+        if (intRecordLength < 0 || intRecordLength > m_intMaxRecordLength)
+        {
+            throw new CorruptRecordException
+                        ("Invalid record length: " + intRecordLength);
+        }
+        readRecord(intRecordLength);
+
+        String[] arrFields = new String[EncodedLoggerTarget.intFIELD_COUNT];
+        int intPos = 0;
+        for (int i = 0; i < arrFields.length; i++)
+        {
+            //-- Decode the variable-length field length.
+            int intLength = 0;
+            int intShift  = 0;
+            int intByte;
+            do
+            {
+                if (intPos >= intRecordLength || intShift > 28)
+                {
+                    throw new CorruptRecordException("Invalid field length.");
+                }
+                intByte = m_abRecord[intPos++];
+                //-- The 5th byte holds only the top 4 bits of an int.
+                if (intShift == 28 && (intByte & 0xFF) > 0x0F)
+                {
+                    throw new CorruptRecordException("Invalid field length.");
+                }
+                intLength |= (intByte & 0x7F) << intShift;
+                intShift += 7;
+            }
+            while ((intByte & 0x80) != 0);
+
+            if (intLength > 0)
+            {
+                intLength--;
+                if (intLength > intRecordLength - intPos)
+                {
+                    throw new CorruptRecordException("Field overruns record.");
+                }
+                arrFields[i] = new String
+                                (m_abRecord, intPos, intLength, "UTF-8");
+                intPos += intLength;
+            }
+        }
+        if (intPos != intRecordLength)
+        {
+            throw new CorruptRecordException
+                        ("Record has " + (intRecordLength - intPos)
+                         + " bytes after the last field.");
+        }
+        return new Logger.Entry
+                        (arrFields[0],
+                         arrFields[1],
+                         arrFields[2],
+                         arrFields[3],
+                         arrFields[4],
+                         arrFields[5],
+                         arrFields[6],
+                         arrFields[7],
+                         arrFields[8],
+                         arrFields[9]);
+    }
+
+    /**************************************************************************
+    * Read the record into m_abRecord, growing it only as the bytes arrive.
+    *@param  intRecordLength    The length of the record.
+    *@throws CorruptRecordException
+    *                           When the stream ends before the record does.
+    *@throws IOException        When an error occurs reading the stream.
+    **************************************************************************/
+    private void readRecord(int intRecordLength)
+                        throws IOException
+    {
+        int intRead = 0;
+        while (intRead < intRecordLength)
+        {
+            if (intRead == m_abRecord.length)
+            {
+                byte[] abNew = new byte[(int)Math.min
+                                            ((long)intRecordLength,
+                                             2L * m_abRecord.length)];
+                System.arraycopy(m_abRecord, 0, abNew, 0, intRead);
+                m_abRecord = abNew;
+            }
+            int intCount = m_in.read
+                        (m_abRecord, 
+                         intRead, 
+                         Math.min(intRecordLength, m_abRecord.length) 
+                         - intRead);
+            if (intCount < 0)
+            {
+                throw new CorruptRecordException("Truncated record.");
+            }
+            intRead += intCount;
+        }
+    }
+
+    /**************************************************************************
+    * Close the underlying InputStream.
+    *@throws IOException    When an error occurs closing the stream.
+    **************************************************************************/
+    public void close()
+                        throws IOException
+    {
+        m_in.close();
+    }
+
+    /**************************************************************************
+    * Convert all binary log records from the InputStream to JSON lines on
+    * the OutputStream.
+    *@param  in             The InputStream of binary log records.
+    *@param  out            The OutputStream to write JSON lines to.
+    *@return                The number of entries converted.
+    *@throws IOException    When an error occurs reading or writing.
+    **************************************************************************/
+    public static int convertToJSON(InputStream in, OutputStream out)
+                        throws IOException
+    {
+        EncodedLogReader reader = new EncodedLogReader(in);
+        EncodedLoggerTarget target = new EncodedLoggerTarget
+                                    (out, EncodedLoggerTarget.Format.JSON);
+        int intCount = 0;
+        Logger.Entry entry;
+        while ((entry = reader.readEntry()) != null)
+        {
+            target.log(entry);
+            intCount++;
+        }
+        return intCount;
+    }
+
+    /**************************************************************************
+    * Convert all binary log records from the InputStream to formatted text
+    * lines on the Writer, in the format written by Logger.FilenameLoggerTarget.
+    *@param  in             The InputStream of binary log records.
+    *@param  writer         The Writer to write text lines to.
+    *@return                The number of entries converted.
+    *@throws IOException    When an error occurs reading or writing.
+    **************************************************************************/
+    public static int convertToText(InputStream in, Writer writer)
+                        throws IOException
+    {
+        EncodedLogReader reader = new EncodedLogReader(in);
+        int intCount = 0;
+        Logger.Entry entry;
+        while ((entry = reader.readEntry()) != null)
+        {
+            writer.write(entry.getFormattedLogLine());
+            writer.write("\n");
+            intCount++;
+        }
+        writer.flush();
+        return intCount;
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+
+                System.out.println ("   Logging binary records...");
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                Logger logger = new Logger();
+                logger.setLogLevel(2);
+                logger.addTarget(new EncodedLoggerTarget
+                                    (out, EncodedLoggerTarget.Format.BINARY));
+                logger.log(1, "Line of text logged at level 1.");
+                logger.log(2, "Multi-line entry\nLine 1\nLine 2");
+                byte[] abLog = out.toByteArray();
+
+                System.out.println ("   Reading binary records...");
+                EncodedLogReader reader = new EncodedLogReader
+                                    (new ByteArrayInputStream(abLog));
+                Logger.Entry entry;
+                while ((entry = reader.readEntry()) != null)
+                {
+                    System.out.println ("   Level " + entry.getLevel()
+                                        + ": " + entry.getMsg());
+                }
+                reader.close();
+
+                System.out.println ("   Converting to text...");
+                int intCount = convertToText
+                                    (new ByteArrayInputStream(abLog),
+                                     new PrintWriter(System.out));
+                System.out.println ("   Converted " + intCount + " entries.");
+
+                System.out.println ("   Converting to JSON...");
+                intCount = convertToJSON
+                                    (new ByteArrayInputStream(abLog),
+                                     System.out);
+                System.out.println ("   Converted " + intCount + " entries.");
+
+                System.out.println ("   Reading a truncated record...");
+                try
+                {
+                    reader = new EncodedLogReader
+                                    (new ByteArrayInputStream
+                                            (abLog, 0, abLog.length - 3));
+                    while (reader.readEntry() != null)
+                    {
+                    }
+                    System.out.println ("   Error: No exception thrown.");
+                }
+                catch (CorruptRecordException e)
+                {
+                    System.out.println ("   Caught expected exception: "
+                                        + e.getMessage());
+                }
+
+                System.out.println ("   Reading a truncated record length...");
+                try
+                {
+                    reader = new EncodedLogReader
+                                    (new ByteArrayInputStream(abLog, 0, 2));
+                    reader.readEntry();
+                    System.out.println ("   Error: No exception thrown.");
+                }
+                catch (CorruptRecordException e)
+                {
+                    System.out.println ("   Caught expected exception: "
+                                        + e.getMessage());
+                }
+
+                System.out.println ("   Reading a huge record length...");
+                try
+                {
+                    byte[] abHuge = { 0x7F, (byte)0xFF, (byte)0xFF, 0x00, 1 };
+                    reader = new EncodedLogReader
+                                    (new ByteArrayInputStream(abHuge));
+                    reader.readEntry();
+                    System.out.println ("   Error: No exception thrown.");
+                }
+                catch (CorruptRecordException e)
+                {
+                    System.out.println ("   Caught expected exception: "
+                                        + e.getMessage());
+                }
+
+                System.out.println ("   Reading a long, cut-short record...");
+                try
+                {
+                    byte[] abLong = { 0x00, (byte)0xFF, (byte)0xFF, 0x00, 1 };
+                    reader = new EncodedLogReader
+                                    (new ByteArrayInputStream(abLong));
+                    reader.readEntry();
+                    System.out.println ("   Error: No exception thrown.");
+                }
+                catch (CorruptRecordException e)
+                {
+                    System.out.println ("   Caught expected exception: "
+                                        + e.getMessage());
+                }
+
+                System.out.println ("   Reading an overlong field length...");
+                try
+                {
+                    byte[] abVarInt = { 0, 0, 0, 5, (byte)0xFF, (byte)0xFF, 
+                                        (byte)0xFF, (byte)0xFF, 0x7F };
+                    reader = new EncodedLogReader
+                                    (new ByteArrayInputStream(abVarInt));
+                    reader.readEntry();
+                    System.out.println ("   Error: No exception thrown.");
+                }
+                catch (CorruptRecordException e)
+                {
+                    System.out.println ("   Caught expected exception: "
+                                        + e.getMessage());
+                }
+
+                System.out.println ("   Reading a record with extra bytes...");
+                try
+                {
+                    byte[] abExtra = new byte[4 + 11];
+                    abExtra[3] = 11;
+                    reader = new EncodedLogReader
+                                    (new ByteArrayInputStream(abExtra));
+                    reader.readEntry();
+                    System.out.println ("   Error: No exception thrown.");
+                }
+                catch (CorruptRecordException e)
+                {
+                    System.out.println ("   Caught expected exception: "
+                                        + e.getMessage());
+                }
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
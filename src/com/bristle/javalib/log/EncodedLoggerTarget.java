@@ -0,0 +1,635 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.log;
+
+import java.io.OutputStream;
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;   //-- For Tester only.
+import java.io.ByteArrayInputStream;    //-- For Tester only.
+import java.util.Arrays;                //-- For Tester only.
+
+// EncodedLoggerTarget
+/******************************************************************************
+* This class implements the Logger.LoggerTarget interface, writing log entries
+* to an OutputStream in a structured encoding (JSON lines or a compact binary
+* format), so that log shippers and other tools don't have to parse the
+* formatted text lines produced by Logger.Entry.getFormattedLogLine().
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenarios for using this class are:
+*
+*     - To log JSON lines to a file:
+*           Logger logger = new Logger();
+*           logger.addTarget(new EncodedLoggerTarget
+*                               (new FileOutputStream("/my/log/file.json"),
+*                                EncodedLoggerTarget.Format.JSON));
+*
+*     - To log binary records to a file:
+*           Logger logger = new Logger();
+*           logger.addTarget(new EncodedLoggerTarget
+*                               (new FileOutputStream("/my/log/file.bin"),
+*                                EncodedLoggerTarget.Format.BINARY));
+*
+*   - To read or convert binary log files, see {@link EncodedLogReader}.
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*   - Writes log entries to the specified OutputStream.
+*</pre>
+*<xmp>
+*   - The JSON format writes one JSON object per line, encoded as UTF-8:
+*       {"dateTime":"2007/02/16 18:14:25.274 Fri","appName":"MyApp",
+*        "appVersion":"v1.0","username":"fred","threadName":"Thread-12",
+*        "millisecs":1171667665274,"usedMem":23510888,"totalMem":27770872,
+*        "level":1,"msg":"This is a sample log message."}
+*     Numeric fields are written as JSON numbers.  Null fields are written
+*     as JSON null.
+*
+*   - The BINARY format writes one record per entry:
+*       <RecordLength>  4-byte big-endian count of the bytes that follow.
+*       <Field> x 10    One per field, in the order of the JSON format
+*                       above, each written as:
+*                         <Length>  Unsigned variable-length integer (7
+*                                   bits per byte, low-order group first,
+*                                   high bit set on all but the last byte)
+*                                   holding the number of UTF-8 bytes plus
+*                                   one, or 0 for a null field.
+*                         <Bytes>   The UTF-8 bytes of the field value.
+*</xmp>
+*<pre>
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*<b>Implementation Notes:</b>
+*   - Each entry is encoded directly from the fields of the Logger.Entry
+*     into a byte buffer that is reused for all entries, with no
+*     intermediate String, and written to the OutputStream with a single
+*     write() call.  Therefore, the log() method is synchronized.
+*   - A binary record longer than EncodedLogReader accepts by default 
+*     (EncodedLogReader.intDEFAULT_MAX_RECORD_LENGTH) is refused before
+*     anything is written, rather than written and later rejected as 
+*     corrupt by the reader.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see     EncodedLogReader
+******************************************************************************/
+public class EncodedLoggerTarget implements Logger.LoggerTarget
+{
+
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+    private OutputStream m_out    = null;
+    private Format       m_format = null;
+
+    //--
+    //-- Internal instance variables
+    //--
+    private byte[] m_abBuffer  = new byte[1024];
+    private int    m_intLength = 0;
+
+    //--
+    //-- Local constants
+    //--
+    static final int intFIELD_COUNT = 10;
+    private static final String[] arrJSON_NAMES =
+                        {
+                         "dateTime",
+                         "appName",
+                         "appVersion",
+                         "username",
+                         "threadName",
+                         "millisecs",
+                         "usedMem",
+                         "totalMem",
+                         "level",
+                         "msg",
+                        };
+    private static final boolean[] arrJSON_NUMERIC =
+                        {
+                         false,
+                         false,
+                         false,
+                         false,
+                         false,
+                         true,
+                         true,
+                         true,
+                         true,
+                         false,
+                        };
+    private static final byte[] abHEX_DIGITS =
+                        {
+                         '0','1','2','3','4','5','6','7',
+                         '8','9','a','b','c','d','e','f',
+                        };
+
+    /**************************************************************************
+    * This class represents an enumerated type that identifies the encodings
+    * supported by EncodedLoggerTarget.
+    *<pre>
+    *<b>Usage:</b>
+    *   - The following are typical scenarios for using this class:
+    *       EncodedLoggerTarget.Format format = EncodedLoggerTarget.Format.JSON;
+    *       if (format == EncodedLoggerTarget.Format.BINARY) ...
+    *</pre>
+    **************************************************************************/
+    public static class Format
+    {
+        public final static Format JSON   = new Format("JSON");
+        public final static Format BINARY = new Format("BINARY");
+        private final String m_strName;  //-- "blank final" assigned in the ctor.
+        //-- Note:  No public ctor so new values cannot be created.  Those
+        //--        listed above are the only ones.
+        private Format(String strName) { m_strName = strName; }
+        public String toString() { return m_strName; }
+    }
+
+    /**************************************************************************
+    * This exception is thrown when an entry is too long to be written as a
+    * binary record that EncodedLogReader can read.
+    **************************************************************************/
+    public static class RecordTooLongException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+        public RecordTooLongException(String msg) { super(msg); }
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  out        The OutputStream to write log entries to.
+    *@param  format     The encoding to use.
+    **************************************************************************/
+    public EncodedLoggerTarget(OutputStream out, Format format)
+    {
+        m_out    = out;
+        m_format = format;
+    }
+
+    /**************************************************************************
+    * Set the OutputStream to write log entries to.  If null, no logging is
+    * performed.
+    *@param  out        The new OutputStream.
+    **************************************************************************/
+    public synchronized void setOutputStream(OutputStream out)
+    {
+        m_out = out;
+    }
+
+    /**************************************************************************
+    * Get the OutputStream that messages are currently being logged to.
+    *@return            The OutputStream.
+    **************************************************************************/
+    public OutputStream getOutputStream()
+    {
+        return m_out;
+    }
+
+    /**************************************************************************
+    * Get the encoding used for log entries.
+    *@return            The encoding.
+    **************************************************************************/
+    public Format getFormat()
+    {
+        return m_format;
+    }
+
+    /**************************************************************************
+    * Log the log entry to the OutputStream.
+    *@param  entry          The log entry to write to the log.
+    *@throws RecordTooLongException
+    *                       When the entry is too long for a binary record.
+    *                       Nothing is written.
+    *@throws IOException    When an error occurs writing to the OutputStream.
+    **************************************************************************/
+    public synchronized void log(Logger.Entry entry)
+                        throws IOException
+    {
+        if (m_out != null)
+        {
+            m_intLength = 0;
+            if (m_format == Format.BINARY)
+            {
+                encodeBinary(entry);
+            }
+            else
+            {
+                encodeJSON(entry);
+            }
+            m_out.write(m_abBuffer, 0, m_intLength);
+            m_out.flush();
+        }
+    }
+
+    /**************************************************************************
+    * Get the value of the field with the specified index from the entry, in
+    * the order documented for the encodings.
+    *@param  entry      The log entry.
+    *@param  intIndex   The zero-based index of the field.
+    *@return            The field value, or null.
+    **************************************************************************/
+    static String getField(Logger.Entry entry, int intIndex)
+    {
+        switch (intIndex)
+        {
+            case 0:  return entry.getDateTime();
+            case 1:  return entry.getAppName();
+            case 2:  return entry.getAppVersion();
+            case 3:  return entry.getUsername();
+            case 4:  return entry.getThreadName();
+            case 5:  return entry.getMillisecs();
+            case 6:  return entry.getUsedMem();
+            case 7:  return entry.getTotalMem();
+            case 8:  return entry.getLevel();
+            default: return entry.getMsg();
+        }
+    }
+
+    /**************************************************************************
+    * Encode the entry into the buffer as a line of JSON.
+    *@param  entry      The log entry.
+    **************************************************************************/
+    private void encodeJSON(Logger.Entry entry)
+    {
+        appendByte('{');
+        for (int i = 0; i < intFIELD_COUNT; i++)
+        {
+            if (i > 0)
+            {
+                appendByte(',');
+            }
+            appendByte('"');
+            appendASCII(arrJSON_NAMES[i]);
+            appendByte('"');
+            appendByte(':');
+            String strValue = getField(entry, i);
+            if (strValue == null)
+            {
+                appendASCII("null");
+            }
+            else if (arrJSON_NUMERIC[i] && isInteger(strValue))
+            {
+                appendASCII(strValue);
+            }
+            else
+            {
+                appendByte('"');
+                appendJSONEscaped(strValue);
+                appendByte('"');
+            }
+        }
+        appendByte('}');
+        appendByte('\n');
+    }
+
+    /**************************************************************************
+    * Encode the entry into the buffer as a binary record.
+    *@param  entry      The log entry.
+    *@throws RecordTooLongException
+    *                   When the record would be longer than 
+    *                   EncodedLogReader.intDEFAULT_MAX_RECORD_LENGTH.
+    **************************************************************************/
+    private void encodeBinary(Logger.Entry entry)
+                        throws RecordTooLongException
+    {
+        //-- Reserve space for the record length and fill it in at the end.
+        ensureCapacity(4);
+        m_intLength = 4;
+        for (int i = 0; i < intFIELD_COUNT; i++)
+        {
+            String strValue = getField(entry, i);
+            if (strValue == null)
+            {
+                appendVarInt(0);
+            }
+            else
+            {
+                int intUTF8Length = getUTF8Length(strValue);
+                //-- Check before growing the buffer.  The 5 bytes allow
+                //-- for the largest length prefix.
+                if ((long)m_intLength - 4 + 5 + intUTF8Length
+                    > EncodedLogReader.intDEFAULT_MAX_RECORD_LENGTH)
+                {
+                    m_intLength = 0;
+                    throw new RecordTooLongException
+                        ("Log entry is longer than "
+                         + EncodedLogReader.intDEFAULT_MAX_RECORD_LENGTH
+                         + " bytes.");
+                }
+                appendVarInt(intUTF8Length + 1);
+                appendUTF8(strValue);
+            }
+        }
+        int intRecordLength = m_intLength - 4;
+        m_abBuffer[0] = (byte)(intRecordLength >>> 24);
+        m_abBuffer[1] = (byte)(intRecordLength >>> 16);
+        m_abBuffer[2] = (byte)(intRecordLength >>> 8);
+        m_abBuffer[3] = (byte)(intRecordLength);
+    }
+
+    /**************************************************************************
+    * Return true if the string is a non-empty, optionally negative, sequence
+    * of decimal digits, so that it can be written as a JSON number.
+    *@param  str        The string to check.
+    *@return            true if the string is an integer.
+    **************************************************************************/
+    private static boolean isInteger(String str)
+    {
+        int intStart = (str.startsWith("-") ? 1 : 0);
+        if (str.length() <= intStart)
+        {
+            return false;
+        }
+        for (int i = intStart; i < str.length(); i++)
+        {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**************************************************************************
+    * Grow the buffer, if necessary, to hold the specified number of
+    * additional bytes.
+    *@param  intMore    The number of additional bytes needed.
+    **************************************************************************/
+    private void ensureCapacity(int intMore)
+    {
+        int intNeeded = m_intLength + intMore;
+        if (intNeeded > m_abBuffer.length)
+        {
+            byte[] abNew = new byte[Math.max(intNeeded, m_abBuffer.length * 2)];
+            System.arraycopy(m_abBuffer, 0, abNew, 0, m_intLength);
+            m_abBuffer = abNew;
+        }
+    }
+
+    /**************************************************************************
+    * Append a single byte to the buffer.
+    *@param  intByte    The byte to append.
+    **************************************************************************/
+    private void appendByte(int intByte)
+    {
+        ensureCapacity(1);
+        m_abBuffer[m_intLength++] = (byte)intByte;
+    }
+
+    /**************************************************************************
+    * Append a string known to contain only ASCII characters to the buffer.
+    *@param  str        The string to append.
+    **************************************************************************/
+    private void appendASCII(String str)
+    {
+        int intLen = str.length();
+        ensureCapacity(intLen);
+        for (int i = 0; i < intLen; i++)
+        {
+            m_abBuffer[m_intLength++] = (byte)str.charAt(i);
+        }
+    }
+
+    /**************************************************************************
+    * Append an unsigned variable-length integer to the buffer.
+    *@param  intValue   The value to append.
+    **************************************************************************/
+    private void appendVarInt(int intValue)
+    {
+        ensureCapacity(5);
+        while ((intValue & ~0x7F) != 0)
+        {
+            m_abBuffer[m_intLength++] = (byte)((intValue & 0x7F) | 0x80);
+            intValue >>>= 7;
+        }
+        m_abBuffer[m_intLength++] = (byte)intValue;
+    }
+
+    /**************************************************************************
+    * Return the number of bytes needed to encode the string as UTF-8.
+    *@param  str        The string.
+    *@return            The number of bytes.
+    **************************************************************************/
+    private static int getUTF8Length(String str)
+    {
+        int intLen = str.length();
+        int intBytes = 0;
+        for (int i = 0; i < intLen; i++)
+        {
+            char c = str.charAt(i);
+            if (c < 0x80)
+            {
+                intBytes += 1;
+            }
+            else if (c < 0x800)
+            {
+                intBytes += 2;
+            }
+            else if (Character.isHighSurrogate(c)
+                     && i + 1 < intLen
+                     && Character.isLowSurrogate(str.charAt(i + 1)))
+            {
+                intBytes += 4;
+                i++;
+            }
+            else
+            {
+                intBytes += 3;
+            }
+        }
+        return intBytes;
+    }
+
+    /**************************************************************************
+    * Append the string to the buffer as UTF-8.
+    *@param  str        The string to append.
+    **************************************************************************/
+    private void appendUTF8(String str)
+    {
+        int intLen = str.length();
+        for (int i = 0; i < intLen; i++)
+        {
+            appendUTF8Char(str, i);
+            if (Character.isHighSurrogate(str.charAt(i))
+                && i + 1 < intLen
+                && Character.isLowSurrogate(str.charAt(i + 1)))
+            {
+                i++;
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Append the character at the specified index of the string to the
+    * buffer as UTF-8, combining it with the following character if the two
+    * form a surrogate pair.
+    *@param  str        The string.
+    *@param  intIndex   The index of the character.
+    **************************************************************************/
+    private void appendUTF8Char(String str, int intIndex)
+    {
+        ensureCapacity(4);
+        char c = str.charAt(intIndex);
+        if (c < 0x80)
+        {
+            m_abBuffer[m_intLength++] = (byte)c;
+        }
+        else if (c < 0x800)
+        {
+            m_abBuffer[m_intLength++] = (byte)(0xC0 | (c >> 6));
+            m_abBuffer[m_intLength++] = (byte)(0x80 | (c & 0x3F));
+        }
+        else if (Character.isHighSurrogate(c)
+                 && intIndex + 1 < str.length()
+                 && Character.isLowSurrogate(str.charAt(intIndex + 1)))
+        {
+            int intCodePoint = Character.toCodePoint
+                                        (c, str.charAt(intIndex + 1));
+            m_abBuffer[m_intLength++] = (byte)(0xF0 | (intCodePoint >> 18));
+            m_abBuffer[m_intLength++] = (byte)(0x80 | ((intCodePoint >> 12) & 0x3F));
+            m_abBuffer[m_intLength++] = (byte)(0x80 | ((intCodePoint >> 6) & 0x3F));
+            m_abBuffer[m_intLength++] = (byte)(0x80 | (intCodePoint & 0x3F));
+        }
+        else
+        {
+            m_abBuffer[m_intLength++] = (byte)(0xE0 | (c >> 12));
+            m_abBuffer[m_intLength++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            m_abBuffer[m_intLength++] = (byte)(0x80 | (c & 0x3F));
+        }
+    }
+
+    /**************************************************************************
+    * Append the string to the buffer as UTF-8, escaped as the contents of a
+    * JSON string.
+    *@param  str        The string to append.
+    **************************************************************************/
+    private void appendJSONEscaped(String str)
+    {
+        int intLen = str.length();
+        for (int i = 0; i < intLen; i++)
+        {
+            char c = str.charAt(i);
+            switch (c)
+            {
+                case '"':  appendByte('\\'); appendByte('"');  break;
+                case '\\': appendByte('\\'); appendByte('\\'); break;
+                case '\n': appendByte('\\'); appendByte('n');  break;
+                case '\r': appendByte('\\'); appendByte('r');  break;
+                case '\t': appendByte('\\'); appendByte('t');  break;
+                default:
+                    if (c < 0x20)
+                    {
+                        appendByte('\\');
+                        appendByte('u');
+                        appendByte('0');
+                        appendByte('0');
+                        appendByte(abHEX_DIGITS[c >> 4]);
+                        appendByte(abHEX_DIGITS[c & 0xF]);
+                    }
+                    else
+                    {
+                        appendUTF8Char(str, i);
+                        if (Character.isHighSurrogate(c)
+                            && i + 1 < intLen
+                            && Character.isLowSurrogate(str.charAt(i + 1)))
+                        {
+                            i++;
+                        }
+                    }
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+
+                System.out.println ("   Logging JSON lines to System.out...");
+                Logger logger = new Logger();
+                logger.setAppName("MyApp");
+                logger.setAppVersion("v1.0");
+                logger.addTarget(new EncodedLoggerTarget
+                                        (System.out, Format.JSON));
+                logger.log(1, "Line of text logged at level 1.");
+                logger.log(1, "Multi-line \"quoted\" entry\nLine 1\tTabbed"
+                              + "\nUnicode: \u00e9\u4e2d\ud83d\ude00");
+
+                System.out.println ("   Logging binary records...");
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                Logger logger2 = new Logger();
+                logger2.addTarget(new EncodedLoggerTarget
+                                        (out, Format.BINARY));
+                logger2.log(1, "Binary entry 1.");
+                logger2.log(1, "Binary entry 2\nUnicode: \u00e9\u4e2d");
+                System.out.println ("   Wrote " + out.size() + " bytes.");
+
+                System.out.println ("   Converting binary records to JSON...");
+                EncodedLogReader.convertToJSON
+                        (new ByteArrayInputStream(out.toByteArray()),
+                         System.out);
+
+                System.out.println ("   Refusing an entry that is too long...");
+                try
+                {
+                    char[] arrChars = new char
+                            [EncodedLogReader.intDEFAULT_MAX_RECORD_LENGTH];
+                    Arrays.fill(arrChars, 'x');
+                    new EncodedLoggerTarget(out, Format.BINARY).log
+                            (new Logger.Entry("", "", "", "", "", "1", "0",
+                                              "0", "1", new String(arrChars)));
+                    System.out.println ("   Error: No exception thrown.");
+                }
+                catch (RecordTooLongException e)
+                {
+                    System.out.println ("   Caught expected exception: "
+                                        + e.getMessage());
+                }
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,445 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.io.PrintWriter;     //-- For Tester only.
+
+// FlightRecorderLoggerTarget
+/******************************************************************************
+* This class implements the Logger.LoggerTarget interface, keeping the most
+* recent log entries in memory, at all log levels, so that the detail
+* leading up to an error is available even though it was not written to
+* any log file.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*       FlightRecorderLoggerTarget recorder
+*                           = new FlightRecorderLoggerTarget(1000);
+*       logger.setFlightRecorder(recorder);
+*
+*     This causes the Logger to record entries at all log levels, while the
+*     other LoggerTargets of the Logger continue to accept only the levels 
+*     they did before, and Logger.getMaxEnabledLogLevel() still reflects 
+*     only those other LoggerTargets.
+*
+*   - To write the recorded entries somewhere on demand:
+*       recorder.dump(new FileWriter("/my/log/flight.log"));
+*       recorder.dump(someOtherLoggerTarget);
+*
+*   - To write the recorded entries automatically each time an error is
+*     logged via Logger.logErrorSafely() (and therefore via LoggerUtil
+*     logError()):
+*       recorder.setDumpOnErrorTarget
+*                   (new Logger.FilenameLoggerTarget("/my/log/flight.log"));
+*
+*   - To view the recorded entries from a Web browser, via a servlet that
+*     uses ServletDebugger, with a URL parameter of:
+*           bristleDebug=flightRecorder
+*     where the servlet has the init parameter bristleDebugFlightRecorder
+*     set to true.  See ServletDebugger.
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*   - Holds references to the most recent log entries.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*   - Each automatic dump on error writes only the entries recorded since
+*     the previous automatic dump, so that a burst of errors does not write
+*     the same entries over and over.
+*   - The dump-on-error target should not be one of the other LoggerTargets
+*     of the Logger, since they already have the entries at their own log
+*     levels.
+*<b>Implementation Notes:</b>
+*   - The ring of entries is an array allocated once, in the constructor.
+*   - Messages logged via the Logger are recorded as a lightweight Record
+*     of the Logger, log level, time, thread name and raw message.  The
+*     rest of the Logger.Entry (formatted date and time, user info and
+*     redacted message) is created only when the entry is retrieved or
+*     dumped, so that recording the many messages at levels that no other
+*     LoggerTarget accepts costs little more than an allocation.  The
+*     memory usage fields of such entries are not recorded, and show as 0.
+*   - Each call to log() claims the next slot of the ring via an atomic
+*     increment, and stores the entry via an atomic write, so concurrent
+*     threads never wait on a lock to record an entry.
+*   - A dump concurrent with heavy logging may include a few entries that
+*     are newer than the rest, where the ring wrapped around during the
+*     dump.  Entries are never torn or lost for other reasons.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see     Logger
+******************************************************************************/
+public class FlightRecorderLoggerTarget implements Logger.LoggerTarget
+{
+
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Other constants.
+    //--
+    public static final int intMAX_CAPACITY = 1 << 30;
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+    private volatile Logger.LoggerTarget m_dumpOnErrorTarget = null;
+
+    //--
+    //-- Internal instance variables
+    //--
+    private final AtomicReferenceArray m_arrEntries;
+    private final int                  m_intMask;
+    private final AtomicLong           m_lngNextSequence    = new AtomicLong();
+    private final AtomicLong           m_lngDumpedOnErrorTo = new AtomicLong();
+
+    /**************************************************************************
+    * This class holds the fields of a message recorded via record(), from
+    * which a Logger.Entry is created when the message is retrieved.
+    **************************************************************************/
+    private static class Record
+    {
+        private final Logger m_logger;
+        private final long   m_lngMillis;
+        private final String m_strThreadName;
+        private final int    m_intLogLevel;
+        private final String m_strMsg;
+        private Record(Logger logger,
+                       long   lngMillis,
+                       String strThreadName,
+                       int    intLogLevel,
+                       String strMsg)
+        {
+            m_logger        = logger;
+            m_lngMillis     = lngMillis;
+            m_strThreadName = strThreadName;
+            m_intLogLevel   = intLogLevel;
+            m_strMsg        = strMsg;
+        }
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  intCapacity    The number of entries to keep, from 1 to
+    *                       intMAX_CAPACITY.  Rounded up to a power of 2.
+    *@throws IllegalArgumentException
+    *                       When intCapacity is out of range.
+    **************************************************************************/
+    public FlightRecorderLoggerTarget(int intCapacity)
+    {
+        if (intCapacity < 1 || intCapacity > intMAX_CAPACITY)
+        {
+            throw new IllegalArgumentException
+                        ("Capacity " + intCapacity
+                         + " is not from 1 to " + intMAX_CAPACITY + ".");
+        }
+        int intSize = 1;
+        while (intSize < intCapacity)
+        {
+            intSize <<= 1;
+        }
+        m_arrEntries = new AtomicReferenceArray(intSize);
+        m_intMask    = intSize - 1;
+    }
+
+    /**************************************************************************
+    * Get the number of entries kept.
+    *@return            The capacity.
+    **************************************************************************/
+    public int getCapacity()
+    {
+        return m_arrEntries.length();
+    }
+
+    /**************************************************************************
+    * Set the LoggerTarget to write the recorded entries to each time an
+    * error is logged.
+    * Default = null, meaning no automatic dump.
+    *@param  target     The new LoggerTarget, or null.
+    **************************************************************************/
+    public void setDumpOnErrorTarget(Logger.LoggerTarget target)
+    {
+        m_dumpOnErrorTarget = target;
+    }
+
+    /**************************************************************************
+    * Get the LoggerTarget written to each time an error is logged.
+    *@return            The LoggerTarget, or null.
+    **************************************************************************/
+    public Logger.LoggerTarget getDumpOnErrorTarget()
+    {
+        return m_dumpOnErrorTarget;
+    }
+
+    /**************************************************************************
+    * Record the log entry in the ring, replacing the oldest entry if the
+    * ring is full.
+    *@param  entry      The log entry to record.
+    **************************************************************************/
+    public void log(Logger.Entry entry)
+    {
+        long lngSequence = m_lngNextSequence.getAndIncrement();
+        m_arrEntries.set((int)lngSequence & m_intMask, entry);
+    }
+
+    /**************************************************************************
+    * Record a message logged via the Logger, replacing the oldest entry if
+    * the ring is full.  Called by Logger.log() for every message, so only
+    * the fields that cannot be recovered later are captured here.
+    *@param  logger      The Logger the message was logged to.
+    *@param  intLogLevel Level at which the message was logged.
+    *@param  strMsg      The message, not yet redacted.
+    **************************************************************************/
+    void record(Logger logger, int intLogLevel, String strMsg)
+    {
+        long lngSequence = m_lngNextSequence.getAndIncrement();
+        m_arrEntries.set((int)lngSequence & m_intMask,
+                         new Record(logger,
+                                    System.currentTimeMillis(),
+                                    Thread.currentThread().getName(),
+                                    intLogLevel,
+                                    strMsg));
+    }
+
+    /**************************************************************************
+    * Get the Logger.Entry for an element of the ring, creating it from the
+    * Record, if necessary.
+    *@param  obj        The Logger.Entry or Record.
+    *@return            The Logger.Entry.
+    **************************************************************************/
+    private static Logger.Entry toEntry(Object obj)
+    {
+        if (obj instanceof Record)
+        {
+            Record record = (Record)obj;
+            return record.m_logger.createEntry(record.m_lngMillis,
+                                               record.m_strThreadName,
+                                               null,
+                                               "0",
+                                               "0",
+                                               record.m_intLogLevel,
+                                               record.m_strMsg);
+        }
+        return (Logger.Entry)obj;
+    }
+
+    /**************************************************************************
+    * Get the recorded entries starting at the specified sequence number, or
+    * at the oldest one still in the ring, if newer.
+    *@param  lngFrom    The sequence number of the first entry wanted.
+    *@param  lngTo      The sequence number after the last entry wanted.
+    *@return            The entries, oldest first.
+    **************************************************************************/
+    private Logger.Entry[] getEntries(long lngFrom, long lngTo)
+    {
+        lngFrom = Math.max(lngFrom, lngTo - m_arrEntries.length());
+        Logger.Entry[] arrEntries = new Logger.Entry[(int)(lngTo - lngFrom)];
+        int intCount = 0;
+        for (long lng = lngFrom; lng < lngTo; lng++)
+        {
+            Object obj = m_arrEntries.get((int)lng & m_intMask);
+            //-- null if the slot was claimed but not yet written on the
+            //-- first pass around the ring.
+            if (obj != null)
+            {
+                arrEntries[intCount++] = toEntry(obj);
+            }
+        }
+        if (intCount < arrEntries.length)
+        {
+            Logger.Entry[] arrTrimmed = new Logger.Entry[intCount];
+            System.arraycopy(arrEntries, 0, arrTrimmed, 0, intCount);
+            arrEntries = arrTrimmed;
+        }
+        return arrEntries;
+    }
+
+    /**************************************************************************
+    * Get all of the recorded entries.
+    *@return            The entries, oldest first.
+    **************************************************************************/
+    public Logger.Entry[] getEntries()
+    {
+        return getEntries(0, m_lngNextSequence.get());
+    }
+
+    /**************************************************************************
+    * Write all of the recorded entries to the LoggerTarget.
+    *@param  target     The LoggerTarget to write to.
+    *@throws Exception  When the LoggerTarget throws an exception.
+    **************************************************************************/
+    public void dump(Logger.LoggerTarget target)
+                        throws Exception
+    {
+        Logger.Entry[] arrEntries = getEntries();
+        for (int i = 0; i < arrEntries.length; i++)
+        {
+            target.log(arrEntries[i]);
+        }
+    }
+
+    /**************************************************************************
+    * Write all of the recorded entries to the Writer, as formatted lines.
+    *@param  writer         The Writer to write to.
+    *@throws IOException    When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void dump(Writer writer)
+                        throws IOException
+    {
+        Logger.Entry[] arrEntries = getEntries();
+        for (int i = 0; i < arrEntries.length; i++)
+        {
+            writer.write(arrEntries[i].getFormattedLogLine());
+            writer.write("\n");
+        }
+        writer.flush();
+    }
+
+    /**************************************************************************
+    * Write the entries recorded since the previous call to this method to
+    * the dump-on-error target, if any, suppressing all possible errors.
+    * Called by Logger.logErrorSafely().
+    **************************************************************************/
+    public void dumpOnError()
+    {
+        Logger.LoggerTarget target = m_dumpOnErrorTarget;
+        if (target == null)
+        {
+            return;
+        }
+        try
+        {
+            long lngTo = m_lngNextSequence.get();
+            long lngFrom = m_lngDumpedOnErrorTo.getAndSet(lngTo);
+            if (lngFrom >= lngTo)
+            {
+                return;
+            }
+            Logger.Entry[] arrEntries = getEntries(lngFrom, lngTo);
+            for (int i = 0; i < arrEntries.length; i++)
+            {
+                target.log(arrEntries[i]);
+            }
+        }
+        catch (Throwable eSuppressed)
+        {
+            //-- Suppress all errors.
+        }
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+                Logger logger = new Logger();
+                Logger.WriterLoggerTarget target =
+                        new Logger.WriterLoggerTarget
+                                (new PrintWriter(System.out));
+                target.setShowDynamicFields(false);
+                logger.addTarget(target);
+                logger.setLogLevel(1);
+                FlightRecorderLoggerTarget recorder
+                                    = new FlightRecorderLoggerTarget(3);
+                logger.setFlightRecorder(recorder);
+                System.out.println ("   Capacity (4) = " + recorder.getCapacity());
+                System.out.println ("   Max enabled log level (1) = "
+                                    + logger.getMaxEnabledLogLevel());
+                System.out.println ("   Level 9 enabled (true) = "
+                                    + logger.isLogLevelEnabled(9));
+                try
+                {
+                    new FlightRecorderLoggerTarget((1 << 30) + 1);
+                    System.out.println ("   Huge capacity: Failure!");
+                }
+                catch (IllegalArgumentException e)
+                {
+                    System.out.println ("   Huge capacity: Success!");
+                }
+
+                System.out.println ("   Logging 6 entries at levels 1-3...");
+                for (int i = 1; i <= 6; i++)
+                {
+                    logger.log(1 + i % 3, "Entry " + i);
+                }
+
+                System.out.println ("   Dumping (entries 3-6)...");
+                recorder.dump(new PrintWriter(System.out));
+
+                System.out.println ("   Logging from 4 threads...");
+                final Logger loggerFinal = logger;
+                Thread[] arrThreads = new Thread[4];
+                for (int i = 0; i < arrThreads.length; i++)
+                {
+                    arrThreads[i] = new Thread()
+                    {
+                        public void run()
+                        {
+                            for (int j = 0; j < 10000; j++)
+                            {
+                                loggerFinal.log(5, "Thread entry " + j);
+                            }
+                        }
+                    };
+                    arrThreads[i].start();
+                }
+                for (int i = 0; i < arrThreads.length; i++)
+                {
+                    arrThreads[i].join();
+                }
+                System.out.println ("   Entries kept (4) = "
+                                    + recorder.getEntries().length);
+
+                System.out.println ("   Dumping on error...");
+                recorder.setDumpOnErrorTarget(target);
+                logger.log(2, "Detail before the error");
+                Logger.logErrorSafely(logger, 1, "ERROR Failure", null);
+                System.out.println ("   Second error dumps only new entries...");
+                Logger.logErrorSafely(logger, 1, "ERROR Failure 2", null);
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
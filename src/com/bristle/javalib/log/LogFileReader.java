@@ -0,0 +1,1384 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Writer;
+import java.io.PrintWriter;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import com.bristle.javalib.util.GetOpt;
+
+// LogFileReader
+/******************************************************************************
+* This class reads log files written by Logger.FilenameLoggerTarget, finding
+* the log lines in a time range, optionally only those of one thread and/or
+* up to a maximum log level, without reading the entire file.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*       LogFileReader reader = new LogFileReader("/my/log/file.log");
+*       reader.query(lngFromMillis,
+*                    lngToMillis,
+*                    "http-8080-3",
+*                    3,
+*                    new PrintWriter(System.out));
+*
+*   - To process each matching line, rather than writing it:
+*       reader.query(lngFromMillis,
+*                    lngToMillis,
+*                    null,
+*                    LogFileReader.intANY_LOG_LEVEL,
+*                    new LogFileReader.RecordHandler()
+*                    {
+*                        public boolean handleRecord(LogFileReader.Record record)
+*                        {
+*                            ...
+*                            return true;
+*                        }
+*                    });
+*
+*   - To query a log file from the command line:
+*       java com.bristle.javalib.log.LogFileReader$QueryTool
+*               [-from "2012/03/04 13:00:00"] [-to "2012/03/04 13:05:00"]
+*               [-thread http-8080-3] [-level 3] /my/log/file.log
+*     where -from and -to are in the format of the log lines, or are
+*     milliseconds since 1970.
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*   - The log file is only ever appended to, or replaced by a new file, as
+*     done by Logger.FilenameLoggerTarget and by typical log rotation.
+*   - The AppName and AppVersion fields of the log lines contain no spaces.
+*     The Username field may contain anything.
+*<b>Effects:</b>
+*   - Reads the log file.
+*   - Creates or updates the index file, named as the log file with an
+*     added ".idx" suffix.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*   - Each query first brings the index up to date, reading only the part
+*     of the log file written since the index was last updated, or the
+*     entire log file if it was replaced since then.
+*   - Times are the Millisecs field of each log line, not the formatted
+*     date and time, so they do not depend on the time zone.
+*   - Lines that do not have the format written by Logger.Entry
+*     getFormattedLogLine(), such as those written to the file by other
+*     means, are included in the results only if they follow a matching
+*     line.
+*   - A partial last line, still being written, is ignored.
+*   - Lines are decoded with the Encoding property, which defaults to the
+*     platform default encoding used by Logger.FilenameLoggerTarget.
+*   - Failure to write the index file is ignored.  The index is then kept
+*     only in memory, for the life of this LogFileReader.
+*<b>Implementation Notes:</b>
+*   - The log file is read via memory-mapped windows of at most 64MB, so
+*     files larger than the address space can be read, and so lines are
+*     parsed as bytes, without first decoding them to Strings.  Only the
+*     matching lines are decoded.
+*   - The index is sparse, with one entry per block of about 64KB of log
+*     lines.  Each entry holds the file offset of the block, the minimum
+*     and maximum Millisecs of its lines, their minimum log level, and a
+*     64-bit Bloom filter of their thread names.  A query binary searches
+*     the index for the first and last blocks that can contain lines in
+*     the time range, and skips any blocks between them that cannot
+*     contain matching lines, so it reads only the blocks that can.
+*   - Lines appended since the index was last updated are added to the
+*     last block of the index, until it is full, rather than to a new 
+*     block, so that frequent updates do not fill the index with small
+*     blocks.
+*   - Minimum and maximum Millisecs, rather than only the first Millisecs,
+*     are kept per block, because concurrent threads do not always append
+*     their lines in Millisecs order.
+*   - Memory use is bounded by the size of the index, the memory-mapped
+*     window, and the longest line, regardless of the size of the log
+*     file or the number of matching lines.
+*<b>Portability Issues:</b>
+*   - Java provides no way to explicitly unmap a memory-mapped file, so on
+*     some platforms, such as Windows, the log file may not be deletable or
+*     renamable until the memory-mapped windows are garbage collected.
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see     Logger.FilenameLoggerTarget
+******************************************************************************/
+public class LogFileReader
+{
+
+    //--
+    //-- Constants for readability
+    //--
+
+    /**************************************************************************
+    * Log level that matches all log levels.
+    **************************************************************************/
+    public static final int intANY_LOG_LEVEL = Integer.MAX_VALUE;
+
+    /**************************************************************************
+    * Default approximate size in bytes of the log lines of each index entry.
+    **************************************************************************/
+    public static final int intDEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+    private final String m_strFilename;
+    private String       m_strIndexFilename;
+    private int          m_intBlockSize       = intDEFAULT_BLOCK_SIZE;
+    private int          m_intLastBlocksRead  = 0;
+    private String       m_strEncoding        = Charset.defaultCharset().name();
+
+    //--
+    //-- Internal instance variables
+    //--
+
+    //-- Parallel arrays of index entries, one per block.
+    private int          m_intBlockCount      = 0;
+    private long[]       m_arrOffsets         = new long[64];
+    private long[]       m_arrMinMillis       = new long[64];
+    private long[]       m_arrMaxMillis       = new long[64];
+    private int[]        m_arrMinLevels       = new int[64];
+    private long[]       m_arrThreadBits      = new long[64];
+
+    //-- Maximum of m_arrMaxMillis over each block and all previous blocks,
+    //-- and minimum of m_arrMinMillis over each block and all later blocks.
+    //-- Both are non-decreasing, so they can be binary searched.
+    private long[]       m_arrMaxMillisSoFar  = new long[64];
+    private long[]       m_arrMinMillisAfter  = null;
+
+    private long         m_lngIndexedLength   = 0;
+    private int          m_intHeadLength      = 0;
+    private long         m_lngHeadHash        = 0;
+    private boolean      m_blnIndexLoaded     = false;
+
+    //--
+    //-- Local constants
+    //--
+    private static final int    intINDEX_MAGIC     = 0x424C4958; //-- "BLIX"
+    private static final int    intINDEX_VERSION   = 1;
+    private static final int    intMAX_HEAD_LENGTH = 256;
+    private static final int    intMAX_MAP_SIZE    = 64 * 1024 * 1024;
+    private static final String strINDEX_SUFFIX    = ".idx";
+    private static final String strDATE_FORMAT     = "yyyy/MM/dd HH:mm:ss";
+    //-- Spaces before the Username:  2 in the DateTime, and 1 before each
+    //-- of the AppName, AppVersion, and Username.
+    private static final int    intSPACES_BEFORE_USERNAME = 5;
+
+    /**************************************************************************
+    * This class represents one line of the log file.
+    **************************************************************************/
+    public static class Record
+    {
+        private final long   m_lngOffset;
+        private final long   m_lngMillis;
+        private final String m_strThreadName;
+        private final int    m_intLogLevel;
+        private final String m_strLine;
+        private Record(long   lngOffset,
+                       long   lngMillis,
+                       String strThreadName,
+                       int    intLogLevel,
+                       String strLine)
+        {
+            m_lngOffset     = lngOffset;
+            m_lngMillis     = lngMillis;
+            m_strThreadName = strThreadName;
+            m_intLogLevel   = intLogLevel;
+            m_strLine       = strLine;
+        }
+        public long   getOffset()     { return m_lngOffset;     }
+        public long   getMillis()     { return m_lngMillis;     }
+        public String getThreadName() { return m_strThreadName; }
+        public int    getLogLevel()   { return m_intLogLevel;   }
+        public String getLine()       { return m_strLine;       }
+    }
+
+    /**************************************************************************
+    * This interface must be implemented by any class that processes the
+    * records found by query().
+    **************************************************************************/
+    public static interface RecordHandler
+    {
+        /**********************************************************************
+        * Process the record.
+        *@param  record         The record.
+        *@return                true to continue the query; false to stop it.
+        *@throws IOException    When an error occurs processing the record.
+        **********************************************************************/
+        public boolean handleRecord(Record record) throws IOException;
+    }
+
+    /**************************************************************************
+    * This class holds the fields parsed from the bytes of a log line.
+    **************************************************************************/
+    private static class ParsedLine
+    {
+        private long m_lngMillis;
+        private int  m_intLogLevel;
+        private int  m_intThreadStart;
+        private int  m_intThreadEnd;
+
+        /**********************************************************************
+        * Parse the bytes of a log line in the format written by Logger.Entry
+        * getFormattedLogLine():
+        *   DateTime AppName AppVersion Username [ThreadName] Millisecs
+        *   UsedMem TotalMem LogLevel . . . Msg
+        * The fields are found by position, since the Username may contain
+        * spaces and brackets.  The Username starts after the fixed number
+        * of spaces in the DateTime, AppName and AppVersion.  The thread 
+        * name ends at the first "] " after that which is followed by the 3
+        * numeric fields and the log level, and starts after the last " ["
+        * before that, which ends the Username.
+        *@param  abLine     The bytes of the line.
+        *@param  intLength  The number of bytes.
+        *@return            true if the fields were found; false otherwise.
+        **********************************************************************/
+        private boolean parse(byte[] abLine, int intLength)
+        {
+            int intUsernameStart = -1;
+            int intSpaces        = 0;
+            for (int i = 0; i < intLength; i++)
+            {
+                if (abLine[i] == ' ' && ++intSpaces == intSPACES_BEFORE_USERNAME)
+                {
+                    intUsernameStart = i + 1;
+                    break;
+                }
+            }
+            if (intUsernameStart < 0)
+            {
+                return false;
+            }
+            for (int i = intUsernameStart; i < intLength - 1; i++)
+            {
+                if (abLine[i] == ']' && abLine[i + 1] == ' '
+                    && parseNumbers(abLine, i + 2, intLength))
+                {
+                    for (int j = i - 2; j >= intUsernameStart - 1; j--)
+                    {
+                        if (abLine[j] == ' ' && abLine[j + 1] == '[')
+                        {
+                            m_intThreadStart = j + 2;
+                            m_intThreadEnd   = i;
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**********************************************************************
+        * Parse the Millisecs, UsedMem, TotalMem and LogLevel fields, setting
+        * m_lngMillis and m_intLogLevel.
+        *@param  abLine     The bytes of the line.
+        *@param  intPos     The position of the Millisecs field.
+        *@param  intLength  The number of bytes.
+        *@return            true if the fields were found; false otherwise.
+        **********************************************************************/
+        private boolean parseNumbers(byte[] abLine, int intPos, int intLength)
+        {
+            long lngMillis = 0;
+            long lngLevel  = 0;
+            for (int intField = 0; intField < 4; intField++)
+            {
+                if (intField == 3 && intPos < intLength && abLine[intPos] == ' ')
+                {
+                    //-- Log levels less than 10 are padded with a space.
+                    intPos++;
+                }
+                int intDigits = 0;
+                long lngValue = 0;
+                while (intPos < intLength
+                       && abLine[intPos] >= '0' && abLine[intPos] <= '9'
+                       && intDigits < 18)
+                {
+                    lngValue = lngValue * 10 + (abLine[intPos] - '0');
+                    intPos++;
+                    intDigits++;
+                }
+                if (intDigits == 0)
+                {
+                    return false;
+                }
+                if (intPos < intLength)
+                {
+                    if (abLine[intPos] != ' ')
+                    {
+                        return false;
+                    }
+                    intPos++;
+                }
+                else if (intField < 3)
+                {
+                    return false;
+                }
+                if (intField == 0)
+                {
+                    lngMillis = lngValue;
+                }
+                else if (intField == 3)
+                {
+                    lngLevel = lngValue;
+                }
+            }
+            m_lngMillis   = lngMillis;
+            m_intLogLevel = (int)Math.min(lngLevel, Integer.MAX_VALUE - 1);
+            return true;
+        }
+    }
+
+    /**************************************************************************
+    * This class reads the lines of a range of the log file via
+    * memory-mapped windows.
+    **************************************************************************/
+    private static class LineScanner
+    {
+        private final FileChannel m_channel;
+        private MappedByteBuffer  m_buffer         = null;
+        private long              m_lngBufferStart = 0;
+        private long              m_lngEnd         = 0;
+        private long              m_lngNext        = 0;
+        private long              m_lngLineStart   = 0;
+        private byte[]            m_abLine         = new byte[1024];
+        private int               m_intLineLength  = 0;
+        private boolean           m_blnTerminated  = false;
+
+        private LineScanner(FileChannel channel)
+        {
+            m_channel = channel;
+        }
+
+        /**********************************************************************
+        * Position the scanner to read the lines from one offset to another.
+        *@param  lngFrom    The offset of the first line.
+        *@param  lngTo      The offset after the last line.
+        **********************************************************************/
+        private void seek(long lngFrom, long lngTo)
+        {
+            m_lngNext = lngFrom;
+            m_lngEnd  = lngTo;
+        }
+
+        /**********************************************************************
+        * Read the next line into m_abLine, without the line terminator.
+        *@return                false at the end of the range; true otherwise.
+        *@throws IOException    When an error occurs reading the file.
+        **********************************************************************/
+        private boolean nextLine() throws IOException
+        {
+            if (m_lngNext >= m_lngEnd)
+            {
+                return false;
+            }
+            m_lngLineStart  = m_lngNext;
+            m_intLineLength = 0;
+            m_blnTerminated = false;
+            long lngPos = m_lngNext;
+            while (lngPos < m_lngEnd)
+            {
+                if (m_buffer == null
+                    || lngPos < m_lngBufferStart
+                    || lngPos >= m_lngBufferStart + m_buffer.limit())
+                {
+                    long lngSize = Math.min(intMAX_MAP_SIZE,
+                                            m_channel.size() - lngPos);
+                    m_buffer = m_channel.map(FileChannel.MapMode.READ_ONLY,
+                                             lngPos,
+                                             lngSize);
+                    m_lngBufferStart = lngPos;
+                }
+                int i = (int)(lngPos - m_lngBufferStart);
+                int intLimit = (int)Math.min(m_buffer.limit(),
+                                             m_lngEnd - m_lngBufferStart);
+                while (i < intLimit)
+                {
+                    byte b = m_buffer.get(i++);
+                    if (b == '\n')
+                    {
+                        m_blnTerminated = true;
+                        break;
+                    }
+                    if (m_intLineLength == m_abLine.length)
+                    {
+                        byte[] abNew = new byte[m_abLine.length * 2];
+                        System.arraycopy(m_abLine, 0, abNew, 0, m_intLineLength);
+                        m_abLine = abNew;
+                    }
+                    m_abLine[m_intLineLength++] = b;
+                }
+                lngPos = m_lngBufferStart + i;
+                if (m_blnTerminated)
+                {
+                    break;
+                }
+            }
+            m_lngNext = lngPos;
+            if (m_intLineLength > 0 && m_abLine[m_intLineLength - 1] == '\r')
+            {
+                m_intLineLength--;
+            }
+            return true;
+        }
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  strFilename    The name of the log file.
+    **************************************************************************/
+    public LogFileReader(String strFilename)
+    {
+        m_strFilename      = strFilename;
+        m_strIndexFilename = strFilename + strINDEX_SUFFIX;
+    }
+
+    /**************************************************************************
+    * Get the name of the log file.
+    *@return            The file name.
+    **************************************************************************/
+    public String getFilename()
+    {
+        return m_strFilename;
+    }
+
+    /**************************************************************************
+    * Set the name of the index file, for example, when the directory of the
+    * log file is not writable.
+    * Default = the name of the log file with an added ".idx" suffix.
+    *@param  strIndexFilename   The file name.
+    **************************************************************************/
+    public void setIndexFilename(String strIndexFilename)
+    {
+        m_strIndexFilename = strIndexFilename;
+        m_blnIndexLoaded   = false;
+    }
+
+    /**************************************************************************
+    * Get the name of the index file.
+    *@return            The file name.
+    **************************************************************************/
+    public String getIndexFilename()
+    {
+        return m_strIndexFilename;
+    }
+
+    /**************************************************************************
+    * Set the approximate size in bytes of the log lines of each index entry,
+    * for the parts of the log file not yet indexed.  Smaller blocks make
+    * the index larger, and queries read less of the log file.
+    * Default = intDEFAULT_BLOCK_SIZE.
+    *@param  intBlockSize   The size in bytes.
+    **************************************************************************/
+    public void setBlockSize(int intBlockSize)
+    {
+        m_intBlockSize = Math.max(1, intBlockSize);
+    }
+
+    /**************************************************************************
+    * Get the approximate size in bytes of the log lines of each index entry.
+    *@return            The size in bytes.
+    **************************************************************************/
+    public int getBlockSize()
+    {
+        return m_intBlockSize;
+    }
+
+    /**************************************************************************
+    * Set the character encoding of the log file, used to encode the thread
+    * name of a query and to decode the matching lines.
+    * Default = the platform default encoding, which is the encoding written
+    * by Logger.FilenameLoggerTarget.
+    *@param  strEncoding    The encoding, like "UTF-8" or "ISO-8859-1".
+    **************************************************************************/
+    public void setEncoding(String strEncoding)
+    {
+        m_strEncoding = strEncoding;
+    }
+
+    /**************************************************************************
+    * Get the character encoding of the log file.
+    *@return            The encoding.
+    **************************************************************************/
+    public String getEncoding()
+    {
+        return m_strEncoding;
+    }
+
+    /**************************************************************************
+    * Get the number of index entries.
+    *@return            The number of entries.
+    **************************************************************************/
+    public int getBlockCount()
+    {
+        return m_intBlockCount;
+    }
+
+    /**************************************************************************
+    * Get the number of blocks of the log file read by the most recent query.
+    *@return            The number of blocks.
+    **************************************************************************/
+    public int getLastBlocksRead()
+    {
+        return m_intLastBlocksRead;
+    }
+
+    /**************************************************************************
+    * Compute the 64-bit FNV-1a hash of a range of bytes.
+    *@param  ab         The bytes.
+    *@param  intStart   The index of the first byte.
+    *@param  intEnd     The index after the last byte.
+    *@return            The hash.
+    **************************************************************************/
+    private static long hash(byte[] ab, int intStart, int intEnd)
+    {
+        long lngHash = 0xcbf29ce484222325L;
+        for (int i = intStart; i < intEnd; i++)
+        {
+            lngHash ^= (ab[i] & 0xff);
+            lngHash *= 0x100000001b3L;
+        }
+        return lngHash;
+    }
+
+    /**************************************************************************
+    * Get the bits of the Bloom filter of thread names that are set for a
+    * thread name.
+    *@param  ab         The bytes of the thread name.
+    *@param  intStart   The index of the first byte.
+    *@param  intEnd     The index after the last byte.
+    *@return            The bits.
+    **************************************************************************/
+    private static long getThreadBits(byte[] ab, int intStart, int intEnd)
+    {
+        long lngHash = hash(ab, intStart, intEnd);
+        return (1L << (lngHash & 63)) | (1L << ((lngHash >>> 6) & 63));
+    }
+
+    /**************************************************************************
+    * Compute the hash of the first bytes of the log file, used to detect
+    * that it was replaced by a new file.
+    *@param  file           The log file.
+    *@param  intLength      The number of bytes to hash.
+    *@return                The hash.
+    *@throws IOException    When an error occurs reading the file.
+    **************************************************************************/
+    private static long hashHead(RandomAccessFile file, int intLength)
+                throws IOException
+    {
+        byte[] abHead = new byte[intLength];
+        file.seek(0);
+        file.readFully(abHead);
+        return hash(abHead, 0, intLength);
+    }
+
+    /**************************************************************************
+    * Discard the index.
+    **************************************************************************/
+    private void clearIndex()
+    {
+        m_intBlockCount     = 0;
+        m_lngIndexedLength  = 0;
+        m_intHeadLength     = 0;
+        m_lngHeadHash       = 0;
+        m_arrMinMillisAfter = null;
+    }
+
+    /**************************************************************************
+    * Add an entry to the index.
+    **************************************************************************/
+    private void addBlock(long lngOffset,
+                          long lngMinMillis,
+                          long lngMaxMillis,
+                          int  intMinLevel,
+                          long lngThreadBits)
+    {
+        if (m_intBlockCount == m_arrOffsets.length)
+        {
+            int intNewSize = m_arrOffsets.length * 2;
+            m_arrOffsets        = grow(m_arrOffsets,        intNewSize);
+            m_arrMinMillis      = grow(m_arrMinMillis,      intNewSize);
+            m_arrMaxMillis      = grow(m_arrMaxMillis,      intNewSize);
+            m_arrThreadBits     = grow(m_arrThreadBits,     intNewSize);
+            m_arrMaxMillisSoFar = grow(m_arrMaxMillisSoFar, intNewSize);
+            int[] arrMinLevels = new int[intNewSize];
+            System.arraycopy(m_arrMinLevels, 0, arrMinLevels, 0, m_intBlockCount);
+            m_arrMinLevels = arrMinLevels;
+        }
+        int i = m_intBlockCount++;
+        m_arrOffsets[i]        = lngOffset;
+        m_arrMinMillis[i]      = lngMinMillis;
+        m_arrMaxMillis[i]      = lngMaxMillis;
+        m_arrMinLevels[i]      = intMinLevel;
+        m_arrThreadBits[i]     = lngThreadBits;
+        m_arrMaxMillisSoFar[i] = (i == 0)
+                                 ? lngMaxMillis
+                                 : Math.max(m_arrMaxMillisSoFar[i - 1],
+                                            lngMaxMillis);
+        m_arrMinMillisAfter    = null;
+    }
+
+    /**************************************************************************
+    * Copy an array to a new larger array.
+    **************************************************************************/
+    private static long[] grow(long[] arr, int intNewSize)
+    {
+        long[] arrNew = new long[intNewSize];
+        System.arraycopy(arr, 0, arrNew, 0, arr.length);
+        return arrNew;
+    }
+
+    /**************************************************************************
+    * Load the index from the index file, if it exists and is valid.
+    **************************************************************************/
+    private void loadIndex()
+    {
+        clearIndex();
+        File file = new File(m_strIndexFilename);
+        if (!file.exists())
+        {
+            return;
+        }
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream
+                                            (new FileInputStream(file)));
+            if (in.readInt() != intINDEX_MAGIC
+                || in.readInt() != intINDEX_VERSION)
+            {
+                return;
+            }
+            long lngIndexedLength = in.readLong();
+            int  intHeadLength    = in.readInt();
+            long lngHeadHash      = in.readLong();
+            int  intCount         = in.readInt();
+            for (int i = 0; i < intCount; i++)
+            {
+                addBlock(in.readLong(),
+                         in.readLong(),
+                         in.readLong(),
+                         in.readInt(),
+                         in.readLong());
+            }
+            m_lngIndexedLength = lngIndexedLength;
+            m_intHeadLength    = intHeadLength;
+            m_lngHeadHash      = lngHeadHash;
+        }
+        catch (IOException e)
+        {
+            //-- Ignore an unreadable or truncated index file.  It is rebuilt.
+            clearIndex();
+        }
+        finally
+        {
+            try { if (in != null) in.close(); } catch (IOException e) { }
+        }
+    }
+
+    /**************************************************************************
+    * Save the index to the index file, ignoring all errors.
+    **************************************************************************/
+    private void saveIndex()
+    {
+        File fileTemp = new File(m_strIndexFilename + ".tmp");
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream(new BufferedOutputStream
+                                            (new FileOutputStream(fileTemp)));
+            out.writeInt(intINDEX_MAGIC);
+            out.writeInt(intINDEX_VERSION);
+            out.writeLong(m_lngIndexedLength);
+            out.writeInt(m_intHeadLength);
+            out.writeLong(m_lngHeadHash);
+            out.writeInt(m_intBlockCount);
+            for (int i = 0; i < m_intBlockCount; i++)
+            {
+                out.writeLong(m_arrOffsets[i]);
+                out.writeLong(m_arrMinMillis[i]);
+                out.writeLong(m_arrMaxMillis[i]);
+                out.writeInt (m_arrMinLevels[i]);
+                out.writeLong(m_arrThreadBits[i]);
+            }
+            out.close();
+            out = null;
+            File file = new File(m_strIndexFilename);
+            file.delete();
+            if (!fileTemp.renameTo(file))
+            {
+                fileTemp.delete();
+            }
+        }
+        catch (IOException e)
+        {
+            //-- Ignore.  The index is kept in memory.
+            try { if (out != null) out.close(); } catch (IOException e2) { }
+            fileTemp.delete();
+        }
+    }
+
+    /**************************************************************************
+    * Bring the index up to date with the log file, indexing only the lines
+    * appended since the index was last updated, unless the log file was
+    * replaced, and saving the index to the index file.
+    *@throws IOException    When an error occurs reading the log file.
+    **************************************************************************/
+    public synchronized void updateIndex() throws IOException
+    {
+        if (!m_blnIndexLoaded)
+        {
+            loadIndex();
+            m_blnIndexLoaded = true;
+        }
+        RandomAccessFile file = new RandomAccessFile(m_strFilename, "r");
+        try
+        {
+            long lngLength = file.length();
+            if (lngLength < m_lngIndexedLength
+                || (m_intHeadLength > 0
+                    && hashHead(file, m_intHeadLength) != m_lngHeadHash))
+            {
+                //-- The log file was replaced.
+                clearIndex();
+            }
+            if (lngLength == m_lngIndexedLength)
+            {
+                return;
+            }
+            if (m_intHeadLength < intMAX_HEAD_LENGTH)
+            {
+                m_intHeadLength = (int)Math.min(intMAX_HEAD_LENGTH, lngLength);
+                m_lngHeadHash   = hashHead(file, m_intHeadLength);
+            }
+            indexRange(file.getChannel(), m_lngIndexedLength, lngLength);
+        }
+        finally
+        {
+            file.close();
+        }
+        saveIndex();
+    }
+
+    /**************************************************************************
+    * Add entries to the index for the complete lines in a range of the log
+    * file.
+    *@param  channel        The FileChannel of the log file.
+    *@param  lngFrom        The offset of the first line.
+    *@param  lngTo          The offset after the last line.
+    *@throws IOException    When an error occurs reading the log file.
+    **************************************************************************/
+    private void indexRange(FileChannel channel, long lngFrom, long lngTo)
+                throws IOException
+    {
+        LineScanner scanner = new LineScanner(channel);
+        ParsedLine  parsed  = new ParsedLine();
+        scanner.seek(lngFrom, lngTo);
+        long lngBlockStart  = lngFrom;
+        long lngMinMillis   = Long.MAX_VALUE;
+        long lngMaxMillis   = Long.MIN_VALUE;
+        int  intMinLevel    = Integer.MAX_VALUE;
+        long lngThreadBits  = 0;
+        long lngIndexedTo   = lngFrom;
+        int  intLast        = m_intBlockCount - 1;
+        if (intLast >= 0
+            && lngFrom == m_lngIndexedLength
+            && lngFrom - m_arrOffsets[intLast] < m_intBlockSize)
+        {
+            //-- Remove the last block, which is not full, and continue it
+            //-- with the new lines.
+            lngBlockStart       = m_arrOffsets[intLast];
+            lngMinMillis        = m_arrMinMillis[intLast];
+            lngMaxMillis        = m_arrMaxMillis[intLast];
+            intMinLevel         = m_arrMinLevels[intLast];
+            lngThreadBits       = m_arrThreadBits[intLast];
+            m_intBlockCount     = intLast;
+            m_arrMinMillisAfter = null;
+        }
+        while (scanner.nextLine() && scanner.m_blnTerminated)
+        {
+            if (scanner.m_lngLineStart - lngBlockStart >= m_intBlockSize)
+            {
+                addBlock(lngBlockStart,
+                         lngMinMillis,
+                         lngMaxMillis,
+                         intMinLevel,
+                         lngThreadBits);
+                lngBlockStart = scanner.m_lngLineStart;
+                lngMinMillis  = Long.MAX_VALUE;
+                lngMaxMillis  = Long.MIN_VALUE;
+                intMinLevel   = Integer.MAX_VALUE;
+                lngThreadBits = 0;
+            }
+            if (parsed.parse(scanner.m_abLine, scanner.m_intLineLength))
+            {
+                lngMinMillis   = Math.min(lngMinMillis, parsed.m_lngMillis);
+                lngMaxMillis   = Math.max(lngMaxMillis, parsed.m_lngMillis);
+                intMinLevel    = Math.min(intMinLevel,  parsed.m_intLogLevel);
+                lngThreadBits |= getThreadBits(scanner.m_abLine,
+                                               parsed.m_intThreadStart,
+                                               parsed.m_intThreadEnd);
+            }
+            lngIndexedTo = scanner.m_lngNext;
+        }
+        if (lngIndexedTo > lngBlockStart)
+        {
+            addBlock(lngBlockStart,
+                     lngMinMillis,
+                     lngMaxMillis,
+                     intMinLevel,
+                     lngThreadBits);
+        }
+        m_lngIndexedLength = lngIndexedTo;
+    }
+
+    /**************************************************************************
+    * Compute m_arrMinMillisAfter, if not already computed.
+    **************************************************************************/
+    private void computeMinMillisAfter()
+    {
+        if (m_arrMinMillisAfter != null)
+        {
+            return;
+        }
+        long[] arr = new long[m_intBlockCount];
+        long lngMin = Long.MAX_VALUE;
+        for (int i = m_intBlockCount - 1; i >= 0; i--)
+        {
+            lngMin = Math.min(lngMin, m_arrMinMillis[i]);
+            arr[i] = lngMin;
+        }
+        m_arrMinMillisAfter = arr;
+    }
+
+    /**************************************************************************
+    * Find the index of the first element of a non-decreasing array that is
+    * greater than or equal to a value.
+    *@param  arr        The array.
+    *@param  intCount   The number of elements in use.
+    *@param  lngValue   The value.
+    *@return            The index, or intCount if there is none.
+    **************************************************************************/
+    private static int findFirstAtLeast(long[] arr, int intCount, long lngValue)
+    {
+        int intLow  = 0;
+        int intHigh = intCount;
+        while (intLow < intHigh)
+        {
+            int intMid = (intLow + intHigh) >>> 1;
+            if (arr[intMid] < lngValue)
+            {
+                intLow = intMid + 1;
+            }
+            else
+            {
+                intHigh = intMid;
+            }
+        }
+        return intLow;
+    }
+
+    /**************************************************************************
+    * Find the lines of the log file in a time range, optionally only those
+    * of one thread and/or up to a maximum log level, passing each to the
+    * RecordHandler, in the order they occur in the file.
+    *@param  lngFromMillis  The earliest time, in milliseconds since 1970.
+    *@param  lngToMillis    The latest time, in milliseconds since 1970.
+    *@param  strThreadName  The thread name, or null for all threads.
+    *@param  intMaxLogLevel The maximum log level, or intANY_LOG_LEVEL.
+    *@param  handler        The RecordHandler.
+    *@return                The number of lines passed to the RecordHandler.
+    *@throws IOException    When an error occurs reading the log file, or
+    *                       the RecordHandler throws it.
+    **************************************************************************/
+    public synchronized int query(long          lngFromMillis,
+                                  long          lngToMillis,
+                                  String        strThreadName,
+                                  int           intMaxLogLevel,
+                                  RecordHandler handler)
+                throws IOException
+    {
+        updateIndex();
+        m_intLastBlocksRead = 0;
+        computeMinMillisAfter();
+        int intFirst = findFirstAtLeast(m_arrMaxMillisSoFar,
+                                        m_intBlockCount,
+                                        lngFromMillis);
+        int intEnd   = (lngToMillis == Long.MAX_VALUE)
+                       ? m_intBlockCount
+                       : findFirstAtLeast(m_arrMinMillisAfter,
+                                          m_intBlockCount,
+                                          lngToMillis + 1);
+        if (intFirst >= intEnd)
+        {
+            return 0;
+        }
+
+        byte[] abThread      = null;
+        long   lngThreadBits = 0;
+        if (strThreadName != null)
+        {
+            abThread      = strThreadName.getBytes(m_strEncoding);
+            lngThreadBits = getThreadBits(abThread, 0, abThread.length);
+        }
+
+        int intCount = 0;
+        RandomAccessFile file = new RandomAccessFile(m_strFilename, "r");
+        try
+        {
+            LineScanner scanner = new LineScanner(file.getChannel());
+            ParsedLine  parsed  = new ParsedLine();
+            //-- Note:  The matching line last read, if any, is carried from
+            //--        each block to the next, since the unparsable lines 
+            //--        that follow it may continue into the next block, even
+            //--        a block that can contain no matching lines, or one 
+            //--        past the time range.
+            Record previous = null;
+            for (int i = intFirst; i < m_intBlockCount; i++)
+            {
+                boolean blnCanMatch = 
+                        i < intEnd
+                        && m_arrMinMillis[i] <= lngToMillis
+                        && m_arrMaxMillis[i] >= lngFromMillis
+                        && m_arrMinLevels[i] <= intMaxLogLevel
+                        && (m_arrThreadBits[i] & lngThreadBits) 
+                           == lngThreadBits;
+                if (!blnCanMatch && previous == null)
+                {
+                    if (i >= intEnd)
+                    {
+                        break;
+                    }
+                    continue;
+                }
+                m_intLastBlocksRead++;
+                long lngBlockEnd = (i + 1 < m_intBlockCount)
+                                   ? m_arrOffsets[i + 1]
+                                   : m_lngIndexedLength;
+                scanner.seek(m_arrOffsets[i], lngBlockEnd);
+                while (scanner.nextLine())
+                {
+                    byte[] abLine    = scanner.m_abLine;
+                    int    intLength = scanner.m_intLineLength;
+                    Record record    = null;
+                    if (parsed.parse(abLine, intLength))
+                    {
+                        if (!blnCanMatch)
+                        {
+                            //-- End of the lines continuing the previous 
+                            //-- block.
+                            previous = null;
+                            break;
+                        }
+                        if (parsed.m_lngMillis >= lngFromMillis
+                            && parsed.m_lngMillis <= lngToMillis
+                            && parsed.m_intLogLevel <= intMaxLogLevel
+                            && (abThread == null
+                                || equals(abThread,
+                                          abLine,
+                                          parsed.m_intThreadStart,
+                                          parsed.m_intThreadEnd)))
+                        {
+                            record = new Record
+                                (scanner.m_lngLineStart,
+                                 parsed.m_lngMillis,
+                                 new String(abLine,
+                                            parsed.m_intThreadStart,
+                                            parsed.m_intThreadEnd
+                                            - parsed.m_intThreadStart,
+                                            m_strEncoding),
+                                 parsed.m_intLogLevel,
+                                 new String(abLine, 0, intLength,
+                                            m_strEncoding));
+                        }
+                    }
+                    else if (previous != null)
+                    {
+                        //-- Unparsable line following a matching line.
+                        record = new Record(scanner.m_lngLineStart,
+                                            previous.getMillis(),
+                                            previous.getThreadName(),
+                                            previous.getLogLevel(),
+                                            new String(abLine, 0, intLength,
+                                                       m_strEncoding));
+                    }
+                    previous = record;
+                    if (record != null)
+                    {
+                        intCount++;
+                        if (!handler.handleRecord(record))
+                        {
+                            return intCount;
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            file.close();
+        }
+        return intCount;
+    }
+
+    /**************************************************************************
+    * Find the lines of the log file in a time range, optionally only those
+    * of one thread and/or up to a maximum log level, writing each to the
+    * Writer, in the order they occur in the file.
+    *@param  lngFromMillis  The earliest time, in milliseconds since 1970.
+    *@param  lngToMillis    The latest time, in milliseconds since 1970.
+    *@param  strThreadName  The thread name, or null for all threads.
+    *@param  intMaxLogLevel The maximum log level, or intANY_LOG_LEVEL.
+    *@param  writer         The Writer.
+    *@return                The number of lines written.
+    *@throws IOException    When an error occurs reading the log file or
+    *                       writing to the Writer.
+    **************************************************************************/
+    public int query(long   lngFromMillis,
+                     long   lngToMillis,
+                     String strThreadName,
+                     int    intMaxLogLevel,
+                     Writer writer)
+                throws IOException
+    {
+        final Writer writerFinal = writer;
+        int intCount = query(lngFromMillis,
+                             lngToMillis,
+                             strThreadName,
+                             intMaxLogLevel,
+                             new RecordHandler()
+                             {
+                                 public boolean handleRecord(Record record)
+                                            throws IOException
+                                 {
+                                     writerFinal.write(record.getLine());
+                                     writerFinal.write("\n");
+                                     return true;
+                                 }
+                             });
+        writer.flush();
+        return intCount;
+    }
+
+    /**************************************************************************
+    * Compare an array of bytes with a range of another.
+    *@param  ab         The array of bytes.
+    *@param  abOther    The other array of bytes.
+    *@param  intStart   The index of the first byte of the range.
+    *@param  intEnd     The index after the last byte of the range.
+    *@return            true if equal; false otherwise.
+    **************************************************************************/
+    private static boolean equals(byte[] ab,
+                                  byte[] abOther,
+                                  int    intStart,
+                                  int    intEnd)
+    {
+        if (ab.length != intEnd - intStart)
+        {
+            return false;
+        }
+        for (int i = 0; i < ab.length; i++)
+        {
+            if (ab[i] != abOther[intStart + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**************************************************************************
+    * Parse a time in the format of the DateTime field of the log lines,
+    * without the day of the week and optionally without the milliseconds,
+    * or as milliseconds since 1970.
+    *@param  strTime        The time.
+    *@return                The time in milliseconds since 1970.
+    *@throws ParseException When the time is not in either format.
+    **************************************************************************/
+    public static long parseTime(String strTime)
+                throws ParseException
+    {
+        strTime = strTime.trim();
+        try
+        {
+            return Long.parseLong(strTime);
+        }
+        catch (NumberFormatException e)
+        {
+            String strFormat = (strTime.indexOf('.') >= 0)
+                               ? strDATE_FORMAT + ".SSS"
+                               : strDATE_FORMAT;
+            SimpleDateFormat format = new SimpleDateFormat(strFormat);
+            format.setLenient(false);
+            return format.parse(strTime).getTime();
+        }
+    }
+
+    /**************************************************************************
+    * This class is a command line tool for querying a log file.  See the
+    * Usage section of the outer class.
+    **************************************************************************/
+    public static class QueryTool
+    {
+        /**********************************************************************
+        * Main method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                GetOpt getopt = new GetOpt(args);
+                String strFrom   = getopt.getOptionString("from");
+                String strTo     = getopt.getOptionString("to");
+                String strThread = getopt.getOptionString("thread");
+                String strLevel  = getopt.getOptionString("level");
+                String strFilename = getopt.getNextArgString
+                                            (new GetOpt.Required(true));
+                LogFileReader reader = new LogFileReader(strFilename);
+                reader.query
+                    (strFrom == null ? Long.MIN_VALUE : parseTime(strFrom),
+                     strTo   == null ? Long.MAX_VALUE : parseTime(strTo),
+                     strThread,
+                     strLevel == null ? intANY_LOG_LEVEL
+                                      : Integer.parseInt(strLevel),
+                     new PrintWriter(System.out));
+            }
+            catch (GetOpt.MissingArgException e)
+            {
+                System.err.println
+                    ("Usage: java " + QueryTool.class.getName()
+                     + " [-from time] [-to time] [-thread name]"
+                     + " [-level n] filename");
+            }
+            catch (Throwable e)
+            {
+                System.err.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+                File file = File.createTempFile("LogFileReader", ".log");
+                String strFilename = file.getPath();
+                Logger logger = new Logger();
+                logger.addTarget(new Logger.FilenameLoggerTarget(strFilename));
+                logger.setLogLevel(5);
+
+                System.out.println ("   Logging 3000 entries...");
+                for (int i = 0; i < 3000; i++)
+                {
+                    logger.log(1 + i % 5, "Before " + i);
+                }
+                Thread.sleep(20);
+                long lngFrom = System.currentTimeMillis();
+                final Logger loggerFinal = logger;
+                Thread thread = new Thread("Worker")
+                {
+                    public void run()
+                    {
+                        for (int i = 0; i < 10; i++)
+                        {
+                            loggerFinal.log(1 + i % 5, "Worker " + i
+                                                       + "\nsecond line");
+                        }
+                    }
+                };
+                thread.start();
+                thread.join();
+                long lngTo = System.currentTimeMillis();
+                Thread.sleep(20);
+                for (int i = 0; i < 3000; i++)
+                {
+                    logger.log(1 + i % 5, "After " + i);
+                }
+
+                LogFileReader reader = new LogFileReader(strFilename);
+                reader.setBlockSize(4096);
+                reader.updateIndex();
+                System.out.println ("   Blocks = " + reader.getBlockCount());
+
+                System.out.println ("   Worker lines at levels 1-2 (8):");
+                PrintWriter writer = new PrintWriter(System.out);
+                int intCount = reader.query(lngFrom, lngTo, "Worker", 2, writer);
+                System.out.println ("   Count (8) = " + intCount);
+                System.out.println ("   Blocks read (1 or 2) = "
+                                    + reader.getLastBlocksRead());
+
+                System.out.println ("   All lines of the time range (20) = "
+                                    + reader.query(lngFrom,
+                                                   lngTo,
+                                                   null,
+                                                   intANY_LOG_LEVEL,
+                                                   new RecordHandler()
+                                                   {
+                                                       public boolean handleRecord
+                                                                (Record record)
+                                                       {
+                                                           return true;
+                                                       }
+                                                   }));
+
+                System.out.println ("   All lines of the file (6020) = "
+                                    + reader.query(Long.MIN_VALUE,
+                                                   Long.MAX_VALUE,
+                                                   null,
+                                                   intANY_LOG_LEVEL,
+                                                   new RecordHandler()
+                                                   {
+                                                       public boolean handleRecord
+                                                                (Record record)
+                                                       {
+                                                           return true;
+                                                       }
+                                                   }));
+
+                System.out.println ("   Appending and reusing the index...");
+                logger.log(1, "Appended");
+                LogFileReader reader2 = new LogFileReader(strFilename);
+                System.out.println ("   Level 1 lines after the range (601) = "
+                                    + reader2.query(lngTo + 1,
+                                                    Long.MAX_VALUE,
+                                                    null,
+                                                    1,
+                                                    new RecordHandler()
+                                                    {
+                                                        public boolean handleRecord
+                                                                (Record record)
+                                                        {
+                                                            return true;
+                                                        }
+                                                    }));
+
+                System.out.println ("   Appended to the last block (true) = "
+                                    + (reader2.getBlockCount()
+                                       == reader.getBlockCount()));
+
+                System.out.println ("   Thread not present (0) = "
+                                    + reader2.query(Long.MIN_VALUE,
+                                                    Long.MAX_VALUE,
+                                                    "NoSuchThread",
+                                                    intANY_LOG_LEVEL,
+                                                    writer));
+
+                System.out.println ("   Continuation lines across blocks...");
+                File file2 = File.createTempFile("LogFileReader", ".log");
+                Logger logger2 = new Logger();
+                logger2.addTarget(new Logger.FilenameLoggerTarget
+                                                    (file2.getPath()));
+                final Logger logger2Final = logger2;
+                Thread thread2 = new Thread("Multi")
+                {
+                    public void run()
+                    {
+                        StringBuffer sb = new StringBuffer("Multi");
+                        for (int i = 0; i < 100; i++)
+                        {
+                            sb.append("\ncontinuation line " + i);
+                        }
+                        logger2Final.log(1, sb.toString());
+                    }
+                };
+                thread2.start();
+                thread2.join();
+                logger2.log(1, "After Multi");
+                LogFileReader reader3 = new LogFileReader(file2.getPath());
+                reader3.setBlockSize(256);
+                System.out.println ("   Multi lines (101) = "
+                                    + reader3.query(Long.MIN_VALUE,
+                                                    Long.MAX_VALUE,
+                                                    "Multi",
+                                                    intANY_LOG_LEVEL,
+                                                    new RecordHandler()
+                                                    {
+                                                        public boolean handleRecord
+                                                                (Record record)
+                                                        {
+                                                            return true;
+                                                        }
+                                                    }));
+                System.out.println ("   Blocks (more than 2) = " 
+                                    + reader3.getBlockCount());
+
+                System.out.println ("   User info with brackets...");
+                OperationContext.get().setUserInfo("fred@\"Cafe [1]\" [x]");
+                logger2.log(1, "Logged with brackets in the user info");
+                OperationContext.get().setUserInfo(null);
+                System.out.println ("   Lines of thread main (2) = "
+                                    + reader3.query(Long.MIN_VALUE,
+                                                    Long.MAX_VALUE,
+                                                    Thread.currentThread()
+                                                                .getName(),
+                                                    intANY_LOG_LEVEL,
+                                                    new RecordHandler()
+                                                    {
+                                                        public boolean handleRecord
+                                                                (Record record)
+                                                        {
+                                                            return true;
+                                                        }
+                                                    }));
+
+                new File(reader.getIndexFilename()).delete();
+                file.delete();
+                new File(reader3.getIndexFilename()).delete();
+                file2.delete();
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
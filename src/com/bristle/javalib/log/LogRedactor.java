@@ -0,0 +1,561 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.io.PrintWriter;     //-- For Tester only.
+
+// LogRedactor
+/******************************************************************************
+* This class removes sensitive text, like passwords, from log messages.  It
+* finds all of a configurable set of keywords in a single pass over the
+* text, and redacts each keyword found in one of several ways.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*       LogRedactor redactor = new LogRedactor();
+*       redactor.addKeyword("password",
+*                           LogRedactor.Action.TRUNCATE_LINE,
+*                           "[password lines not logged]");
+*       redactor.addKeyword("ssn=",
+*                           LogRedactor.Action.MASK_VALUE,
+*                           "****");
+*       redactor.addKeyword("4111-1111-1111-1111",
+*                           LogRedactor.Action.MASK_MATCH,
+*                           "[card number]");
+*       logger.setRedactor(redactor);
+*
+*     All messages logged via the Logger to any of its LoggerTargets are
+*     then redacted.  For example:
+*       "select * from users where password = 'secret'"
+*           --> "select * from users where [password lines not logged]"
+*       "ssn=123-45-6789&name=fred"
+*           --> "ssn=****&name=fred"
+*
+*   - To redact a single string:
+*       String strSafe = redactor.redact(strUnsafe);
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*       - None.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*   - Keywords are matched case-insensitively by default.
+*   - Keywords can be added while other threads are redacting.
+*<b>Implementation Notes:</b>
+*   - The keywords are compiled into an Aho-Corasick automaton, with its
+*     failure transitions folded into a single transition table, so the
+*     text is scanned once, one table lookup per char, no matter how many
+*     keywords there are.
+*   - The text is scanned in place via charAt(), and a new String is built
+*     only when a keyword is found.  Therefore, redact() allocates nothing
+*     and returns the same String when there is nothing to redact.
+*   - The compiled automaton is immutable and is replaced, never modified,
+*     when a keyword is added, so redact() needs no locking.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see Logger
+*@see ServletContextLoggerTarget
+******************************************************************************/
+public class LogRedactor
+{
+
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+    private final boolean m_blnIgnoreCase;
+
+    //--
+    //-- Internal instance variables
+    //--
+    private final ArrayList   m_alKeywords = new ArrayList();
+    private volatile Automaton m_automaton = null;
+
+    /**************************************************************************
+    * This class is a type-safe enumeration of the ways a keyword can be
+    * redacted.
+    *   - TRUNCATE_LINE replaces the keyword and the rest of its line.
+    *   - MASK_VALUE    keeps the keyword, and replaces the value that
+    *                   follows it, skipping any blanks, "=", ":" or quote
+    *                   between them, and ending at the next blank, quote,
+    *                   "&amp;", ",", ";" or ")".
+    *   - MASK_MATCH    replaces only the keyword itself.
+    **************************************************************************/
+    public static class Action
+    {
+        public final static Action TRUNCATE_LINE = new Action("TRUNCATE_LINE");
+        public final static Action MASK_VALUE    = new Action("MASK_VALUE");
+        public final static Action MASK_MATCH    = new Action("MASK_MATCH");
+        private final String m_strName;  //-- "blank final" assigned in the ctor.
+        //-- Note:  No public ctor so new values cannot be created.  Those
+        //--        listed above are the only ones.
+        private Action(String strName) { m_strName = strName; }
+        public String toString() { return m_strName; }
+    }
+
+    /**************************************************************************
+    * This class holds a keyword and how to redact it.
+    **************************************************************************/
+    private static class Keyword
+    {
+        private final char[] m_arrChars;
+        private final Action m_action;
+        private final String m_strReplacement;
+        private Keyword(char[] arrChars, Action action, String strReplacement)
+        {
+            m_arrChars       = arrChars;
+            m_action         = action;
+            m_strReplacement = strReplacement;
+        }
+    }
+
+    /**************************************************************************
+    * This class is the compiled, immutable, Aho-Corasick automaton.  Each
+    * char of the text is mapped to a column: 0 for chars that occur in no
+    * keyword, and a distinct column for each char that does.  The next
+    * state is m_arrNext[state * m_intWidth + column].
+    **************************************************************************/
+    private static class Automaton
+    {
+        private final int[]     m_arrAsciiColumns;
+        private final char[]    m_arrOtherChars;
+        private final int       m_intWidth;
+        private final int[]     m_arrNext;
+        private final int[]     m_arrOutputs;
+        private final Keyword[] m_arrKeywords;
+        private Automaton(int[]     arrAsciiColumns,
+                          char[]    arrOtherChars,
+                          int       intWidth,
+                          int[]     arrNext,
+                          int[]     arrOutputs,
+                          Keyword[] arrKeywords)
+        {
+            m_arrAsciiColumns = arrAsciiColumns;
+            m_arrOtherChars   = arrOtherChars;
+            m_intWidth        = intWidth;
+            m_arrNext         = arrNext;
+            m_arrOutputs      = arrOutputs;
+            m_arrKeywords     = arrKeywords;
+        }
+        private int getColumn(char c)
+        {
+            if (c < 128)
+            {
+                return m_arrAsciiColumns[c];
+            }
+            int intIndex = Arrays.binarySearch(m_arrOtherChars, c);
+            return (intIndex < 0) ? 0 : 128 + intIndex;
+        }
+    }
+
+    /**************************************************************************
+    * Constructor for a LogRedactor that ignores case.
+    **************************************************************************/
+    public LogRedactor()
+    {
+        this(true);
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  blnIgnoreCase  true to match keywords case-insensitively.
+    **************************************************************************/
+    public LogRedactor(boolean blnIgnoreCase)
+    {
+        m_blnIgnoreCase = blnIgnoreCase;
+    }
+
+    /**************************************************************************
+    * Get a new LogRedactor that truncates each line at the first occurrence
+    * of "password", as ServletContextLoggerTarget has always done.
+    *@return            The LogRedactor.
+    **************************************************************************/
+    public static LogRedactor createPasswordRedactor()
+    {
+        LogRedactor redactor = new LogRedactor();
+        redactor.addKeyword("password",
+                            Action.TRUNCATE_LINE,
+                            "[password lines not logged]");
+        return redactor;
+    }
+
+    /**************************************************************************
+    * Get the flag about whether keywords are matched case-insensitively.
+    *@return            The value of the flag.
+    **************************************************************************/
+    public boolean getIgnoreCase()
+    {
+        return m_blnIgnoreCase;
+    }
+
+    /**************************************************************************
+    * Add a keyword to be redacted.  If the same keyword is added more than
+    * once, the first one added takes effect.  Each keyword is redacted as
+    * soon as its last char is found, and scanning resumes after the
+    * redacted text.  Therefore, where two keywords end at the same char,
+    * the longer one takes effect, and where one keyword starts with
+    * another, the shorter one takes effect.
+    *@param  strKeyword     The keyword.  Ignored if null or empty.
+    *@param  action         How to redact the keyword.
+    *@param  strReplacement The text to replace the redacted text with.
+    **************************************************************************/
+    public synchronized void addKeyword(String strKeyword,
+                                        Action action,
+                                        String strReplacement)
+    {
+        if (strKeyword == null || strKeyword.length() == 0)
+        {
+            return;
+        }
+        char[] arrChars = strKeyword.toCharArray();
+        if (m_blnIgnoreCase)
+        {
+            for (int i = 0; i < arrChars.length; i++)
+            {
+                arrChars[i] = Character.toLowerCase(arrChars[i]);
+            }
+        }
+        m_alKeywords.add(new Keyword(arrChars,
+                                     action,
+                                     (strReplacement == null)
+                                     ? ""
+                                     : strReplacement));
+        m_automaton = compile
+                        ((Keyword[])m_alKeywords.toArray(new Keyword[0]));
+    }
+
+    /**************************************************************************
+    * Compile the keywords into an Automaton.
+    *@param  arrKeywords    The keywords.
+    *@return                The Automaton.
+    **************************************************************************/
+    private static Automaton compile(Keyword[] arrKeywords)
+    {
+        //-- Assign a column to each distinct char of the keywords.
+        int[] arrAsciiColumns = new int[128];
+        StringBuffer sbOtherChars = new StringBuffer();
+        int intMaxStates = 1;
+        int intWidth = 1;
+        for (int k = 0; k < arrKeywords.length; k++)
+        {
+            char[] arrChars = arrKeywords[k].m_arrChars;
+            intMaxStates += arrChars.length;
+            for (int i = 0; i < arrChars.length; i++)
+            {
+                char c = arrChars[i];
+                if (c < 128)
+                {
+                    if (arrAsciiColumns[c] == 0)
+                    {
+                        arrAsciiColumns[c] = intWidth++;
+                    }
+                }
+                else if (sbOtherChars.indexOf(String.valueOf(c)) < 0)
+                {
+                    sbOtherChars.append(c);
+                }
+            }
+        }
+        char[] arrOtherChars = sbOtherChars.toString().toCharArray();
+        Arrays.sort(arrOtherChars);
+        //-- Columns of the ASCII chars are 1..127 at most, so the other chars
+        //-- use columns 128 and up, leaving unused columns in between only
+        //-- when there are non-ASCII keyword chars.
+        if (arrOtherChars.length > 0)
+        {
+            intWidth = 128 + arrOtherChars.length;
+        }
+        Automaton automaton = new Automaton(arrAsciiColumns,
+                                            arrOtherChars,
+                                            intWidth,
+                                            null,
+                                            null,
+                                            arrKeywords);
+
+        //-- Build the trie.  -1 means no transition yet.
+        int[] arrNext = new int[intMaxStates * intWidth];
+        Arrays.fill(arrNext, -1);
+        int[] arrOutputs = new int[intMaxStates];
+        Arrays.fill(arrOutputs, -1);
+        int intStateCount = 1;
+        for (int k = 0; k < arrKeywords.length; k++)
+        {
+            char[] arrChars = arrKeywords[k].m_arrChars;
+            int intState = 0;
+            for (int i = 0; i < arrChars.length; i++)
+            {
+                int intCell = intState * intWidth
+                              + automaton.getColumn(arrChars[i]);
+                if (arrNext[intCell] == -1)
+                {
+                    arrNext[intCell] = intStateCount++;
+                }
+                intState = arrNext[intCell];
+            }
+            if (arrOutputs[intState] == -1)
+            {
+                arrOutputs[intState] = k;
+            }
+        }
+
+        //-- Fold the failure transitions into the table, breadth first, so
+        //-- that each state's failure state is complete before it is used.
+        int[] arrFailures = new int[intStateCount];
+        LinkedList llQueue = new LinkedList();
+        for (int intCol = 0; intCol < intWidth; intCol++)
+        {
+            int intChild = arrNext[intCol];
+            if (intChild == -1)
+            {
+                arrNext[intCol] = 0;
+            }
+            else
+            {
+                arrFailures[intChild] = 0;
+                llQueue.add(Integer.valueOf(intChild));
+            }
+        }
+        while (!llQueue.isEmpty())
+        {
+            int intState = ((Integer)llQueue.removeFirst()).intValue();
+            int intFailure = arrFailures[intState];
+            if (arrOutputs[intState] == -1)
+            {
+                arrOutputs[intState] = arrOutputs[intFailure];
+            }
+            for (int intCol = 0; intCol < intWidth; intCol++)
+            {
+                int intCell = intState * intWidth + intCol;
+                int intChild = arrNext[intCell];
+                if (intChild == -1)
+                {
+                    arrNext[intCell] = arrNext[intFailure * intWidth + intCol];
+                }
+                else
+                {
+                    arrFailures[intChild]
+                                = arrNext[intFailure * intWidth + intCol];
+                    llQueue.add(Integer.valueOf(intChild));
+                }
+            }
+        }
+
+        int[] arrNextTrimmed = new int[intStateCount * intWidth];
+        System.arraycopy(arrNext, 0, arrNextTrimmed, 0, arrNextTrimmed.length);
+        int[] arrOutputsTrimmed = new int[intStateCount];
+        System.arraycopy(arrOutputs, 0, arrOutputsTrimmed, 0, intStateCount);
+        return new Automaton(arrAsciiColumns,
+                             arrOtherChars,
+                             intWidth,
+                             arrNextTrimmed,
+                             arrOutputsTrimmed,
+                             arrKeywords);
+    }
+
+    /**************************************************************************
+    * Return true if the char ends the value redacted by MASK_VALUE.
+    *@param  c          The char.
+    *@return            true if c ends the value.
+    **************************************************************************/
+    private static boolean isValueEnd(char c)
+    {
+        return Character.isWhitespace(c)
+               || c == '&' || c == ',' || c == ';' || c == ')'
+               || c == '\'' || c == '"';
+    }
+
+    /**************************************************************************
+    * Redact the keywords from the string.
+    *@param  str        The string to redact, or null.
+    *@return            The redacted string, or the same string if it
+    *                   contains no keywords.
+    **************************************************************************/
+    public String redact(String str)
+    {
+        final Automaton automaton = m_automaton;
+        if (automaton == null || str == null)
+        {
+            return str;
+        }
+        final int[]     arrNext    = automaton.m_arrNext;
+        final int[]     arrOutputs = automaton.m_arrOutputs;
+        final int       intWidth   = automaton.m_intWidth;
+        final int       intLength  = str.length();
+        StringBuffer    sb         = null;
+        int             intCopied  = 0;
+        int             intState   = 0;
+        for (int i = 0; i < intLength; i++)
+        {
+            char c = str.charAt(i);
+            if (m_blnIgnoreCase)
+            {
+                c = Character.toLowerCase(c);
+            }
+            intState = arrNext[intState * intWidth + automaton.getColumn(c)];
+            int intKeyword = arrOutputs[intState];
+            if (intKeyword == -1)
+            {
+                continue;
+            }
+
+            Keyword keyword = automaton.m_arrKeywords[intKeyword];
+            int intMatchStart = i + 1 - keyword.m_arrChars.length;
+            int intRedactStart;
+            int intRedactEnd;
+            if (keyword.m_action == Action.TRUNCATE_LINE)
+            {
+                intRedactStart = intMatchStart;
+                intRedactEnd   = str.indexOf('\n', i + 1);
+                if (intRedactEnd < 0)
+                {
+                    intRedactEnd = intLength;
+                }
+            }
+            else if (keyword.m_action == Action.MASK_VALUE)
+            {
+                intRedactStart = i + 1;
+                while (intRedactStart < intLength)
+                {
+                    char cSep = str.charAt(intRedactStart);
+                    if (cSep != ' ' && cSep != '\t' && cSep != '='
+                        && cSep != ':' && cSep != '\'' && cSep != '"')
+                    {
+                        break;
+                    }
+                    intRedactStart++;
+                }
+                intRedactEnd = intRedactStart;
+                while (intRedactEnd < intLength
+                       && !isValueEnd(str.charAt(intRedactEnd)))
+                {
+                    intRedactEnd++;
+                }
+                if (intRedactEnd == intRedactStart)
+                {
+                    //-- No value follows the keyword.  Leave it alone.
+                    continue;
+                }
+            }
+            else
+            {
+                intRedactStart = intMatchStart;
+                intRedactEnd   = i + 1;
+            }
+
+            if (sb == null)
+            {
+                sb = new StringBuffer(intLength + 32);
+            }
+            sb.append(str.substring(intCopied, intRedactStart));
+            sb.append(keyword.m_strReplacement);
+            intCopied = intRedactEnd;
+            i         = intRedactEnd - 1;
+            intState  = 0;
+        }
+        if (sb == null)
+        {
+            return str;
+        }
+        sb.append(str.substring(intCopied));
+        return sb.toString();
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        private static void test(LogRedactor redactor, String str)
+        {
+            System.out.println ("   [" + str + "]");
+            String strRedacted = redactor.redact(str);
+            System.out.println ("   --> [" + strRedacted + "]"
+                                + (strRedacted == str ? " (same String)" : ""));
+        }
+
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+
+                System.out.println ("   Password redactor...");
+                LogRedactor redactor = createPasswordRedactor();
+                test(redactor, "select * from users");
+                test(redactor, "select * from users where PassWord = 'x'"
+                               + "\nand name = 'fred'");
+                test(redactor, "passwor");
+
+                System.out.println ("   Multiple keywords...");
+                redactor = new LogRedactor();
+                redactor.addKeyword("ssn",  Action.MASK_VALUE, "****");
+                redactor.addKeyword("ssnx", Action.MASK_MATCH, "[ssnx]");
+                redactor.addKeyword("he",   Action.MASK_MATCH, "[he]");
+                redactor.addKeyword("she",  Action.MASK_MATCH, "[she]");
+                redactor.addKeyword("hers", Action.MASK_MATCH, "[hers]");
+                redactor.addKeyword("secret", Action.MASK_VALUE, "****");
+                redactor.addKeyword("\u00e9t\u00e9", Action.MASK_MATCH, "[ete]");
+                test(redactor, "ssn=123-45-6789&name=fred");
+                test(redactor, "SSN: '123-45-6789', ssnx");
+                test(redactor, "ushers");
+                test(redactor, "secret");
+                test(redactor, "L'\u00c9T\u00c9 dernier");
+                test(redactor, "Nothing to see.");
+
+                System.out.println ("   Case-sensitive...");
+                redactor = new LogRedactor(false);
+                redactor.addKeyword("Key", Action.MASK_MATCH, "[Key]");
+                test(redactor, "Key key KEY");
+
+                System.out.println ("   Logger with a redactor...");
+                Logger logger = new Logger();
+                Logger.WriterLoggerTarget target = new Logger.WriterLoggerTarget
+                                        (new PrintWriter(System.out));
+                target.setShowDynamicFields(false);
+                logger.addTarget(target);
+                logger.setRedactor(createPasswordRedactor());
+                logger.log(1, "update users set password = 'x'");
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
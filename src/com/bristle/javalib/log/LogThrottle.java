@@ -0,0 +1,740 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.io.PrintWriter;     //-- For Tester only.
+
+// LogThrottle
+/******************************************************************************
+* This class decides which log messages a Logger should write, suppressing
+* repeats of the same message and capping the number of messages per second
+* at each log level, so that a flood of identical errors (for example, from
+* every request thread while a database is down) does not fill the disk and
+* slow the application further.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*       LogThrottle throttle = new LogThrottle();
+*       throttle.setMaxRepeats(3);              // Per window, per message.
+*       throttle.setWindowMillis(60 * 1000);
+*       throttle.setRateLimit(1, 20, 100);      // Level 1: 20/sec, burst 100.
+*       logger.setThrottle(throttle);
+*       throttle.startPeriodicFlush(logger, 1000);
+*
+*     The Logger then writes the first 3 occurrences of each distinct
+*     message within each 60 second window, and a summary like:
+*       REPEATED 57 more times in 60 secs: ERROR Unable to get connection
+*     when the window ends.  It also writes no more than 20 messages per
+*     second at level 1, after an initial burst of 100, and a summary like:
+*       RATE LIMITED 312 messages at level 1
+*     when messages are allowed again.  The periodic flush writes the
+*     summaries of a flood that has stopped, even if nothing more is
+*     logged.
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*       - None.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*   - Messages are compared by a 64-bit fingerprint of their log level and
+*     text, so two different messages are treated as the same message only
+*     in the astronomically unlikely case of a fingerprint collision.
+*   - Only the most recent getMaxFingerprints() distinct messages are
+*     tracked.  When more distinct messages than that are logged within a
+*     window, the least recently seen are forgotten, and can be logged
+*     again.
+*   - Summaries are written at the log level of the suppressed messages,
+*     and are not themselves suppressed.
+*<b>Implementation Notes:</b>
+*   - The fingerprints are kept in a fixed-size open-addressing hash table
+*     of parallel arrays, allocated once, so checking a message allocates
+*     nothing unless it produces a summary.
+*   - The table is divided into up to 16 stripes, each guarded by its own
+*     lock, and a message is probed for only within the stripe of its home
+*     slot, so that threads logging different messages rarely wait for 
+*     each other.  Each token bucket has its own lock, taken only for a
+*     log level that is rate limited, and the queue of summaries has its
+*     own lock, taken only when a summary is queued or taken.
+*   - Summaries of messages that stop recurring are found by sweeping the
+*     table at most once per second, from admit() and takeSummaries().  
+*     To write them even when nothing more is logged, call 
+*     Logger.flushThrottle(), or startPeriodicFlush() to do so on a timer.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see Logger
+******************************************************************************/
+public class LogThrottle
+{
+
+    //--
+    //-- Constants for readability
+    //--
+    public static final int  intDEFAULT_MAX_FINGERPRINTS = 256;
+    public static final int  intDEFAULT_MAX_REPEATS      = 5;
+    public static final long lngDEFAULT_WINDOW_MILLIS    = 60 * 1000;
+
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+    private volatile int  m_intMaxRepeats   = intDEFAULT_MAX_REPEATS;
+    private volatile long m_lngWindowMillis = lngDEFAULT_WINDOW_MILLIS;
+
+    //--
+    //-- Internal instance variables
+    //--
+    //-- Hash table of message fingerprints, divided into stripes, each
+    //-- guarded by its own lock.
+    private final long[]   m_arrFingerprints;
+    private final int[]    m_arrLogLevels;
+    private final long[]   m_arrWindowStarts;
+    private final long[]   m_arrLastSeen;
+    private final int[]    m_arrCounts;
+    private final String[] m_arrMsgs;
+    private final int      m_intMask;
+    private final Object[] m_arrStripeLocks;
+    private final int      m_intStripeMask;
+    private final int      m_intStripeShift;
+    private final int      m_intProbes;
+
+    private volatile long  m_lngNextSweep = 0;
+    private final Object   m_sweepLock    = new Object();
+
+    //-- Token buckets, indexed by log level.  Index 0 is the bucket for all
+    //-- levels without their own.  null for no limit.  Replaced, never 
+    //-- modified, by setRateLimit().
+    private volatile Bucket[] m_arrBuckets = new Bucket[1];
+
+    //-- Guarded by itself.
+    private final ArrayList m_alSummaries = new ArrayList();
+
+    //-- Guarded by "this".
+    private Timer m_timer = null;
+
+    //--
+    //-- Local constants
+    //--
+    private static final int  intMAX_PROBES     = 8;
+    private static final int  intMAX_STRIPES    = 16;
+    private static final int  intMAX_FINGERPRINTS_LIMIT = 1 << 30;
+    private static final long lngSWEEP_MILLIS   = 1000;
+    private static final int  intMAX_MSG_LENGTH = 100;
+
+    /**************************************************************************
+    * This class is a summary message to be written in place of suppressed
+    * messages.
+    **************************************************************************/
+    public static class Summary
+    {
+        private final int    m_intLogLevel;
+        private final String m_strMsg;
+        private Summary(int intLogLevel, String strMsg)
+        {
+            m_intLogLevel = intLogLevel;
+            m_strMsg      = strMsg;
+        }
+        public int    getLogLevel() { return m_intLogLevel; }
+        public String getMsg()      { return m_strMsg;      }
+    }
+
+    /**************************************************************************
+    * This class is the token bucket of one log level.  Its mutable fields 
+    * are guarded by the Bucket itself.
+    **************************************************************************/
+    private static class Bucket
+    {
+        private final double m_dblTokensPerMilli;
+        private final double m_dblBurst;
+        private double       m_dblTokens;
+        private long         m_lngLastRefill;
+        private int          m_intDropped = 0;
+        private Bucket(double dblPerSecond, int intBurst)
+        {
+            m_dblTokensPerMilli = dblPerSecond / 1000;
+            m_dblBurst          = Math.max(1, intBurst);
+            m_dblTokens         = m_dblBurst;
+            m_lngLastRefill     = System.currentTimeMillis();
+        }
+    }
+
+    /**************************************************************************
+    * Constructor, tracking up to intDEFAULT_MAX_FINGERPRINTS distinct
+    * messages.
+    **************************************************************************/
+    public LogThrottle()
+    {
+        this(intDEFAULT_MAX_FINGERPRINTS);
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  intMaxFingerprints The number of distinct messages to track,
+    *                           from 1 to 2^30.  Rounded up to a power of 2.
+    *@throws IllegalArgumentException
+    *                           When intMaxFingerprints is out of range.
+    **************************************************************************/
+    public LogThrottle(int intMaxFingerprints)
+    {
+        if (intMaxFingerprints < 1
+            || intMaxFingerprints > intMAX_FINGERPRINTS_LIMIT)
+        {
+            throw new IllegalArgumentException
+                        ("Max fingerprints " + intMaxFingerprints
+                         + " is not from 1 to " + intMAX_FINGERPRINTS_LIMIT
+                         + ".");
+        }
+        int intSize = 1;
+        while (intSize < intMaxFingerprints)
+        {
+            intSize <<= 1;
+        }
+        m_intMask         = intSize - 1;
+        m_arrFingerprints = new long  [intSize];
+        m_arrLogLevels    = new int   [intSize];
+        m_arrWindowStarts = new long  [intSize];
+        m_arrLastSeen     = new long  [intSize];
+        m_arrCounts       = new int   [intSize];
+        m_arrMsgs         = new String[intSize];
+
+        //-- Stripes of intMAX_PROBES or more slots, so that probing stays
+        //-- within one stripe.
+        int intStripes = Math.max(1, Math.min(intMAX_STRIPES,
+                                              intSize / intMAX_PROBES));
+        int intStripeSize = intSize / intStripes;
+        m_intStripeMask  = intStripeSize - 1;
+        m_intStripeShift = Integer.numberOfTrailingZeros(intStripeSize);
+        m_intProbes      = Math.min(intMAX_PROBES, intStripeSize);
+        m_arrStripeLocks = new Object[intStripes];
+        for (int i = 0; i < intStripes; i++)
+        {
+            m_arrStripeLocks[i] = new Object();
+        }
+    }
+
+    /**************************************************************************
+    * Get the number of distinct messages tracked.
+    *@return            The number.
+    **************************************************************************/
+    public int getMaxFingerprints()
+    {
+        return m_intMask + 1;
+    }
+
+    /**************************************************************************
+    * Set the number of occurrences of each distinct message to write in each
+    * window before suppressing the rest.
+    * Default = intDEFAULT_MAX_REPEATS.
+    *@param  intMaxRepeats  The new number, or 0 to never suppress repeats.
+    **************************************************************************/
+    public void setMaxRepeats(int intMaxRepeats)
+    {
+        m_intMaxRepeats = intMaxRepeats;
+    }
+
+    /**************************************************************************
+    * Get the number of occurrences of each distinct message written in each
+    * window.
+    *@return            The number, or 0 if repeats are never suppressed.
+    **************************************************************************/
+    public int getMaxRepeats()
+    {
+        return m_intMaxRepeats;
+    }
+
+    /**************************************************************************
+    * Set the length of the window in which repeats are counted.
+    * Default = lngDEFAULT_WINDOW_MILLIS.
+    *@param  lngWindowMillis    The new length in milliseconds.
+    **************************************************************************/
+    public void setWindowMillis(long lngWindowMillis)
+    {
+        m_lngWindowMillis = lngWindowMillis;
+    }
+
+    /**************************************************************************
+    * Get the length of the window in which repeats are counted.
+    *@return            The length in milliseconds.
+    **************************************************************************/
+    public long getWindowMillis()
+    {
+        return m_lngWindowMillis;
+    }
+
+    /**************************************************************************
+    * Set the maximum rate of messages at the specified log level.  Messages
+    * beyond the rate are dropped.
+    *@param  intLogLevel        The log level, or 0 for all levels that have
+    *                           no rate of their own.
+    *@param  dblPerSecond       The sustained number of messages per second,
+    *                           or 0 for no limit.
+    *@param  intBurst           The number of messages that can be written
+    *                           at once, after a quiet period.
+    **************************************************************************/
+    public synchronized void setRateLimit(int    intLogLevel,
+                                          double dblPerSecond,
+                                          int    intBurst)
+    {
+        intLogLevel = Math.max(0, intLogLevel);
+        Bucket[] arrBuckets = new Bucket[Math.max(intLogLevel + 1,
+                                                  m_arrBuckets.length)];
+        System.arraycopy(m_arrBuckets, 0, arrBuckets, 0, m_arrBuckets.length);
+        arrBuckets[intLogLevel] = (dblPerSecond > 0)
+                                  ? new Bucket(dblPerSecond, intBurst)
+                                  : null;
+        m_arrBuckets = arrBuckets;
+    }
+
+    /**************************************************************************
+    * Compute the fingerprint of a message, via the 64-bit FNV-1a hash.
+    *@param  intLogLevel    The log level of the message.
+    *@param  strMsg         The message.
+    *@return                The fingerprint.
+    **************************************************************************/
+    private static long getFingerprint(int intLogLevel, String strMsg)
+    {
+        long lngHash = 0xcbf29ce484222325L ^ intLogLevel;
+        int intLength = strMsg.length();
+        for (int i = 0; i < intLength; i++)
+        {
+            lngHash ^= strMsg.charAt(i);
+            lngHash *= 0x100000001b3L;
+        }
+        return (lngHash == 0) ? 1 : lngHash;
+    }
+
+    /**************************************************************************
+    * Return the first line of the message, truncated if long, for use in a
+    * summary.
+    **************************************************************************/
+    private static String getShortMsg(String strMsg)
+    {
+        int intEnd = strMsg.indexOf('\n');
+        if (intEnd < 0)
+        {
+            intEnd = strMsg.length();
+        }
+        return (intEnd <= intMAX_MSG_LENGTH)
+               ? strMsg.substring(0, intEnd)
+               : strMsg.substring(0, intMAX_MSG_LENGTH) + "...";
+    }
+
+    /**************************************************************************
+    * Queue a summary to be written.
+    **************************************************************************/
+    private void addSummary(Summary summary)
+    {
+        synchronized (m_alSummaries)
+        {
+            m_alSummaries.add(summary);
+        }
+    }
+
+    /**************************************************************************
+    * Queue a summary of the suppressed repeats of the message in the slot,
+    * if any, and start a new window for it.  Must be called while holding
+    * the lock of the stripe of the slot.
+    **************************************************************************/
+    private void endWindow(int intSlot, long lngNow)
+    {
+        int intSuppressed = m_arrCounts[intSlot] - m_intMaxRepeats;
+        if (intSuppressed > 0)
+        {
+            addSummary
+                (new Summary
+                    (m_arrLogLevels[intSlot],
+                     "REPEATED " + intSuppressed + " more times in "
+                     + ((lngNow - m_arrWindowStarts[intSlot] + 500) / 1000)
+                     + " secs: " + m_arrMsgs[intSlot]));
+        }
+        m_arrWindowStarts[intSlot] = lngNow;
+        m_arrCounts      [intSlot] = 0;
+    }
+
+    /**************************************************************************
+    * Check whether a repeat of the message should be written, counting it.
+    *@return            true to write the message.
+    **************************************************************************/
+    private boolean checkRepeats(int     intLogLevel, 
+                                 String  strMsg, 
+                                 long    lngNow,
+                                 int     intMaxRepeats)
+    {
+        long lngFingerprint = getFingerprint(intLogLevel, strMsg);
+        int intHome = (int)(lngFingerprint ^ (lngFingerprint >>> 32)) & m_intMask;
+        int intStripeStart = intHome & ~m_intStripeMask;
+        synchronized (m_arrStripeLocks[intHome >>> m_intStripeShift])
+        {
+            int intSlot = -1;
+            int intOldest = intHome;
+            for (int i = 0; i < m_intProbes; i++)
+            {
+                int intProbe = intStripeStart 
+                               | ((intHome + i) & m_intStripeMask);
+                long lngExisting = m_arrFingerprints[intProbe];
+                if (lngExisting == lngFingerprint || lngExisting == 0)
+                {
+                    intSlot = intProbe;
+                    break;
+                }
+                if (m_arrLastSeen[intProbe] < m_arrLastSeen[intOldest])
+                {
+                    intOldest = intProbe;
+                }
+            }
+            if (intSlot == -1 || m_arrFingerprints[intSlot] != lngFingerprint)
+            {
+                //-- A new message.  Replace the least recently seen message
+                //-- near its home slot, if there is no empty slot.
+                if (intSlot == -1)
+                {
+                    intSlot = intOldest;
+                    endWindow(intSlot, lngNow);
+                }
+                m_arrFingerprints[intSlot] = lngFingerprint;
+                m_arrLogLevels   [intSlot] = intLogLevel;
+                m_arrWindowStarts[intSlot] = lngNow;
+                m_arrCounts      [intSlot] = 0;
+                m_arrMsgs        [intSlot] = null;
+            }
+            else if (lngNow - m_arrWindowStarts[intSlot] >= m_lngWindowMillis)
+            {
+                endWindow(intSlot, lngNow);
+            }
+            m_arrLastSeen[intSlot] = lngNow;
+            m_arrCounts  [intSlot]++;
+            if (m_arrCounts[intSlot] == intMaxRepeats + 1)
+            {
+                //-- The first suppressed repeat.  Remember the text for the
+                //-- summary.
+                m_arrMsgs[intSlot] = getShortMsg(strMsg);
+            }
+            return m_arrCounts[intSlot] <= intMaxRepeats;
+        }
+    }
+
+    /**************************************************************************
+    * Check whether the token bucket of the log level allows the message to
+    * be written, taking a token if so.
+    *@return            true to write the message.
+    **************************************************************************/
+    private boolean checkRate(int intLogLevel, long lngNow)
+    {
+        final Bucket[] arrBuckets = m_arrBuckets;
+        int intBucket = (intLogLevel > 0
+                         && intLogLevel < arrBuckets.length
+                         && arrBuckets[intLogLevel] != null)
+                        ? intLogLevel
+                        : 0;
+        Bucket bucket = arrBuckets[intBucket];
+        if (bucket == null)
+        {
+            return true;
+        }
+        int intDropped;
+        synchronized (bucket)
+        {
+            double dblTokens = Math.min
+                        (bucket.m_dblBurst,
+                         bucket.m_dblTokens
+                         + (lngNow - bucket.m_lngLastRefill)
+                           * bucket.m_dblTokensPerMilli);
+            bucket.m_lngLastRefill = lngNow;
+            if (dblTokens < 1)
+            {
+                bucket.m_dblTokens = dblTokens;
+                bucket.m_intDropped++;
+                return false;
+            }
+            bucket.m_dblTokens  = dblTokens - 1;
+            intDropped          = bucket.m_intDropped;
+            bucket.m_intDropped = 0;
+        }
+        if (intDropped > 0)
+        {
+            addSummary
+                (new Summary
+                    (intLogLevel,
+                     "RATE LIMITED " + intDropped
+                     + " messages at level "
+                     + ((intBucket == 0) ? "(all)" : String.valueOf(intBucket))));
+        }
+        return true;
+    }
+
+    /**************************************************************************
+    * Queue summaries of the messages whose windows have ended, if it is time
+    * to sweep.
+    **************************************************************************/
+    private void sweep(long lngNow)
+    {
+        if (lngNow < m_lngNextSweep)
+        {
+            return;
+        }
+        synchronized (m_sweepLock)
+        {
+            if (lngNow < m_lngNextSweep)
+            {
+                return;
+            }
+            m_lngNextSweep = lngNow + lngSWEEP_MILLIS;
+        }
+        for (int intStripe = 0; intStripe < m_arrStripeLocks.length; intStripe++)
+        {
+            int intStart = intStripe << m_intStripeShift;
+            synchronized (m_arrStripeLocks[intStripe])
+            {
+                for (int i = intStart; i <= intStart + m_intStripeMask; i++)
+                {
+                    if (m_arrFingerprints[i] != 0
+                        && m_arrCounts[i] > m_intMaxRepeats
+                        && lngNow - m_arrWindowStarts[i] >= m_lngWindowMillis)
+                    {
+                        endWindow(i, lngNow);
+                    }
+                }
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Check whether the message should be written, counting it toward the
+    * repeat and rate limits.
+    *@param  intLogLevel    The log level of the message.
+    *@param  strMsg         The message.
+    *@return                true to write the message.
+    **************************************************************************/
+    public boolean admit(int intLogLevel, String strMsg)
+    {
+        long lngNow = System.currentTimeMillis();
+        sweep(lngNow);
+        int intMaxRepeats = m_intMaxRepeats;
+        if (intMaxRepeats > 0
+            && strMsg != null
+            && !checkRepeats(intLogLevel, strMsg, lngNow, intMaxRepeats))
+        {
+            return false;
+        }
+        return checkRate(intLogLevel, lngNow);
+    }
+
+    /**************************************************************************
+    * Get and remove the summaries that are waiting to be written, including
+    * those of messages whose windows have ended since they were last 
+    * logged.
+    *@return                The summaries, or null if there are none.
+    **************************************************************************/
+    public Summary[] takeSummaries()
+    {
+        sweep(System.currentTimeMillis());
+        synchronized (m_alSummaries)
+        {
+            if (m_alSummaries.isEmpty())
+            {
+                return null;
+            }
+            Summary[] arrSummaries = (Summary[])m_alSummaries.toArray
+                                        (new Summary[m_alSummaries.size()]);
+            m_alSummaries.clear();
+            return arrSummaries;
+        }
+    }
+
+    /**************************************************************************
+    * Start writing the summaries of messages that have stopped recurring to
+    * the Logger periodically, on a background daemon thread, replacing any
+    * previously started periodic flush.  Otherwise, the summaries of a 
+    * flood of messages are written only when the Logger next logs a 
+    * message, which may be never.
+    *@param  logger             The Logger to write to.
+    *@param  lngIntervalMillis  The interval between flushes in milliseconds.
+    **************************************************************************/
+    public synchronized void startPeriodicFlush(final Logger logger,
+                                                long         lngIntervalMillis)
+    {
+        stopPeriodicFlush();
+        final boolean blnDAEMON = true;
+        m_timer = new Timer(blnDAEMON);
+        m_timer.schedule(new TimerTask()
+                        {
+                            public void run()
+                            {
+                                logger.flushThrottle();
+                            }
+                        },
+                        lngIntervalMillis,
+                        lngIntervalMillis);
+    }
+
+    /**************************************************************************
+    * Stop writing the summaries periodically.
+    **************************************************************************/
+    public synchronized void stopPeriodicFlush()
+    {
+        if (m_timer != null)
+        {
+            m_timer.cancel();
+            m_timer = null;
+        }
+    }
+
+    /**************************************************************************
+    * Forget all messages and dropped counts, and refill all token buckets.
+    **************************************************************************/
+    public void reset()
+    {
+        for (int intStripe = 0; intStripe < m_arrStripeLocks.length; intStripe++)
+        {
+            int intStart = intStripe << m_intStripeShift;
+            int intEnd   = intStart + m_intStripeMask + 1;
+            synchronized (m_arrStripeLocks[intStripe])
+            {
+                Arrays.fill(m_arrFingerprints, intStart, intEnd, 0);
+                Arrays.fill(m_arrCounts,       intStart, intEnd, 0);
+                Arrays.fill(m_arrMsgs,         intStart, intEnd, null);
+            }
+        }
+        final Bucket[] arrBuckets = m_arrBuckets;
+        for (int i = 0; i < arrBuckets.length; i++)
+        {
+            Bucket bucket = arrBuckets[i];
+            if (bucket != null)
+            {
+                synchronized (bucket)
+                {
+                    bucket.m_dblTokens  = bucket.m_dblBurst;
+                    bucket.m_intDropped = 0;
+                }
+            }
+        }
+        synchronized (m_alSummaries)
+        {
+            m_alSummaries.clear();
+        }
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+                Logger logger = new Logger();
+                Logger.WriterLoggerTarget target =
+                        new Logger.WriterLoggerTarget
+                                (new PrintWriter(System.out));
+                target.setShowDynamicFields(false);
+                logger.addTarget(target);
+                logger.setLogLevel(2);
+
+                System.out.println ("   Suppressing repeats (2 per window)...");
+                LogThrottle throttle = new LogThrottle();
+                throttle.setMaxRepeats(2);
+                throttle.setWindowMillis(200);
+                logger.setThrottle(throttle);
+                for (int i = 0; i < 10; i++)
+                {
+                    logger.log(1, "ERROR Unable to get connection\nstack...");
+                    logger.log(1, "Different message " + (i % 2));
+                }
+                System.out.println ("   Waiting for the window to end...");
+                Thread.sleep(1100);
+                logger.log(2, "Next message, after the summaries.");
+
+                System.out.println ("   Flushing after the flood stops...");
+                throttle.startPeriodicFlush(logger, 200);
+                for (int i = 0; i < 4; i++)
+                {
+                    logger.log(1, "ERROR Flood that stops");
+                }
+                Thread.sleep(1500);
+                throttle.stopPeriodicFlush();
+                System.out.println ("   (REPEATED 2 more times above.)");
+
+                System.out.println ("   Rate limiting level 2 (burst 3)...");
+                throttle = new LogThrottle();
+                throttle.setMaxRepeats(0);
+                throttle.setRateLimit(2, 10, 3);
+                logger.setThrottle(throttle);
+                for (int i = 0; i < 10; i++)
+                {
+                    logger.log(2, "Level 2 message " + i);
+                    logger.log(1, "Level 1 message " + i + " (not limited)");
+                }
+                Thread.sleep(150);
+                logger.log(2, "Level 2 message after the refill.");
+
+                System.out.println ("   Fingerprint table of 4, 20 messages...");
+                throttle = new LogThrottle(4);
+                throttle.setMaxRepeats(1);
+                int intAdmitted = 0;
+                for (int i = 0; i < 20; i++)
+                {
+                    intAdmitted += throttle.admit(1, "Msg " + i) ? 1 : 0;
+                    intAdmitted += throttle.admit(1, "Msg " + i) ? 1 : 0;
+                }
+                System.out.println ("   Admitted (20) = " + intAdmitted);
+
+                System.out.println ("   Flight recorder gets suppressed messages...");
+                throttle = new LogThrottle();
+                throttle.setMaxRepeats(1);
+                logger.setThrottle(throttle);
+                FlightRecorderLoggerTarget recorder
+                                    = new FlightRecorderLoggerTarget(8);
+                logger.setFlightRecorder(recorder);
+                for (int i = 0; i < 3; i++)
+                {
+                    logger.log(1, "Recorded message");
+                }
+                logger.log(9, "Recorded message at a disabled level");
+                System.out.println ("   Entries recorded (4) = "
+                                    + recorder.getEntries().length);
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -22,8 +22,6 @@ import com.bristle.javalib.io.FileUtil;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.ArrayList;
 import java.io.PrintWriter;     //-- For Tester only.
 import java.io.Writer;          //-- For WriterLoggerTarget only
 import java.io.IOException;     //-- For WriterLoggerTarget and
@@ -85,6 +83,14 @@ import java.io.IOException;     //-- For WriterLoggerTarget and
 *           logger.setLogLevel(2);
 *           logger.log(1, "Line of text to write to the log.");
 *
+*     - To log at different levels to different targets:
+*           Logger logger = new Logger();
+*           logger.addTarget(new Logger.FilenameLoggerTarget("/my/log/file"), 
+*                            5);
+*           logger.addTarget(new ServletContextLoggerTarget(objServletContext),
+*                            1);
+*           logger.log(3, "Line of text written only to the file.");
+*
 *   - There is also support for logging in cases where no error can be 
 *     tolerated.  For example:
 *
@@ -131,7 +137,9 @@ import java.io.IOException;     //-- For WriterLoggerTarget and
 *                    For example:   2007/12/31 23:59:59.999 Mon
 *       <AppName>    is the name of the application that called the logger.
 *       <AppVersion> is the version string of the application.
-*       <Username>   is the name of the current user.
+*       <Username>   is the name of the current user: the user info of
+*                    the thread's OperationContext, if set, otherwise the
+*                    username of the Logger.
 *       <ThreadName> is the name of the current thread.
 *       <Millisecs>  is the current time in milliseconds on the server.
 *       <UsedMem>    is the current number of bytes of used memory in
@@ -146,20 +154,58 @@ import java.io.IOException;     //-- For WriterLoggerTarget and
 *<b>Anticipated Changes:</b>
 *<b>Notes:</b>
 *<b>Implementation Notes:</b>
+*   - The LoggerTargets and their log levels are kept in arrays that are 
+*     replaced, never modified, when a LoggerTarget is added or removed or 
+*     a log level is changed.  Therefore, LoggerTargets can safely be added
+*     and removed while other threads are logging, and log() can walk the
+*     arrays without locking and without allocating an Iterator.
+*   - The highest log level of any LoggerTarget is computed whenever the
+*     arrays are replaced, so a call to log() at a level that no 
+*     LoggerTarget would accept returns after a single int comparison.
+*   - The FlightRecorderLoggerTarget is kept in the snapshot apart from the
+*     other LoggerTargets, and is not included in the highest log level.
+*     Otherwise, setting it would enable all log levels, defeating the
+*     int comparison above and getMaxEnabledLogLevel().
+*   - The LogThrottle is consulted only after that int comparison, so that
+*     messages at disabled levels never contend for its locks.
+*   - Each message is passed to the FlightRecorderLoggerTarget, if any, 
+*     before that int comparison, as only its level, time, thread name and
+*     raw message.  The full Entry is created only for the other
+*     LoggerTargets, and by the FlightRecorderLoggerTarget when dumped.
+*   - The SimpleDateFormat used to format the date and time of each entry
+*     is created once per thread, rather than once per entry, since 
+*     SimpleDateFormat is costly to create and is not thread-safe.
 *<b>Portability Issues:</b>
 *<b>Revision History:</b>
 *   $Log$
 *</pre>
 *@see     XMLDOMLoggerTarget
 *@see     ServletContextLoggerTarget
+*@see     EncodedLoggerTarget
+*@see     OperationStats
+*@see     LogRedactor
+*@see     FlightRecorderLoggerTarget
+*@see     LogThrottle
 ******************************************************************************/
 public class Logger
 {
 
+    //--
+    //-- Constants for readability
+    //--
+    public static final int intUSE_LOGGER_LOG_LEVEL = Integer.MIN_VALUE;
+
     //--
     //-- Class variables
     //--
     private static Logger st_loggerSingleton = null;
+    private static final ThreadLocal st_dateFormat = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS EEE");
+        }
+    };
 
     //--
     //-- Instance variables to support public properties
@@ -168,11 +214,53 @@ public class Logger
     private String    m_strAppName    = "";
     private String    m_strAppVersion = "";
     private String    m_strUsername   = System.getProperty("user.name");
-    private ArrayList m_alTargets     = new ArrayList();
+    private volatile OperationStats m_operationStats = null;
+    private volatile LogRedactor    m_redactor       = null;
+    private FlightRecorderLoggerTarget m_flightRecorder = null;
+    private volatile LogThrottle    m_throttle       = null;
 
     //--
     //-- Internal instance variables
     //--
+    private volatile TargetList m_targetList = new TargetList
+                                    (new LoggerTarget[0], new int[0], 1, null);
+
+    /**************************************************************************
+    * This class is an immutable snapshot of the LoggerTargets, the log level
+    * of each, the highest of those log levels, and the flight recorder.  It
+    * is replaced, never modified, so that log() can use it without locking.
+    **************************************************************************/
+    private static class TargetList
+    {
+        private final LoggerTarget[]             m_arrTargets;
+        private final int[]                      m_arrLogLevels;
+        private final int                        m_intMaxLogLevel;
+        private final FlightRecorderLoggerTarget m_recorder;
+        private TargetList(LoggerTarget[]             arrTargets,
+                           int[]                      arrLogLevels,
+                           int                        intLoggerLogLevel,
+                           FlightRecorderLoggerTarget recorder)
+        {
+            m_arrTargets   = arrTargets;
+            m_recorder     = recorder;
+            m_arrLogLevels = new int[arrLogLevels.length];
+            int intMax = Integer.MIN_VALUE;
+            for (int i = 0; i < arrLogLevels.length; i++)
+            {
+                m_arrLogLevels[i] = 
+                        (arrLogLevels[i] == intUSE_LOGGER_LOG_LEVEL)
+                        ? intLoggerLogLevel
+                        : arrLogLevels[i];
+                intMax = Math.max(intMax, m_arrLogLevels[i]);
+            }
+            m_intMaxLogLevel = intMax;
+        }
+    }
+
+    //-- The log levels of the LoggerTargets as specified by the caller, 
+    //-- which may be intUSE_LOGGER_LOG_LEVEL.  Guarded by "this".
+    private LoggerTarget[] m_arrTargets   = new LoggerTarget[0];
+    private int[]          m_arrLogLevels = new int[0];
 
     /**************************************************************************
     * This class represents a log entry that can be sent by a Logger to a
@@ -295,18 +383,169 @@ public class Logger
     **************************************************************************/
     public void addTarget(LoggerTarget target)
     {
-        m_alTargets.add(target);
+        addTarget(target, intUSE_LOGGER_LOG_LEVEL);
+    }
+
+    /**************************************************************************
+    * Add to the list of LoggerTargets to which logging is done, specifying
+    * a log level for the LoggerTarget.  Each call to log() with a logLevel 
+    * greater than this value will be ignored by this LoggerTarget, 
+    * regardless of the log level of the Logger.
+    *@param  target      An additional LoggerTarget to log to.
+    *@param  intLogLevel The log level of the LoggerTarget, or 
+    *                    intUSE_LOGGER_LOG_LEVEL to use the log level of the 
+    *                    Logger.
+    **************************************************************************/
+    public synchronized void addTarget(LoggerTarget target, int intLogLevel)
+    {
+        int intOldCount = m_arrTargets.length;
+        LoggerTarget[] arrTargets = new LoggerTarget[intOldCount + 1];
+        int[] arrLogLevels = new int[intOldCount + 1];
+        System.arraycopy(m_arrTargets,   0, arrTargets,   0, intOldCount);
+        System.arraycopy(m_arrLogLevels, 0, arrLogLevels, 0, intOldCount);
+        arrTargets[intOldCount]   = target;
+        arrLogLevels[intOldCount] = intLogLevel;
+        m_arrTargets   = arrTargets;
+        m_arrLogLevels = arrLogLevels;
+        rebuildTargetList();
+    }
+
+    /**************************************************************************
+    * Remove the LoggerTarget from the list of LoggerTargets to which logging
+    * is done.
+    *@param  target     The LoggerTarget to stop logging to.
+    *@return            true if the LoggerTarget was found and removed.
+    **************************************************************************/
+    public synchronized boolean removeTarget(LoggerTarget target)
+    {
+        int intIndex = indexOfTarget(target);
+        if (intIndex < 0)
+        {
+            return false;
+        }
+        int intNewCount = m_arrTargets.length - 1;
+        LoggerTarget[] arrTargets = new LoggerTarget[intNewCount];
+        int[] arrLogLevels = new int[intNewCount];
+        System.arraycopy(m_arrTargets,   0, arrTargets,   0, intIndex);
+        System.arraycopy(m_arrLogLevels, 0, arrLogLevels, 0, intIndex);
+        System.arraycopy(m_arrTargets,   intIndex + 1, 
+                         arrTargets,     intIndex, intNewCount - intIndex);
+        System.arraycopy(m_arrLogLevels, intIndex + 1, 
+                         arrLogLevels,   intIndex, intNewCount - intIndex);
+        m_arrTargets   = arrTargets;
+        m_arrLogLevels = arrLogLevels;
+        rebuildTargetList();
+        return true;
+    }
+
+    /**************************************************************************
+    * Set the log level of the specified LoggerTarget.
+    *@param  target      The LoggerTarget.
+    *@param  intLogLevel The new log level of the LoggerTarget, or 
+    *                    intUSE_LOGGER_LOG_LEVEL to use the log level of the 
+    *                    Logger.
+    *@return             true if the LoggerTarget was found.
+    **************************************************************************/
+    public synchronized boolean setTargetLogLevel
+                        (LoggerTarget target, int intLogLevel)
+    {
+        int intIndex = indexOfTarget(target);
+        if (intIndex < 0)
+        {
+            return false;
+        }
+        int[] arrLogLevels = m_arrLogLevels.clone();
+        arrLogLevels[intIndex] = intLogLevel;
+        m_arrLogLevels = arrLogLevels;
+        rebuildTargetList();
+        return true;
+    }
+
+    /**************************************************************************
+    * Get the log level of the specified LoggerTarget, as specified when it 
+    * was added or by setTargetLogLevel().
+    *@param  target     The LoggerTarget.
+    *@return            The log level of the LoggerTarget, or 
+    *                   intUSE_LOGGER_LOG_LEVEL if it uses the log level of 
+    *                   the Logger or was not found.
+    **************************************************************************/
+    public synchronized int getTargetLogLevel(LoggerTarget target)
+    {
+        int intIndex = indexOfTarget(target);
+        return (intIndex < 0) 
+               ? intUSE_LOGGER_LOG_LEVEL 
+               : m_arrLogLevels[intIndex];
+    }
+
+    /**************************************************************************
+    * Get the highest log level at which any LoggerTarget accepts messages.
+    * Calls to log() with a logLevel greater than this value are ignored,
+    * except by the FlightRecorderLoggerTarget, if any, which is not
+    * included in this value.
+    *@return            The highest log level of any LoggerTarget.
+    **************************************************************************/
+    public int getMaxEnabledLogLevel()
+    {
+        return m_targetList.m_intMaxLogLevel;
+    }
+
+    /**************************************************************************
+    * Return true if a call to log() at the specified log level would be 
+    * logged anywhere, by any LoggerTarget or by the 
+    * FlightRecorderLoggerTarget.
+    *@param  intLogLevel The log level.
+    *@return             true if enabled.
+    **************************************************************************/
+    public boolean isLogLevelEnabled(int intLogLevel)
+    {
+        final TargetList targetList = m_targetList;
+        return (intLogLevel <= targetList.m_intMaxLogLevel
+                || targetList.m_recorder != null);
+    }
+
+    /**************************************************************************
+    * Return the index of the LoggerTarget in m_arrTargets, or -1.
+    * Must be called while synchronized on this Logger.
+    *@param  target     The LoggerTarget to find.
+    *@return            The index, or -1 if not found.
+    **************************************************************************/
+    private int indexOfTarget(LoggerTarget target)
+    {
+        for (int i = 0; i < m_arrTargets.length; i++)
+        {
+            if (m_arrTargets[i] == target)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**************************************************************************
+    * Replace the snapshot used by log() with a new one reflecting the 
+    * current LoggerTargets and log levels.
+    * Must be called while synchronized on this Logger.
+    **************************************************************************/
+    private void rebuildTargetList()
+    {
+        m_targetList = new TargetList
+                            (m_arrTargets, 
+                             m_arrLogLevels, 
+                             m_intLogLevel, 
+                             m_flightRecorder);
     }
 
     /**************************************************************************
     * Set the log level.  Each call to log() with a logLevel greater than this
-    * value will be ignored.  Only calls with logLevel less than or equal to
-    * this value are logged.  Default = 1.
+    * value will be ignored by all LoggerTargets that were not added with 
+    * their own log level.  Only calls with logLevel less than or equal to
+    * this value are logged to them.  Default = 1.
     *@param  intNew     The new log level.
     **************************************************************************/
-    public void setLogLevel(int intNew)
+    public synchronized void setLogLevel(int intNew)
     {
         m_intLogLevel = intNew;
+        rebuildTargetList();
     }
 
     /**************************************************************************
@@ -357,7 +596,8 @@ public class Logger
     }
 
     /**************************************************************************
-    * Set the username to be recorded in log entries.
+    * Set the username to be recorded in log entries that are logged by
+    * threads with no user info in their OperationContext.
     * Default = current logged in username.
     *@param  strNew     The new username.
     **************************************************************************/
@@ -375,6 +615,95 @@ public class Logger
         return m_strUsername;
     }
 
+    /**************************************************************************
+    * Set the OperationStats that records the elapsed times of the operations
+    * logged via this Logger by LoggerUtil and OperationContext.  Operations
+    * are recorded regardless of the log level.
+    * Default = null, meaning no statistics are recorded.
+    *@param  stats      The new OperationStats, or null.
+    **************************************************************************/
+    public void setOperationStats(OperationStats stats)
+    {
+        m_operationStats = stats;
+    }
+
+    /**************************************************************************
+    * Get the OperationStats.
+    *@return            The OperationStats, or null.
+    **************************************************************************/
+    public OperationStats getOperationStats()
+    {
+        return m_operationStats;
+    }
+
+    /**************************************************************************
+    * Set the LogRedactor that removes sensitive text from each message
+    * before it is passed to any of the LoggerTargets.
+    * Default = null, meaning messages are not redacted.
+    *@param  redactor   The new LogRedactor, or null.
+    **************************************************************************/
+    public void setRedactor(LogRedactor redactor)
+    {
+        m_redactor = redactor;
+    }
+
+    /**************************************************************************
+    * Get the LogRedactor.
+    *@return            The LogRedactor, or null.
+    **************************************************************************/
+    public LogRedactor getRedactor()
+    {
+        return m_redactor;
+    }
+
+    /**************************************************************************
+    * Set the LogThrottle that suppresses repeated messages and limits the
+    * rate of messages.  Summaries of the suppressed messages are logged in
+    * their place.  The LogThrottle applies only to the LoggerTargets, not
+    * to the FlightRecorderLoggerTarget, which still records every message,
+    * and it is not consulted at all for messages at a level that no
+    * LoggerTarget accepts.
+    * Default = null, meaning all messages are logged.
+    *@param  throttle   The new LogThrottle, or null.
+    **************************************************************************/
+    public void setThrottle(LogThrottle throttle)
+    {
+        m_throttle = throttle;
+    }
+
+    /**************************************************************************
+    * Get the LogThrottle.
+    *@return            The LogThrottle, or null.
+    **************************************************************************/
+    public LogThrottle getThrottle()
+    {
+        return m_throttle;
+    }
+
+    /**************************************************************************
+    * Set the FlightRecorderLoggerTarget that records entries at all log
+    * levels, replacing any previously set.  It is kept apart from the other
+    * LoggerTargets, which still receive only the levels they did before,
+    * and it does not affect getMaxEnabledLogLevel().  It is dumped each 
+    * time an error is logged via logErrorSafely().
+    *@param  recorder   The new FlightRecorderLoggerTarget, or null.
+    **************************************************************************/
+    public synchronized void setFlightRecorder
+                                (FlightRecorderLoggerTarget recorder)
+    {
+        m_flightRecorder = recorder;
+        rebuildTargetList();
+    }
+
+    /**************************************************************************
+    * Get the FlightRecorderLoggerTarget.
+    *@return            The FlightRecorderLoggerTarget, or null.
+    **************************************************************************/
+    public synchronized FlightRecorderLoggerTarget getFlightRecorder()
+    {
+        return m_flightRecorder;
+    }
+
     /**********************************************************************
     * Log a message to the various LoggerTargets.  Compares the specified
     * log level with the current log level.  Logs the message if the
@@ -384,45 +713,175 @@ public class Logger
     **********************************************************************/
     public void log(int intLogLevel, String strMsg)
     {
-        if (m_intLogLevel < intLogLevel)
+        final TargetList targetList = m_targetList;
+        final FlightRecorderLoggerTarget recorder = targetList.m_recorder;
+        if (recorder != null)
+        {
+            try
+            {
+                recorder.record(this, intLogLevel, strMsg);
+            }
+            catch (Throwable e)
+            {
+                //-- Ignore errors, so that the other LoggerTargets are
+                //-- still logged to.
+            }
+        }
+        if (targetList.m_intMaxLogLevel < intLogLevel)
+        {
+            return;
+        }
+
+        final LogThrottle throttle = m_throttle;
+        if (throttle != null)
+        {
+            try
+            {
+                boolean blnAdmit = throttle.admit(intLogLevel, strMsg);
+                logSummaries(targetList, throttle.takeSummaries());
+                if (!blnAdmit)
+                {
+                    return;
+                }
+            }
+            catch (Throwable e)
+            {
+                //-- Ignore logging errors.  No place to report them to.
+            }
+        }
+        logToTargets(targetList, intLogLevel, strMsg);
+    }
+
+    /**************************************************************************
+    * Log the summaries of suppressed messages that are waiting in the 
+    * LogThrottle, if any, including those of messages that have stopped
+    * recurring.  Otherwise, they are logged only by the next call to log()
+    * that reaches the LogThrottle.  Called periodically by 
+    * LogThrottle.startPeriodicFlush().
+    **************************************************************************/
+    public void flushThrottle()
+    {
+        final LogThrottle throttle = m_throttle;
+        if (throttle == null)
         {
             return;
         }
+        try
+        {
+            logSummaries(m_targetList, throttle.takeSummaries());
+        }
+        catch (Throwable e)
+        {
+            //-- Ignore logging errors.  No place to report them to.
+        }
+    }
 
+    /**************************************************************************
+    * Log the summaries of suppressed messages to the LoggerTargets.
+    *@param  targetList     The LoggerTargets and their log levels.
+    *@param  arrSummaries   The summaries, or null.
+    **************************************************************************/
+    private void logSummaries(TargetList            targetList,
+                              LogThrottle.Summary[] arrSummaries)
+    {
+        if (arrSummaries == null)
+        {
+            return;
+        }
+        for (int i = 0; i < arrSummaries.length; i++)
+        {
+            int intSummaryLevel = arrSummaries[i].getLogLevel();
+            if (targetList.m_intMaxLogLevel >= intSummaryLevel)
+            {
+                logToTargets(targetList,
+                             intSummaryLevel,
+                             arrSummaries[i].getMsg());
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Create a log entry from the specified fields and the properties of 
+    * this Logger, redacting the message if a LogRedactor is set.
+    *@param  lngMillis      Time of the entry.
+    *@param  strThreadName  Name of the thread that logged the entry.
+    *@param  strUsername    User info of the entry, or null for the 
+    *                       Username property of this Logger.
+    *@param  strUsedMem     Used memory at the time of the entry.
+    *@param  strTotalMem    Total memory at the time of the entry.
+    *@param  intLogLevel    Level at which the message was logged.
+    *@param  strMsg         The message, not yet redacted.
+    *@return                The log entry.
+    **************************************************************************/
+    Entry createEntry(long   lngMillis,
+                      String strThreadName,
+                      String strUsername,
+                      String strUsedMem,
+                      String strTotalMem,
+                      int    intLogLevel,
+                      String strMsg)
+    {
+        String strDateTime   
+                = ((SimpleDateFormat)st_dateFormat.get()).format
+                                                    (new Date(lngMillis));
+        final LogRedactor redactor = m_redactor;
+        if (redactor != null)
+        {
+            strMsg = redactor.redact(strMsg);
+        }
+        return new Entry
+                    (strDateTime,
+                     m_strAppName,
+                     m_strAppVersion,
+                     (strUsername == null)
+                     ? m_strUsername
+                     : strUsername,
+                     strThreadName,
+                     Long.toString(lngMillis),
+                     strUsedMem,
+                     strTotalMem,
+                     Integer.toString(intLogLevel),
+                     strMsg);
+    }
+
+    /**************************************************************************
+    * Log a message to those of the LoggerTargets whose log level is greater
+    * than or equal to the specified log level.
+    *@param  targetList  The LoggerTargets and their log levels.
+    *@param  intLogLevel Level at which to log the message.
+    *@param  strMsg      String to write to the log entry.
+    **************************************************************************/
+    private void logToTargets(TargetList targetList,
+                              int        intLogLevel,
+                              String     strMsg)
+    {
         try
         {
-            Date date           = new Date();
-            String strDateTime   
-                    = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS EEE")
-                          .format(date);
-            String strThreadName = Thread.currentThread().getName();
-            String strMillisecs  = Long.toString(date.getTime());
 //??System.gc();
             long   lngTotalMem   = Runtime.getRuntime().totalMemory();
             String strUsedMem    = Long.toString
                                         (lngTotalMem
                                          - Runtime.getRuntime().freeMemory()
                                         );
-            String strTotalMem   = Long.toString(lngTotalMem);
-            String strLevel      = Integer.toString(intLogLevel);
-            Entry  entry = new Entry
-                                (strDateTime,
-                                 m_strAppName,
-                                 m_strAppVersion,
-                                 m_strUsername,
-                                 strThreadName,
-                                 strMillisecs,
-                                 strUsedMem,
-                                 strTotalMem,
-                                 strLevel,
-                                 strMsg);
-
-            for (Iterator i = m_alTargets.iterator(); i.hasNext(); )
+            Entry  entry = createEntry(System.currentTimeMillis(),
+                                       Thread.currentThread().getName(),
+                                       OperationContext.get().getUserInfo(),
+                                       strUsedMem,
+                                       Long.toString(lngTotalMem),
+                                       intLogLevel,
+                                       strMsg);
+
+            final LoggerTarget[] arrTargets   = targetList.m_arrTargets;
+            final int[]          arrLogLevels = targetList.m_arrLogLevels;
+            for (int i = 0; i < arrTargets.length; i++)
             {
-                LoggerTarget target = (LoggerTarget)i.next();
+                if (arrLogLevels[i] < intLogLevel)
+                {
+                    continue;
+                }
                 try
                 {
-                    target.log(entry);
+                    arrTargets[i].log(entry);
                 }
                 catch (Throwable e)
                 {
@@ -491,6 +950,13 @@ public class Logger
                  + ((e == null) 
                     ? "(No stack trace available to logger.)" 
                     : ExcUtil.getStackTrace(e)));
+            FlightRecorderLoggerTarget recorder = (logger == null)
+                                                  ? null
+                                                  : logger.getFlightRecorder();
+            if (recorder != null)
+            {
+                recorder.dumpOnError();
+            }
         }
         catch(Throwable eSuppressed)
         {
@@ -814,6 +1280,25 @@ public class Logger
                 Logger.logErrorSafely
                                 (null, 1, "No logger and no exception", null);
 
+                System.out.println ("   Adding a target with its own log level 4...");
+                LoggerTarget target = new WriterLoggerTarget
+                                        (new PrintWriter(System.out));
+                logger.addTarget(target, 4);
+                System.out.println ("   Max enabled log level is " 
+                                    + logger.getMaxEnabledLogLevel());
+                System.out.println ("   Logging at level 3 (logged once)...");
+                logger.log(3, "Line of text logged at level 3.");
+                System.out.println ("   Logging at level 5 (not logged)...");
+                logger.log(5, "Line of text logged at level 5.");
+                System.out.println ("   Setting target's log level to 1...");
+                logger.setTargetLogLevel(target, 1);
+                System.out.println ("   Max enabled log level is " 
+                                    + logger.getMaxEnabledLogLevel());
+                System.out.println ("   Removing target...");
+                logger.removeTarget(target);
+                System.out.println ("   Logging at level 1...");
+                logger.log(1, "Line of text logged at level 1.");
+
                 System.out.println ("   Setting singleton...");
                 Logger.setSingleton(logger);
 
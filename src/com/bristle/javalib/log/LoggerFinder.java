@@ -17,6 +17,7 @@
 package com.bristle.javalib.log;
 
 import com.bristle.javalib.net.http.HttpUtil;
+import com.bristle.javalib.net.http.RequestCache;
 import com.bristle.javalib.util.ObjUtil;
 
 import javax.servlet.http.HttpServletRequest;
@@ -43,6 +44,12 @@ import javax.servlet.http.HttpServletRequest;
 *         the Logger global singleton.
 *<b>Anticipated Changes:</b>
 *<b>Notes:</b>
+*       - The Logger found in the Session or ServletContext is cached in the
+*         HttpServletRequest via RequestCache, so repeated calls to find() 
+*         during the same request, even via different LoggerFinder 
+*         instances, do not search those contexts again.  See RequestCache 
+*         for how the cached Logger is invalidated when those contexts 
+*         change.
 *<b>Implementation Notes:</b>
 *<b>Portability Issues:</b>
 *<b>Revision History:</b>
@@ -63,7 +70,9 @@ public class LoggerFinder
     //--
     //-- Internal instance variables
     //--
-    private HttpServletRequest m_request = null;
+    private HttpServletRequest m_request             = null;
+    private Object             m_objCached           = RequestCache.objNOT_CACHED;
+    private int                m_intCachedGeneration = 0;
 
     //--
     //-- Local constants
@@ -96,14 +105,7 @@ public class LoggerFinder
         {
             return null;
         }
-        Logger logger = (Logger)HttpUtil.getSessionAttribute
-                                (m_request, strLOGGER_ATTRIBUTE_NAME);
-        if (logger != null)
-        {
-            return logger;
-        }
-        logger = (Logger)HttpUtil.getServletAttribute
-                                (m_request, strLOGGER_ATTRIBUTE_NAME);
+        Logger logger = findInContexts();
         if (logger != null)
         {
             return logger;
@@ -116,6 +118,38 @@ public class LoggerFinder
         return null; 
     }
 
+    /**************************************************************************
+    * Find an existing Logger in the Session context or ServletContext of the
+    * previously specified HttpServletRequest, using the value cached by a 
+    * previous call during the same request, if still valid.
+    *@return               The found Logger or null.
+    **************************************************************************/
+    private Logger findInContexts()
+    {
+        int intGeneration = RequestCache.getGeneration(strLOGGER_ATTRIBUTE_NAME);
+        if (m_objCached != RequestCache.objNOT_CACHED 
+            && m_intCachedGeneration == intGeneration)
+        {
+            return (Logger)m_objCached;
+        }
+        Object obj = RequestCache.get(m_request, strLOGGER_ATTRIBUTE_NAME);
+        if (obj == RequestCache.objNOT_CACHED)
+        {
+            obj = HttpUtil.getSessionAttribute
+                                (m_request, strLOGGER_ATTRIBUTE_NAME);
+            if (obj == null)
+            {
+                obj = HttpUtil.getServletAttribute
+                                (m_request, strLOGGER_ATTRIBUTE_NAME);
+            }
+            RequestCache.put
+                    (m_request, strLOGGER_ATTRIBUTE_NAME, obj, intGeneration);
+        }
+        m_objCached           = obj;
+        m_intCachedGeneration = intGeneration;
+        return (Logger)obj;
+    }
+
     /**************************************************************************
     * Find an existing Logger, suppressing all possible errors.  It is safe to 
     * call this method from an exception handler or finally clause without fear 
@@ -149,6 +183,7 @@ public class LoggerFinder
     {
         HttpUtil.setSessionAttribute
                         (m_request, strLOGGER_ATTRIBUTE_NAME, logger);
+        RequestCache.invalidate(strLOGGER_ATTRIBUTE_NAME);
     }
 
     /**************************************************************************
@@ -160,6 +195,7 @@ public class LoggerFinder
     {
         HttpUtil.setServletAttribute
                         (m_request, strLOGGER_ATTRIBUTE_NAME, logger);
+        RequestCache.invalidate(strLOGGER_ATTRIBUTE_NAME);
     }
 
     /**************************************************************************
@@ -188,11 +188,12 @@ package com.bristle.javalib.log;
 *           instance for each concurrent or nested operation.            
 *
 *   - You can also use a LoggerUtil simply to access an existing Logger to get
-*     the BEGIN END functionality, without disturbing the username of the 
-*     existing Logger.  This is especially useful when the Logger's username 
-*     is already initialized with info not available to you.  Initialize it 
-*     from the Logger, and set the PreserveLoggerUsername flag before calling
-*     any methods that specify a username, user location, or user agent.   
+*     the BEGIN END functionality, without disturbing the user info already
+*     set for the current thread or the username of the existing Logger.  
+*     This is especially useful when the user info is already initialized 
+*     with info not available to you.  Initialize it from the Logger, and 
+*     set the PreserveLoggerUsername flag before calling any methods that 
+*     specify a username, user location, or user agent.   
 *     
 *       LoggerUtil loggerUtil = new LoggerUtil
 *           (safelyWithoutThrowingAnyExceptionGetOrCreateLoggerSomehow());
@@ -209,12 +210,23 @@ package com.bristle.javalib.log;
 *<b>Effects:</b>
 *<b>Anticipated Changes:</b>
 *<b>Notes:</b>
+*   - The <UserInfo> field is not stored in the Logger, which may be shared
+*     by many concurrent requests.  It is bound to the current thread via 
+*     OperationContext.setUserInfo(), and Logger records it in each entry 
+*     logged by the thread.  logEnd() always restores the user info that 
+*     was bound to the thread when logBegin() was called, which is none for
+*     the outermost operation, so that it does not leak to the next request
+*     run by a pooled thread.  Code that calls log() without logBegin() and
+*     logEnd() should call clearLoggersUserInfoString() in a finally block.
 *<b>Implementation Notes:</b>
+*   - The <UserInfo> string is formatted once when the username, location
+*     or user agent is specified, not once per call to the Logger.
 *<b>Portability Issues:</b>
 *<b>Revision History:</b>
 *   $Log$
 *</pre>
 *@see Logger
+*@see OperationContext
 ******************************************************************************/
 public class LoggerUtil
 {
@@ -234,9 +246,14 @@ public class LoggerUtil
     private int     m_intLogLevelOfOperation    = 0;
     private String  m_strOperationName          = "";
     private long    m_lngStartTime              = 0;
+    private long    m_lngStartNanos             = 0;
+    private boolean m_blnTiming                 = false;
+    private boolean m_blnErrorLogged            = false;
     private String  m_strUsername               = "";
     private String  m_strUserLocation           = "";
     private String  m_strUserAgent              = "";
+    private String  m_strUserInfo               = "anonymous";
+    private String  m_strPreviousUserInfo       = null;
     private boolean m_blnPreserveLoggerUsername = false;
     private boolean m_blnShowElapsedTime        = true;
     private boolean m_blnAborted                = false;
@@ -303,13 +320,24 @@ public class LoggerUtil
         m_strUsername               = strUsername;
         m_strUserLocation           = strUserLocation;
         m_strUserAgent              = strUserAgent;
+        formatUserInfo();
     }
 
     /**************************************************************************
-    * Set the Logger to impersonate the previously specified user, location,
-    * and user agent, rather than logging all entries as the current username
-    * logged into the computer, which may be a Web Server.  Log the user as 
-    * one of:
+    * Format and remember the user info string, so that it is not rebuilt on
+    * each call to the Logger.
+    **************************************************************************/
+    private void formatUserInfo()
+    {
+        m_strUserInfo = OperationContext.formatUserInfo
+                            (m_strUsername, m_strUserLocation, m_strUserAgent);
+    }
+
+    /**************************************************************************
+    * Bind the previously specified user, location, and user agent to the
+    * current thread, so that the Logger records them instead of its own
+    * username, which may be the username logged into the computer, such as
+    * a Web Server.  Log the user as one of:
     *            username@location/useragent
     *            anonymous@location/useragent
     *            username/useragent
@@ -321,6 +349,8 @@ public class LoggerUtil
     * depending on whether the specified username, location and/or user agent
     * are null.
     * See the "Usage" section of this class for examples.
+    * The name of this method is historical.  It no longer changes the 
+    * username of the Logger.
     **************************************************************************/
     public void setLoggersUserInfoString()
     {
@@ -328,25 +358,19 @@ public class LoggerUtil
         {
             return;
         }
-        if (m_logger != null)
-        {
-            m_logger.setUsername
-                    (((m_strUsername == null || m_strUsername.equals(""))
-                      ? "anonymous"
-                      : m_strUsername
-                     )
-                     +
-                     ((m_strUserLocation == null || m_strUserLocation.equals(""))
-                      ? ""
-                      : "@" + m_strUserLocation
-                     )
-                     +
-                     ((m_strUserAgent == null || m_strUserAgent.equals(""))
-                      ? ""
-                      : "/" + m_strUserAgent
-                     )
-                    );
-        }
+        OperationContext.get().setUserInfo(m_strUserInfo);
+    }
+
+    /**************************************************************************
+    * Unbind all user info from the current thread, so that the Logger 
+    * records its own username again.  Call this in a finally block at the
+    * end of a request handled by a pooled thread, if the user info may have
+    * been bound without a matching logEnd(), so that it is not recorded in
+    * the entries logged for the next request run by the thread.
+    **************************************************************************/
+    public static void clearLoggersUserInfoString()
+    {
+        OperationContext.get().setUserInfo(null);
     }
 
     /**************************************************************************
@@ -360,6 +384,10 @@ public class LoggerUtil
     {
         m_strOperationName = strOperationName;
         m_lngStartTime     = System.currentTimeMillis();
+        m_lngStartNanos    = System.nanoTime();
+        m_blnTiming        = true;
+        m_blnErrorLogged   = false;
+        m_strPreviousUserInfo = OperationContext.get().getUserInfo();
         
         log("BEGIN " + m_strOperationName);
     }
@@ -454,12 +482,9 @@ public class LoggerUtil
     public void log(int intLogLevelOfMessage, String strMsg)
     {
         // Impersonate the specified user.
-        // Note:  Explicitly set the user info for each call to the Logger, 
-        //        in case the Logger object is being shared by multiple users.
-        //        ?? Should change this to pass them as params on each call to 
-        //        ?? the logger, instead of storing them in the Logger object,
-        //        ?? and then racing to make the call before another user of 
-        //        ?? the same Logger object changes them.
+        // Note:  Explicitly bind the user info to the thread for each call 
+        //        to the Logger, in case another LoggerUtil has bound a 
+        //        different user to this thread since logBegin().
         setLoggersUserInfoString();
         Logger.logSafely(m_logger, intLogLevelOfMessage, strMsg);
     }
@@ -490,12 +515,10 @@ public class LoggerUtil
     public void logError(String strMsg, Throwable exception)
     {
         // Impersonate the specified user.
-        // Note:  Explicitly set the user info for each call to the Logger, 
-        //        in case the Logger object is being shared by multiple users.
-        //        ?? Should change this to pass them as params on each call to 
-        //        ?? the logger, instead of storing them in the Logger object,
-        //        ?? and then racing to make the call before another user of 
-        //        ?? the same Logger object changes them.
+        // Note:  Explicitly bind the user info to the thread for each call 
+        //        to the Logger, in case another LoggerUtil has bound a 
+        //        different user to this thread since logBegin().
+        m_blnErrorLogged = true;
         setLoggersUserInfoString();
         Logger.logErrorSafely
                         (m_logger, 
@@ -524,10 +547,29 @@ public class LoggerUtil
     }
     
     /**************************************************************************
-    * Log the end of an operation.
+    * Log the end of an operation, and record its elapsed time in the 
+    * Logger's OperationStats, if any.  The operation counts as an error 
+    * if it was aborted or if logError() was called since logBegin().
+    * The elapsed time is recorded only once per call to logBegin(), so it 
+    * is not recorded if logBegin() was never called, or if logEnd() was 
+    * already called since.
+    * Restores the user info that was bound to the current thread when 
+    * logBegin() was called, or unbinds it if logBegin() was not called, 
+    * even if the PreserveLoggerUsername flag is set.
     **************************************************************************/
     public void logEnd()
     {
+        OperationStats stats = (m_logger == null || !m_blnTiming) 
+                               ? null 
+                               : m_logger.getOperationStats();
+        if (stats != null)
+        {
+            stats.record(m_strOperationName, 
+                         System.nanoTime() - m_lngStartNanos, 
+                         m_blnAborted || m_blnErrorLogged);
+        }
+        m_blnTiming     = false;
+        m_lngStartNanos = 0;
         log("END   " 
             + m_strOperationName
             + (m_blnAborted ? " (ABORTED)" : "")
@@ -536,6 +578,8 @@ public class LoggerUtil
                : ""
               )
            );
+        OperationContext.get().setUserInfo(m_strPreviousUserInfo);
+        m_strPreviousUserInfo = null;
     }
 
     /**************************************************************************
@@ -608,7 +652,7 @@ public class LoggerUtil
     public void setUsername(String strUsername)
     {
         m_strUsername = strUsername;
-        setLoggersUserInfoString();
+        formatUserInfo();
     }
 
     /**************************************************************************
@@ -629,7 +673,7 @@ public class LoggerUtil
     public void setUserLocation(String strUserLocation)
     {
         m_strUserLocation = strUserLocation;
-        setLoggersUserInfoString();
+        formatUserInfo();
     }
 
     /**************************************************************************
@@ -651,7 +695,7 @@ public class LoggerUtil
     public void setUserAgent(String strUserAgent)
     {
         m_strUserAgent = strUserAgent;
-        setLoggersUserInfoString();
+        formatUserInfo();
     }
 
     /**************************************************************************
@@ -687,9 +731,10 @@ public class LoggerUtil
 
     /**************************************************************************
     * Set the PreserveLoggerUsername flag.  This causes the LoggerUtil to not
-    * set the Logger's username to the structured "username@location/agent" 
-    * value.  This is useful when the Logger's username is already initialized 
-    * with info not available to you.   
+    * bind its structured "username@location/agent" value to the current 
+    * thread, leaving the user info already bound to the thread, or the 
+    * Logger's username, in effect.  This is useful when the user info is 
+    * already initialized with info not available to you.   
     *@param blnPreserveLoggerUsername  The value to set. 
     **************************************************************************/
     public void setPreserveLoggerUsername(boolean blnPreserveLoggerUsername)
@@ -0,0 +1,601 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.io.PrintWriter;     //-- For Tester only.
+
+// OperationContext
+/******************************************************************************
+* This class is a per-thread context for logging nested BEGIN/END operations,
+* like LoggerUtil, but reused for all operations of a thread instead of
+* being created for each operation.  It also holds a per-thread map of
+* named values (a "mapped diagnostic context") that callers can use to
+* carry info like a request id between the layers of a request, and the
+* user info that Logger records as the username of each entry logged by
+* the thread.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*       OperationContext ctx = OperationContext.get();
+*       ctx.begin(logger, intLogLevel, "MyClass.myMethod()");
+*       try
+*       {
+*           ctx.logNested("Log this more detailed message.");
+*           doSomething();
+*       }
+*       catch (Throwable exception)
+*       {
+*           ctx.setAborted(true);
+*           throw exception;
+*       }
+*       finally
+*       {
+*           ctx.end();
+*       }
+*
+*   - Operations begun while another operation of the same thread is in
+*     progress can omit the log level, in which case they are logged at
+*     one level deeper than the enclosing operation:
+*       ctx.begin(logger, "MyClass.myNestedMethod()");
+*
+*   - To use the map of named values:
+*       OperationContext.get().put("requestId", strRequestId);
+*       ...
+*       String strRequestId = OperationContext.get().getValue("requestId");
+*
+*   - To log all entries of the current request as the requesting user,
+*     regardless of which Logger they are logged to:
+*       OperationContext.get().setUserInfo
+*                           (strUsername, strIPAddress, strUserAgentAbbrev);
+*       try
+*       {
+*           ...
+*       }
+*       finally
+*       {
+*           OperationContext.get().clear();
+*       }
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*   - Each call to begin() is paired with a call to end() on the same
+*     thread, typically via a finally clause.
+*<b>Effects:</b>
+*   - Logs BEGIN and END lines in the same format as LoggerUtil:
+*                   BEGIN ConnectionPoolUtil.getIntValueFromDB()
+*                   . BEGIN ConnectionPoolUtil.getResultSet()
+*                   . . select count(*) from users
+*                   . END   ConnectionPoolUtil.getResultSet() : 5
+*                   END   ConnectionPoolUtil.getIntValueFromDB() : 6
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*   - This class never changes the username of the Logger.  The user info
+*     is bound to the thread instead, so concurrent requests sharing one
+*     Logger cannot mislabel each other's log entries.
+*<b>Implementation Notes:</b>
+*   - The stack of operations is kept in arrays that are allocated once per
+*     thread and grown only when the nesting gets deeper than ever before.
+*     Therefore, begin() and end() allocate nothing when the Logger would
+*     not log the operation.
+*   - Elapsed times are measured via System.nanoTime(), which is not
+*     affected by changes to the system clock.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see LoggerUtil
+******************************************************************************/
+public class OperationContext
+{
+
+    //--
+    //-- Class variables
+    //--
+    private static final ThreadLocal st_threadLocal = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new OperationContext();
+        }
+    };
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+    private boolean m_blnShowElapsedTime = true;
+    private String  m_strUserInfo        = null;
+
+    //--
+    //-- Internal instance variables
+    //--
+    private int       m_intDepth       = 0;
+    private Logger[]  m_arrLoggers     = new Logger[8];
+    private String[]  m_arrNames       = new String[8];
+    private int[]     m_arrLogLevels   = new int[8];
+    private long[]    m_arrStartNanos  = new long[8];
+    private boolean[] m_arrEnabled     = new boolean[8];
+    private boolean[] m_arrAborted     = new boolean[8];
+    private Map       m_mapValues      = null;
+
+    /**************************************************************************
+    * Constructor.  Private, so that instances are only created via get().
+    **************************************************************************/
+    private OperationContext()
+    {
+    }
+
+    /**************************************************************************
+    * Get the OperationContext of the current thread, creating it if
+    * necessary.
+    *@return            The OperationContext.
+    **************************************************************************/
+    public static OperationContext get()
+    {
+        return (OperationContext)st_threadLocal.get();
+    }
+
+    /**************************************************************************
+    * Return true if the Logger would log messages at the specified level,
+    * to any LoggerTarget or to its FlightRecorderLoggerTarget.
+    *@param  logger      The Logger, or null.
+    *@param  intLogLevel The log level.
+    *@return             true if enabled.
+    **************************************************************************/
+    private static boolean isEnabled(Logger logger, int intLogLevel)
+    {
+        return (logger != null && logger.isLogLevelEnabled(intLogLevel));
+    }
+
+    /**************************************************************************
+    * Grow the arrays of the operation stack to hold one more operation,
+    * if necessary.
+    **************************************************************************/
+    private void ensureCapacity()
+    {
+        if (m_intDepth < m_arrNames.length)
+        {
+            return;
+        }
+        int intNewLength = m_arrNames.length * 2;
+        Logger[]  arrLoggers    = new Logger[intNewLength];
+        String[]  arrNames      = new String[intNewLength];
+        int[]     arrLogLevels  = new int[intNewLength];
+        long[]    arrStartNanos = new long[intNewLength];
+        boolean[] arrEnabled    = new boolean[intNewLength];
+        boolean[] arrAborted    = new boolean[intNewLength];
+        System.arraycopy(m_arrLoggers,    0, arrLoggers,    0, m_intDepth);
+        System.arraycopy(m_arrNames,      0, arrNames,      0, m_intDepth);
+        System.arraycopy(m_arrLogLevels,  0, arrLogLevels,  0, m_intDepth);
+        System.arraycopy(m_arrStartNanos, 0, arrStartNanos, 0, m_intDepth);
+        System.arraycopy(m_arrEnabled,    0, arrEnabled,    0, m_intDepth);
+        System.arraycopy(m_arrAborted,    0, arrAborted,    0, m_intDepth);
+        m_arrLoggers    = arrLoggers;
+        m_arrNames      = arrNames;
+        m_arrLogLevels  = arrLogLevels;
+        m_arrStartNanos = arrStartNanos;
+        m_arrEnabled    = arrEnabled;
+        m_arrAborted    = arrAborted;
+    }
+
+    /**************************************************************************
+    * Begin an operation, logging a BEGIN line if the Logger is logging at
+    * the specified level.
+    *@param  logger      The Logger to log to, or null for no logging.
+    *@param  intLogLevel The log level of the operation.
+    *@param  strName     The name of the operation.
+    **************************************************************************/
+    public void begin(Logger logger, int intLogLevel, String strName)
+    {
+        ensureCapacity();
+        boolean blnEnabled = isEnabled(logger, intLogLevel);
+        m_arrLoggers   [m_intDepth] = logger;
+        m_arrNames     [m_intDepth] = strName;
+        m_arrLogLevels [m_intDepth] = intLogLevel;
+        m_arrStartNanos[m_intDepth] = System.nanoTime();
+        m_arrEnabled   [m_intDepth] = blnEnabled;
+        m_arrAborted   [m_intDepth] = false;
+        m_intDepth++;
+        if (blnEnabled)
+        {
+            Logger.logSafely(logger, intLogLevel, "BEGIN " + strName);
+        }
+    }
+
+    /**************************************************************************
+    * Begin an operation at one log level deeper than the current operation,
+    * or at level 1 if there is no current operation.
+    *@param  logger      The Logger to log to, or null for no logging.
+    *@param  strName     The name of the operation.
+    **************************************************************************/
+    public void begin(Logger logger, String strName)
+    {
+        begin(logger, getLogLevelOfOperation() + 1, strName);
+    }
+
+    /**************************************************************************
+    * Log a message at the log level of the current operation.  Does nothing
+    * if there is no current operation.
+    *@param  strMsg     Message to log.
+    **************************************************************************/
+    public void log(String strMsg)
+    {
+        if (m_intDepth > 0 && m_arrEnabled[m_intDepth - 1])
+        {
+            Logger.logSafely(m_arrLoggers[m_intDepth - 1],
+                             m_arrLogLevels[m_intDepth - 1],
+                             strMsg);
+        }
+    }
+
+    /**************************************************************************
+    * Log a message at one more than the log level of the current operation.
+    * Does nothing if there is no current operation.
+    *@param  strMsg     Message to log.
+    **************************************************************************/
+    public void logNested(String strMsg)
+    {
+        if (m_intDepth > 0)
+        {
+            Logger logger = m_arrLoggers[m_intDepth - 1];
+            int intLogLevel = m_arrLogLevels[m_intDepth - 1] + 1;
+            if (isEnabled(logger, intLogLevel))
+            {
+                Logger.logSafely(logger, intLogLevel, strMsg);
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Set the aborted flag of the current operation.  This causes end() to
+    * add " (ABORTED)" to the END line.  Does nothing if there is no current
+    * operation.
+    *@param  blnAborted  The value to set.
+    **************************************************************************/
+    public void setAborted(boolean blnAborted)
+    {
+        if (m_intDepth > 0)
+        {
+            m_arrAborted[m_intDepth - 1] = blnAborted;
+        }
+    }
+
+    /**************************************************************************
+    * End the current operation, logging an END line with the elapsed time
+    * if the BEGIN line was logged, and recording the elapsed time in the
+    * Logger's OperationStats, if any.  Does nothing if there is no current
+    * operation.
+    *@return            The elapsed time of the operation in nanoseconds,
+    *                   or 0 if there is no current operation.
+    **************************************************************************/
+    public long end()
+    {
+        if (m_intDepth == 0)
+        {
+            return 0;
+        }
+        m_intDepth--;
+        long lngElapsedNanos = System.nanoTime()
+                               - m_arrStartNanos[m_intDepth];
+        Logger logger = m_arrLoggers[m_intDepth];
+        if (m_arrEnabled[m_intDepth])
+        {
+            Logger.logSafely
+                (logger,
+                 m_arrLogLevels[m_intDepth],
+                 "END   "
+                 + m_arrNames[m_intDepth]
+                 + (m_arrAborted[m_intDepth] ? " (ABORTED)" : "")
+                 + (m_blnShowElapsedTime
+                    ? " : " + (lngElapsedNanos / 1000000)
+                    : ""
+                   )
+                );
+        }
+        OperationStats stats = (logger == null)
+                               ? null
+                               : logger.getOperationStats();
+        if (stats != null)
+        {
+            stats.record(m_arrNames[m_intDepth],
+                         lngElapsedNanos,
+                         m_arrAborted[m_intDepth]);
+        }
+
+        //-- Don't hold references to objects no longer in use.
+        m_arrLoggers[m_intDepth] = null;
+        m_arrNames  [m_intDepth] = null;
+        return lngElapsedNanos;
+    }
+
+    /**************************************************************************
+    * Get the number of operations currently in progress on this thread.
+    *@return            The nesting depth, or 0.
+    **************************************************************************/
+    public int getDepth()
+    {
+        return m_intDepth;
+    }
+
+    /**************************************************************************
+    * Get the name of the current operation.
+    *@return            The name, or null if there is no current operation.
+    **************************************************************************/
+    public String getOperationName()
+    {
+        return (m_intDepth == 0) ? null : m_arrNames[m_intDepth - 1];
+    }
+
+    /**************************************************************************
+    * Get the log level of the current operation.
+    *@return            The log level, or 0 if there is no current operation.
+    **************************************************************************/
+    public int getLogLevelOfOperation()
+    {
+        return (m_intDepth == 0) ? 0 : m_arrLogLevels[m_intDepth - 1];
+    }
+
+    /**************************************************************************
+    * Get the time elapsed since the beginning of the current operation.
+    *@return            The elapsed time in nanoseconds, or 0 if there is no
+    *                   current operation.
+    **************************************************************************/
+    public long getElapsedNanos()
+    {
+        return (m_intDepth == 0)
+               ? 0
+               : System.nanoTime() - m_arrStartNanos[m_intDepth - 1];
+    }
+
+    /**************************************************************************
+    * Set the flag about whether to show elapsed time on end() calls.
+    *@param  blnVal The new value.
+    **************************************************************************/
+    public void setShowElapsedTime(boolean blnVal)
+    {
+        m_blnShowElapsedTime = blnVal;
+    }
+
+    /**************************************************************************
+    * Get the flag about whether to show elapsed time on end() calls.
+    *@return The value of the flag.
+    **************************************************************************/
+    public boolean getShowElapsedTime()
+    {
+        return m_blnShowElapsedTime;
+    }
+
+    /**************************************************************************
+    * Store a named value in the context of this thread.
+    *@param  strKey     The name of the value.
+    *@param  strValue   The value, or null to remove it.
+    **************************************************************************/
+    public void put(String strKey, String strValue)
+    {
+        if (strValue == null)
+        {
+            remove(strKey);
+            return;
+        }
+        if (m_mapValues == null)
+        {
+            m_mapValues = new HashMap();
+        }
+        m_mapValues.put(strKey, strValue);
+    }
+
+    /**************************************************************************
+    * Get a named value from the context of this thread.
+    *@param  strKey     The name of the value.
+    *@return            The value, or null if not found.
+    **************************************************************************/
+    public String getValue(String strKey)
+    {
+        return (m_mapValues == null)
+               ? null
+               : (String)m_mapValues.get(strKey);
+    }
+
+    /**************************************************************************
+    * Remove a named value from the context of this thread.
+    *@param  strKey     The name of the value.
+    **************************************************************************/
+    public void remove(String strKey)
+    {
+        if (m_mapValues != null)
+        {
+            m_mapValues.remove(strKey);
+        }
+    }
+
+    /**************************************************************************
+    * Format user info as one of:
+    *<pre>
+    *            username@location/useragent
+    *            anonymous@location/useragent
+    *            username/useragent
+    *            anonymous/useragent
+    *            username@location
+    *            anonymous@location
+    *            username
+    *            anonymous
+    *</pre>
+    * depending on whether the specified username, location and/or user agent
+    * are null or empty.
+    *@param  strUsername        Name of user, or null to use "anonymous".
+    *@param  strUserLocation    Location (typically IP Address or hostname),
+    *                           or null to display no location and no "@".
+    *@param  strUserAgent       User agent, or null to display no user agent
+    *                           and no "/".
+    *@return                    The formatted user info.
+    **************************************************************************/
+    public static String formatUserInfo
+                    (String strUsername
+                    ,String strUserLocation
+                    ,String strUserAgent)
+    {
+        return ((strUsername == null || strUsername.equals(""))
+                ? "anonymous"
+                : strUsername
+               )
+               +
+               ((strUserLocation == null || strUserLocation.equals(""))
+                ? ""
+                : "@" + strUserLocation
+               )
+               +
+               ((strUserAgent == null || strUserAgent.equals(""))
+                ? ""
+                : "/" + strUserAgent
+               );
+    }
+
+    /**************************************************************************
+    * Set the user info of this thread, which Logger records as the username
+    * of each entry logged by this thread, in place of its own username.
+    *@param  strUserInfo    The formatted user info, or null to use the
+    *                       username of the Logger.
+    **************************************************************************/
+    public void setUserInfo(String strUserInfo)
+    {
+        m_strUserInfo = strUserInfo;
+    }
+
+    /**************************************************************************
+    * Set the user info of this thread, formatted by formatUserInfo().
+    *@param  strUsername        Name of user, or null to use "anonymous".
+    *@param  strUserLocation    Location, or null for none.
+    *@param  strUserAgent       User agent, or null for none.
+    **************************************************************************/
+    public void setUserInfo
+                    (String strUsername
+                    ,String strUserLocation
+                    ,String strUserAgent)
+    {
+        m_strUserInfo = formatUserInfo
+                            (strUsername, strUserLocation, strUserAgent);
+    }
+
+    /**************************************************************************
+    * Get the user info of this thread.
+    *@return            The formatted user info, or null if not set.
+    **************************************************************************/
+    public String getUserInfo()
+    {
+        return m_strUserInfo;
+    }
+
+    /**************************************************************************
+    * Remove the user info, all named values and all operations from the
+    * context of this thread.  Useful at the end of a request, when the
+    * thread is returned to a pool, so that the next request does not
+    * inherit them, and in case an operation was begun and never ended.
+    **************************************************************************/
+    public void clear()
+    {
+        m_strUserInfo = null;
+        if (m_mapValues != null)
+        {
+            m_mapValues.clear();
+        }
+        while (m_intDepth > 0)
+        {
+            m_intDepth--;
+            m_arrLoggers[m_intDepth] = null;
+            m_arrNames  [m_intDepth] = null;
+        }
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+                Logger logger = new Logger();
+                Logger.WriterLoggerTarget target =
+                        new Logger.WriterLoggerTarget
+                                (new PrintWriter(System.out));
+                target.setShowDynamicFields(false);
+                logger.addTarget(target);
+                logger.setLogLevel(3);
+
+                System.out.println ("   Logging nested operations...");
+                OperationContext ctx = OperationContext.get();
+                ctx.setShowElapsedTime(false);
+                ctx.begin(logger, 1, "Operation1");
+                ctx.logNested("Detail of Operation1");
+                ctx.begin(logger, "Operation1a");
+                System.out.println ("   Depth is " + ctx.getDepth());
+                ctx.begin(logger, "Operation1a1");
+                ctx.logNested("Detail of Operation1a1 (not logged)");
+                ctx.end();
+                ctx.setAborted(true);
+                ctx.end();
+                ctx.end();
+                System.out.println ("   Depth is " + ctx.getDepth());
+
+                System.out.println ("   Ending with no operation (ignored)...");
+                ctx.end();
+
+                System.out.println ("   Logging a disabled operation...");
+                ctx.begin(logger, 5, "Operation2 (not logged)");
+                ctx.end();
+
+                System.out.println ("   Using named values...");
+                ctx.put("requestId", "12345");
+                System.out.println ("   requestId = "
+                                    + ctx.getValue("requestId"));
+                ctx.clear();
+                System.out.println ("   requestId = "
+                                    + ctx.getValue("requestId"));
+
+                System.out.println ("   Logging as the thread's user...");
+                logger.setUsername("loggeruser");
+                target.setShowDynamicFields(true);
+                ctx.setUserInfo("fred", "127.0.0.1", "FF2");
+                logger.log(1, "Logged as fred@127.0.0.1/FF2");
+                ctx.setUserInfo(null, null, null);
+                logger.log(1, "Logged as anonymous");
+                ctx.clear();
+                logger.log(1, "Logged as loggeruser");
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,632 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.log;
+
+import java.lang.management.ManagementFactory;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintWriter;     //-- For Tester only.
+
+// OperationStats
+/******************************************************************************
+* This class aggregates the elapsed times of the operations logged via
+* the BEGIN/END calls of LoggerUtil and OperationContext, turning that
+* existing instrumentation into a simple built-in profiler.  For each
+* operation name, it keeps the total count, the count of operations that
+* ended with an error or were aborted, and a histogram of elapsed times
+* over a sliding window, from which latency percentiles are computed.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*       OperationStats stats = new OperationStats();
+*       logger.setOperationStats(stats);
+*       ...
+*       // All LoggerUtil.logEnd() and OperationContext.end() calls for
+*       // operations logged via logger are now recorded, whether or not
+*       // the Logger's log level causes them to be written to the log.
+*       ...
+*       OperationStats.Snapshot snap = stats.getSnapshot
+*                                   ("ConnectionPoolUtil.getResultSet()");
+*       double dblP99 = snap.getPercentileMillis(99);
+*
+*   - To write a report of all operations to a Logger every 5 minutes:
+*       stats.startPeriodicDump(logger, 1, 5 * 60 * 1000);
+*
+*   - To make the statistics visible via JMX:
+*       stats.registerMBean("com.bristle:type=OperationStats,name=MyApp");
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*       - None.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*   - Percentiles are approximate.  Elapsed times are counted in histogram
+*     buckets, each covering a range of about 12% of its values, and the
+*     top of the bucket's range is reported.
+*   - Only the first intMaxOperations distinct operation names are tracked
+*     separately.  All others are combined under the name
+*     strOTHER_OPERATIONS, so that operation names built from SQL strings
+*     or other varying text cannot use up unbounded memory.
+*<b>Implementation Notes:</b>
+*   - The sliding window is divided into a fixed number of slots, each with
+*     its own histogram.  When a slot becomes too old to be in the window,
+*     it is cleared and reused, so recording allocates nothing.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see LoggerUtil
+*@see OperationContext
+******************************************************************************/
+public class OperationStats implements OperationStatsMBean
+{
+
+    //--
+    //-- Constants for readability
+    //--
+    public static final long   lngDEFAULT_WINDOW_MILLIS   = 5 * 60 * 1000;
+    public static final int    intDEFAULT_SLOT_COUNT      = 5;
+    public static final int    intDEFAULT_MAX_OPERATIONS  = 1000;
+    public static final String strOTHER_OPERATIONS        = "(other operations)";
+
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+    private final long m_lngWindowMillis;
+    private final int  m_intSlotCount;
+    private final int  m_intMaxOperations;
+
+    //--
+    //-- Internal instance variables
+    //--
+    private final long              m_lngSlotMillis;
+    private final ConcurrentHashMap m_mapStats = new ConcurrentHashMap();
+    private Timer                   m_timer    = null;
+
+    //--
+    //-- Local constants
+    //--
+    //-- Number of linear sub-buckets per power of 2 in the histograms.
+    private static final int intSUB_BUCKET_BITS  = 3;
+    private static final int intSUB_BUCKET_COUNT = 1 << intSUB_BUCKET_BITS;
+    private static final int intBUCKET_COUNT     = 40 * intSUB_BUCKET_COUNT;
+
+    /**************************************************************************
+    * Constructor using a window of lngDEFAULT_WINDOW_MILLIS divided into
+    * intDEFAULT_SLOT_COUNT slots, tracking up to intDEFAULT_MAX_OPERATIONS
+    * operation names.
+    **************************************************************************/
+    public OperationStats()
+    {
+        this(lngDEFAULT_WINDOW_MILLIS,
+             intDEFAULT_SLOT_COUNT,
+             intDEFAULT_MAX_OPERATIONS);
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  lngWindowMillis    The length of the sliding window in
+    *                           milliseconds.
+    *@param  intSlotCount       The number of slots the window is divided
+    *                           into.  The window slides forward one slot at
+    *                           a time.
+    *@param  intMaxOperations   The maximum number of distinct operation
+    *                           names to track separately.
+    **************************************************************************/
+    public OperationStats(long lngWindowMillis,
+                          int  intSlotCount,
+                          int  intMaxOperations)
+    {
+        m_intSlotCount     = Math.max(1, intSlotCount);
+        m_lngSlotMillis    = Math.max(1, lngWindowMillis / m_intSlotCount);
+        m_lngWindowMillis  = m_lngSlotMillis * m_intSlotCount;
+        m_intMaxOperations = intMaxOperations;
+    }
+
+    /**************************************************************************
+    * This class holds the statistics of a single operation name.  All access
+    * is synchronized on the instance.
+    **************************************************************************/
+    private static class Stat
+    {
+        private long     m_lngCount       = 0;
+        private long     m_lngErrorCount  = 0;
+        private long[]   m_arrSlotEpochs;
+        private long[]   m_arrSlotCounts;
+        private long[]   m_arrSlotErrors;
+        private long[][] m_arrSlotBuckets;
+        private Stat(int intSlotCount)
+        {
+            m_arrSlotEpochs  = new long[intSlotCount];
+            m_arrSlotCounts  = new long[intSlotCount];
+            m_arrSlotErrors  = new long[intSlotCount];
+            m_arrSlotBuckets = new long[intSlotCount][intBUCKET_COUNT];
+            Arrays.fill(m_arrSlotEpochs, -1);
+        }
+    }
+
+    /**************************************************************************
+    * This class is a point-in-time copy of the statistics of an operation.
+    **************************************************************************/
+    public static class Snapshot
+    {
+        private final String m_strName;
+        private final long   m_lngCount;
+        private final long   m_lngErrorCount;
+        private final long   m_lngWindowCount;
+        private final long   m_lngWindowErrorCount;
+        private final long[] m_arrBuckets;
+        private Snapshot(String strName,
+                         long   lngCount,
+                         long   lngErrorCount,
+                         long   lngWindowCount,
+                         long   lngWindowErrorCount,
+                         long[] arrBuckets)
+        {
+            m_strName             = strName;
+            m_lngCount            = lngCount;
+            m_lngErrorCount       = lngErrorCount;
+            m_lngWindowCount      = lngWindowCount;
+            m_lngWindowErrorCount = lngWindowErrorCount;
+            m_arrBuckets          = arrBuckets;
+        }
+        public String getName()             { return m_strName;             }
+        public long   getCount()            { return m_lngCount;            }
+        public long   getErrorCount()       { return m_lngErrorCount;       }
+        public long   getWindowCount()      { return m_lngWindowCount;      }
+        public long   getWindowErrorCount() { return m_lngWindowErrorCount; }
+
+        /**********************************************************************
+        * Get the specified percentile of the elapsed times within the
+        * sliding window.
+        *@param  dblPercentile  The percentile, from 0 to 100.
+        *@return                The elapsed time in milliseconds, or 0 if no
+        *                       operation ended within the window.
+        **********************************************************************/
+        public double getPercentileMillis(double dblPercentile)
+        {
+            if (m_lngWindowCount == 0)
+            {
+                return 0;
+            }
+            long lngRank = (long)Math.ceil
+                                (m_lngWindowCount
+                                 * Math.min(100, Math.max(0, dblPercentile))
+                                 / 100);
+            lngRank = Math.max(1, lngRank);
+            long lngSeen = 0;
+            for (int i = 0; i < m_arrBuckets.length; i++)
+            {
+                lngSeen += m_arrBuckets[i];
+                if (lngSeen >= lngRank)
+                {
+                    return getBucketTopMicros(i) / 1000.0;
+                }
+            }
+            return getBucketTopMicros(m_arrBuckets.length - 1) / 1000.0;
+        }
+    }
+
+    /**************************************************************************
+    * Return the index of the histogram bucket for the elapsed time.
+    *@param  lngMicros  The elapsed time in microseconds.
+    *@return            The bucket index.
+    **************************************************************************/
+    private static int getBucketIndex(long lngMicros)
+    {
+        if (lngMicros < intSUB_BUCKET_COUNT)
+        {
+            return (int)Math.max(0, lngMicros);
+        }
+        int intMagnitude = 63 - Long.numberOfLeadingZeros(lngMicros);
+        int intShift     = intMagnitude - intSUB_BUCKET_BITS;
+        int intSub       = (int)(lngMicros >> intShift) & (intSUB_BUCKET_COUNT - 1);
+        int intIndex     = (intShift + 1) * intSUB_BUCKET_COUNT + intSub;
+        return Math.min(intIndex, intBUCKET_COUNT - 1);
+    }
+
+    /**************************************************************************
+    * Return the highest elapsed time counted in the histogram bucket.
+    *@param  intIndex   The bucket index.
+    *@return            The elapsed time in microseconds.
+    **************************************************************************/
+    private static long getBucketTopMicros(int intIndex)
+    {
+        if (intIndex < intSUB_BUCKET_COUNT)
+        {
+            return intIndex;
+        }
+        int intShift = intIndex / intSUB_BUCKET_COUNT - 1;
+        int intSub   = intIndex % intSUB_BUCKET_COUNT;
+        return ((long)(intSUB_BUCKET_COUNT + intSub + 1) << intShift) - 1;
+    }
+
+    /**************************************************************************
+    * Get the Stat for the operation name, creating it if necessary.
+    *@param  strName    The operation name.
+    *@return            The Stat.
+    **************************************************************************/
+    private Stat getOrCreateStat(String strName)
+    {
+        Stat stat = (Stat)m_mapStats.get(strName);
+        if (stat == null)
+        {
+            if (m_mapStats.size() >= m_intMaxOperations)
+            {
+                strName = strOTHER_OPERATIONS;
+                stat = (Stat)m_mapStats.get(strName);
+            }
+            if (stat == null)
+            {
+                stat = new Stat(m_intSlotCount);
+                Stat statExisting = (Stat)m_mapStats.putIfAbsent(strName, stat);
+                if (statExisting != null)
+                {
+                    stat = statExisting;
+                }
+            }
+        }
+        return stat;
+    }
+
+    /**************************************************************************
+    * Record the end of an operation.
+    *@param  strName            The operation name.
+    *@param  lngElapsedNanos    The elapsed time in nanoseconds.
+    *@param  blnError           true if the operation ended with an error or
+    *                           was aborted.
+    **************************************************************************/
+    public void record(String strName, long lngElapsedNanos, boolean blnError)
+    {
+        if (strName == null)
+        {
+            return;
+        }
+        Stat stat = getOrCreateStat(strName);
+        long lngEpoch = System.currentTimeMillis() / m_lngSlotMillis;
+        int intSlot = (int)(lngEpoch % m_intSlotCount);
+        int intBucket = getBucketIndex(lngElapsedNanos / 1000);
+        synchronized (stat)
+        {
+            if (stat.m_arrSlotEpochs[intSlot] != lngEpoch)
+            {
+                //-- The slot holds data too old for the window.  Reuse it.
+                stat.m_arrSlotEpochs[intSlot] = lngEpoch;
+                stat.m_arrSlotCounts[intSlot] = 0;
+                stat.m_arrSlotErrors[intSlot] = 0;
+                Arrays.fill(stat.m_arrSlotBuckets[intSlot], 0);
+            }
+            stat.m_lngCount++;
+            stat.m_arrSlotCounts[intSlot]++;
+            stat.m_arrSlotBuckets[intSlot][intBucket]++;
+            if (blnError)
+            {
+                stat.m_lngErrorCount++;
+                stat.m_arrSlotErrors[intSlot]++;
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Get a snapshot of the statistics of the operation.
+    *@param  strName    The operation name.
+    *@return            The Snapshot, or null if the operation is unknown.
+    **************************************************************************/
+    public Snapshot getSnapshot(String strName)
+    {
+        Stat stat = (Stat)m_mapStats.get(strName);
+        if (stat == null)
+        {
+            return null;
+        }
+        long lngOldestEpoch = System.currentTimeMillis() / m_lngSlotMillis
+                              - m_intSlotCount + 1;
+        long[] arrBuckets = new long[intBUCKET_COUNT];
+        long lngWindowCount = 0;
+        long lngWindowErrors = 0;
+        synchronized (stat)
+        {
+            for (int intSlot = 0; intSlot < m_intSlotCount; intSlot++)
+            {
+                if (stat.m_arrSlotEpochs[intSlot] >= lngOldestEpoch)
+                {
+                    lngWindowCount  += stat.m_arrSlotCounts[intSlot];
+                    lngWindowErrors += stat.m_arrSlotErrors[intSlot];
+                    long[] arrSlotBuckets = stat.m_arrSlotBuckets[intSlot];
+                    for (int i = 0; i < intBUCKET_COUNT; i++)
+                    {
+                        arrBuckets[i] += arrSlotBuckets[i];
+                    }
+                }
+            }
+            return new Snapshot(strName,
+                                stat.m_lngCount,
+                                stat.m_lngErrorCount,
+                                lngWindowCount,
+                                lngWindowErrors,
+                                arrBuckets);
+        }
+    }
+
+    /**************************************************************************
+    * Get snapshots of the statistics of all operations.
+    *@return            The Snapshots, sorted by operation name.
+    **************************************************************************/
+    public Snapshot[] getSnapshots()
+    {
+        String[] arrNames = getOperationNames();
+        Snapshot[] arrSnapshots = new Snapshot[arrNames.length];
+        for (int i = 0; i < arrNames.length; i++)
+        {
+            arrSnapshots[i] = getSnapshot(arrNames[i]);
+        }
+        return arrSnapshots;
+    }
+
+    /**************************************************************************
+    * Get the names of all operations recorded so far.
+    *@return            The operation names, sorted.
+    **************************************************************************/
+    public String[] getOperationNames()
+    {
+        String[] arrNames = (String[])m_mapStats.keySet().toArray(new String[0]);
+        Arrays.sort(arrNames);
+        return arrNames;
+    }
+
+    /**************************************************************************
+    * Get the length of the sliding window used for percentiles.
+    *@return            The window length in milliseconds.
+    **************************************************************************/
+    public long getWindowMillis()
+    {
+        return m_lngWindowMillis;
+    }
+
+    /**************************************************************************
+    * Get the total number of times the operation has ended.
+    *@param  strName    The operation name.
+    *@return            The count, or 0 if the operation is unknown.
+    **************************************************************************/
+    public long getCount(String strName)
+    {
+        Snapshot snap = getSnapshot(strName);
+        return (snap == null) ? 0 : snap.getCount();
+    }
+
+    /**************************************************************************
+    * Get the total number of times the operation has ended with an error or
+    * been aborted.
+    *@param  strName    The operation name.
+    *@return            The count, or 0 if the operation is unknown.
+    **************************************************************************/
+    public long getErrorCount(String strName)
+    {
+        Snapshot snap = getSnapshot(strName);
+        return (snap == null) ? 0 : snap.getErrorCount();
+    }
+
+    /**************************************************************************
+    * Get the specified percentile of the elapsed times of the operation
+    * within the sliding window.
+    *@param  strName        The operation name.
+    *@param  dblPercentile  The percentile, from 0 to 100.
+    *@return                The elapsed time in milliseconds, or 0 if the
+    *                       operation is unknown or has not ended within the
+    *                       window.
+    **************************************************************************/
+    public double getPercentileMillis(String strName, double dblPercentile)
+    {
+        Snapshot snap = getSnapshot(strName);
+        return (snap == null) ? 0 : snap.getPercentileMillis(dblPercentile);
+    }
+
+    /**************************************************************************
+    * Get a report of the statistics of all operations, one line per
+    * operation, in the format:
+    *<pre>
+    *   name : count=n errors=n window=n/n p50=x p90=x p99=x max=x
+    *</pre>
+    * where window shows the count and error count within the sliding
+    * window, and the percentiles are in milliseconds.
+    *@return            The report.
+    **************************************************************************/
+    public String getReport()
+    {
+        DecimalFormat fmt = new DecimalFormat("0.###");
+        StringBuffer sb = new StringBuffer();
+        Snapshot[] arrSnapshots = getSnapshots();
+        for (int i = 0; i < arrSnapshots.length; i++)
+        {
+            Snapshot snap = arrSnapshots[i];
+            if (i > 0)
+            {
+                sb.append("\n");
+            }
+            sb.append(snap.getName())
+              .append(" : count=").append(snap.getCount())
+              .append(" errors=").append(snap.getErrorCount())
+              .append(" window=").append(snap.getWindowCount())
+              .append("/").append(snap.getWindowErrorCount())
+              .append(" p50=").append(fmt.format(snap.getPercentileMillis(50)))
+              .append(" p90=").append(fmt.format(snap.getPercentileMillis(90)))
+              .append(" p99=").append(fmt.format(snap.getPercentileMillis(99)))
+              .append(" max=").append(fmt.format(snap.getPercentileMillis(100)));
+        }
+        return sb.toString();
+    }
+
+    /**************************************************************************
+    * Discard all statistics.
+    **************************************************************************/
+    public void reset()
+    {
+        m_mapStats.clear();
+    }
+
+    /**************************************************************************
+    * Start writing the report of all operations to the Logger periodically,
+    * on a background daemon thread, replacing any previously started
+    * periodic dump.  Nothing is written if no operations have been recorded.
+    *@param  logger         The Logger to write to.
+    *@param  intLogLevel    The log level at which to write.
+    *@param  lngIntervalMillis  The interval between reports in milliseconds.
+    **************************************************************************/
+    public synchronized void startPeriodicDump
+                        (final Logger logger,
+                         final int    intLogLevel,
+                         long         lngIntervalMillis)
+    {
+        stopPeriodicDump();
+        final boolean blnDAEMON = true;
+        m_timer = new Timer(blnDAEMON);
+        m_timer.schedule(new TimerTask()
+                        {
+                            public void run()
+                            {
+                                if (!m_mapStats.isEmpty())
+                                {
+                                    Logger.logSafely
+                                        (logger,
+                                         intLogLevel,
+                                         "OPERATION STATS\n" + getReport());
+                                }
+                            }
+                        },
+                        lngIntervalMillis,
+                        lngIntervalMillis);
+    }
+
+    /**************************************************************************
+    * Stop writing the report periodically.
+    **************************************************************************/
+    public synchronized void stopPeriodicDump()
+    {
+        if (m_timer != null)
+        {
+            m_timer.cancel();
+            m_timer = null;
+        }
+    }
+
+    /**************************************************************************
+    * Register this OperationStats with the platform MBeanServer, so that
+    * its statistics can be viewed via JMX tools like jconsole.
+    *@param  strObjectName  The JMX object name to register as, for example:
+    *                       "com.bristle:type=OperationStats,name=MyApp"
+    *@throws JMException    When the name is invalid or already registered.
+    **************************************************************************/
+    public void registerMBean(String strObjectName)
+                        throws JMException
+    {
+        ManagementFactory.getPlatformMBeanServer().registerMBean
+                                (this, new ObjectName(strObjectName));
+    }
+
+    /**************************************************************************
+    * Unregister this OperationStats from the platform MBeanServer.
+    *@param  strObjectName  The JMX object name it was registered as.
+    *@throws JMException    When the name is invalid or not registered.
+    **************************************************************************/
+    public void unregisterMBean(String strObjectName)
+                        throws JMException
+    {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean
+                                (new ObjectName(strObjectName));
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+                OperationStats stats = new OperationStats();
+
+                System.out.println ("   Recording 1000 operations of 1-1000 ms...");
+                for (int i = 1; i <= 1000; i++)
+                {
+                    stats.record("Op1", i * 1000000L, (i % 100 == 0));
+                }
+                OperationStats.Snapshot snap = stats.getSnapshot("Op1");
+                System.out.println ("   Count (1000)      = " + snap.getCount());
+                System.out.println ("   Errors (10)       = " + snap.getErrorCount());
+                System.out.println ("   p50 (~500)        = " + snap.getPercentileMillis(50));
+                System.out.println ("   p99 (~990)        = " + snap.getPercentileMillis(99));
+                System.out.println ("   Unknown op count (0) = " + stats.getCount("NoSuchOp"));
+
+                System.out.println ("   Recording via LoggerUtil and OperationContext...");
+                Logger logger = new Logger();
+                logger.addTarget(new Logger.WriterLoggerTarget
+                                        (new PrintWriter(System.out)));
+                logger.setOperationStats(stats);
+                LoggerUtil loggerUtil = new LoggerUtil(logger);
+                loggerUtil.setLogLevelOfOperation(5);   //-- Not logged.
+                loggerUtil.logBegin("Op2");
+                loggerUtil.setAborted(true);
+                loggerUtil.logEnd();
+                OperationContext ctx = OperationContext.get();
+                ctx.begin(logger, 5, "Op3");            //-- Not logged.
+                ctx.end();
+
+                System.out.println ("   Report:");
+                System.out.println (stats.getReport());
+
+                System.out.println ("   Registering MBean...");
+                String strObjectName = "com.bristle:type=OperationStats,name=Tester";
+                stats.registerMBean(strObjectName);
+                stats.unregisterMBean(strObjectName);
+
+                System.out.println ("   Dumping periodically to the Logger...");
+                stats.startPeriodicDump(logger, 1, 100);
+                Thread.sleep(500);
+                stats.stopPeriodicDump();
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.log;
+
+// OperationStatsMBean
+/******************************************************************************
+* This interface is the JMX management interface of the OperationStats class.
+*<pre>
+*<b>Usage:</b>
+*   - See the {@link OperationStats} class.
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*   - The name of this interface must be the name of the class plus "MBean"
+*     for JMX to recognize OperationStats as a standard MBean.
+*<b>Implementation Notes:</b>
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see OperationStats
+******************************************************************************/
+public interface OperationStatsMBean
+{
+    /**************************************************************************
+    * Get the names of all operations recorded so far.
+    *@return            The operation names, sorted.
+    **************************************************************************/
+    public String[] getOperationNames();
+
+    /**************************************************************************
+    * Get a report of the statistics of all operations, one line per
+    * operation.
+    *@return            The report.
+    **************************************************************************/
+    public String getReport();
+
+    /**************************************************************************
+    * Get the length of the sliding window used for percentiles.
+    *@return            The window length in milliseconds.
+    **************************************************************************/
+    public long getWindowMillis();
+
+    /**************************************************************************
+    * Get the total number of times the operation has ended.
+    *@param  strName    The operation name.
+    *@return            The count, or 0 if the operation is unknown.
+    **************************************************************************/
+    public long getCount(String strName);
+
+    /**************************************************************************
+    * Get the total number of times the operation has ended with an error or
+    * been aborted.
+    *@param  strName    The operation name.
+    *@return            The count, or 0 if the operation is unknown.
+    **************************************************************************/
+    public long getErrorCount(String strName);
+
+    /**************************************************************************
+    * Get the specified percentile of the elapsed times of the operation
+    * within the sliding window.
+    *@param  strName        The operation name.
+    *@param  dblPercentile  The percentile, from 0 to 100.
+    *@return                The elapsed time in milliseconds, or 0 if the
+    *                       operation is unknown or has not ended within the
+    *                       window.
+    **************************************************************************/
+    public double getPercentileMillis(String strName, double dblPercentile);
+
+    /**************************************************************************
+    * Discard all statistics.
+    **************************************************************************/
+    public void reset();
+}
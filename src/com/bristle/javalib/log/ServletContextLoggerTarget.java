@@ -25,6 +25,12 @@ import javax.servlet.ServletContext;
 *<pre>
 *<b>Usage:</b>
 *   - See the Logger class.
+*   - By default, each line is truncated at the first occurrence of
+*     "password".  To redact other keywords, or to redact nothing here 
+*     because the Logger already redacts all messages via its own 
+*     LogRedactor:
+*       target.setRedactor(myRedactor);
+*       target.setRedactor(null);
 *<b>Assumptions:</b>
 *<b>Effects:</b>
 *   - Writes log entries to the specified ServletContext.
@@ -35,6 +41,7 @@ import javax.servlet.ServletContext;
 *<b>Revision History:</b>
 *   $Log$
 *</pre>
+*@see     LogRedactor
 ******************************************************************************/
 public class ServletContextLoggerTarget implements Logger.LoggerTarget
 {
@@ -47,6 +54,7 @@ public class ServletContextLoggerTarget implements Logger.LoggerTarget
     //-- Instance variables to support public properties
     //--
     private ServletContext m_objServletContext = null;
+    private LogRedactor    m_redactor          = LogRedactor.createPasswordRedactor();
 
     //--
     //-- Internal instance variables
@@ -80,6 +88,26 @@ public class ServletContextLoggerTarget implements Logger.LoggerTarget
         return m_objServletContext;
     }
 
+    /**************************************************************************
+    * Set the LogRedactor that removes sensitive text from each entry before
+    * it is written to the ServletContext.
+    * Default = LogRedactor.createPasswordRedactor().
+    *@param  redactor   The new LogRedactor, or null for no redaction.
+    **************************************************************************/
+    public void setRedactor(LogRedactor redactor)
+    {
+        m_redactor = redactor;
+    }
+
+    /**************************************************************************
+    * Get the LogRedactor.
+    *@return            The LogRedactor, or null.
+    **************************************************************************/
+    public LogRedactor getRedactor()
+    {
+        return m_redactor;
+    }
+
     /**************************************************************************
     * Log the log entry to the ServletContext.
     *@param  entry          The log entry to write to the log.
@@ -88,29 +116,36 @@ public class ServletContextLoggerTarget implements Logger.LoggerTarget
     {
         if (m_objServletContext != null)
         {
+            // Strip out passwords or other sensitive text.  The default
+            // LogRedactor truncates any line at the first occurrence of 
+            // the word "password".  Not 100% reliable, but tends to get 
+            // all echoed SQL queries using fields named password in their 
+            // WHERE clauses, which is the biggest problem (logins).  
+            // Also, tends to get SQL UPDATE statements with fields 
+            // named password (password changes).  Notably, does not
+            // get INSERTS, unless the SQL is all on one line.
+            String strMultiLineEntry = entry.getFormattedLogLine();
+            final LogRedactor redactor = m_redactor;
+            if (redactor != null)
+            {
+                strMultiLineEntry = redactor.redact(strMultiLineEntry);
+            }
+
             // Log each line separately because the ServletContext may 
             // decorate each line with a prefix or something.
-            String strMultiLineEntry = entry.getFormattedLogLine();
-            String[] arrEntries = strMultiLineEntry.split("\n");
-            for (int i=0; i < arrEntries.length; i++)
+            int intLineStart = 0;
+            int intLineEnd;
+            while ((intLineEnd = strMultiLineEntry.indexOf('\n', intLineStart))
+                   >= 0)
+            {
+                m_objServletContext.log
+                        (strMultiLineEntry.substring(intLineStart, intLineEnd));
+                intLineStart = intLineEnd + 1;
+            }
+            if (intLineStart < strMultiLineEntry.length())
             {
-                // Strip out passwords simplistically, by truncating any 
-                // line at the first occurrence of the word "password".
-                // Not 100% reliable, but tends to get all echoed SQL 
-                // queries using fields named password in their WHERE
-                // clauses, which is the biggest problem (logins).  
-                // Also, tends to get SQL UPDATE statements with fields 
-                // named password (password changes).  Notably, does not
-                // get INSERTS, unless the SQL is all on one line.
-                // Good enough for now.
-                String strLine = arrEntries[i];
-                int intPasswordStartPos = strLine.indexOf("password");
-                if (intPasswordStartPos >= 0)
-                {
-                    strLine = strLine.substring(0,intPasswordStartPos)
-                            + "[password lines not logged]";
-                }
-                m_objServletContext.log(strLine);
+                m_objServletContext.log
+                        (strMultiLineEntry.substring(intLineStart));
             }
         }
     }
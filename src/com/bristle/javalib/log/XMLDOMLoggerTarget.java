@@ -21,6 +21,12 @@ import com.bristle.javalib.xml.XMLUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import javax.xml.transform.TransformerException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.XMLStreamException;
+
+import java.io.Writer;
+import java.io.PrintWriter;     //-- For Tester only.
 
 
 // XMLDOMLoggerTarget
@@ -69,11 +75,19 @@ import javax.xml.transform.TransformerException;
 *       <Level>      indicates the logging level of the message.  Can be
 *                    used as an indentation level to format the messages.
 *       <Msg>        is the text of the message.
+*   - If a maximum number of entries is set via setMaxEntries(), the oldest
+*     Entry nodes are removed from the XML DOM as new ones are added, so 
+*     the DOM holds at most that many entries.
+*   - If a Writer is set via setWriter(), each Entry is instead streamed to
+*     the Writer as an XML fragment, and nothing is added to the XML DOM.
 *</xmp>
 *<pre>
 *<b>Anticipated Changes:</b>
 *<b>Notes:</b>
 *<b>Implementation Notes:</b>
+*   - The root node is looked up via XPath only once, not once per entry.  
+*     It is looked up again if the XML DOM or the root tag is changed, or 
+*     if the cached root node has been removed from the XML DOM.
 *<b>Portability Issues:</b>
 *<b>Revision History:</b>
 *   $Log$
@@ -85,11 +99,14 @@ public class XMLDOMLoggerTarget implements Logger.LoggerTarget
     //--
     //-- Class variables
     //--
+    private static XMLOutputFactory st_xmlOutputFactory = null;
 
     //--
     //-- Instance variables to support public properties
     //--
     private Document m_xmlDOM              = null;
+    private int      m_intMaxEntries       = 0;
+    private Writer   m_writer              = null;
     private String   m_strXMLRootTag       = "Log";
     private String   m_strXMLEntryTag      = "Entry";
     private String   m_strXMLDateTimeTag   = "DateTime";
@@ -106,6 +123,9 @@ public class XMLDOMLoggerTarget implements Logger.LoggerTarget
     //--
     //-- Internal instance variables
     //--
+    private Node            m_xmlRoot         = null;
+    private int             m_intEntryCount   = 0;
+    private XMLStreamWriter m_xmlStreamWriter = null;
 
     /**************************************************************************
     * Constructor.
@@ -116,14 +136,27 @@ public class XMLDOMLoggerTarget implements Logger.LoggerTarget
         m_xmlDOM = xmlDOM;
     }
 
+    /**************************************************************************
+    * Constructor.
+    *@param  writer     The Writer to stream log entries to as XML.
+    *@throws XMLStreamException When unable to create an XML stream on the 
+    *                           Writer.
+    **************************************************************************/
+    public XMLDOMLoggerTarget(Writer writer)
+                        throws XMLStreamException
+    {
+        setWriter(writer);
+    }
+
     /**************************************************************************
     * Set the XML DOM to write log entries to.  If null, no logging to an 
     * XML DOM is performed.
     *@param  xmlDOM     The new XML DOM.
     **************************************************************************/
-    public void setXMLDOM(Document xmlDOM)
+    public synchronized void setXMLDOM(Document xmlDOM)
     {
         m_xmlDOM = xmlDOM;
+        m_xmlRoot = null;
     }
 
     /**************************************************************************
@@ -141,9 +174,10 @@ public class XMLDOMLoggerTarget implements Logger.LoggerTarget
     * node in the XML DOM.
     *@param  strNew     The new XML root tag.
     **************************************************************************/
-    public void setXMLRootTag(String strNew)
+    public synchronized void setXMLRootTag(String strNew)
     {
         m_strXMLRootTag = strNew;
+        m_xmlRoot = null;
     }
 
     /**************************************************************************
@@ -160,9 +194,10 @@ public class XMLDOMLoggerTarget implements Logger.LoggerTarget
     * entry.
     *@param  strNew     The new XML Entry tag.
     **************************************************************************/
-    public void setXMLEntryTag(String strNew)
+    public synchronized void setXMLEntryTag(String strNew)
     {
         m_strXMLEntryTag = strNew;
+        m_xmlRoot = null;
     }
 
     /**************************************************************************
@@ -355,19 +390,181 @@ public class XMLDOMLoggerTarget implements Logger.LoggerTarget
     }
 
     /**************************************************************************
-    * Log the log entry to the XML DOM.
+    * Set the maximum number of entries to keep in the XML DOM.  When a new 
+    * entry would exceed this number, the oldest entry is removed.  If 0,
+    * there is no limit.  Default = 0.
+    *@param  intNew     The new maximum number of entries.
+    **************************************************************************/
+    public synchronized void setMaxEntries(int intNew)
+    {
+        m_intMaxEntries = intNew;
+    }
+
+    /**************************************************************************
+    * Get the maximum number of entries to keep in the XML DOM.
+    *@return            The maximum number of entries, or 0 for no limit.
+    **************************************************************************/
+    public int getMaxEntries()
+    {
+        return m_intMaxEntries;
+    }
+
+    /**************************************************************************
+    * Set the Writer to stream log entries to.  If not null, each entry is 
+    * written to the Writer as an XML fragment, instead of being added to 
+    * the XML DOM, so no memory is retained per entry.  If null, entries are
+    * added to the XML DOM.
+    *@param  writer     The new Writer.
+    *@throws XMLStreamException When unable to create an XML stream on the 
+    *                           Writer.
+    **************************************************************************/
+    public synchronized void setWriter(Writer writer)
+                        throws XMLStreamException
+    {
+        m_writer = writer;
+        m_xmlStreamWriter = (writer == null) 
+                            ? null 
+                            : getXMLOutputFactory().createXMLStreamWriter
+                                                                (writer);
+    }
+
+    /**************************************************************************
+    * Get the Writer that messages are currently being streamed to.
+    *@return            The Writer, or null.
+    **************************************************************************/
+    public Writer getWriter()
+    {
+        return m_writer;
+    }
+
+    /**************************************************************************
+    * Get the shared XMLOutputFactory, creating it if necessary.
+    *@return            The XMLOutputFactory.
+    **************************************************************************/
+    private static synchronized XMLOutputFactory getXMLOutputFactory()
+    {
+        if (st_xmlOutputFactory == null)
+        {
+            st_xmlOutputFactory = XMLOutputFactory.newInstance();
+        }
+        return st_xmlOutputFactory;
+    }
+
+    /**************************************************************************
+    * Get the root node of the log, using the cached value if it is still
+    * part of the XML DOM.  Otherwise, find the existing root node, if any, 
+    * in the XML DOM, or create one, and cache it.
+    *@return            The root node.
+    *@throws TransformerException When an error occurs searching the XML.
+    **************************************************************************/
+    private Node getRootNode()
+                       throws TransformerException
+    {
+        if (m_xmlRoot == null || m_xmlRoot.getParentNode() == null)
+        {
+            m_xmlRoot = XMLUtil.getOrAppendElement(m_xmlDOM, m_strXMLRootTag);
+
+            //-- Count any entries already in the DOM, so that the maximum
+            //-- number of entries is honored.
+            m_intEntryCount = 0;
+            for (Node xmlChild = m_xmlRoot.getFirstChild();
+                 xmlChild != null;
+                 xmlChild = xmlChild.getNextSibling())
+            {
+                if (m_strXMLEntryTag.equals(xmlChild.getNodeName()))
+                {
+                    m_intEntryCount++;
+                }
+            }
+        }
+        return m_xmlRoot;
+    }
+
+    /**************************************************************************
+    * Remove the oldest entries from the root node until there are fewer 
+    * than the maximum number of entries, to make room for a new one.
+    *@param  xmlRoot    The root node.
+    **************************************************************************/
+    private void removeOldestEntries(Node xmlRoot)
+    {
+        Node xmlChild = xmlRoot.getFirstChild();
+        while (m_intEntryCount >= m_intMaxEntries && xmlChild != null)
+        {
+            Node xmlTemp = xmlChild.getNextSibling();
+            if (m_strXMLEntryTag.equals(xmlChild.getNodeName()))
+            {
+                xmlRoot.removeChild(xmlChild);
+                m_intEntryCount--;
+            }
+            xmlChild = xmlTemp;
+        }
+    }
+
+    /**************************************************************************
+    * Write the log entry to the XML stream.
+    *@param  entry          The log entry to write to the log.
+    *@throws XMLStreamException When an error occurs writing to the stream.
+    **************************************************************************/
+    private void streamEntry(Logger.Entry entry) 
+                       throws XMLStreamException
+    {
+        m_xmlStreamWriter.writeStartElement(m_strXMLEntryTag);
+        streamElement(m_strXMLDateTimeTag,   entry.getDateTime());
+        streamElement(m_strXMLAppNameTag,    entry.getAppName());
+        streamElement(m_strXMLAppVersionTag, entry.getAppVersion());
+        streamElement(m_strXMLUsernameTag,   entry.getUsername());
+        streamElement(m_strXMLThreadNameTag, entry.getThreadName());
+        streamElement(m_strXMLMillisecsTag,  entry.getMillisecs());
+        streamElement(m_strXMLUsedMemTag,    entry.getUsedMem());
+        streamElement(m_strXMLTotalMemTag,   entry.getTotalMem());
+        streamElement(m_strXMLLevelTag,      entry.getLevel());
+        streamElement(m_strXMLMsgTag,        entry.getMsg());
+        m_xmlStreamWriter.writeEndElement();
+        m_xmlStreamWriter.writeCharacters("\n");
+        m_xmlStreamWriter.flush();
+    }
+
+    /**************************************************************************
+    * Write an element containing text to the XML stream.
+    *@param  strName        Name of the element.
+    *@param  strText        Text of the element, or null.
+    *@throws XMLStreamException When an error occurs writing to the stream.
+    **************************************************************************/
+    private void streamElement(String strName, String strText) 
+                       throws XMLStreamException
+    {
+        m_xmlStreamWriter.writeStartElement(strName);
+        if (strText != null)
+        {
+            m_xmlStreamWriter.writeCharacters(strText);
+        }
+        m_xmlStreamWriter.writeEndElement();
+    }
+
+    /**************************************************************************
+    * Log the log entry to the XML DOM, or to the Writer if one was set.
     *@param  entry          The log entry to write to the log.
     *@throws TransformerException When an error occurs adding to the XML.
+    *@throws XMLStreamException   When an error occurs writing to the Writer.
     **************************************************************************/
-    public void log(Logger.Entry entry) 
+    public synchronized void log(Logger.Entry entry) 
                        throws TransformerException
+                             ,XMLStreamException
     {
-        if (m_xmlDOM != null)
+        if (m_xmlStreamWriter != null)
+        {
+            streamEntry(entry);
+        }
+        else if (m_xmlDOM != null)
         {
             //-- Get the existing Debug node, if any, in the DOM.  
             //-- Otherwise, create one.  Then log to it.
-            Node xmlDebug  = XMLUtil.getOrAppendElement
-                        (m_xmlDOM,  m_strXMLRootTag);
+            Node xmlDebug  = getRootNode();
+            if (m_intMaxEntries > 0)
+            {
+                removeOldestEntries(xmlDebug);
+            }
+            m_intEntryCount++;
             Node xmlEntry  = XMLUtil.appendElement
                         (xmlDebug,  m_strXMLEntryTag);
             XMLUtil.appendElementContainingText
@@ -433,6 +630,25 @@ public class XMLDOMLoggerTarget implements Logger.LoggerTarget
                 System.out.println ("   Log contains:");
                 System.out.println (XMLUtil.serialize(dom));
 
+                System.out.println ("   Limiting log to 3 entries...");
+                Document dom2 = XMLUtil.createEmptyDocument();
+                XMLDOMLoggerTarget target = new XMLDOMLoggerTarget(dom2);
+                target.setMaxEntries(3);
+                Logger logger2 = new Logger();
+                logger2.addTarget(target);
+                for (int i = 1; i <= 5; i++)
+                {
+                    logger2.log(1, "Entry " + i + " of 5.");
+                }
+                System.out.println ("   Log contains (entries 3-5 only):");
+                System.out.println (XMLUtil.serialize(dom2));
+
+                System.out.println ("   Streaming log to System.out...");
+                Logger logger3 = new Logger();
+                logger3.addTarget(new XMLDOMLoggerTarget
+                                        (new PrintWriter(System.out)));
+                logger3.log(1, "Streamed entry with <special> & chars.");
+
                 System.out.println ("...End tests.");
             }
             catch (Throwable e)
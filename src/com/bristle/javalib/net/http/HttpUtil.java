@@ -21,11 +21,14 @@ import com.bristle.javalib.util.Base64;
 import com.bristle.javalib.util.StrUtil;
 import com.bristle.javalib.util.ObjUtil;
 import com.bristle.javalib.util.GetOpt;
+import com.bristle.javalib.xml.StreamingXMLWriter;
 import com.bristle.javalib.xml.XMLUtil;
 
 import java.io.Reader;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.io.IOException;
 import java.io.File;
 import javax.servlet.http.HttpServlet;
@@ -41,6 +44,7 @@ import java.util.StringTokenizer;
 import java.util.Enumeration;
 import java.util.NoSuchElementException;
 import java.util.HashMap;
+import java.util.WeakHashMap;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.URLConnection;
@@ -88,6 +92,12 @@ import org.w3c.dom.Node;
 *<b>Anticipated Changes:</b>
 *<b>Notes:</b>
 *<b>Implementation Notes:</b>
+*       - writeInfoAvailableToServlet() streams the XML without building a
+*         DOM.  The parts that can't change while a servlet is loaded are
+*         serialized once per servlet and cached until the servlet is
+*         garbage collected or clearInfoAvailableToServletCache() is
+*         called.  The system properties are cached by XMLUtil until they 
+*         change.
 *<b>Portability Issues:</b>
 *<b>Revision History:</b>
 *   $Log$
@@ -100,6 +110,13 @@ public class HttpUtil
     //--
     private static Map st_mapAbbrevs = null; 
 
+    /**************************************************************************
+    * The ServletSnapshot of each servlet, as written by 
+    * writeInfoAvailableToServlet().  Weak, so that the snapshot of an 
+    * unloaded servlet is discarded along with the servlet.
+    **************************************************************************/
+    private static final Map st_mapServletSnapshots = new WeakHashMap();
+
     //--
     //-- Instance variables to support public properties
     //--
@@ -124,6 +141,25 @@ public class HttpUtil
     **************************************************************************/
     public static final String strUSER_AGENT_UNKNOWN = "UNK";
 
+    /**************************************************************************
+    * This class holds the information available to a servlet that does not
+    * change while the servlet is loaded, serialized as XML.
+    **************************************************************************/
+    private static class ServletSnapshot
+    {
+        //-- XML of the name and document root of the web application.
+        private final String m_strContextXML;
+        //-- XML of the context init params, and the info about the servlet
+        //-- and the Web server.
+        private final String m_strServletXML;
+
+        private ServletSnapshot(String strContextXML, String strServletXML)
+        {
+            m_strContextXML = strContextXML;
+            m_strServletXML = strServletXML;
+        }
+    }
+
     /**************************************************************************
     * Nested class used as argument of getCredentials, so that it can allocate 
     * and return multiple Strings.
@@ -1265,9 +1301,370 @@ public class HttpUtil
         return dom;
     }
 
+    /**************************************************************************
+    * Get the ServletSnapshot of the specified servlet, creating it if not
+    * already cached.
+    *@param  servlet        The HttpServlet object defining the servlet.
+    *@return                The ServletSnapshot.
+    *@throws IOException    Should never happen, since the XML is written 
+    *                       to a StringWriter.
+    **************************************************************************/
+    private static ServletSnapshot getServletSnapshot(HttpServlet servlet)
+                throws IOException
+    {
+        synchronized (st_mapServletSnapshots)
+        {
+            ServletSnapshot snapshot = 
+                        (ServletSnapshot)st_mapServletSnapshots.get(servlet);
+            if (snapshot != null)
+            {
+                return snapshot;
+            }
+        }
+
+        ServletContext context = servlet.getServletContext();
+
+        //--
+        //-- Info about the web application (ServletContext)
+        //--
+        StringWriter stringWriter = new StringWriter();
+        StreamingXMLWriter xmlWriter = new StreamingXMLWriter(stringWriter);
+        xmlWriter.writeElement("ContextName", context.getServletContextName());
+        xmlWriter.writeElement("ContextDocumentRoot", context.getRealPath("/"));
+        xmlWriter.flush();
+        String strContextXML = stringWriter.toString();
+
+        stringWriter = new StringWriter();
+        xmlWriter = new StreamingXMLWriter(stringWriter);
+        xmlWriter.startElement("ContextInitParams");
+        for (Enumeration enumInitParamNames = context.getInitParameterNames();
+             enumInitParamNames.hasMoreElements();
+            ) 
+        {
+            String strName = (String) enumInitParamNames.nextElement();
+            writeNameAndValue(xmlWriter, 
+                              "ContextInitParam", 
+                              "InitParamName", 
+                              strName,
+                              "InitParamValue", 
+                              context.getInitParameter(strName));
+        }
+        xmlWriter.endElement();
+
+        //--
+        //-- Info about the servlet
+        //--
+        xmlWriter.writeElement("ServletName", servlet.getServletName());
+        xmlWriter.writeElement("ServletClassName", servlet.getClass().getName());
+        xmlWriter.writeElement("ServletPackageName", 
+                               (servlet.getClass().getPackage() == null)
+                               ? ""
+                               : servlet.getClass().getPackage().getName());
+        xmlWriter.writeElement("ServletInfo", servlet.getServletInfo());
+        xmlWriter.startElement("ServletInitParams");
+        for (Enumeration enumParamNames = servlet.getInitParameterNames();
+             enumParamNames.hasMoreElements();
+            ) 
+        {
+            String strName = (String) enumParamNames.nextElement();
+            writeNameAndValue(xmlWriter, 
+                              "ServletInitParam", 
+                              "ParamName", 
+                              strName,
+                              "ParamValue", 
+                              servlet.getInitParameter(strName));
+        }
+        xmlWriter.endElement();
+
+        //--
+        //-- Info about the Web server
+        //--
+        xmlWriter.writeElement("ServerInfo", context.getServerInfo());
+        xmlWriter.writeElement("ServletAPIMajorVersion", 
+                               Integer.toString(context.getMajorVersion()));
+        xmlWriter.writeElement("ServletAPIMinorVersion", 
+                               Integer.toString(context.getMinorVersion()));
+        String strIPAddress;
+        String strHostName;
+        String strCanonicalName;
+        try
+        {
+            InetAddress address = InetAddress.getLocalHost();
+            strIPAddress     = address.getHostAddress();
+            strHostName      = address.getHostName();
+            strCanonicalName = address.getCanonicalHostName();
+        }
+        catch (UnknownHostException exception)
+        {
+            strIPAddress     = "Exception: " + exception.getClass().getName();
+            strHostName      = strIPAddress;
+            strCanonicalName = strIPAddress;
+        }
+        xmlWriter.writeElement("LocalHostIPAddress", strIPAddress);
+        xmlWriter.writeElement("LocalHostName", strHostName);
+        xmlWriter.writeElement("LocalHostCanonicalName", strCanonicalName);
+        xmlWriter.flush();
+
+        ServletSnapshot snapshot = new ServletSnapshot
+                                        (strContextXML, stringWriter.toString());
+        synchronized (st_mapServletSnapshots)
+        {
+            st_mapServletSnapshots.put(servlet, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**************************************************************************
+    * Discard the cached information about all servlets, so that it is 
+    * gathered again the next time it is written by 
+    * writeInfoAvailableToServlet().  The system properties are not cached
+    * here, and are always current.
+    **************************************************************************/
+    public static void clearInfoAvailableToServletCache()
+    {
+        synchronized (st_mapServletSnapshots)
+        {
+            st_mapServletSnapshots.clear();
+        }
+    }
+
+    /**************************************************************************
+    * Write an Element containing a name Element and a value Element.
+    *@param  xmlWriter      The StreamingXMLWriter to write to.
+    *@param  strTag         Tag of the containing Element.
+    *@param  strNameTag     Tag of the name Element.
+    *@param  strName        The name.
+    *@param  strValueTag    Tag of the value Element.
+    *@param  objValue       The value, written via its toString().
+    *@throws IOException    When an error occurs writing the XML.
+    **************************************************************************/
+    private static void writeNameAndValue(StreamingXMLWriter xmlWriter,
+                                          String             strTag,
+                                          String             strNameTag,
+                                          String             strName,
+                                          String             strValueTag,
+                                          Object             objValue)
+                throws IOException
+    {
+        xmlWriter.startElement(strTag);
+        xmlWriter.writeElement(strNameTag, strName);
+        xmlWriter.writeElement(strValueTag, 
+                               (objValue == null) ? null : objValue.toString());
+        xmlWriter.endElement();
+    }
+
+    /**************************************************************************
+    * Write as an XML stream to the specified Writer all information 
+    * available to a servlet.  Format of XML is as shown in 
+    * getInfoAvailableToServlet, but without whitespace between the 
+    * elements.  No DOM is built.  The information that does not change 
+    * while the servlet is loaded is gathered and serialized only once per
+    * servlet.  Only the information about the client, the request, the 
+    * session and the attributes of the web application is gathered for 
+    * each call.
+    *@param  servlet        The HttpServlet object defining the servlet.
+    *@param  request        The HttpServletRequest object of the servlet.
+    *@param  writer         The Writer to write to.
+    *@throws IOException    When an I/O error occurs during interaction 
+    *                       with the servlet, request, or Writer.
+    **************************************************************************/
+    public static void writeInfoAvailableToServlet
+                        (HttpServlet         servlet,
+                         HttpServletRequest  request,
+                         Writer              writer)
+                throws IOException
+    {
+        ServletSnapshot snapshot = getServletSnapshot(servlet);
+        StreamingXMLWriter xmlWriter = new StreamingXMLWriter(writer);
+        xmlWriter.startElement("InfoAvailableToServlet");
+
+        //--
+        //-- Info about the client
+        //--
+        xmlWriter.writeElement("RemoteUser", request.getRemoteUser());
+        xmlWriter.writeElement("RemoteHost", request.getRemoteHost());
+        xmlWriter.writeElement("RemoteAddr", request.getRemoteAddr());
+        xmlWriter.writeElement("RemotePort", 
+                               Integer.toString(request.getRemotePort()));
+        xmlWriter.writeElement("AuthType", request.getAuthType());
+        xmlWriter.writeElement("HttpUserAgent", request.getHeader("User-Agent"));
+        xmlWriter.writeElement("HttpReferer", request.getHeader("Referer"));
+
+        //--
+        //-- Info about the request
+        //--
+        xmlWriter.writeElement("Method", request.getMethod());
+        xmlWriter.writeElement("FullRequestURL", getFullRequestURL(request));
+        xmlWriter.writeElement("RequestURL", 
+                               request.getRequestURL().toString());
+        xmlWriter.writeElement("Protocol", request.getProtocol());
+        xmlWriter.writeElement("isSecure", 
+                               String.valueOf(request.isSecure()));
+        xmlWriter.writeElement("Scheme", request.getScheme());
+        xmlWriter.writeElement("ServerName", request.getServerName());
+        xmlWriter.writeElement("ServerPort", 
+                               Integer.toString(request.getServerPort()));
+        xmlWriter.writeElement("FullRequestURI", getFullRequestURI(request));
+        xmlWriter.writeElement("RequestURI", request.getRequestURI());
+        xmlWriter.writeElement("ContextPath", request.getContextPath());
+        xmlWriter.writeElement("ServletPath", request.getServletPath());
+        xmlWriter.writeElement("PathInfo", request.getPathInfo());
+        xmlWriter.writeElement("PathTranslated", request.getPathTranslated());
+        xmlWriter.writeElement("QueryString", request.getQueryString());
+        xmlWriter.writeElement("CharacterEncoding", 
+                               request.getCharacterEncoding());
+        xmlWriter.writeElement("ContentType", request.getContentType());
+        xmlWriter.writeElement("ContentLength", 
+                               Integer.toString(request.getContentLength()));
+        xmlWriter.writeElement("LocalAddr", request.getLocalAddr());
+        xmlWriter.writeElement("LocalName", request.getLocalName());
+        xmlWriter.writeElement("LocalPort", 
+                               Integer.toString(request.getLocalPort()));
+        xmlWriter.writeElement("HttpAccept", request.getHeader("Accept"));
+        xmlWriter.writeElement("RequestedSessionId", 
+                               request.getRequestedSessionId());
+        xmlWriter.writeElement("isRequestedSessionIdFromCookie", 
+                               String.valueOf
+                                (request.isRequestedSessionIdFromCookie()));
+        xmlWriter.writeElement("isRequestedSessionIdFromURL", 
+                               String.valueOf
+                                (request.isRequestedSessionIdFromURL()));
+        xmlWriter.writeElement("isRequestedSessionIdValid", 
+                               String.valueOf
+                                (request.isRequestedSessionIdValid()));
+        xmlWriter.startElement("RequestParams");
+        for (Enumeration enumParamNames = request.getParameterNames();
+             enumParamNames.hasMoreElements();
+            ) 
+        {
+            String strName = (String) enumParamNames.nextElement();
+            writeNameAndValue(xmlWriter, 
+                              "RequestParam", 
+                              "ParamName", 
+                              strName,
+                              "ParamValue", 
+                              request.getParameter(strName));
+        }
+        xmlWriter.endElement();
+        xmlWriter.startElement("RequestHeaders");
+        for (Enumeration enumHeaderNames = request.getHeaderNames();
+             enumHeaderNames.hasMoreElements();
+            ) 
+        {
+            String strName = (String) enumHeaderNames.nextElement();
+            writeNameAndValue(xmlWriter, 
+                              "RequestHeader", 
+                              "HeaderName", 
+                              strName,
+                              "HeaderValue", 
+                              request.getHeader(strName));
+        }
+        xmlWriter.endElement();
+        xmlWriter.startElement("RequestAttributes");
+        for (Enumeration enumAttributeNames = request.getAttributeNames();
+             enumAttributeNames.hasMoreElements();
+            ) 
+        {
+            String strName = (String) enumAttributeNames.nextElement();
+            writeNameAndValue(xmlWriter, 
+                              "RequestAttribute", 
+                              "AttributeName", 
+                              strName,
+                              "AttributeValue", 
+                              request.getAttribute(strName));
+        }
+        xmlWriter.endElement();
+        xmlWriter.startElement("RequestCookies");
+        Cookie[] arrCookies = request.getCookies();
+        for (int i = 0; 
+             arrCookies != null && i < arrCookies.length; 
+             i++
+            ) 
+        {
+            xmlWriter.startElement("RequestCookie");
+            xmlWriter.writeElement("CookieName", arrCookies[i].getName());
+            xmlWriter.writeElement("CookieValue", arrCookies[i].getValue());
+            xmlWriter.writeElement("CookieComment", arrCookies[i].getComment());
+            xmlWriter.writeElement("CookieDomain", arrCookies[i].getDomain());
+            xmlWriter.writeElement("CookieMaxAge", 
+                                   Integer.toString(arrCookies[i].getMaxAge()));
+            xmlWriter.writeElement("CookiePath", arrCookies[i].getPath());
+            xmlWriter.writeElement("CookieSecure", 
+                                   String.valueOf(arrCookies[i].getSecure()));
+            xmlWriter.writeElement("CookieVersion", 
+                                   Integer.toString(arrCookies[i].getVersion()));
+            xmlWriter.endElement();
+        }
+        xmlWriter.endElement();
+
+        //--
+        //-- Info about the session
+        //--
+        HttpSession session = request.getSession();
+        xmlWriter.writeElement("SessionId", session.getId());
+        xmlWriter.writeElement("SessionIsNew", String.valueOf(session.isNew()));
+        xmlWriter.writeElement("SessionCreationTime", 
+                               Long.toString(session.getCreationTime()));
+        xmlWriter.writeElement("SessionLastAccessedTime", 
+                               Long.toString(session.getLastAccessedTime()));
+        xmlWriter.writeElement("SessionMaxInactiveInterval", 
+                               Integer.toString
+                                        (session.getMaxInactiveInterval()));
+        xmlWriter.startElement("SessionAttributes");
+        for (Enumeration enumAttributeNames = session.getAttributeNames();
+             enumAttributeNames.hasMoreElements();
+            ) 
+        {
+            String strName = (String) enumAttributeNames.nextElement();
+            writeNameAndValue(xmlWriter, 
+                              "SessionAttribute", 
+                              "AttributeName", 
+                              strName,
+                              "AttributeValue", 
+                              session.getAttribute(strName));
+        }
+        xmlWriter.endElement();
+
+        //--
+        //-- Info about the web application (ServletContext)
+        //--
+        xmlWriter.write(snapshot.m_strContextXML);
+        xmlWriter.startElement("ContextAttributes");
+        ServletContext context = servlet.getServletContext();
+        for (Enumeration enumAttributeNames = context.getAttributeNames();
+             enumAttributeNames.hasMoreElements();
+            ) 
+        {
+            String strName = (String) enumAttributeNames.nextElement();
+            writeNameAndValue(xmlWriter, 
+                              "ContextAttribute", 
+                              "AttributeName", 
+                              strName,
+                              "AttributeValue", 
+                              context.getAttribute(strName));
+        }
+        xmlWriter.endElement();
+
+        //--
+        //-- Info about the servlet and the Web server
+        //--
+        xmlWriter.write(snapshot.m_strServletXML);
+
+        //--
+        //-- Info about the operating system
+        //--
+        xmlWriter.flush();
+        XMLUtil.writeSystemProperties(writer);
+
+        xmlWriter.endElement();
+        xmlWriter.flush();
+    }
+
     /**************************************************************************
     * Write as an XML stream to the HTTP client all information available to 
-    * a servlet.  Format of XML is as shown in getInfoAvailableToServlet. 
+    * a servlet.  Format of XML is as shown in getInfoAvailableToServlet,
+    * but without whitespace between the elements.  See the version of 
+    * writeInfoAvailableToServlet() that takes a Writer for details.
     *@param  servlet        The HttpServlet object defining the servlet.
     *@param  request        The HttpServletRequest object of the servlet.
     *@param  response       The HttpServletResponse object of the servlet.
@@ -1280,10 +1677,10 @@ public class HttpUtil
                          HttpServletResponse response)
                 throws IOException
     {
-        Document dom = getInfoAvailableToServlet(servlet, request);
+        response.setContentType(strCONTENT_TYPE_XML);
         PrintWriter pw = response.getWriter();
-        response.setContentType("text/xml");
-        XMLUtil.serialize(dom, pw).flush();
+        writeInfoAvailableToServlet(servlet, request, pw);
+        pw.flush();
     }
 
     /**************************************************************************
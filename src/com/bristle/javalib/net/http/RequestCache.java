@@ -0,0 +1,256 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.net.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+
+// RequestCache
+/******************************************************************************
+* This class caches, in the attributes of an HttpServletRequest, values that
+* were looked up from the Session or ServletContext attributes, so that
+* repeated lookups during the same request do not have to search those
+* contexts again.  Cached values are invalidated when the attributes they
+* were looked up from change.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*       Object obj = RequestCache.get(request, strName);
+*       if (obj == RequestCache.objNOT_CACHED)
+*       {
+*           obj = lookUpTheSlowWay(request, strName);
+*           RequestCache.put(request, strName, obj);
+*       }
+*
+*   - After changing a Session or ServletContext attribute from which a
+*     cached value was looked up:
+*       RequestCache.invalidate(strName);
+*
+*   - To invalidate cached values automatically whenever such an attribute
+*     is changed by any code, or removed because a Session ends, register
+*     the RequestCacheInvalidator listener in the web.xml file:
+*       &lt;listener&gt;
+*         &lt;listener-class&gt;
+*           com.bristle.javalib.net.http.RequestCacheInvalidator
+*         &lt;/listener-class&gt;
+*       &lt;/listener&gt;
+*
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*   - Sets attributes of the HttpServletRequest.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*   - A value cached during one request is never seen by another request,
+*     so cached values cannot outlive the request, even if they are never
+*     invalidated.
+*   - null values are cached like any other value.
+*<b>Implementation Notes:</b>
+*   - Each name has its own generation number.  Invalidating a name 
+*     increments it, which invalidates the values cached for that name in
+*     all requests, without affecting the values cached for other names.
+*   - Each cached value holds a reference to the generation number of its
+*     name, so get() checks it without looking up the name.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see RequestCacheInvalidator
+******************************************************************************/
+public class RequestCache
+{
+
+    //--
+    //-- Class variables
+    //--
+    private static final ConcurrentHashMap st_mapGenerations 
+                                                = new ConcurrentHashMap();
+
+    //--
+    //-- Local constants
+    //--
+    private static final String strATTRIBUTE_NAME_PREFIX
+                                = RequestCache.class.getName() + ".";
+
+    /**************************************************************************
+    * Value returned by get() when no valid value is cached.
+    **************************************************************************/
+    public static final Object objNOT_CACHED = new Object();
+
+    /**************************************************************************
+    * This class holds a cached value, the generation number of its name, 
+    * and the generation it was cached in.
+    **************************************************************************/
+    private static class CachedValue
+    {
+        private final Object        m_objValue;
+        private final AtomicInteger m_generation;
+        private final int           m_intGeneration;
+        private CachedValue(Object        objValue, 
+                            AtomicInteger generation,
+                            int           intGeneration)
+        {
+            m_objValue      = objValue;
+            m_generation    = generation;
+            m_intGeneration = intGeneration;
+        }
+    }
+
+    /**************************************************************************
+    * Get the generation number of the name, creating it if necessary.
+    *@param  strName    The name.
+    *@return            The generation number.
+    **************************************************************************/
+    private static AtomicInteger getGenerationOfName(String strName)
+    {
+        AtomicInteger generation 
+                        = (AtomicInteger)st_mapGenerations.get(strName);
+        if (generation == null)
+        {
+            AtomicInteger generationNew = new AtomicInteger();
+            generation = (AtomicInteger)st_mapGenerations.putIfAbsent
+                                                (strName, generationNew);
+            if (generation == null)
+            {
+                generation = generationNew;
+            }
+        }
+        return generation;
+    }
+
+    /**************************************************************************
+    * Get the current generation number of the name.  It changes each time 
+    * the name is invalidated.
+    *@param  strName    The name.
+    *@return            The generation number.
+    **************************************************************************/
+    public static int getGeneration(String strName)
+    {
+        return getGenerationOfName(strName).get();
+    }
+
+    /**************************************************************************
+    * Get the value cached in the request for the name.
+    *@param  request    The HttpServletRequest.
+    *@param  strName    The name.
+    *@return            The cached value, which may be null, or objNOT_CACHED
+    *                   if there is none, or it was invalidated.
+    **************************************************************************/
+    public static Object get(HttpServletRequest request, String strName)
+    {
+        CachedValue cached = (CachedValue)request.getAttribute
+                                        (strATTRIBUTE_NAME_PREFIX + strName);
+        if (cached == null 
+            || cached.m_intGeneration != cached.m_generation.get())
+        {
+            return objNOT_CACHED;
+        }
+        return cached.m_objValue;
+    }
+
+    /**************************************************************************
+    * Cache a value in the request for the name.
+    *@param  request    The HttpServletRequest.
+    *@param  strName    The name.
+    *@param  objValue   The value, which may be null.
+    **************************************************************************/
+    public static void put(HttpServletRequest request,
+                           String             strName,
+                           Object             objValue)
+    {
+        put(request, strName, objValue, getGeneration(strName));
+    }
+
+    /**************************************************************************
+    * Cache a value in the request for the name, as of the generation
+    * number returned by getGeneration(strName) before the value was looked
+    * up, so that the value is already invalid if the name was invalidated
+    * during the lookup.
+    *@param  request        The HttpServletRequest.
+    *@param  strName        The name.
+    *@param  objValue       The value, which may be null.
+    *@param  intGeneration  The generation number.
+    **************************************************************************/
+    public static void put(HttpServletRequest request,
+                           String             strName,
+                           Object             objValue,
+                           int                intGeneration)
+    {
+        request.setAttribute(strATTRIBUTE_NAME_PREFIX + strName,
+                             new CachedValue(objValue, 
+                                             getGenerationOfName(strName),
+                                             intGeneration));
+    }
+
+    /**************************************************************************
+    * Invalidate the values cached for the name in all requests.  Values
+    * cached for other names remain valid.
+    *@param  strName    The name.
+    **************************************************************************/
+    public static void invalidate(String strName)
+    {
+        getGenerationOfName(strName).incrementAndGet();
+    }
+
+    /**************************************************************************
+    * Invalidate the values cached for the name in all requests, if any value
+    * has ever been cached for the name.
+    *@param  strName    The name.
+    **************************************************************************/
+    public static void invalidateIfCached(String strName)
+    {
+        if (strName == null)
+        {
+            return;
+        }
+        AtomicInteger generation 
+                        = (AtomicInteger)st_mapGenerations.get(strName);
+        if (generation != null)
+        {
+            generation.incrementAndGet();
+        }
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
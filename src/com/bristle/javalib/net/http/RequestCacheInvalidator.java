@@ -0,0 +1,138 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.net.http;
+
+import javax.servlet.ServletContextAttributeEvent;
+import javax.servlet.ServletContextAttributeListener;
+import javax.servlet.http.HttpSessionAttributeListener;
+import javax.servlet.http.HttpSessionBindingEvent;
+
+// RequestCacheInvalidator
+/******************************************************************************
+* This class listens for changes to Session and ServletContext attributes,
+* and invalidates the values that RequestCache has cached for them.
+*<pre>
+*<b>Usage:</b>
+*   - Register it in the web.xml file:
+*       &lt;listener&gt;
+*         &lt;listener-class&gt;
+*           com.bristle.javalib.net.http.RequestCacheInvalidator
+*         &lt;/listener-class&gt;
+*       &lt;/listener&gt;
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*   - Invalidates values cached by RequestCache.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*   - Changes to attributes for which no value was ever cached are ignored.
+*<b>Implementation Notes:</b>
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+*@see RequestCache
+******************************************************************************/
+public class RequestCacheInvalidator
+                implements HttpSessionAttributeListener,
+                           ServletContextAttributeListener
+{
+    /**************************************************************************
+    * Invalidate the values cached for a Session attribute that was added.
+    *@param  event      The event.
+    **************************************************************************/
+    public void attributeAdded(HttpSessionBindingEvent event)
+    {
+        RequestCache.invalidateIfCached(event.getName());
+    }
+
+    /**************************************************************************
+    * Invalidate the values cached for a Session attribute that was removed.
+    *@param  event      The event.
+    **************************************************************************/
+    public void attributeRemoved(HttpSessionBindingEvent event)
+    {
+        RequestCache.invalidateIfCached(event.getName());
+    }
+
+    /**************************************************************************
+    * Invalidate the values cached for a Session attribute that was replaced.
+    *@param  event      The event.
+    **************************************************************************/
+    public void attributeReplaced(HttpSessionBindingEvent event)
+    {
+        RequestCache.invalidateIfCached(event.getName());
+    }
+
+    /**************************************************************************
+    * Invalidate the values cached for a ServletContext attribute that was
+    * added.
+    *@param  event      The event.
+    **************************************************************************/
+    public void attributeAdded(ServletContextAttributeEvent event)
+    {
+        RequestCache.invalidateIfCached(event.getName());
+    }
+
+    /**************************************************************************
+    * Invalidate the values cached for a ServletContext attribute that was
+    * removed.
+    *@param  event      The event.
+    **************************************************************************/
+    public void attributeRemoved(ServletContextAttributeEvent event)
+    {
+        RequestCache.invalidateIfCached(event.getName());
+    }
+
+    /**************************************************************************
+    * Invalidate the values cached for a ServletContext attribute that was
+    * replaced.
+    *@param  event      The event.
+    **************************************************************************/
+    public void attributeReplaced(ServletContextAttributeEvent event)
+    {
+        RequestCache.invalidateIfCached(event.getName());
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -16,7 +16,12 @@
 
 package com.bristle.javalib.net.http;
 
+import com.bristle.javalib.log.FlightRecorderLoggerTarget;
+import com.bristle.javalib.log.Logger;
+import com.bristle.javalib.log.LoggerFinder;
+
 import java.io.IOException;
+import java.io.PrintWriter;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -41,6 +46,18 @@ import javax.servlet.http.HttpServletResponse;
 *       the following HTTP parameter (typically in the URL string)  
 *           bristleDebug
 *
+*     - To view the recent log entries held by the FlightRecorderLoggerTarget 
+*       of the Logger found via LoggerFinder, instead of the info available 
+*       to the servlet, specify:
+*           bristleDebug=flightRecorder
+*       This view is disabled unless the servlet opts in to it, since the
+*       log entries may include details of other users' requests, via the
+*       following servlet init parameter (typically in web.xml):
+*           <init-param>
+*               <param-name>bristleDebugFlightRecorder</param-name>
+*               <param-value>true</param-value>
+*           </init-param>
+*
 *     - To force activation of the ServletDebugger, even if the HTTP parameters
 *       didn't request it:
 *           ServletDebugger.invoke(this, request, response);
@@ -79,6 +96,20 @@ public class ServletDebugger
     **************************************************************************/
     public static final String strACTIVATION_PARAM_NAME = "bristleDebug";
 
+    /**************************************************************************
+    * Value of the activation parameter that shows the recent log entries
+    * held by the FlightRecorderLoggerTarget.
+    **************************************************************************/
+    public static final String strFLIGHT_RECORDER_PARAM_VALUE 
+                                                        = "flightRecorder";
+
+    /**************************************************************************
+    * Name of the servlet init parameter that must have the value "true" to
+    * allow the recent log entries to be shown.
+    **************************************************************************/
+    public static final String strFLIGHT_RECORDER_INIT_PARAM_NAME 
+                                            = "bristleDebugFlightRecorder";
+
 
     /**************************************************************************
     * Examine the specified HTTP request, and decide whether to invoke the
@@ -109,6 +140,10 @@ public class ServletDebugger
     * Invoke the "servlet debugger".  For now, this simply means to write as an 
     * XML stream to the HTTP client all information available to the servlet.  
     * Format of XML is as shown in HttpUtil.writeInfoAvailableToServlet. 
+    * However, if the activation parameter has the value 
+    * strFLIGHT_RECORDER_PARAM_VALUE, write the recent log entries as text 
+    * instead, if allowed by the servlet init parameter 
+    * strFLIGHT_RECORDER_INIT_PARAM_NAME.
     *@param  servlet        The HttpServlet object defining the servlet.
     *@param  request        The HttpServletRequest object of the servlet.
     *@param  response       The HttpServletResponse object of the servlet.
@@ -121,9 +156,54 @@ public class ServletDebugger
                          HttpServletResponse response)
                 throws IOException
     {
+        if (strFLIGHT_RECORDER_PARAM_VALUE.equals
+                        (HttpUtil.getParam(request, strACTIVATION_PARAM_NAME)))
+        {
+            writeFlightRecorder(servlet, request, response);
+            return;
+        }
         HttpUtil.writeInfoAvailableToServlet(servlet, request, response);
     }
 
+    /**************************************************************************
+    * Write as plain text to the HTTP client the recent log entries held by 
+    * the FlightRecorderLoggerTarget of the Logger found via LoggerFinder,
+    * if the servlet init parameter strFLIGHT_RECORDER_INIT_PARAM_NAME is
+    * "true".
+    *@param  servlet        The HttpServlet object defining the servlet.
+    *@param  request        The HttpServletRequest object of the servlet.
+    *@param  response       The HttpServletResponse object of the servlet.
+    *@throws IOException    When an I/O error occurs writing the response.
+    **************************************************************************/
+    private static void writeFlightRecorder
+                        (HttpServlet         servlet,
+                         HttpServletRequest  request,
+                         HttpServletResponse response)
+                throws IOException
+    {
+        response.setContentType("text/plain");
+        PrintWriter pw = response.getWriter();
+        if (servlet == null
+            || !"true".equals(servlet.getInitParameter
+                                (strFLIGHT_RECORDER_INIT_PARAM_NAME)))
+        {
+            pw.println("The flight recorder is not enabled for the servlet.");
+            pw.flush();
+            return;
+        }
+        Logger logger = new LoggerFinder(request).findSafely();
+        FlightRecorderLoggerTarget recorder = (logger == null) 
+                                              ? null 
+                                              : logger.getFlightRecorder();
+        if (recorder == null)
+        {
+            pw.println("No flight recorder is set for the Logger.");
+            pw.flush();
+            return;
+        }
+        recorder.dump(pw);
+    }
+
     /**************************************************************************
     * Each class contains a Tester inner class with a main() for easier
     * unit testing.  To call main from the command line, use:
@@ -17,6 +17,7 @@
 package com.bristle.javalib.sql;
 
 import com.bristle.javalib.net.http.HttpUtil;
+import com.bristle.javalib.net.http.RequestCache;
 import com.bristle.javalib.util.ObjUtil;
 
 import javax.servlet.http.HttpServletRequest;
@@ -43,6 +44,12 @@ import javax.servlet.http.HttpServletRequest;
 *         the ConnectionPool global singleton.
 *<b>Anticipated Changes:</b>
 *<b>Notes:</b>
+*       - The ConnectionPool found in the Session or ServletContext is cached
+*         in the HttpServletRequest via RequestCache, so repeated calls to 
+*         find() during the same request, even via different 
+*         ConnectionPoolFinder instances, do not search those contexts 
+*         again.  See RequestCache for how the cached ConnectionPool is 
+*         invalidated when those contexts change.
 *<b>Implementation Notes:</b>
 *<b>Portability Issues:</b>
 *<b>Revision History:</b>
@@ -63,7 +70,9 @@ public class ConnectionPoolFinder
     //--
     //-- Internal instance variables
     //--
-    private HttpServletRequest m_request = null;
+    private HttpServletRequest m_request             = null;
+    private Object             m_objCached           = RequestCache.objNOT_CACHED;
+    private int                m_intCachedGeneration = 0;
 
     //--
     //-- Local constants
@@ -100,21 +109,49 @@ public class ConnectionPoolFinder
     {
         if (m_request != null)
         {
-            ConnectionPool pool = null;
-            pool = (ConnectionPool)HttpUtil.getSessionAttribute
-                                (m_request, strCONNECTION_POOL_ATTRIBUTE_NAME);
+            ConnectionPool pool = findInContexts();
             if (pool != null)
             {
                 return pool;
             }
-            pool = (ConnectionPool)HttpUtil.getServletAttribute
+        }
+        return ConnectionPool.getSingleton();
+    }
+
+    /**************************************************************************
+    * Find an existing ConnectionPool in the Session context or ServletContext
+    * of the previously specified HttpServletRequest, using the value cached 
+    * by a previous call during the same request, if still valid.
+    *@return               The found ConnectionPool or null.
+    **************************************************************************/
+    private ConnectionPool findInContexts()
+    {
+        int intGeneration 
+                = RequestCache.getGeneration(strCONNECTION_POOL_ATTRIBUTE_NAME);
+        if (m_objCached != RequestCache.objNOT_CACHED 
+            && m_intCachedGeneration == intGeneration)
+        {
+            return (ConnectionPool)m_objCached;
+        }
+        Object obj = RequestCache.get
+                            (m_request, strCONNECTION_POOL_ATTRIBUTE_NAME);
+        if (obj == RequestCache.objNOT_CACHED)
+        {
+            obj = HttpUtil.getSessionAttribute
                                 (m_request, strCONNECTION_POOL_ATTRIBUTE_NAME);
-            if (pool != null)
+            if (obj == null)
             {
-                return pool;
+                obj = HttpUtil.getServletAttribute
+                                (m_request, strCONNECTION_POOL_ATTRIBUTE_NAME);
             }
+            RequestCache.put(m_request, 
+                             strCONNECTION_POOL_ATTRIBUTE_NAME, 
+                             obj, 
+                             intGeneration);
         }
-        return ConnectionPool.getSingleton();
+        m_objCached           = obj;
+        m_intCachedGeneration = intGeneration;
+        return (ConnectionPool)obj;
     }
 
     /**************************************************************************
@@ -126,6 +163,7 @@ public class ConnectionPoolFinder
     {
         HttpUtil.setSessionAttribute
                         (m_request, strCONNECTION_POOL_ATTRIBUTE_NAME, pool);
+        RequestCache.invalidate(strCONNECTION_POOL_ATTRIBUTE_NAME);
     }
 
     /**************************************************************************
@@ -137,6 +175,7 @@ public class ConnectionPoolFinder
     {
         HttpUtil.setServletAttribute
                         (m_request, strCONNECTION_POOL_ATTRIBUTE_NAME, pool);
+        RequestCache.invalidate(strCONNECTION_POOL_ATTRIBUTE_NAME);
     }
 
     /**************************************************************************
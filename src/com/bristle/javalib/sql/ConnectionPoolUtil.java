@@ -22,7 +22,7 @@ import java.sql.Statement;
 import java.sql.SQLException;
 
 import com.bristle.javalib.log.Logger;
-import com.bristle.javalib.log.LoggerUtil;
+import com.bristle.javalib.log.OperationContext;
 import com.bristle.javalib.util.ExcUtil;
 
 // ConnectionPoolUtil
@@ -471,13 +471,13 @@ public class ConnectionPoolUtil
         //-- Allow them to propagate to the caller who should log them and 
         //-- report them to the user.
         boolean blnDBCleanupRequired = true;
-        LoggerUtil logutil = new LoggerUtil(logger);
+        OperationContext ctx = OperationContext.get();
+        ctx.begin(logger, 
+                  intLogLevelOfOperation, 
+                  "ConnectionPoolUtil.getResultSet()");
         try
         {
-            logutil.setPreserveLoggerUsername(true);
-            logutil.setLogLevelOfOperation(intLogLevelOfOperation);
-            logutil.logBegin("ConnectionPoolUtil.getResultSet()");
-            logutil.logNested(strSQL);
+            ctx.logNested(strSQL);
             
             //-- Get the resultset.
             dbContext.st = dbContext.conn.createStatement(intType, intConcurrency);
@@ -507,9 +507,9 @@ public class ConnectionPoolUtil
                                  logger,
                                  intLogLevelOfOperation,
                                  pool);
-                logutil.setAborted(true);
+                ctx.setAborted(true);
             }
-            logutil.logEnd();
+            ctx.end();
         }
     }
 
@@ -583,13 +583,13 @@ public class ConnectionPoolUtil
         //-- Allow them to propagate to the caller who should log them and 
         //-- report them to the user.
         boolean blnDBCheckRequired = true;
-        LoggerUtil logutil = new LoggerUtil(logger);
+        OperationContext ctx = OperationContext.get();
+        ctx.begin(logger, 
+                  intLogLevelOfOperation, 
+                  "ConnectionPoolUtil.executeSQL()");
         try
         {
-            logutil.setPreserveLoggerUsername(true);
-            logutil.setLogLevelOfOperation(intLogLevelOfOperation);
-            logutil.logBegin("ConnectionPoolUtil.executeSQL()");
-            logutil.logNested(strSQL);
+            ctx.logNested(strSQL);
             
             //-- Execute the SQL.
             dbContext.st = dbContext.conn.createStatement();
@@ -621,8 +621,8 @@ public class ConnectionPoolUtil
                          intLogLevelOfOperation,
                          pool);
 
-            logutil.setAborted(blnDBCheckRequired);
-            logutil.logEnd();
+            ctx.setAborted(blnDBCheckRequired);
+            ctx.end();
         }
     }
 
@@ -702,13 +702,13 @@ public class ConnectionPoolUtil
         //-- Try block to ensure we call logEnd(), but don't catch errors.
         //-- Allow them to propagate to the caller who should log them and 
         //-- report them to the user.
-        LoggerUtil logutil = new LoggerUtil(logger);
+        OperationContext ctx = OperationContext.get();
         DBContext dbContext = null;
+        ctx.begin(logger, 
+                  intLogLevelOfOperation, 
+                  "Getting int value from the database.");
         try
         {
-            logutil.setPreserveLoggerUsername(true);
-            logutil.setLogLevelOfOperation(intLogLevelOfOperation);
-            logutil.logBegin("Getting int value from the database.");
 
             dbContext = getResultSet
                             (conn,
@@ -723,19 +723,19 @@ public class ConnectionPoolUtil
             if (blnExists)
             {
                 int intRowCount = dbContext.rs.getInt(1);
-                logutil.logNested("int value = " + intRowCount);
+                ctx.logNested("int value = " + intRowCount);
                 return intRowCount;
             }
             else
             {
-                logutil.logNested("int value = (not found)");
+                ctx.logNested("int value = (not found)");
                 throw new NoDataFoundException
                                 ("Zero rows found for SQL: " + strSQL);
             }
         }
         catch(SQLException exception)
         {
-            logutil.setAborted(true);
+            ctx.setAborted(true);
             throw exception;
         }
         finally
@@ -745,7 +745,7 @@ public class ConnectionPoolUtil
                          logger,
                          intLogLevelOfOperation,
                          pool);
-            logutil.logEnd();
+            ctx.end();
         }
     }
 
@@ -0,0 +1,1013 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.xml;
+
+import com.bristle.javalib.util.ObjUtil;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.w3c.dom.Document;     //-- For Tester only.
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+
+// CompactXMLTree
+/******************************************************************************
+* This class is a compact, read-only tree of the elements, attributes and
+* text of an XML document, for fast lookups of values, like configuration
+* values, without the size and overhead of an XML DOM.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*       CompactXMLTree tree = CompactXMLTree.loadFromURL(strConfigURL);
+*       String strHost = tree.getTextValue("/Config/DB/Host");
+*       int    intPort = tree.getIntTextValue("/Config/DB/Port");
+*       String strMode = tree.getTextValue("/Config/DB/@mode");
+*       String strURL  = tree.getTextValueOrEmptyString
+*                                       ("/Config/Servers/Server[2]/URL");
+*
+*   - To do several lookups relative to one element:
+*       int intDB = tree.findElement(CompactXMLTree.intDOCUMENT,
+*                                    "/Config/DB");
+*       String strHost = tree.getTextValue(intDB, "Host");
+*       String strUser = tree.getTextValue(intDB, "User");
+*
+*   - To walk the tree:
+*       for (int intChild = tree.getFirstChild(tree.getRootElement());
+*            intChild != CompactXMLTree.intNONE;
+*            intChild = tree.getNextSibling(intChild))
+*       {
+*           String strName = tree.getName(intChild);
+*           String strText = tree.getText(intChild);
+*       }
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*       - None.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*       - A tree is immutable once loaded, so it can be shared by all
+*         threads, and all requests, with no locking.
+*       - Paths are a simple subset of XPath:  a sequence of element
+*         names, separated by slashes, each optionally followed by a
+*         one-based position like [2].  A name can be * to match any
+*         element.  The last step can be an attribute name, like @mode.
+*         A path starting with a slash is searched from the document,
+*         so its first step is the root element.  Any other path is
+*         searched from the specified element, or from the document if
+*         none is specified.  A path that does not fit this subset
+*         matches nothing.
+*       - As with XMLUtil.getTextNodeValueViaXPath(), the text of an
+*         element is its first text node, as in a DOM:  its first run of 
+*         text, which ends at a child element, comment, processing 
+*         instruction or CDATA section.  A CDATA section is a text node of
+*         its own.  An element with no text, like &lt;Tag/&gt;, has no text
+*         value.  Any later text of the element is not kept.
+*       - Element and attribute names are the names as they appear in the
+*         XML, including any namespace prefixes.  Namespace declarations
+*         are kept as attributes.
+*       - Comments, processing instructions and the DTD are not kept.
+*<b>Implementation Notes:</b>
+*       - Each element is an int index into parallel arrays of ints: its
+*         name (an index into a table of distinct names), parent, first
+*         child, next sibling, text span and attribute range.  Each
+*         attribute is a name index and a value span.  The text and
+*         attribute values are spans of a single char array.  This takes
+*         roughly 40 bytes per element, plus the text, instead of the
+*         several objects per element and text node of a DOM.
+*       - Lookups walk the arrays directly, matching the path in place,
+*         so they create no objects except the String returned.
+*       - The XML is parsed by the standard SAX parser, so entities, CDATA
+*         sections and encodings are handled exactly as for a DOM.  The 
+*         parser's lexical events for comments and CDATA sections are 
+*         used to end text nodes where a DOM would.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+******************************************************************************/
+public class CompactXMLTree
+{
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+
+    //--
+    //-- Internal instance variables
+    //--
+    private final String[] m_arrNames;
+    private final int[]    m_arrNameIndexes;
+    private final int[]    m_arrParents;
+    private final int[]    m_arrFirstChildren;
+    private final int[]    m_arrNextSiblings;
+    private final int[]    m_arrTextStarts;
+    private final int[]    m_arrTextLengths;
+    private final int[]    m_arrFirstAttributes;
+    private final int[]    m_arrAttributeNameIndexes;
+    private final int[]    m_arrAttributeValueStarts;
+    private final int[]    m_arrAttributeValueLengths;
+    private final char[]   m_arrChars;
+
+    //--
+    //-- Other constants.
+    //--
+
+    /**************************************************************************
+    * Element index meaning no element.
+    **************************************************************************/
+    public static final int intNONE     = -1;
+
+    /**************************************************************************
+    * Element index meaning the document, which contains the root element.
+    **************************************************************************/
+    public static final int intDOCUMENT = -2;
+
+    /**************************************************************************
+    * This class is a SAX handler that collects the elements, attributes and
+    * text of the document into growable arrays.
+    **************************************************************************/
+    private static class Builder extends DefaultHandler2
+    {
+        private final HashMap   m_mapNameIndexes = new HashMap();
+        private final ArrayList m_alNames        = new ArrayList();
+
+        private int   m_intElements       = 0;
+        private int[] m_arrNameIndexes    = new int[64];
+        private int[] m_arrParents        = new int[64];
+        private int[] m_arrFirstChildren  = new int[64];
+        private int[] m_arrNextSiblings   = new int[64];
+        private int[] m_arrTextStarts     = new int[64];
+        private int[] m_arrTextLengths    = new int[64];
+        private int[] m_arrFirstAttributes = new int[65];
+
+        private int   m_intAttributes            = 0;
+        private int[] m_arrAttributeNameIndexes  = new int[64];
+        private int[] m_arrAttributeValueStarts  = new int[64];
+        private int[] m_arrAttributeValueLengths = new int[64];
+
+        private int    m_intChars = 0;
+        private char[] m_arrChars = new char[1024];
+
+        private int   m_intDepth        = 0;
+        private int[] m_arrOpen         = new int[16];
+        private int[] m_arrLastChildren = new int[16];
+        private int   m_intTextElement  = intNONE;
+
+        private static int[] grow(int[] arr, int intMinLength)
+        {
+            if (intMinLength <= arr.length)
+            {
+                return arr;
+            }
+            int[] arrNew = new int[Math.max(intMinLength, arr.length * 2)];
+            System.arraycopy(arr, 0, arrNew, 0, arr.length);
+            return arrNew;
+        }
+
+        private static int[] trim(int[] arr, int intLength)
+        {
+            int[] arrNew = new int[intLength];
+            System.arraycopy(arr, 0, arrNew, 0, intLength);
+            return arrNew;
+        }
+
+        private int getNameIndex(String strName)
+        {
+            Integer intIndex = (Integer)m_mapNameIndexes.get(strName);
+            if (intIndex == null)
+            {
+                intIndex = Integer.valueOf(m_alNames.size());
+                m_mapNameIndexes.put(strName, intIndex);
+                m_alNames.add(strName);
+            }
+            return intIndex.intValue();
+        }
+
+        private int appendChars(char[] arr, int intStart, int intLength)
+        {
+            if (m_intChars + intLength > m_arrChars.length)
+            {
+                char[] arrNew = new char[Math.max(m_intChars + intLength,
+                                                  m_arrChars.length * 2)];
+                System.arraycopy(m_arrChars, 0, arrNew, 0, m_intChars);
+                m_arrChars = arrNew;
+            }
+            System.arraycopy(arr, intStart, m_arrChars, m_intChars, intLength);
+            int intAppendedAt = m_intChars;
+            m_intChars += intLength;
+            return intAppendedAt;
+        }
+
+        public void startElement(String     strURI,
+                                 String     strLocalName,
+                                 String     strQName,
+                                 Attributes attributes)
+        {
+            m_intTextElement = intNONE;
+            int intElement = m_intElements++;
+            m_arrNameIndexes    = grow(m_arrNameIndexes,    m_intElements);
+            m_arrParents        = grow(m_arrParents,        m_intElements);
+            m_arrFirstChildren  = grow(m_arrFirstChildren,  m_intElements);
+            m_arrNextSiblings   = grow(m_arrNextSiblings,   m_intElements);
+            m_arrTextStarts     = grow(m_arrTextStarts,     m_intElements);
+            m_arrTextLengths    = grow(m_arrTextLengths,    m_intElements);
+            m_arrFirstAttributes = grow(m_arrFirstAttributes,
+                                        m_intElements + 1);
+            m_arrNameIndexes[intElement]   = getNameIndex(strQName);
+            m_arrFirstChildren[intElement] = intNONE;
+            m_arrNextSiblings[intElement]  = intNONE;
+            m_arrTextStarts[intElement]    = 0;
+            m_arrTextLengths[intElement]   = intNONE;
+
+            //-- Link it to its parent and previous sibling.
+            if (m_intDepth == 0)
+            {
+                m_arrParents[intElement] = intNONE;
+            }
+            else
+            {
+                int intParent = m_arrOpen[m_intDepth - 1];
+                m_arrParents[intElement] = intParent;
+                int intPrevious = m_arrLastChildren[m_intDepth - 1];
+                if (intPrevious == intNONE)
+                {
+                    m_arrFirstChildren[intParent] = intElement;
+                }
+                else
+                {
+                    m_arrNextSiblings[intPrevious] = intElement;
+                }
+                m_arrLastChildren[m_intDepth - 1] = intElement;
+            }
+            m_arrOpen         = grow(m_arrOpen,         m_intDepth + 1);
+            m_arrLastChildren = grow(m_arrLastChildren, m_intDepth + 1);
+            m_arrOpen[m_intDepth]         = intElement;
+            m_arrLastChildren[m_intDepth] = intNONE;
+            m_intDepth++;
+
+            //-- Attributes.
+            int intCount = attributes.getLength();
+            m_arrFirstAttributes[intElement] = m_intAttributes;
+            m_intAttributes += intCount;
+            m_arrAttributeNameIndexes  = grow(m_arrAttributeNameIndexes,
+                                              m_intAttributes);
+            m_arrAttributeValueStarts  = grow(m_arrAttributeValueStarts,
+                                              m_intAttributes);
+            m_arrAttributeValueLengths = grow(m_arrAttributeValueLengths,
+                                              m_intAttributes);
+            for (int i = 0; i < intCount; i++)
+            {
+                int intAttribute = m_arrFirstAttributes[intElement] + i;
+                String strValue = attributes.getValue(i);
+                m_arrAttributeNameIndexes[intAttribute]
+                                    = getNameIndex(attributes.getQName(i));
+                m_arrAttributeValueStarts[intAttribute]
+                                    = appendChars(strValue.toCharArray(),
+                                                  0,
+                                                  strValue.length());
+                m_arrAttributeValueLengths[intAttribute] = strValue.length();
+            }
+            m_arrFirstAttributes[intElement + 1] = m_intAttributes;
+        }
+
+        public void endElement(String strURI,
+                               String strLocalName,
+                               String strQName)
+        {
+            m_intTextElement = intNONE;
+            m_intDepth--;
+        }
+
+        public void characters(char[] arr, int intStart, int intLength)
+        {
+            int intElement = m_arrOpen[m_intDepth - 1];
+            if (intElement == m_intTextElement)
+            {
+                //-- More of the first text node of the element.
+                appendChars(arr, intStart, intLength);
+                m_arrTextLengths[intElement] += intLength;
+            }
+            else if (m_arrTextLengths[intElement] == intNONE)
+            {
+                //-- Start of the first text node of the element.
+                m_arrTextStarts[intElement]
+                                    = appendChars(arr, intStart, intLength);
+                m_arrTextLengths[intElement] = intLength;
+                m_intTextElement = intElement;
+            }
+        }
+
+        public void comment(char[] arr, int intStart, int intLength)
+        {
+            //-- Ends the current text node, as in a DOM.
+            m_intTextElement = intNONE;
+        }
+
+        public void processingInstruction(String strTarget, String strData)
+        {
+            //-- Ends the current text node, as in a DOM.
+            m_intTextElement = intNONE;
+        }
+
+        public void startCDATA()
+        {
+            //-- A CDATA section is a text node of its own, even if empty.
+            m_intTextElement = intNONE;
+            int intElement = m_arrOpen[m_intDepth - 1];
+            if (m_arrTextLengths[intElement] == intNONE)
+            {
+                m_arrTextStarts[intElement]  = m_intChars;
+                m_arrTextLengths[intElement] = 0;
+                m_intTextElement = intElement;
+            }
+        }
+
+        public void endCDATA()
+        {
+            m_intTextElement = intNONE;
+        }
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  builder    The Builder that collected the document.
+    **************************************************************************/
+    private CompactXMLTree(Builder builder)
+    {
+        int intElements   = builder.m_intElements;
+        int intAttributes = builder.m_intAttributes;
+        m_arrNames = (String[])builder.m_alNames.toArray
+                                    (new String[builder.m_alNames.size()]);
+        m_arrNameIndexes     = Builder.trim(builder.m_arrNameIndexes,
+                                            intElements);
+        m_arrParents         = Builder.trim(builder.m_arrParents,
+                                            intElements);
+        m_arrFirstChildren   = Builder.trim(builder.m_arrFirstChildren,
+                                            intElements);
+        m_arrNextSiblings    = Builder.trim(builder.m_arrNextSiblings,
+                                            intElements);
+        m_arrTextStarts      = Builder.trim(builder.m_arrTextStarts,
+                                            intElements);
+        m_arrTextLengths     = Builder.trim(builder.m_arrTextLengths,
+                                            intElements);
+        m_arrFirstAttributes = Builder.trim(builder.m_arrFirstAttributes,
+                                            intElements + 1);
+        m_arrAttributeNameIndexes  = Builder.trim
+                        (builder.m_arrAttributeNameIndexes,  intAttributes);
+        m_arrAttributeValueStarts  = Builder.trim
+                        (builder.m_arrAttributeValueStarts,  intAttributes);
+        m_arrAttributeValueLengths = Builder.trim
+                        (builder.m_arrAttributeValueLengths, intAttributes);
+        m_arrChars = new char[builder.m_intChars];
+        System.arraycopy(builder.m_arrChars, 0,
+                         m_arrChars, 0,
+                         builder.m_intChars);
+    }
+
+    /**************************************************************************
+    * Load the XML from the InputSource into a new CompactXMLTree.
+    *@param  inputSource    InputSource containing XML to load.
+    *@return                The CompactXMLTree.
+    *@throws SAXException   When InputSource contains invalid XML.
+    *@throws IOException    When an error occurs reading from the InputSource.
+    **************************************************************************/
+    public static CompactXMLTree loadFromInputSource(InputSource inputSource)
+                 throws SAXException
+                       ,IOException
+    {
+        Builder builder = new Builder();
+        try
+        {
+            SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+            parser.setProperty("http://xml.org/sax/properties/lexical-handler",
+                               builder);
+            parser.parse(inputSource, builder);
+        }
+        catch (ParserConfigurationException e)
+        {
+            throw new SAXException(e);
+        }
+        return new CompactXMLTree(builder);
+    }
+
+    /**************************************************************************
+    * Load the XML at the URL into a new CompactXMLTree.
+    *@param  strURL         URL containing XML to load.
+    *@return                The CompactXMLTree.
+    *@throws SAXException   When URL contains invalid XML.
+    *@throws IOException    When an error occurs reading from the URL.
+    **************************************************************************/
+    public static CompactXMLTree loadFromURL(String strURL)
+                 throws SAXException
+                       ,IOException
+    {
+        return loadFromInputSource(new InputSource(strURL));
+    }
+
+    /**************************************************************************
+    * Load the XML string into a new CompactXMLTree.
+    *@param  strXML         String of XML to load.
+    *@return                The CompactXMLTree.
+    *@throws SAXException   When string contains invalid XML.
+    *@throws IOException    When an error occurs reading from the string.
+    **************************************************************************/
+    public static CompactXMLTree loadFromString(String strXML)
+                 throws SAXException
+                       ,IOException
+    {
+        return loadFromInputSource(new InputSource(new StringReader(strXML)));
+    }
+
+    /**************************************************************************
+    * Get the number of elements in the tree.  The elements are numbered
+    * from 0 in document order.
+    *@return            The number of elements.
+    **************************************************************************/
+    public int getElementCount()
+    {
+        return m_arrNameIndexes.length;
+    }
+
+    /**************************************************************************
+    * Get the root element.
+    *@return            The root element.
+    **************************************************************************/
+    public int getRootElement()
+    {
+        return 0;
+    }
+
+    /**************************************************************************
+    * Get the name of the element.
+    *@param  intElement The element.
+    *@return            The name.
+    **************************************************************************/
+    public String getName(int intElement)
+    {
+        return m_arrNames[m_arrNameIndexes[intElement]];
+    }
+
+    /**************************************************************************
+    * Get the parent element of the element.
+    *@param  intElement The element.
+    *@return            The parent element, or intNONE for the root element.
+    **************************************************************************/
+    public int getParent(int intElement)
+    {
+        return m_arrParents[intElement];
+    }
+
+    /**************************************************************************
+    * Get the first child element of the element.
+    *@param  intElement The element.
+    *@return            The first child element, or intNONE.
+    **************************************************************************/
+    public int getFirstChild(int intElement)
+    {
+        return m_arrFirstChildren[intElement];
+    }
+
+    /**************************************************************************
+    * Get the next sibling element of the element.
+    *@param  intElement The element.
+    *@return            The next sibling element, or intNONE.
+    **************************************************************************/
+    public int getNextSibling(int intElement)
+    {
+        return m_arrNextSiblings[intElement];
+    }
+
+    /**************************************************************************
+    * Get the text of the element:  its first text node.
+    *@param  intElement The element.
+    *@return            The text, or null if none.
+    **************************************************************************/
+    public String getText(int intElement)
+    {
+        int intLength = m_arrTextLengths[intElement];
+        return (intLength == intNONE)
+               ? null
+               : new String(m_arrChars, m_arrTextStarts[intElement], intLength);
+    }
+
+    /**************************************************************************
+    * Get the number of attributes of the element.
+    *@param  intElement The element.
+    *@return            The number of attributes.
+    **************************************************************************/
+    public int getAttributeCount(int intElement)
+    {
+        return m_arrFirstAttributes[intElement + 1]
+               - m_arrFirstAttributes[intElement];
+    }
+
+    /**************************************************************************
+    * Get the name of an attribute of the element.
+    *@param  intElement The element.
+    *@param  intIndex   Zero-based index of the attribute.
+    *@return            The name.
+    **************************************************************************/
+    public String getAttributeName(int intElement, int intIndex)
+    {
+        return m_arrNames[m_arrAttributeNameIndexes
+                                [m_arrFirstAttributes[intElement] + intIndex]];
+    }
+
+    /**************************************************************************
+    * Get the value of an attribute of the element.
+    *@param  intElement The element.
+    *@param  intIndex   Zero-based index of the attribute.
+    *@return            The value.
+    **************************************************************************/
+    public String getAttributeValue(int intElement, int intIndex)
+    {
+        int intAttribute = m_arrFirstAttributes[intElement] + intIndex;
+        return new String(m_arrChars,
+                          m_arrAttributeValueStarts[intAttribute],
+                          m_arrAttributeValueLengths[intAttribute]);
+    }
+
+    /**************************************************************************
+    * Get the value of the named attribute of the element.
+    *@param  intElement The element.
+    *@param  strName    The name of the attribute.
+    *@return            The value, or null if the element has no such
+    *                   attribute.
+    **************************************************************************/
+    public String getAttributeValue(int intElement, String strName)
+    {
+        int intIndex = findAttribute(intElement,
+                                     strName, 0, strName.length());
+        return (intIndex == intNONE)
+               ? null
+               : getAttributeValue(intElement, intIndex);
+    }
+
+    /**************************************************************************
+    * Find the first element, in document order, at the path.
+    *@param  intFrom    The element to search from, or intDOCUMENT.
+    *@param  strPath    The path, not ending with an attribute.
+    *@return            The element, or intNONE if not found.
+    **************************************************************************/
+    public int findElement(int intFrom, String strPath)
+    {
+        return (strPath.startsWith("/"))
+               ? find(intDOCUMENT, strPath, 1, strPath.length())
+               : find(intFrom,     strPath, 0, strPath.length());
+    }
+
+    /**************************************************************************
+    * Get the text of the first element at the path, or the value of the
+    * attribute at the path, from the first element that has it.
+    *@param  intFrom    The element to search from, or intDOCUMENT.
+    *@param  strPath    The path.
+    *@return            The text or attribute value.
+    *@throws XMLUtil.NoSuchXMLNodeException
+    *                   When no element at the path has text, or there is
+    *                   no attribute at the path.
+    **************************************************************************/
+    public String getTextValue(int intFrom, String strPath)
+                 throws XMLUtil.NoSuchXMLNodeException
+    {
+        int intStart = 0;
+        int intEnd   = strPath.length();
+        if (strPath.startsWith("/"))
+        {
+            intFrom  = intDOCUMENT;
+            intStart = 1;
+        }
+        int intAt = strPath.lastIndexOf('@');
+        if (intAt >= intStart
+            && (intAt == intStart || strPath.charAt(intAt - 1) == '/'))
+        {
+            //-- Attribute of the first element at the rest of the path 
+            //-- that has it.
+            int intElement = findWithAttribute(intFrom,
+                                               strPath,
+                                               intStart,
+                                               Math.max(intStart, intAt - 1),
+                                               intAt + 1);
+            if (intElement == intNONE)
+            {
+                throw new XMLUtil.NoSuchXMLNodeException(strPath);
+            }
+            return getAttributeValue(intElement,
+                                     findAttribute(intElement,
+                                                   strPath, intAt + 1, intEnd));
+        }
+        int intElement = findWithText(intFrom, strPath, intStart, intEnd);
+        if (intElement == intNONE)
+        {
+            throw new XMLUtil.NoSuchXMLNodeException(strPath);
+        }
+        return getText(intElement);
+    }
+
+    /**************************************************************************
+    * Get the text of the first element at the path from the document, or
+    * the value of the attribute at the path.
+    *@param  strPath    The path.
+    *@return            The text or attribute value.
+    *@throws XMLUtil.NoSuchXMLNodeException
+    *                   When no element at the path has text, or there is
+    *                   no attribute at the path.
+    **************************************************************************/
+    public String getTextValue(String strPath)
+                 throws XMLUtil.NoSuchXMLNodeException
+    {
+        return getTextValue(intDOCUMENT, strPath);
+    }
+
+    /**************************************************************************
+    * Get the text of the first element at the path from the document, or
+    * the value of the attribute at the path.  If not found, return the
+    * empty string instead.
+    *@param  strPath    The path.
+    *@return            The text or attribute value, or empty string.
+    **************************************************************************/
+    public String getTextValueOrEmptyString(String strPath)
+    {
+        try
+        {
+            return getTextValue(intDOCUMENT, strPath);
+        }
+        catch (XMLUtil.NoSuchXMLNodeException e)
+        {
+            return "";
+        }
+    }
+
+    /**************************************************************************
+    * Get the int value of the text of the first element at the path from
+    * the document, or of the attribute at the path, defaulting to 0 if the
+    * value is empty.
+    *@param  strPath    The path.
+    *@return            The int value.
+    *@throws XMLUtil.NoSuchXMLNodeException
+    *                   When no element at the path has text, or there is
+    *                   no attribute at the path.
+    *@throws NumberFormatException
+    *                   When the value is not an int.
+    **************************************************************************/
+    public int getIntTextValue(String strPath)
+                 throws XMLUtil.NoSuchXMLNodeException
+                       ,NumberFormatException
+    {
+        String strRC = getTextValue(intDOCUMENT, strPath);
+        return ObjUtil.equalsOrBothNull(strRC, "")
+               ? 0
+               : Integer.parseInt(strRC);
+    }
+
+    /**************************************************************************
+    * Find the attribute of the element with the name in the specified part
+    * of the string.
+    *@param  intElement The element.
+    *@param  str        The string containing the name.
+    *@param  intStart   Index of the start of the name.
+    *@param  intEnd     Index after the end of the name.
+    *@return            Zero-based index of the attribute, or intNONE.
+    **************************************************************************/
+    private int findAttribute(int intElement, String str, int intStart, int intEnd)
+    {
+        int intFirst = m_arrFirstAttributes[intElement];
+        int intCount = m_arrFirstAttributes[intElement + 1] - intFirst;
+        for (int i = 0; i < intCount; i++)
+        {
+            if (nameMatches(m_arrAttributeNameIndexes[intFirst + i],
+                            str, intStart, intEnd))
+            {
+                return i;
+            }
+        }
+        return intNONE;
+    }
+
+    /**************************************************************************
+    * Check whether the name matches the specified part of the string.
+    *@param  intNameIndex   Index of the name.
+    *@param  str            The string.
+    *@param  intStart       Index of the start of the name in the string.
+    *@param  intEnd         Index after the end of the name in the string.
+    *@return                true if so; false otherwise.
+    **************************************************************************/
+    private boolean nameMatches(int intNameIndex, String str, int intStart, int intEnd)
+    {
+        String strName = m_arrNames[intNameIndex];
+        return strName.length() == intEnd - intStart
+               && str.regionMatches(intStart, strName, 0, intEnd - intStart);
+    }
+
+    /**************************************************************************
+    * Find the first element, in document order, at the specified part of
+    * the path.
+    *@param  intFrom    The element to search from, or intDOCUMENT.
+    *@param  strPath    The path.
+    *@param  intStart   Index of the start of the part of the path.
+    *@param  intEnd     Index after the end of the part of the path.
+    *@return            The element, or intNONE if not found.
+    **************************************************************************/
+    private int find(int intFrom, String strPath, int intStart, int intEnd)
+    {
+        return find(intFrom, strPath, intStart, intEnd, false, intNONE);
+    }
+
+    /**************************************************************************
+    * Find the first element with text, in document order, at the specified
+    * part of the path.
+    *@param  intFrom    The element to search from, or intDOCUMENT.
+    *@param  strPath    The path.
+    *@param  intStart   Index of the start of the part of the path.
+    *@param  intEnd     Index after the end of the part of the path.
+    *@return            The element, or intNONE if not found.
+    **************************************************************************/
+    private int findWithText(int intFrom, String strPath, int intStart, int intEnd)
+    {
+        return find(intFrom, strPath, intStart, intEnd, true, intNONE);
+    }
+
+    /**************************************************************************
+    * Find the first element with the attribute, in document order, at the
+    * specified part of the path.
+    *@param  intFrom    The element to search from, or intDOCUMENT.
+    *@param  strPath    The path, ending with the name of the attribute.
+    *@param  intStart   Index of the start of the part of the path.
+    *@param  intEnd     Index after the end of the part of the path.
+    *@param  intAttributeStart
+    *                   Index of the start of the name of the attribute.
+    *@return            The element, or intNONE if not found.
+    **************************************************************************/
+    private int findWithAttribute(int intFrom, 
+                                  String strPath, 
+                                  int intStart, 
+                                  int intEnd,
+                                  int intAttributeStart)
+    {
+        return find(intFrom, strPath, intStart, intEnd,
+                    false, intAttributeStart);
+    }
+
+    /**************************************************************************
+    * Find the first element, in document order, at the specified part of
+    * the path, optionally skipping elements with no text or without the
+    * specified attribute.
+    *@param  intFrom    The element to search from, or intDOCUMENT.
+    *@param  strPath    The path.
+    *@param  intStart   Index of the start of the part of the path.
+    *@param  intEnd     Index after the end of the part of the path.
+    *@param  blnText    true to find only an element with text.
+    *@param  intAttributeStart
+    *                   Index of the start of the name of the attribute, 
+    *                   which extends to the end of the path, to find only
+    *                   an element with that attribute, or intNONE.
+    *@return            The element, or intNONE if not found.
+    **************************************************************************/
+    private int find(int     intFrom,
+                     String  strPath,
+                     int     intStart,
+                     int     intEnd,
+                     boolean blnText,
+                     int     intAttributeStart)
+    {
+        if (intStart >= intEnd)
+        {
+            return (intFrom < 0
+                    || (blnText && m_arrTextLengths[intFrom] == intNONE)
+                    || (intAttributeStart != intNONE
+                        && findAttribute(intFrom,
+                                         strPath,
+                                         intAttributeStart,
+                                         strPath.length()) == intNONE))
+                   ? intNONE
+                   : intFrom;
+        }
+
+        //-- Parse the first step:  name, optional position.
+        int intStepEnd = strPath.indexOf('/', intStart);
+        if (intStepEnd < 0 || intStepEnd > intEnd)
+        {
+            intStepEnd = intEnd;
+        }
+        int intNameEnd  = intStepEnd;
+        int intPosition = 0;
+        if (strPath.charAt(intStepEnd - 1) == ']')
+        {
+            intNameEnd = strPath.lastIndexOf('[', intStepEnd - 1);
+            if (intNameEnd < intStart)
+            {
+                return intNONE;
+            }
+            for (int i = intNameEnd + 1; i < intStepEnd - 1; i++)
+            {
+                char c = strPath.charAt(i);
+                if (c < '0' || c > '9')
+                {
+                    return intNONE;
+                }
+                intPosition = intPosition * 10 + (c - '0');
+            }
+            if (intPosition == 0)
+            {
+                return intNONE;
+            }
+        }
+        boolean blnAnyName = (intNameEnd - intStart == 1
+                              && strPath.charAt(intStart) == '*');
+
+        //-- Search the matching children, and the rest of the path from
+        //-- each in turn.
+        int intCount = 0;
+        for (int intChild = (intFrom == intDOCUMENT)
+                            ? 0
+                            : m_arrFirstChildren[intFrom];
+             intChild != intNONE;
+             intChild = (intFrom == intDOCUMENT)
+                        ? intNONE
+                        : m_arrNextSiblings[intChild])
+        {
+            if (!blnAnyName
+                && !nameMatches(m_arrNameIndexes[intChild],
+                                strPath, intStart, intNameEnd))
+            {
+                continue;
+            }
+            intCount++;
+            if (intPosition == 0 || intCount == intPosition)
+            {
+                int intFound = find(intChild,
+                                    strPath, intStepEnd + 1, intEnd,
+                                    blnText, intAttributeStart);
+                if (intFound != intNONE || intPosition != 0)
+                {
+                    return intFound;
+                }
+            }
+        }
+        return intNONE;
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+
+                String strXML =
+                      "<Config version='2'>"
+                    + "<DB mode='readonly'>"
+                    +   "<Host>db.example.com</Host>"
+                    +   "<Port>5432</Port>"
+                    +   "<Empty/>"
+                    +   "<Blank></Blank>"
+                    + "</DB>"
+                    + "<Servers>"
+                    +   "<Server><URL>http://one</URL></Server>"
+                    +   "<Server><Name>No URL</Name></Server>"
+                    +   "<Server><URL>http://a&amp;b<![CDATA[&c]]></URL></Server>"
+                    + "</Servers>"
+                    + "<Mixed>Before<Child/>After</Mixed>"
+                    + "<Lead><Child/>After</Lead>"
+                    + "<Split>Before<!-- Comment -->After</Split>"
+                    + "<CDATA><![CDATA[Inside]]>After</CDATA>"
+                    + "</Config>";
+                CompactXMLTree tree = loadFromString(strXML);
+
+                System.out.println ("Element count (19) = "
+                                    + tree.getElementCount());
+                System.out.println ("Host (db.example.com) = "
+                                    + tree.getTextValue("/Config/DB/Host"));
+                System.out.println ("Relative (db.example.com) = "
+                                    + tree.getTextValue("Config/DB/Host"));
+                System.out.println ("Port (5432) = "
+                                    + tree.getIntTextValue("/Config/DB/Port"));
+                System.out.println ("Attribute (readonly) = "
+                                    + tree.getTextValue("/Config/DB/@mode"));
+                System.out.println ("Root attribute (2) = "
+                                    + tree.getTextValue("/Config/@version"));
+                System.out.println ("Wildcard (5432) = "
+                                    + tree.getTextValue("/*/DB/*[2]"));
+                System.out.println ("Position (http://one) = "
+                        + tree.getTextValue("/Config/Servers/Server[1]/URL"));
+                System.out.println ("First with text (http://one) = "
+                        + tree.getTextValue("/Config/Servers/Server/URL"));
+                System.out.println ("Entities, not CDATA (http://a&b) = "
+                        + tree.getTextValue("/Config/Servers/Server[3]/URL"));
+                System.out.println ("Missing ('') = '"
+                        + tree.getTextValueOrEmptyString
+                                    ("/Config/Servers/Server[2]/URL") + "'");
+                System.out.println ("Text before child (Before) = "
+                                    + tree.getTextValue("/Config/Mixed"));
+                System.out.println ("Text after leading child (After) = "
+                                    + tree.getTextValue("/Config/Lead"));
+                System.out.println ("Text split by comment (Before) = "
+                                    + tree.getTextValue("/Config/Split"));
+                System.out.println ("CDATA before text (Inside) = "
+                                    + tree.getTextValue("/Config/CDATA"));
+                Document dom = XMLUtil.loadDocumentFromString(strXML);
+                String[] arrPaths = { "/Config/Servers/Server[3]/URL",
+                                      "/Config/Mixed",
+                                      "/Config/Lead",
+                                      "/Config/Split",
+                                      "/Config/CDATA"
+                                    };
+                for (int i = 0; i < arrPaths.length; i++)
+                {
+                    System.out.println 
+                        ("Same as DOM for " + arrPaths[i] + ": " 
+                         + (ObjUtil.equalsOrBothNull
+                                (tree.getTextValue(arrPaths[i]),
+                                 XMLUtil.getTextNodeValueViaXPath
+                                                    (dom, arrPaths[i]))
+                            ? "Success!" 
+                            : "Failure!"));
+                }
+                try
+                {
+                    tree.getTextValue("/Config/DB/Empty");
+                    System.out.println ("Empty element: Failure!");
+                }
+                catch (XMLUtil.NoSuchXMLNodeException e)
+                {
+                    System.out.println ("Empty element: Success!");
+                }
+
+                int intDB = tree.findElement(intDOCUMENT, "/Config/DB");
+                System.out.println ("From element (5432) = "
+                                    + tree.getTextValue(intDB, "Port"));
+                System.out.println ("Attribute of element (readonly) = "
+                                    + tree.getTextValue(intDB, "@mode"));
+                System.out.print   ("Children of DB (Host Port Empty Blank) =");
+                for (int intChild = tree.getFirstChild(intDB);
+                     intChild != intNONE;
+                     intChild = tree.getNextSibling(intChild))
+                {
+                    System.out.print (" " + tree.getName(intChild));
+                }
+                System.out.println ();
+                System.out.println ("Invalid path (-1) = "
+                        + tree.findElement(intDOCUMENT, "/Config/DB[x]"));
+                System.out.println ("First element with the attribute (2) = "
+                        + loadFromString("<R><S><U>no</U></S><S id='2'/></R>")
+                                        .getTextValue("/R/S/@id"));
+
+                int intLookups = 1000000;
+                long lngStart = System.nanoTime();
+                for (int i = 0; i < intLookups; i++)
+                {
+                    tree.getTextValue("/Config/Servers/Server[3]/URL");
+                }
+                System.out.println ("Nanoseconds per lookup = "
+                        + (System.nanoTime() - lngStart) / intLookups);
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,931 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.xml;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.text.CollationKey;
+import java.text.Collator;
+
+import javax.xml.transform.TransformerException;
+
+import com.bristle.javalib.xml.XSLUtil.SortCaseOrder;
+import com.bristle.javalib.xml.XSLUtil.SortDataType;
+import com.bristle.javalib.xml.XSLUtil.SortOrder;
+
+// ElementSorter
+/******************************************************************************
+* This class sorts the child Elements of XML Elements directly in the DOM,
+* without XSL.  It is a faster alternative to XSLUtil.sortElements().
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*     - To sort the child Elements (in this case, the B Elements) within an
+*       XML Element (the A Element), ordering them by the numeric value of a
+*       specified XML Element (the C Element) nested within each child
+*       Element, modifying the original XML:
+*<xmp>
+*           Document dom = XMLUtil.loadDocumentFromString
+*                   ("<A>" +
+*                      "<B><C>3</C></B>" +
+*                      "<B><C>2</C></B>" +
+*                      "<B><C>10</C></B>" +
+*                    "</A>");
+*           ElementSorter.sortElementsInPlace
+*                        (dom, "A", "C",
+*                         XSLUtil.SortDataType.NUMBER,
+*                         XSLUtil.SortOrder.ASCENDING,
+*                         XSLUtil.SortCaseOrder.UPPER_CASE_FIRST);
+*
+*       Resulting DOM:
+*                     <A>
+*                       <B><C>2</C></B>
+*                       <B><C>3</C></B>
+*                       <B><C>10</C></B>
+*                     </A>
+*</xmp>
+*
+*     - To do the same, leaving the original XML unmodified, and returning
+*       the sorted XML as a new Document:
+*           Document domSorted = ElementSorter.sortElements
+*                        (dom, "A", "C",
+*                         XSLUtil.SortDataType.NUMBER,
+*                         XSLUtil.SortOrder.ASCENDING,
+*                         XSLUtil.SortCaseOrder.UPPER_CASE_FIRST);
+*
+*     - The parent and sort key XPaths, data types, orders and case orders
+*       have the same meanings as for XSLUtil.sortElements().  See the
+*       examples there.  The one exception is CASE_INSENSITIVE, which
+*       compares the sort keys without regard to case here, but which
+*       XSLUtil.sortElements() applies to the quoted XPath string instead
+*       of its value, leaving the Elements in their original order.
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*       - sortElementsInPlace() modifies the XML it is passed.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*       - As with a match pattern of an XSL template, a parent XPath that
+*         does not start with "/" selects the matching Elements at any
+*         level of the XML, like "A" or "A[2]".
+*       - The sort key XPath must select a Node, like "C", "C/D" or
+*         "@attr1".  Its value is the text of the first such Node.  A child
+*         Element with no such Node has a sort key of "".  For sort keys
+*         computed by other XPath expressions, use XSLUtil.sortElements().
+*       - As with xsl:sort, a text sort compares keys via a Collator for
+*         the default Locale, first without regard to case, and then uses
+*         the case order to break ties, and a number sort puts keys that
+*         are not numbers first in ascending order and last in descending
+*         order.  Child Elements with equal sort keys stay in their
+*         original order.
+*       - Unlike XSLUtil.sortElements(), the Text, comment, and processing
+*         instruction children of a parent Element are not moved.  Only
+*         the child Elements are rearranged among themselves, so that
+*         whitespace used for indentation stays where it was.
+*<b>Implementation Notes:</b>
+*       - The sort key of each child Element is computed only once, into an
+*         array of CollationKeys or doubles, and the child Elements are 
+*         sorted by a stable merge sort of an array of int indexes into 
+*         that array.  A text sort that is not case insensitive keeps a
+*         second array of CollationKeys that include case, to break ties.
+*       - The XPaths are evaluated via XMLUtil, which caches them compiled
+*         and evaluates simple XPaths directly against the DOM.
+*       - No stylesheet is generated or compiled, and sortElementsInPlace()
+*         copies nothing.  sortElements() copies the XML once, into the new
+*         Document, by importing it, and then sorts the copy in place.
+*       - Each parent that is already in sorted order is left untouched.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+******************************************************************************/
+public class ElementSorter
+{
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Local constants
+    //--
+    private static final int intINSERTION_SORT_THRESHOLD = 8;
+
+    /**************************************************************************
+    * This class holds the sort keys of the child Elements of one parent, and
+    * compares them by index.
+    **************************************************************************/
+    private static class SortKeys
+    {
+        private final CollationKey[] m_arrTextKeys;
+        private final CollationKey[] m_arrCaseKeys;
+        private final double[]       m_arrNumberKeys;
+        private final boolean        m_blnUpperCaseFirst;
+        private final boolean        m_blnDescending;
+
+        private SortKeys(Element[]     arrElements,
+                         String        strSortKeyXPath,
+                         SortDataType  dataType,
+                         SortOrder     order,
+                         SortCaseOrder caseOrder)
+                 throws TransformerException
+        {
+            m_blnUpperCaseFirst = (caseOrder == SortCaseOrder.UPPER_CASE_FIRST);
+            m_blnDescending     = (order == SortOrder.DESCENDING);
+            int intCount = arrElements.length;
+            if (dataType == SortDataType.NUMBER)
+            {
+                m_arrTextKeys   = null;
+                m_arrCaseKeys   = null;
+                m_arrNumberKeys = new double[intCount];
+                for (int i = 0; i < intCount; i++)
+                {
+                    m_arrNumberKeys[i] = parseNumber
+                            (getSortKey(arrElements[i], strSortKeyXPath));
+                }
+            }
+            else
+            {
+                m_arrNumberKeys = null;
+                m_arrTextKeys   = new CollationKey[intCount];
+                m_arrCaseKeys   = (caseOrder == SortCaseOrder.CASE_INSENSITIVE)
+                                  ? null
+                                  : new CollationKey[intCount];
+                //-- Collator.getInstance() returns a new Collator, which 
+                //-- is not shared with other threads.
+                Collator collatorText = Collator.getInstance();
+                collatorText.setStrength(Collator.SECONDARY);
+                Collator collatorCase = Collator.getInstance();
+                collatorCase.setStrength(Collator.TERTIARY);
+                for (int i = 0; i < intCount; i++)
+                {
+                    String strKey = getSortKey(arrElements[i], strSortKeyXPath);
+                    m_arrTextKeys[i] = collatorText.getCollationKey(strKey);
+                    if (m_arrCaseKeys != null)
+                    {
+                        m_arrCaseKeys[i] = collatorCase.getCollationKey(strKey);
+                    }
+                }
+            }
+        }
+
+        /**********************************************************************
+        * Compare the sort keys at the specified indexes.
+        *@param  i          Index of the first sort key.
+        *@param  j          Index of the second sort key.
+        *@return            Negative if the first sorts before the second,
+        *                   positive if after, and 0 if they are equal.
+        **********************************************************************/
+        private int compare(int i, int j)
+        {
+            int intResult = (m_arrNumberKeys == null)
+                            ? compareText(i, j)
+                            : compareNumbers(m_arrNumberKeys[i],
+                                             m_arrNumberKeys[j]);
+            return m_blnDescending ? -intResult : intResult;
+        }
+
+        /**********************************************************************
+        * Compare the text sort keys at the specified indexes.
+        *@param  i          Index of the first sort key.
+        *@param  j          Index of the second sort key.
+        *@return            Negative if the first sorts before the second,
+        *                   positive if after, and 0 if they are equal.
+        **********************************************************************/
+        private int compareText(int i, int j)
+        {
+            int intResult = m_arrTextKeys[i].compareTo(m_arrTextKeys[j]);
+            if (intResult != 0 || m_arrCaseKeys == null)
+            {
+                return intResult;
+            }
+            //-- Same letters.  The Collator puts lower case first, so 
+            //-- reverse it for upper case first.
+            intResult = m_arrCaseKeys[i].compareTo(m_arrCaseKeys[j]);
+            return m_blnUpperCaseFirst ? -intResult : intResult;
+        }
+
+        /**********************************************************************
+        * Compare two number sort keys, ordering NaN before all numbers.
+        *@param  dbl1       The first sort key.
+        *@param  dbl2       The second sort key.
+        *@return            Negative if the first sorts before the second,
+        *                   positive if after, and 0 if they are equal.
+        **********************************************************************/
+        private static int compareNumbers(double dbl1, double dbl2)
+        {
+            boolean blnNaN1 = Double.isNaN(dbl1);
+            boolean blnNaN2 = Double.isNaN(dbl2);
+            if (blnNaN1 || blnNaN2)
+            {
+                return (blnNaN1 == blnNaN2) ? 0 : (blnNaN1 ? -1 : 1);
+            }
+            return (dbl1 < dbl2) ? -1 : ((dbl1 > dbl2) ? 1 : 0);
+        }
+    }
+
+    /**************************************************************************
+    * Get the text value of the specified Node, which is the concatenation
+    * of all of its descendant Text nodes for an Element.
+    *@param  xml        The Node.
+    *@param  sb         The StringBuffer to append the value to.
+    **************************************************************************/
+    private static void appendTextValue(Node xml, StringBuffer sb)
+    {
+        short shtType = xml.getNodeType();
+        if (shtType == Node.ELEMENT_NODE
+            || shtType == Node.DOCUMENT_NODE
+            || shtType == Node.DOCUMENT_FRAGMENT_NODE)
+        {
+            for (Node xmlChild = xml.getFirstChild();
+                 xmlChild != null;
+                 xmlChild = xmlChild.getNextSibling())
+            {
+                short shtChildType = xmlChild.getNodeType();
+                if (shtChildType == Node.TEXT_NODE
+                    || shtChildType == Node.CDATA_SECTION_NODE
+                    || shtChildType == Node.ELEMENT_NODE)
+                {
+                    appendTextValue(xmlChild, sb);
+                }
+            }
+        }
+        else if (xml.getNodeValue() != null)
+        {
+            sb.append(xml.getNodeValue());
+        }
+    }
+
+    /**************************************************************************
+    * Get the sort key of the specified Element.
+    *@param  xmlElement The Element.
+    *@param  strSortKeyXPath
+    *                   XPath of XML Node to be used as the sort key.
+    *@return            The text value of the Node, or "" if none.
+    *@throws TransformerException
+    *                   When the XPath is invalid.
+    **************************************************************************/
+    private static String getSortKey(Element xmlElement, String strSortKeyXPath)
+                 throws TransformerException
+    {
+        Node xmlKey = XMLUtil.selectSingleNode(xmlElement, strSortKeyXPath);
+        if (xmlKey == null)
+        {
+            return "";
+        }
+        short shtType = xmlKey.getNodeType();
+        if (shtType == Node.ELEMENT_NODE
+            || shtType == Node.DOCUMENT_NODE
+            || shtType == Node.DOCUMENT_FRAGMENT_NODE)
+        {
+            //-- Avoid the StringBuffer for the usual Element with a single
+            //-- Text child.
+            Node xmlFirst = xmlKey.getFirstChild();
+            if (xmlFirst == null)
+            {
+                return "";
+            }
+            if (xmlFirst.getNextSibling() == null
+                && xmlFirst.getNodeType() == Node.TEXT_NODE)
+            {
+                return xmlFirst.getNodeValue();
+            }
+            StringBuffer sb = new StringBuffer();
+            appendTextValue(xmlKey, sb);
+            return sb.toString();
+        }
+        String strValue = xmlKey.getNodeValue();
+        return (strValue == null) ? "" : strValue;
+    }
+
+    /**************************************************************************
+    * Convert the specified sort key to a number, the way the XPath number()
+    * function does:  an optional minus sign, digits, and an optional decimal
+    * point, with optional leading and trailing whitespace.
+    *@param  str        The sort key.
+    *@return            The number, or NaN if not a number.
+    **************************************************************************/
+    private static double parseNumber(String str)
+    {
+        String  strTrimmed = str.trim();
+        int     intLength  = strTrimmed.length();
+        int     intStart   = (intLength > 0 && strTrimmed.charAt(0) == '-')
+                             ? 1 : 0;
+        boolean blnDigits  = false;
+        boolean blnPoint   = false;
+        for (int i = intStart; i < intLength; i++)
+        {
+            char ch = strTrimmed.charAt(i);
+            if (ch >= '0' && ch <= '9')
+            {
+                blnDigits = true;
+            }
+            else if (ch == '.' && !blnPoint)
+            {
+                blnPoint = true;
+            }
+            else
+            {
+                return Double.NaN;
+            }
+        }
+        return blnDigits ? Double.parseDouble(strTrimmed) : Double.NaN;
+    }
+
+    /**************************************************************************
+    * Sort the specified range of the array of indexes by the sort keys they
+    * refer to, via a stable merge sort.
+    *@param  arrIndexes The indexes to sort.
+    *@param  arrTemp    Scratch array the same size as arrIndexes.
+    *@param  intFrom    Start of the range, inclusive.
+    *@param  intTo      End of the range, exclusive.
+    *@param  keys       The sort keys.
+    **************************************************************************/
+    private static void mergeSort(int[]    arrIndexes,
+                                  int[]    arrTemp,
+                                  int      intFrom,
+                                  int      intTo,
+                                  SortKeys keys)
+    {
+        if (intTo - intFrom <= intINSERTION_SORT_THRESHOLD)
+        {
+            for (int i = intFrom + 1; i < intTo; i++)
+            {
+                int intIndex = arrIndexes[i];
+                int j = i;
+                while (j > intFrom && keys.compare(arrIndexes[j - 1], intIndex) > 0)
+                {
+                    arrIndexes[j] = arrIndexes[j - 1];
+                    j--;
+                }
+                arrIndexes[j] = intIndex;
+            }
+            return;
+        }
+        int intMiddle = (intFrom + intTo) >>> 1;
+        mergeSort(arrIndexes, arrTemp, intFrom, intMiddle, keys);
+        mergeSort(arrIndexes, arrTemp, intMiddle, intTo, keys);
+        if (keys.compare(arrIndexes[intMiddle - 1], arrIndexes[intMiddle]) <= 0)
+        {
+            //-- Already in order.
+            return;
+        }
+        System.arraycopy(arrIndexes, intFrom, arrTemp, intFrom, intTo - intFrom);
+        int i = intFrom;
+        int j = intMiddle;
+        for (int k = intFrom; k < intTo; k++)
+        {
+            if (j >= intTo
+                || (i < intMiddle && keys.compare(arrTemp[i], arrTemp[j]) <= 0))
+            {
+                arrIndexes[k] = arrTemp[i++];
+            }
+            else
+            {
+                arrIndexes[k] = arrTemp[j++];
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Sort the child Elements of the specified parent Element in place.
+    *@param  xmlParent  The parent Element.
+    *@param  strSortKeyXPath
+    *                   XPath of XML Node to be used as the sort key within
+    *                   each child Element to be sorted.
+    *@param  dataType   Data type of the sort key
+    *@param  order      Order of the sort
+    *@param  caseOrder  Effect of case on the sort order
+    *@throws TransformerException
+    *                   When the sort key XPath is invalid.
+    **************************************************************************/
+    private static void sortChildElements(Node          xmlParent,
+                                          String        strSortKeyXPath,
+                                          SortDataType  dataType,
+                                          SortOrder     order,
+                                          SortCaseOrder caseOrder)
+                 throws TransformerException
+    {
+        NodeList nodes      = xmlParent.getChildNodes();
+        int      intNodes   = nodes.getLength();
+        Node[]   arrNodes   = new Node[intNodes];
+        int[]    arrSlots   = new int[intNodes];
+        int      intElements = 0;
+        for (int i = 0; i < intNodes; i++)
+        {
+            arrNodes[i] = nodes.item(i);
+            if (arrNodes[i].getNodeType() == Node.ELEMENT_NODE)
+            {
+                arrSlots[intElements++] = i;
+            }
+        }
+        if (intElements < 2)
+        {
+            return;
+        }
+
+        Element[] arrElements = new Element[intElements];
+        int[]     arrIndexes  = new int[intElements];
+        for (int i = 0; i < intElements; i++)
+        {
+            arrElements[i] = (Element)arrNodes[arrSlots[i]];
+            arrIndexes[i]  = i;
+        }
+        SortKeys keys = new SortKeys
+                    (arrElements, strSortKeyXPath, dataType, order, caseOrder);
+        mergeSort(arrIndexes, new int[intElements], 0, intElements, keys);
+
+        //-- Put the sorted Elements into the slots of the original Elements,
+        //-- leaving the other child Nodes where they were.
+        boolean blnChanged = false;
+        for (int i = 0; i < intElements; i++)
+        {
+            if (arrIndexes[i] != i)
+            {
+                blnChanged = true;
+                arrNodes[arrSlots[i]] = arrElements[arrIndexes[i]];
+            }
+        }
+        if (blnChanged)
+        {
+            //-- Appending a child moves it to the end, so appending them all
+            //-- in the new order rearranges them without copying any.
+            for (int i = 0; i < intNodes; i++)
+            {
+                xmlParent.appendChild(arrNodes[i]);
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Get the Elements whose child Elements are to be sorted.
+    *@param  xml        XML to be sorted
+    *@param strParentElementXPath
+    *                   XPath of parent Elements whose child Elements
+    *                   are to be sorted
+    *@return            The parent Elements.
+    *@throws TransformerException
+    *                   When the XPath is invalid.
+    **************************************************************************/
+    private static Node[] getParentElements(Node   xml,
+                                            String strParentElementXPath)
+                 throws TransformerException
+    {
+        if (strParentElementXPath.startsWith("/"))
+        {
+            return toArray(XMLUtil.selectNodeList(xml, strParentElementXPath),
+                           null);
+        }
+        //-- Like a match pattern, select matching Elements at any level,
+        //-- including xml itself.
+        Node xmlSelf = null;
+        Node xmlXMLParent = xml.getParentNode();
+        if (xml.getNodeType() == Node.ELEMENT_NODE && xmlXMLParent != null)
+        {
+            NodeList nodes = XMLUtil.selectNodeList
+                                    (xmlXMLParent, strParentElementXPath);
+            for (int i = 0; i < nodes.getLength(); i++)
+            {
+                if (nodes.item(i) == xml)
+                {
+                    xmlSelf = xml;
+                    break;
+                }
+            }
+        }
+        return toArray(XMLUtil.selectNodeList
+                            (xml,
+                             "descendant-or-self::node()/"
+                             + strParentElementXPath),
+                       xmlSelf);
+    }
+
+    /**************************************************************************
+    * Copy the specified NodeList to an array, since the DOM may be live.
+    *@param  nodes      The NodeList.
+    *@param  xmlFirst   Node to put first in the array, or null.
+    *@return            The array.
+    **************************************************************************/
+    private static Node[] toArray(NodeList nodes, Node xmlFirst)
+    {
+        int    intOffset = (xmlFirst == null) ? 0 : 1;
+        Node[] arrNodes  = new Node[nodes.getLength() + intOffset];
+        if (xmlFirst != null)
+        {
+            arrNodes[0] = xmlFirst;
+        }
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            arrNodes[i + intOffset] = nodes.item(i);
+        }
+        return arrNodes;
+    }
+
+    /**************************************************************************
+    * Sorts the child Elements of the specified Elements of the specified XML
+    * Document, DocumentFragment or Element, ordering them by the value of the
+    * specified XML Node nested within each child Element, modifying the
+    * original XML.
+    *@param  xml        XML to be sorted
+    *@param strParentElementXPath
+    *                   XPath of parent Elements whose child Elements
+    *                   are to be sorted
+    *@param  strSortKeyXPath
+    *                   XPath of XML Node to be used as the sort key within
+    *                   each child Element to be sorted.
+    *@param  dataType   Data type of the sort key
+    *@param  order      Order of the sort
+    *@param  caseOrder  Effect of case on the sort order
+    *@return            The number of parent Elements whose child Elements
+    *                   were sorted.
+    *@throws TransformerException
+    *                   When an XPath is invalid, or the sort key XPath
+    *                   does not select a Node.
+    **************************************************************************/
+    public static int sortElementsInPlace
+                        (Node           xml,
+                         String         strParentElementXPath,
+                         String         strSortKeyXPath,
+                         SortDataType   dataType,
+                         SortOrder      order,
+                         SortCaseOrder  caseOrder)
+                            throws TransformerException
+    {
+        Node[] arrParents = getParentElements(xml, strParentElementXPath);
+        int    intSorted  = 0;
+        for (int i = 0; i < arrParents.length; i++)
+        {
+            if (arrParents[i].getNodeType() == Node.ELEMENT_NODE)
+            {
+                sortChildElements(arrParents[i],
+                                  strSortKeyXPath,
+                                  dataType,
+                                  order,
+                                  caseOrder);
+                intSorted++;
+            }
+        }
+        return intSorted;
+    }
+
+    /**************************************************************************
+    * Sorts the child Elements of the specified Elements of the specified XML
+    * Document, DocumentFragment or Element, ordering them by the value of the
+    * specified XML Node nested within each child Element, leaving the
+    * original XML unmodified, copying the sorted XML to a new Document,
+    * and returning the new Document.
+    *@param  xml        XML to be sorted
+    *@param strParentElementXPath
+    *                   XPath of parent Elements whose child Elements
+    *                   are to be sorted
+    *@param  strSortKeyXPath
+    *                   XPath of XML Node to be used as the sort key within
+    *                   each child Element to be sorted.
+    *@param  dataType   Data type of the sort key
+    *@param  order      Order of the sort
+    *@param  caseOrder  Effect of case on the sort order
+    *@return            A sorted copy of the XML.
+    *@throws TransformerException
+    *                   When an XPath is invalid, or the sort key XPath
+    *                   does not select a Node.
+    **************************************************************************/
+    public static Document sortElements
+                        (Node           xml,
+                         String         strParentElementXPath,
+                         String         strSortKeyXPath,
+                         SortDataType   dataType,
+                         SortOrder      order,
+                         SortCaseOrder  caseOrder)
+                            throws TransformerException
+    {
+        Document dom = XMLUtil.createEmptyDocument();
+        if (xml.getNodeType() == Node.DOCUMENT_NODE
+            || xml.getNodeType() == Node.DOCUMENT_FRAGMENT_NODE)
+        {
+            for (Node xmlChild = xml.getFirstChild();
+                 xmlChild != null;
+                 xmlChild = xmlChild.getNextSibling())
+            {
+                if (xmlChild.getNodeType() != Node.DOCUMENT_TYPE_NODE)
+                {
+                    dom.appendChild(dom.importNode(xmlChild, true));
+                }
+            }
+        }
+        else
+        {
+            dom.appendChild(dom.importNode(xml, true));
+        }
+        sortElementsInPlace(dom,
+                            strParentElementXPath,
+                            strSortKeyXPath,
+                            dataType,
+                            order,
+                            caseOrder);
+        return dom;
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Sort the XML and compare the result to the expected XML.
+        *@param  strXML     XML to sort.
+        *@param  strParentElementXPath
+        *                   XPath of parent Elements.
+        *@param  strSortKeyXPath
+        *                   XPath of sort key.
+        *@param  dataType   Data type of the sort key
+        *@param  order      Order of the sort
+        *@param  caseOrder  Effect of case on the sort order
+        *@param  strExpected
+        *                   Expected XML.
+        *@throws Exception  When an error occurs.
+        **********************************************************************/
+        private static void testSort(String        strXML,
+                                     String        strParentElementXPath,
+                                     String        strSortKeyXPath,
+                                     SortDataType  dataType,
+                                     SortOrder     order,
+                                     SortCaseOrder caseOrder,
+                                     String        strExpected)
+                     throws Exception
+        {
+            System.out.println("-- " + strParentElementXPath + ", "
+                               + strSortKeyXPath + ", " + dataType + ", "
+                               + order + ", " + caseOrder);
+            Document dom = XMLUtil.loadDocumentFromString(strXML);
+            String strExpectedXML = XMLUtil.serialize
+                        (XMLUtil.loadDocumentFromString(strExpected),
+                         XMLUtil.blnCOMPACT);
+            String strCopy = XMLUtil.serialize
+                        (sortElements(dom,
+                                      strParentElementXPath,
+                                      strSortKeyXPath,
+                                      dataType,
+                                      order,
+                                      caseOrder),
+                         XMLUtil.blnCOMPACT);
+            String strOriginal = XMLUtil.serialize(dom, XMLUtil.blnCOMPACT);
+            sortElementsInPlace(dom,
+                                strParentElementXPath,
+                                strSortKeyXPath,
+                                dataType,
+                                order,
+                                caseOrder);
+            String strInPlace = XMLUtil.serialize(dom, XMLUtil.blnCOMPACT);
+            System.out.println("Sorted:   " + strInPlace);
+            if (strExpectedXML.equals(strInPlace)
+                && strExpectedXML.equals(strCopy)
+                && !strExpectedXML.equals(strOriginal))
+            {
+                System.out.println("Success!");
+            }
+            else
+            {
+                System.out.println("Expected: " + strExpectedXML);
+                System.out.println("Copy:     " + strCopy);
+                System.out.println("Failure!");
+            }
+        }
+
+        /**********************************************************************
+        * Sort the XML as text by the C Element of each B Element within the
+        * A Element, both via XSLUtil.sortElements() and via sortElements(),
+        * and report whether the results are the same.
+        *@param  strXML     XML to sort.
+        *@param  order      Order of the sort
+        *@param  caseOrder  Effect of case on the sort order
+        *@throws Exception  When an error occurs.
+        **********************************************************************/
+        private static void testSameAsXSL(String        strXML,
+                                          SortOrder     order,
+                                          SortCaseOrder caseOrder)
+                     throws Exception
+        {
+            Document dom = XMLUtil.loadDocumentFromString(strXML);
+            String strXSL = XMLUtil.serialize
+                        (XSLUtil.sortElements(dom, "A", "C",
+                                              SortDataType.TEXT,
+                                              order,
+                                              caseOrder),
+                         XMLUtil.blnCOMPACT);
+            String strNative = XMLUtil.serialize
+                        (sortElements(dom, "A", "C",
+                                      SortDataType.TEXT,
+                                      order,
+                                      caseOrder),
+                         XMLUtil.blnCOMPACT);
+            System.out.println("-- Same as XSLUtil.sortElements(), "
+                               + order + ", " + caseOrder);
+            if (strXSL.equals(strNative))
+            {
+                System.out.println("Success!");
+            }
+            else
+            {
+                System.out.println("XSL:      " + strXSL);
+                System.out.println("Sorted:   " + strNative);
+                System.out.println("Failure!");
+            }
+        }
+
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+
+                testSort("<A><B><C>3</C></B><B><C>2</C></B><B><C>10</C></B></A>",
+                         "A", "C",
+                         SortDataType.TEXT,
+                         SortOrder.ASCENDING,
+                         SortCaseOrder.UPPER_CASE_FIRST,
+                         "<A><B><C>10</C></B><B><C>2</C></B><B><C>3</C></B></A>");
+                testSort("<A><B><C>3</C></B><B><C>2</C></B><B><C>10</C></B></A>",
+                         "A", "C",
+                         SortDataType.NUMBER,
+                         SortOrder.ASCENDING,
+                         SortCaseOrder.UPPER_CASE_FIRST,
+                         "<A><B><C>2</C></B><B><C>3</C></B><B><C>10</C></B></A>");
+                testSort("<A><B a='3'/><B a='x'/><B a=' 2.5 '/><B a='10'/></A>",
+                         "A", "@a",
+                         SortDataType.NUMBER,
+                         SortOrder.DESCENDING,
+                         SortCaseOrder.UPPER_CASE_FIRST,
+                         "<A><B a='10'/><B a='3'/><B a=' 2.5 '/><B a='x'/></A>");
+                testSort("<A>\n <B><C>Abc</C></B>\n <B><C>abc</C></B>"
+                         + "<!-- c -->\n <Z><C>aBc</C></Z>\n</A>",
+                         "A", "C",
+                         SortDataType.TEXT,
+                         SortOrder.ASCENDING,
+                         SortCaseOrder.UPPER_CASE_FIRST,
+                         "<A>\n <B><C>Abc</C></B>\n <Z><C>aBc</C></Z>"
+                         + "<!-- c -->\n <B><C>abc</C></B>\n</A>");
+                testSort("<A><B><C>Abc</C></B><B><C>abc</C></B>"
+                         + "<B><C>aBc</C></B></A>",
+                         "A", "C",
+                         SortDataType.TEXT,
+                         SortOrder.ASCENDING,
+                         SortCaseOrder.LOWER_CASE_FIRST,
+                         "<A><B><C>abc</C></B><B><C>aBc</C></B>"
+                         + "<B><C>Abc</C></B></A>");
+                testSort("<A><B i='1'><C>b</C></B><B i='2'><C>C</C></B>"
+                         + "<B i='3'><C>a</C></B><B i='4'><C>B</C></B></A>",
+                         "A", "C",
+                         SortDataType.TEXT,
+                         SortOrder.ASCENDING,
+                         SortCaseOrder.CASE_INSENSITIVE,
+                         "<A><B i='3'><C>a</C></B><B i='1'><C>b</C></B>"
+                         + "<B i='4'><C>B</C></B><B i='2'><C>C</C></B></A>");
+                testSort("<R><A><B><C>2</C></B><B><C>1</C></B></A>"
+                         + "<X><A><B><C>4</C></B><B/><B><C>3</C></B></A></X></R>",
+                         "A", "C",
+                         SortDataType.TEXT,
+                         SortOrder.ASCENDING,
+                         SortCaseOrder.UPPER_CASE_FIRST,
+                         "<R><A><B><C>1</C></B><B><C>2</C></B></A>"
+                         + "<X><A><B/><B><C>3</C></B><B><C>4</C></B></A></X></R>");
+                testSort("<R><A><B><C>2</C></B><B><C>1</C></B></A>"
+                         + "<A><B><C>4</C></B><B><C>3</C></B></A></R>",
+                         "A[2]", "C",
+                         SortDataType.TEXT,
+                         SortOrder.ASCENDING,
+                         SortCaseOrder.UPPER_CASE_FIRST,
+                         "<R><A><B><C>2</C></B><B><C>1</C></B></A>"
+                         + "<A><B><C>3</C></B><B><C>4</C></B></A></R>");
+
+                //-- Stable, with many equal keys.
+                StringBuffer sbXML      = new StringBuffer("<A>");
+                StringBuffer sbExpected = new StringBuffer("<A>");
+                for (int i = 0; i < 50; i++)
+                {
+                    sbXML.append("<B i='" + i + "'><C>" + (i % 3) + "</C></B>");
+                }
+                for (int intKey = 0; intKey < 3; intKey++)
+                {
+                    for (int i = intKey; i < 50; i += 3)
+                    {
+                        sbExpected.append("<B i='" + i + "'><C>" + intKey
+                                          + "</C></B>");
+                    }
+                }
+                testSort(sbXML.append("</A>").toString(),
+                         "/A", "C",
+                         SortDataType.NUMBER,
+                         SortOrder.ASCENDING,
+                         SortCaseOrder.UPPER_CASE_FIRST,
+                         sbExpected.append("</A>").toString());
+
+                //-- Sorting an Element, not a Document.
+                Document dom = XMLUtil.loadDocumentFromString
+                        ("<R><A><B><C>2</C></B><B><C>1</C></B></A>"
+                         + "<A><B><C>4</C></B><B><C>3</C></B></A></R>");
+                Node xmlA2 = XMLUtil.selectSingleNode(dom, "/R/A[2]");
+                System.out.println("Parents sorted (1) = "
+                        + sortElementsInPlace(xmlA2, "A", "C",
+                                              SortDataType.NUMBER,
+                                              SortOrder.ASCENDING,
+                                              SortCaseOrder.UPPER_CASE_FIRST));
+                System.out.println("Only that Element sorted = "
+                        + XMLUtil.serialize(dom, XMLUtil.blnCOMPACT));
+
+                //-- Mixed case and punctuation, the same as xsl:sort.
+                String[] arrKeys = {"b", "B", "a-b", "ab", "A", "a", "Ab",
+                                    "aB", "a b", "_x", "x", "10", "9", "ea",
+                                    "Ea", "a.b", "AB", "", "a,b", "Zz"};
+                sbXML = new StringBuffer("<A>");
+                for (int i = 0; i < arrKeys.length; i++)
+                {
+                    sbXML.append("<B><C>" + arrKeys[i] + "</C></B>");
+                }
+                String strMixedXML = sbXML.append("</A>").toString();
+                testSameAsXSL(strMixedXML,
+                              SortOrder.ASCENDING,
+                              SortCaseOrder.UPPER_CASE_FIRST);
+                testSameAsXSL(strMixedXML,
+                              SortOrder.ASCENDING,
+                              SortCaseOrder.LOWER_CASE_FIRST);
+                testSameAsXSL(strMixedXML,
+                              SortOrder.DESCENDING,
+                              SortCaseOrder.UPPER_CASE_FIRST);
+                testSameAsXSL(strMixedXML,
+                              SortOrder.DESCENDING,
+                              SortCaseOrder.LOWER_CASE_FIRST);
+
+                //-- Compare the time to sort the XSL way.
+                sbXML = new StringBuffer("<A>");
+                for (int i = 0; i < 5000; i++)
+                {
+                    sbXML.append("<B><C>" + ((i * 7919) % 5000) + "</C></B>");
+                }
+                dom = XMLUtil.loadDocumentFromString
+                                    (sbXML.append("</A>").toString());
+                XSLUtil.sortElements(dom, "A", "C",
+                                     SortDataType.NUMBER,
+                                     SortOrder.ASCENDING,
+                                     SortCaseOrder.UPPER_CASE_FIRST);
+                sortElements(dom, "A", "C",
+                             SortDataType.NUMBER,
+                             SortOrder.ASCENDING,
+                             SortCaseOrder.UPPER_CASE_FIRST);
+                long lngStart = System.currentTimeMillis();
+                Document domXSL = (Document)XSLUtil.sortElements
+                                    (dom, "A", "C",
+                                     SortDataType.NUMBER,
+                                     SortOrder.ASCENDING,
+                                     SortCaseOrder.UPPER_CASE_FIRST);
+                long lngXSL = System.currentTimeMillis() - lngStart;
+                lngStart = System.currentTimeMillis();
+                Document domNative = sortElements
+                                    (dom, "A", "C",
+                                     SortDataType.NUMBER,
+                                     SortOrder.ASCENDING,
+                                     SortCaseOrder.UPPER_CASE_FIRST);
+                long lngNative = System.currentTimeMillis() - lngStart;
+                System.out.println("Same as XSLUtil.sortElements() (true) = "
+                        + XMLUtil.serialize(domXSL, XMLUtil.blnCOMPACT).equals
+                            (XMLUtil.serialize(domNative, XMLUtil.blnCOMPACT)));
+                System.out.println("5000 Elements:  XSLUtil.sortElements() "
+                                   + lngXSL + " ms, sortElements() "
+                                   + lngNative + " ms");
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
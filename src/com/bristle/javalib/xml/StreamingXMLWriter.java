@@ -0,0 +1,537 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.xml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.io.StringWriter;    //-- For Tester only.
+import org.w3c.dom.Document;    //-- For Tester only.
+import org.w3c.dom.Element;     //-- For Tester only.
+
+// StreamingXMLWriter
+/******************************************************************************
+* This class is an XMLWriter that writes XML elements, attributes and text,
+* escaping the attribute values and text as it writes them, and keeping
+* track of which elements are open, so that the caller doesn't have to.
+* <pre>
+* <b>Usage:</b>
+*   - The following is a typical scenario for using this class:
+*       StreamingXMLWriter writer = new StreamingXMLWriter(writerOut);
+*       writer.startElement("Person");
+*       writer.writeAttribute("id", strID);
+*       writer.writeElement("Name", strName);
+*       writer.writeElement("Company", "Smith & Sons");
+*       writer.endElement();
+*       writer.flush();
+*
+*     which writes (on one line):
+*       &lt;Person id="123"&gt;&lt;Name&gt;John Smith&lt;/Name&gt;
+*       &lt;Company&gt;Smith &amp;amp; Sons&lt;/Company&gt;&lt;/Person&gt;
+*
+*   - To close all open elements at the end of the XML:
+*       writer.endAllElements();
+*       writer.flush();
+*
+*   - See the source code of the inner Tester class for more examples.
+* <b>Assumptions:</b>
+*       - Tag and attribute names are valid XML names, and are not escaped.
+*       - Attribute values and text contain only characters allowed in
+*         XML.
+* <b>Effects:</b>
+*       - None.
+* <b>Anticipated Changes:</b>
+* <b>Notes:</b>
+*       - Unlike XMLWriter, this class is buffered by default.  The caller
+*         must call flush() after writing the last of the XML.
+*       - A start tag is left open after startElement(), so that attributes
+*         can be written to it.  It is closed by the next text or element
+*         written.  An element with no text or child elements is written
+*         as an empty element tag, like &lt;Tag/&gt;.
+*       - In text, the characters &amp;, &lt; and &gt; are escaped.  In
+*         attribute values, the characters &amp;, &lt; and &quot; are
+*         escaped, as are tabs, newlines and carriage returns, so that
+*         they survive attribute value normalization.
+*       - null attribute values and text are written as empty strings.
+*       - Methods inherited from XMLWriter, like write() and writeStartTag()
+*         write their strings as is, without escaping, and without
+*         affecting the tracking of open elements, except that any open
+*         start tag is closed first.
+* <b>Implementation Notes:</b>
+*       - Attribute values and text are escaped in a single pass, writing
+*         the unescaped runs of characters directly from the String to the
+*         output buffer, so no Strings or other objects are created.
+*       - The names of open elements are kept in an array that grows as
+*         needed, so once the deepest nesting has been reached, writing
+*         elements creates no objects.
+* <b>Portability Issues:</b>
+* <b>Revision History:</b>
+*   $Log$
+* </pre>
+******************************************************************************/
+public class StreamingXMLWriter extends XMLWriter
+{
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+
+    //--
+    //-- Internal instance variables
+    //--
+    private String[] m_arrOpenTags      = new String[16];
+    private int      m_intDepth         = 0;
+    private boolean  m_blnStartTagOpen  = false;
+
+    /**************************************************************************
+    * This exception is thrown when elements or attributes are written out
+    * of order, like an attribute after the text of an element, or an end
+    * tag with no matching start tag.
+    **************************************************************************/
+    public static class NestingException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+        public NestingException(String msg) { super(msg); }
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param writer The Writer to write the XML to.
+    **************************************************************************/
+    public StreamingXMLWriter(Writer writer)
+    {
+        super(writer, intDEFAULT_BUFFER_SIZE);
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  writer         The Writer to write the XML to.
+    *@param  intBufferSize  The number of chars to buffer before writing
+    *                       them to the Writer, or intUNBUFFERED.
+    **************************************************************************/
+    public StreamingXMLWriter(Writer writer, int intBufferSize)
+    {
+        super(writer, intBufferSize);
+    }
+
+    /**************************************************************************
+    * Get the number of open elements.
+    *@return            The number of open elements.
+    **************************************************************************/
+    public int getDepth()
+    {
+        return m_intDepth;
+    }
+
+    /**************************************************************************
+    * Write the start tag of the element, leaving it open so that attributes
+    * can be written to it.
+    *@param  strTag     XML tag (without angle brackets).
+    *@throws IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void startElement(String strTag)
+                 throws IOException
+    {
+        Writer out = getOutputWriter();
+        closeStartTag(out);
+        if (m_intDepth == m_arrOpenTags.length)
+        {
+            String[] arrOpenTags = new String[m_intDepth * 2];
+            System.arraycopy(m_arrOpenTags, 0, arrOpenTags, 0, m_intDepth);
+            m_arrOpenTags = arrOpenTags;
+        }
+        m_arrOpenTags[m_intDepth++] = strTag;
+        out.write('<');
+        out.write(strTag);
+        m_blnStartTagOpen = true;
+        flushIfUnbuffered();
+    }
+
+    /**************************************************************************
+    * Write the attribute to the start tag of the element most recently
+    * started, escaping its value.
+    *@param  strName    Name of the attribute.
+    *@param  strValue   Value of the attribute (not escaped).
+    *@throws NestingException
+    *                   When the start tag is no longer open, because text
+    *                   or elements have been written after it.
+    *@throws IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void writeAttribute(String strName, String strValue)
+                 throws IOException
+    {
+        if (!m_blnStartTagOpen)
+        {
+            throw new NestingException
+                        ("Attribute " + strName + " written outside of a "
+                         + "start tag.");
+        }
+        Writer out = getOutputWriter();
+        out.write(' ');
+        out.write(strName);
+        out.write("=\"");
+        writeEscaped(out, strValue, true);
+        out.write('"');
+        flushIfUnbuffered();
+    }
+
+    /**************************************************************************
+    * Write the text, escaping it, as content of the element most recently
+    * started.
+    *@param  strText    The text (not escaped).
+    *@throws IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void writeText(String strText)
+                 throws IOException
+    {
+        Writer out = getOutputWriter();
+        closeStartTag(out);
+        writeEscaped(out, strText, false);
+        flushIfUnbuffered();
+    }
+
+    /**************************************************************************
+    * Write the end tag of the element most recently started, or end it as
+    * an empty element tag if nothing has been written to it.
+    *@throws NestingException
+    *                   When there is no open element.
+    *@throws IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void endElement()
+                 throws IOException
+    {
+        if (m_intDepth == 0)
+        {
+            throw new NestingException("End tag written with no open element.");
+        }
+        Writer out = getOutputWriter();
+        String strTag = m_arrOpenTags[--m_intDepth];
+        m_arrOpenTags[m_intDepth] = null;
+        if (m_blnStartTagOpen)
+        {
+            out.write("/>");
+            m_blnStartTagOpen = false;
+        }
+        else
+        {
+            out.write("</");
+            out.write(strTag);
+            out.write('>');
+        }
+        flushIfUnbuffered();
+    }
+
+    /**************************************************************************
+    * Write the end tag of the element most recently started, checking that
+    * it is the specified element.
+    *@param  strTag     XML tag (without angle brackets or slash).
+    *@throws NestingException
+    *                   When the element most recently started is not the
+    *                   specified element.
+    *@throws IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void endElement(String strTag)
+                 throws IOException
+    {
+        if (m_intDepth == 0 || !m_arrOpenTags[m_intDepth - 1].equals(strTag))
+        {
+            throw new NestingException
+                        ("End tag " + strTag + " does not match the open "
+                         + "element "
+                         + (m_intDepth == 0
+                            ? "(none)"
+                            : m_arrOpenTags[m_intDepth - 1])
+                         + ".");
+        }
+        endElement();
+    }
+
+    /**************************************************************************
+    * Write the end tags of all open elements.
+    *@throws IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void endAllElements()
+                 throws IOException
+    {
+        while (m_intDepth > 0)
+        {
+            endElement();
+        }
+    }
+
+    /**************************************************************************
+    * Write the element containing the text, escaping the text.
+    *@param  strTag     XML tag (without angle brackets).
+    *@param  strText    The text (not escaped).
+    *@throws IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void writeElement(String strTag, String strText)
+                 throws IOException
+    {
+        Writer out = getOutputWriter();
+        closeStartTag(out);
+        out.write('<');
+        out.write(strTag);
+        out.write('>');
+        writeEscaped(out, strText, false);
+        out.write("</");
+        out.write(strTag);
+        out.write('>');
+        flushIfUnbuffered();
+    }
+
+    /**************************************************************************
+    * Write the line of text to the Writer, as is, closing any open start
+    * tag first.
+    *@param  strText    String of text.
+    *@throws java.io.IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void write(String strText)
+                 throws java.io.IOException
+    {
+        closeStartTag(getOutputWriter());
+        super.write(strText);
+    }
+
+    /**************************************************************************
+    * Write the start version of the specified XML tag to the Writer, as is,
+    * closing any open start tag first, and optionally followed by a
+    * newline.
+    *@param  strTag     XML tag (without angle brackets).
+    *@param  blnNewLine Boolean flag indicating whether to write a newline
+    *                   after the tag.
+    *@throws java.io.IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void writeStartTag(String strTag, boolean blnNewLine)
+                 throws java.io.IOException
+    {
+        closeStartTag(getOutputWriter());
+        super.writeStartTag(strTag, blnNewLine);
+    }
+
+    /**************************************************************************
+    * Write the start version of the specified XML tag to the Writer, as is,
+    * including a string containing one or more attributes, closing any
+    * open start tag first, and optionally followed by a newline.
+    *@param  strTag        XML tag (without angle brackets).
+    *@param  strAttributes Attributes to be included in the start tag
+    *@param  blnNewLine    Boolean flag indicating whether to write a
+    *                      newline after the tag.
+    *@throws java.io.IOException
+    *                      When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void writeStartTagAndAttributes(String strTag,
+                                           String strAttributes,
+                                           boolean blnNewLine)
+                 throws java.io.IOException
+    {
+        closeStartTag(getOutputWriter());
+        super.writeStartTagAndAttributes(strTag, strAttributes, blnNewLine);
+    }
+
+    /**************************************************************************
+    * Write the end version of the specified XML tag to the Writer, as is,
+    * closing any open start tag first, and optionally followed by a
+    * newline.
+    *@param  strTag     XML tag (without angle brackets or slash).
+    *@param  blnNewLine Boolean flag indicating whether to write a newline
+    *                   after the tag.
+    *@throws java.io.IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void writeEndTag(String strTag, boolean blnNewLine)
+                 throws java.io.IOException
+    {
+        closeStartTag(getOutputWriter());
+        super.writeEndTag(strTag, blnNewLine);
+    }
+
+    /**************************************************************************
+    * Close the start tag of the element most recently started, if still
+    * open.
+    *@param  out        The Writer to write to.
+    *@throws IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    private void closeStartTag(Writer out)
+                 throws IOException
+    {
+        if (m_blnStartTagOpen)
+        {
+            out.write('>');
+            m_blnStartTagOpen = false;
+        }
+    }
+
+    /**************************************************************************
+    * Write the string to the Writer, escaping the characters that must be
+    * escaped in text, or in attribute values.  Runs of characters that need
+    * no escaping are written directly from the string.
+    *@param  out            The Writer to write to.
+    *@param  str            The string, or null for an empty string.
+    *@param  blnAttribute   true to escape as an attribute value; false to
+    *                       escape as text.
+    *@throws IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    private static void writeEscaped(Writer out, String str, boolean blnAttribute)
+                 throws IOException
+    {
+        if (str == null)
+        {
+            return;
+        }
+        int intLength = str.length();
+        int intStart  = 0;
+        for (int i = 0; i < intLength; i++)
+        {
+            String strEntity;
+            switch (str.charAt(i))
+            {
+                case '&':  strEntity = "&amp;";                         break;
+                case '<':  strEntity = "&lt;";                          break;
+                case '>':  strEntity = blnAttribute ? null : "&gt;";    break;
+                case '"':  strEntity = blnAttribute ? "&quot;" : null;  break;
+                case '\t': strEntity = blnAttribute ? "&#9;"   : null;  break;
+                case '\n': strEntity = blnAttribute ? "&#10;"  : null;  break;
+                case '\r': strEntity = "&#13;";                         break;
+                default:   strEntity = null;
+            }
+            if (strEntity != null)
+            {
+                if (i > intStart)
+                {
+                    out.write(str, intStart, i - intStart);
+                }
+                out.write(strEntity);
+                intStart = i + 1;
+            }
+        }
+        if (intLength > intStart)
+        {
+            out.write(str, intStart, intLength - intStart);
+        }
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+
+                StringWriter writerOut = new StringWriter();
+                StreamingXMLWriter writer = new StreamingXMLWriter(writerOut);
+                writer.startElement("Person");
+                writer.writeAttribute("id", "1 & \"2\" <3>\tX\r\nY");
+                writer.writeElement("Name", "John Smith");
+                writer.writeElement("Company", "Smith & Sons <R&D>\r\n");
+                writer.startElement("Empty");
+                writer.writeAttribute("a", null);
+                writer.endElement();
+                writer.startElement("Text");
+                writer.writeText("]]> is escaped");
+                writer.endElement("Text");
+                System.out.println ("Depth (1) = " + writer.getDepth());
+                writer.endAllElements();
+                writer.flush();
+                String strXML = writerOut.toString();
+                System.out.println (strXML);
+
+                Document dom = XMLUtil.loadDocumentFromString(strXML);
+                Element xmlPerson = dom.getDocumentElement();
+                System.out.println ("Attribute survives parse (true) = "
+                        + xmlPerson.getAttribute("id")
+                                .equals("1 & \"2\" <3>\tX\r\nY"));
+                System.out.println ("Text survives parse (true) = "
+                        + XMLUtil.getTextNodeValueViaXPath(dom, "/Person/Company")
+                                .equals("Smith & Sons <R&D>\r\n"));
+
+                try
+                {
+                    writer.writeAttribute("late", "x");
+                    System.out.println ("Attribute outside start tag: Failure!");
+                }
+                catch (NestingException e)
+                {
+                    System.out.println ("Attribute outside start tag: Success!");
+                }
+                try
+                {
+                    writer.startElement("A");
+                    writer.endElement("B");
+                    System.out.println ("Mismatched end tag: Failure!");
+                }
+                catch (NestingException e)
+                {
+                    System.out.println ("Mismatched end tag: Success!");
+                }
+
+                int intElements = 1000000;
+                writer = new StreamingXMLWriter(new StringWriter()
+                {
+                    public void write(char[] arrChars, int intOffset, int intLength)
+                    {
+                        //-- Discard the XML.
+                    }
+                });
+                long lngStart = System.nanoTime();
+                for (int i = 0; i < intElements; i++)
+                {
+                    writer.startElement("Row");
+                    writer.writeAttribute("type", "a&b");
+                    writer.writeElement("Value", "Some <value>");
+                    writer.endElement();
+                }
+                writer.flush();
+                System.out.println ("Nanoseconds per element = "
+                        + (System.nanoTime() - lngStart) / intElements);
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,728 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.xml;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.StringReader;                            //-- For Tester only.
+import java.util.concurrent.atomic.AtomicInteger;       //-- For Tester only.
+
+// XMLRecordReader
+/******************************************************************************
+* This class reads a stream of XML, one record at a time, where each record
+* is an occurrence of a repeating element, like the Item elements of:
+*<xmp>
+*   <Feed>
+*    <Item>...</Item>
+*    <Item>...</Item>
+*     ...
+*   </Feed>
+*</xmp>
+* so that XML much too large to load into memory as a DOM can be processed
+* in constant memory.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*       XMLRecordReader reader = new XMLRecordReader(in, "/Feed/Item");
+*       try
+*       {
+*           Element xmlItem;
+*           while ((xmlItem = reader.nextRecord()) != null)
+*           {
+*               String strTitle = XMLUtil.getTextNodeValueViaXPath
+*                                                   (xmlItem, "Title");
+*               ...
+*           }
+*       }
+*       finally
+*       {
+*           reader.close();
+*       }
+*
+*   - To get each record as a Map of its attributes and child elements,
+*     without the overhead of a DOM:
+*       Map mapItem;
+*       while ((mapItem = reader.nextRecordAsMap()) != null)
+*       {
+*           String strTitle = (String)mapItem.get("Title");
+*           String strID    = (String)mapItem.get("@id");
+*       }
+*
+*   - To process the records via a pool of 8 threads:
+*       int intCount = reader.processRecords
+*                       (new XMLRecordReader.RecordHandler()
+*                        {
+*                            public void handleRecord(Element xmlRecord)
+*                                    throws Exception
+*                            {
+*                                ...
+*                            }
+*                        },
+*                        8);
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*<b>Effects:</b>
+*       - Reads the XML stream.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*       - The record path is a sequence of element names separated by
+*         slashes, where a name can be * to match any element.  A path
+*         starting with a slash, like /Feed/Item, matches only elements
+*         at that exact path from the root element.  Any other path, like
+*         Item or Feed/Item, matches elements at that path below any
+*         element, like the XPath //Item or //Feed/Item.  Names include
+*         any namespace prefix used in the XML.
+*       - An element inside a record is part of that record, and is never
+*         itself returned as a record, even if it matches the path.
+*       - Each record returned by nextRecord() is the root Element of a
+*         new Document of its own, so it can be modified, kept, or handed
+*         to another thread, independently of all other records.  The
+*         namespace declarations in scope at the record are copied to it.
+*       - Comments and processing instructions in records are discarded.
+*       - The Map returned by nextRecordAsMap() has an entry for each
+*         attribute of the record, with the attribute name prefixed by
+*         "@", and an entry for each child element of the record, with
+*         all of the text of the child element and its descendants.  If
+*         several child elements have the same name, only the first is
+*         in the Map.
+*       - processRecords() handles the records in no particular order when
+*         using more than one thread.
+*<b>Implementation Notes:</b>
+*       - The XML is read via StAX, so only the current record is ever in
+*         memory.
+*       - processRecords() queues at most a few records per thread.  When
+*         the queue is full, the reading thread handles the next record
+*         itself, which keeps it from reading ahead faster than the
+*         records can be handled.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+******************************************************************************/
+public class XMLRecordReader
+{
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+    private int m_intRecordCount = 0;
+
+    //--
+    //-- Internal instance variables
+    //--
+    private final XMLStreamReader m_reader;
+    private final String[]        m_arrSteps;
+    private final boolean         m_blnAbsolute;
+    private final ArrayList       m_alOpenNames      = new ArrayList();
+    private final ArrayList       m_alOpenNamespaces = new ArrayList();
+
+    //--
+    //-- Local constants
+    //--
+    private static final int intQUEUED_RECORDS_PER_THREAD = 4;
+
+    /**************************************************************************
+    * This interface must be implemented by the handler of records passed to
+    * processRecords().
+    **************************************************************************/
+    public static interface RecordHandler
+    {
+        /**********************************************************************
+        * Handle one record.
+        *@param  xmlRecord  The record.
+        *@throws Exception  When the record can't be handled, which stops
+        *                   the processing of records.
+        **********************************************************************/
+        public void handleRecord(Element xmlRecord)
+                    throws Exception;
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  in         InputStream of XML to read records from.
+    *@param  strPath    Path of the record elements.
+    *@throws XMLStreamException
+    *                   When an error occurs starting to read the XML.
+    **************************************************************************/
+    public XMLRecordReader(InputStream in, String strPath)
+                 throws XMLStreamException
+    {
+        this(newXMLInputFactory().createXMLStreamReader(in), strPath);
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  reader     Reader of XML to read records from.
+    *@param  strPath    Path of the record elements.
+    *@throws XMLStreamException
+    *                   When an error occurs starting to read the XML.
+    **************************************************************************/
+    public XMLRecordReader(Reader reader, String strPath)
+                 throws XMLStreamException
+    {
+        this(newXMLInputFactory().createXMLStreamReader(reader), strPath);
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  reader     XMLStreamReader to read records from.
+    *@param  strPath    Path of the record elements.
+    **************************************************************************/
+    private XMLRecordReader(XMLStreamReader reader, String strPath)
+    {
+        m_reader      = reader;
+        m_blnAbsolute = strPath.startsWith("/");
+        m_arrSteps    = (m_blnAbsolute ? strPath.substring(1) : strPath)
+                                                            .split("/");
+    }
+
+    /**************************************************************************
+    * Create a new XMLInputFactory configured for reading records.
+    *@return            The XMLInputFactory.
+    **************************************************************************/
+    private static XMLInputFactory newXMLInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING,      Boolean.TRUE);
+        return factory;
+    }
+
+    /**************************************************************************
+    * Get the number of records read so far.
+    *@return            The number of records.
+    **************************************************************************/
+    public int getRecordCount()
+    {
+        return m_intRecordCount;
+    }
+
+    /**************************************************************************
+    * Close the reader.  Does not close the underlying InputStream or
+    * Reader.
+    *@throws XMLStreamException
+    *                   When an error occurs closing the reader.
+    **************************************************************************/
+    public void close()
+                 throws XMLStreamException
+    {
+        m_reader.close();
+    }
+
+    /**************************************************************************
+    * Get the qualified name of the current element.
+    *@return            The name, with its namespace prefix, if any.
+    **************************************************************************/
+    private String getQualifiedName()
+    {
+        String strPrefix = m_reader.getPrefix();
+        return (strPrefix == null || strPrefix.length() == 0)
+               ? m_reader.getLocalName()
+               : strPrefix + ":" + m_reader.getLocalName();
+    }
+
+    /**************************************************************************
+    * Check whether the open elements end with a record element.
+    *@return            true if so; false otherwise.
+    **************************************************************************/
+    private boolean isAtRecord()
+    {
+        int intDepth = m_alOpenNames.size();
+        if (m_blnAbsolute ? intDepth != m_arrSteps.length
+                          : intDepth < m_arrSteps.length)
+        {
+            return false;
+        }
+        int intOffset = intDepth - m_arrSteps.length;
+        for (int i = 0; i < m_arrSteps.length; i++)
+        {
+            if (!m_arrSteps[i].equals("*")
+                && !m_arrSteps[i].equals(m_alOpenNames.get(intOffset + i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**************************************************************************
+    * Advance to the start of the next record element.
+    *@return            true if found; false at the end of the XML.
+    *@throws XMLStreamException
+    *                   When an error occurs reading the XML.
+    **************************************************************************/
+    private boolean advanceToRecord()
+                 throws XMLStreamException
+    {
+        while (m_reader.hasNext())
+        {
+            int intEvent = m_reader.next();
+            if (intEvent == XMLStreamConstants.START_ELEMENT)
+            {
+                m_alOpenNames.add(getQualifiedName());
+                String[] arrNamespaces = new String[2 * m_reader.getNamespaceCount()];
+                for (int i = 0; i < m_reader.getNamespaceCount(); i++)
+                {
+                    arrNamespaces[2 * i]     = m_reader.getNamespacePrefix(i);
+                    arrNamespaces[2 * i + 1] = m_reader.getNamespaceURI(i);
+                }
+                m_alOpenNamespaces.add(arrNamespaces);
+                if (isAtRecord())
+                {
+                    return true;
+                }
+            }
+            else if (intEvent == XMLStreamConstants.END_ELEMENT)
+            {
+                m_alOpenNames.remove(m_alOpenNames.size() - 1);
+                m_alOpenNamespaces.remove(m_alOpenNamespaces.size() - 1);
+            }
+        }
+        return false;
+    }
+
+    /**************************************************************************
+    * Note that the record element just read has ended.
+    **************************************************************************/
+    private void endRecord()
+    {
+        m_alOpenNames.remove(m_alOpenNames.size() - 1);
+        m_alOpenNamespaces.remove(m_alOpenNamespaces.size() - 1);
+        m_intRecordCount++;
+    }
+
+    /**************************************************************************
+    * Create an Element for the current element, with its namespace
+    * declarations and attributes.
+    *@param  dom        The Document to create the Element in.
+    *@return            The Element.
+    **************************************************************************/
+    private Element createElement(Document dom)
+    {
+        String strURI = m_reader.getNamespaceURI();
+        Element xmlElement = dom.createElementNS
+                                ((strURI == null || strURI.length() == 0)
+                                 ? null
+                                 : strURI,
+                                 getQualifiedName());
+        for (int i = 0; i < m_reader.getNamespaceCount(); i++)
+        {
+            setNamespaceDeclaration(xmlElement,
+                                    m_reader.getNamespacePrefix(i),
+                                    m_reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < m_reader.getAttributeCount(); i++)
+        {
+            String strPrefix    = m_reader.getAttributePrefix(i);
+            String strAttrURI   = m_reader.getAttributeNamespace(i);
+            String strLocalName = m_reader.getAttributeLocalName(i);
+            xmlElement.setAttributeNS
+                    ((strAttrURI == null || strAttrURI.length() == 0)
+                     ? null
+                     : strAttrURI,
+                     (strPrefix == null || strPrefix.length() == 0)
+                     ? strLocalName
+                     : strPrefix + ":" + strLocalName,
+                     m_reader.getAttributeValue(i));
+        }
+        return xmlElement;
+    }
+
+    /**************************************************************************
+    * Add a namespace declaration to the Element.
+    *@param  xmlElement The Element.
+    *@param  strPrefix  The prefix, or null or empty for the default
+    *                   namespace.
+    *@param  strURI     The namespace URI.
+    **************************************************************************/
+    private static void setNamespaceDeclaration(Element xmlElement,
+                                                String  strPrefix,
+                                                String  strURI)
+    {
+        xmlElement.setAttributeNS
+                (XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                 (strPrefix == null || strPrefix.length() == 0)
+                 ? XMLConstants.XMLNS_ATTRIBUTE
+                 : XMLConstants.XMLNS_ATTRIBUTE + ":" + strPrefix,
+                 (strURI == null) ? "" : strURI);
+    }
+
+    /**************************************************************************
+    * Copy the namespace declarations of the elements enclosing the record
+    * to the record Element, except those overridden by the record element
+    * itself or by nearer enclosing elements.
+    *@param  xmlRecord  The record Element.
+    **************************************************************************/
+    private void copyEnclosingNamespaces(Element xmlRecord)
+    {
+        for (int intDepth = m_alOpenNamespaces.size() - 2;
+             intDepth >= 0;
+             intDepth--)
+        {
+            String[] arrNamespaces = (String[])m_alOpenNamespaces.get(intDepth);
+            for (int i = 0; i < arrNamespaces.length; i += 2)
+            {
+                String strPrefix = arrNamespaces[i];
+                String strName = (strPrefix == null || strPrefix.length() == 0)
+                                 ? XMLConstants.XMLNS_ATTRIBUTE
+                                 : XMLConstants.XMLNS_ATTRIBUTE + ":"
+                                   + strPrefix;
+                if (!xmlRecord.hasAttribute(strName))
+                {
+                    setNamespaceDeclaration(xmlRecord,
+                                            strPrefix,
+                                            arrNamespaces[i + 1]);
+                }
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Read the next record, as the root Element of a new Document.
+    *@return            The record Element, or null if no more records.
+    *@throws XMLStreamException
+    *                   When an error occurs reading the XML.
+    **************************************************************************/
+    public Element nextRecord()
+                 throws XMLStreamException
+    {
+        if (!advanceToRecord())
+        {
+            return null;
+        }
+        Document dom = XMLUtil.createEmptyDocument();
+        Element xmlRecord = createElement(dom);
+        copyEnclosingNamespaces(xmlRecord);
+        dom.appendChild(xmlRecord);
+        Node xmlParent = xmlRecord;
+        int  intDepth  = 1;
+        while (intDepth > 0)
+        {
+            switch (m_reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    xmlParent = xmlParent.appendChild(createElement(dom));
+                    intDepth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    xmlParent = xmlParent.getParentNode();
+                    intDepth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    xmlParent.appendChild(dom.createTextNode
+                                                (m_reader.getText()));
+                    break;
+                default:
+                    //-- Discard comments, processing instructions, etc.
+                    break;
+            }
+        }
+        endRecord();
+        return xmlRecord;
+    }
+
+    /**************************************************************************
+    * Read the next record, as a Map of the names and values of its
+    * attributes and child elements.
+    *@return            The Map, or null if no more records.
+    *@throws XMLStreamException
+    *                   When an error occurs reading the XML.
+    **************************************************************************/
+    public Map nextRecordAsMap()
+                 throws XMLStreamException
+    {
+        if (!advanceToRecord())
+        {
+            return null;
+        }
+        Map mapRecord = new LinkedHashMap();
+        for (int i = 0; i < m_reader.getAttributeCount(); i++)
+        {
+            String strPrefix = m_reader.getAttributePrefix(i);
+            String strLocalName = m_reader.getAttributeLocalName(i);
+            mapRecord.put("@" + ((strPrefix == null || strPrefix.length() == 0)
+                                 ? strLocalName
+                                 : strPrefix + ":" + strLocalName),
+                          m_reader.getAttributeValue(i));
+        }
+        int intDepth = 1;
+        String       strChild = null;
+        StringBuffer sbText   = new StringBuffer();
+        while (intDepth > 0)
+        {
+            switch (m_reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (++intDepth == 2)
+                    {
+                        strChild = getQualifiedName();
+                        sbText.setLength(0);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (intDepth-- == 2 && !mapRecord.containsKey(strChild))
+                    {
+                        mapRecord.put(strChild, sbText.toString());
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (intDepth >= 2)
+                    {
+                        sbText.append(m_reader.getText());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        endRecord();
+        return mapRecord;
+    }
+
+    /**************************************************************************
+    * Read all of the remaining records, passing each to the RecordHandler,
+    * via a pool of threads.  Stops at the first exception thrown by the
+    * RecordHandler, and rethrows it after all records already being
+    * handled are done.
+    *@param  handler    The RecordHandler.
+    *@param  intThreads The number of threads.  1 to handle all of the
+    *                   records in the current thread, in order.
+    *@return            The number of records handled.
+    *@throws XMLStreamException
+    *                   When an error occurs reading the XML.
+    *@throws Exception  When thrown by the RecordHandler.
+    **************************************************************************/
+    public int processRecords(final RecordHandler handler, int intThreads)
+                 throws Exception
+    {
+        int intFirstRecord = m_intRecordCount;
+        if (intThreads <= 1)
+        {
+            Element xmlRecord;
+            while ((xmlRecord = nextRecord()) != null)
+            {
+                handler.handleRecord(xmlRecord);
+            }
+            return m_intRecordCount - intFirstRecord;
+        }
+
+        final AtomicReference refError = new AtomicReference();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor
+                    (intThreads,
+                     intThreads,
+                     0L,
+                     TimeUnit.MILLISECONDS,
+                     new ArrayBlockingQueue
+                                (intThreads * intQUEUED_RECORDS_PER_THREAD),
+                     new ThreadPoolExecutor.CallerRunsPolicy());
+        try
+        {
+            Element xmlRecord;
+            while (refError.get() == null
+                   && (xmlRecord = nextRecord()) != null)
+            {
+                final Element xmlRecordFinal = xmlRecord;
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        if (refError.get() != null)
+                        {
+                            return;
+                        }
+                        try
+                        {
+                            handler.handleRecord(xmlRecordFinal);
+                        }
+                        catch (Throwable e)
+                        {
+                            refError.compareAndSet(null, e);
+                        }
+                    }
+                });
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        Throwable e = (Throwable)refError.get();
+        if (e instanceof Exception)
+        {
+            throw (Exception)e;
+        }
+        if (e instanceof Error)
+        {
+            throw (Error)e;
+        }
+        return m_intRecordCount - intFirstRecord;
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Get a feed of XML with the specified number of Items.
+        *@param  intItems   The number of Items.
+        *@return            The XML.
+        **********************************************************************/
+        private static String getFeed(int intItems)
+        {
+            StringBuffer sb = new StringBuffer();
+            sb.append("<Feed xmlns:f='urn:bristle:feed'><Header>"
+                      + "<Item id='not a record'/></Header><Items>");
+            for (int i = 1; i <= intItems; i++)
+            {
+                sb.append("<Item id='" + i + "'><!-- comment -->"
+                          + "<Title>Title " + i + "</Title>"
+                          + "<f:Price>" + i + "</f:Price>"
+                          + "<Body>Text <b>bold</b> &amp; more</Body>"
+                          + "</Item>");
+            }
+            sb.append("</Items></Feed>");
+            return sb.toString();
+        }
+
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+
+                XMLRecordReader reader = new XMLRecordReader
+                            (new StringReader(getFeed(3)), "/Feed/Items/Item");
+                Element xmlItem = reader.nextRecord();
+                System.out.println ("First record:");
+                System.out.println (XMLUtil.serialize(xmlItem, XMLUtil.blnCOMPACT));
+                System.out.println ("Title (Title 1) = "
+                        + XMLUtil.getTextNodeValueViaXPath(xmlItem, "Title"));
+                System.out.println ("Prefixed (1) = "
+                        + XMLUtil.getTextNodeValueViaXPath(xmlItem, "f:Price"));
+                Map mapItem = reader.nextRecordAsMap();
+                System.out.println ("Second record as Map = " + mapItem);
+                System.out.println ("Third record id (3) = "
+                        + reader.nextRecord().getAttribute("id"));
+                System.out.println ("No more records (null) = "
+                        + reader.nextRecord());
+                System.out.println ("Record count (3) = "
+                                    + reader.getRecordCount());
+                reader.close();
+
+                reader = new XMLRecordReader
+                            (new StringReader(getFeed(2)), "Item");
+                System.out.println ("Relative path (not a record) = "
+                        + reader.nextRecord().getAttribute("id"));
+                reader.close();
+
+                final int intItems = 20000;
+                final AtomicInteger intSum = new AtomicInteger();
+                RecordHandler handler = new RecordHandler()
+                {
+                    public void handleRecord(Element xmlRecord)
+                    {
+                        intSum.addAndGet(Integer.parseInt
+                                    (xmlRecord.getAttribute("id")));
+                    }
+                };
+                reader = new XMLRecordReader
+                            (new StringReader(getFeed(intItems)), "/Feed/Items/*");
+                long lngStart = System.currentTimeMillis();
+                int intCount = reader.processRecords(handler, 4);
+                System.out.println ("Parallel count (" + intItems + ") = "
+                                    + intCount);
+                System.out.println ("Parallel sum ("
+                                    + ((long)intItems * (intItems + 1) / 2)
+                                    + ") = " + intSum.get());
+                System.out.println ("Milliseconds = "
+                        + (System.currentTimeMillis() - lngStart));
+                reader.close();
+
+                reader = new XMLRecordReader
+                            (new StringReader(getFeed(100)), "/Feed/Items/Item");
+                try
+                {
+                    reader.processRecords(new RecordHandler()
+                    {
+                        public void handleRecord(Element xmlRecord)
+                                throws Exception
+                        {
+                            if (xmlRecord.getAttribute("id").equals("50"))
+                            {
+                                throw new Exception("Bad record 50");
+                            }
+                        }
+                    }, 4);
+                    System.out.println ("Handler error: Failure!");
+                }
+                catch (Exception e)
+                {
+                    System.out.println ("Handler error (Bad record 50) = "
+                                        + e.getMessage());
+                }
+                System.out.println ("Stopped early (true) = "
+                                    + (reader.getRecordCount() < 100));
+                reader.close();
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
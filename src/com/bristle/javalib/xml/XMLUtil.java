@@ -25,27 +25,47 @@ import java.io.StringWriter;
 import java.io.OutputStreamWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.ByteArrayOutputStream;   //-- For Tester only.
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
 
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.w3c.dom.Element;
 import org.w3c.dom.Text;
 import org.w3c.dom.DocumentFragment;
 
 import org.apache.xerces.dom.DocumentImpl;
 import org.apache.xerces.parsers.DOMParser;
+import org.apache.xerces.util.SymbolTable;
+import org.apache.xerces.util.SynchronizedSymbolTable;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
 import org.apache.xml.serialize.XMLSerializer;
 import org.apache.xml.serialize.OutputFormat;
 import org.apache.xml.serialize.Method;
 import org.apache.xml.serialize.LineSeparator;
-import org.apache.xpath.XPathAPI;
 
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerException;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
 
 // XMLUtil
 /******************************************************************************
@@ -69,6 +89,18 @@ import javax.xml.transform.TransformerException;
 *           String strPhone = XMLUtil.getTextNodeValueViaXPath
 *                                       (xmlNode, "Phone");
 *
+*     - To share DTD and XML Schema grammars among all Documents loaded
+*       by all threads, instead of reloading them for each Document:
+*           XMLUtil.setGrammarCaching(true);
+*
+*     - To serialize XML as compactly as possible, with no indentation or
+*       line breaks, directly to an OutputStream in a specific encoding:
+*           XMLUtil.serialize(dom, out, "UTF-8", XMLUtil.blnCOMPACT);
+*
+*     - To find Nodes via XPath:
+*           Node xmlNode = XMLUtil.selectSingleNode(dom, "//Person[2]");
+*           NodeList list = XMLUtil.selectNodeList(dom, "//Person/Name");
+*
 *     - To load and modify an existing XML Document:
 *           Document dom = XMLUtil.loadDocumentFromURL
 *                                       ("http://www.xmlsource.com");
@@ -97,7 +129,51 @@ import javax.xml.transform.TransformerException;
 *         See the org.w3c.dom.Node documentation for details.            
 *       - The term "append" when used in method names in this class typically
 *         means "append a newly created child node to the specified node". 
+*       - Each XPath is compiled only once per thread, and reused each time
+*         the same thread uses the same XPath, so repeated lookups cost only
+*         the search itself.
+*       - Namespace prefixes in XPaths are resolved via the namespace
+*         declarations in scope at the Node being searched from (or at the
+*         root Element, when searching from a Document), as done by 
+*         org.apache.xpath.XPathAPI.
+*       - Each thread reuses its own XMLSerializer and OutputFormats for all
+*         of the XML it serializes.
+*       - Each thread reuses its own DOMParser for all of the Documents it
+*         loads, so the parser's configuration and symbol table are built
+*         once per thread, not once per Document.
+*       - When grammar caching is on, all parsers share a single symbol 
+*         table and pool of DTD and XML Schema grammars, so each grammar is
+*         loaded only once, until clearGrammarCache() is called.  This is
+*         appropriate only when the grammars do not change while cached.
+*       - writeSystemProperties() serializes the system properties once,
+*         and serializes them again only when any of their names or values
+*         change.
+*       - writeThrowableAsXML() and wrapThrowableInXMLString() stream the
+*         XML of a Throwable without building a DOM, and limit the number
+*         of causes and stack frames shown, so that reporting errors stays
+*         cheap even when many requests fail at once.
 *<b>Implementation Notes:</b>
+*       - XPaths are compiled by the standard javax.xml.xpath API.  Each
+*         thread has its own XPath object and cache of compiled 
+*         XPathExpressions, since they are not thread-safe.  The cache keeps
+*         the most recently used XPaths of each thread, so a thread that
+*         uses an unbounded number of distinct XPaths holds only a bounded
+*         number of compiled XPathExpressions.
+*       - Simple XPaths (child Element names, optionally with a position, 
+*         a leading "/", "//" or "..", and a trailing attribute name) are
+*         evaluated by walking the DOM directly when a single Node is 
+*         wanted, since the XPath engine spends far longer setting up each
+*         evaluation than the search itself takes.  All other XPaths, and
+*         all searches for lists of Nodes, use the XPath engine.  So do 
+*         simple XPaths whose search reaches an EntityReference node, 
+*         whose children XPath treats as children of its parent, and 
+*         absolute XPaths in a tree that is not in a Document.
+*       - DOMParser.parse() resets the parser before each parse, so a 
+*         parser can be reused even after a parse fails.  After each parse,
+*         the parser drops its reference to the Document, so the pooled 
+*         parser does not keep the Document from being garbage collected.
+*         A parser already in use (by an EntityResolver or ErrorHandler 
+*         that loads another Document during the parse) is not reused.
 *<b>Portability Issues:</b>
 *<b>Revision History:</b>
 *   $Log$
@@ -109,6 +185,51 @@ public class XMLUtil
     //-- Class variables
     //--
 
+    /**************************************************************************
+    * The XPathCache of each thread.
+    **************************************************************************/
+    private static final ThreadLocal st_xpathCache = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new XPathCache();
+        }
+    };
+
+    /**************************************************************************
+    * The PooledParser of each thread.
+    **************************************************************************/
+    private static final ThreadLocal st_parser = new ThreadLocal();
+
+    /**************************************************************************
+    * The SharedGrammars used by all parsers, or null if grammar caching is 
+    * off.
+    **************************************************************************/
+    private static volatile SharedGrammars st_sharedGrammars = null;
+
+    /**************************************************************************
+    * The PooledSerializer of each thread.
+    **************************************************************************/
+    private static final ThreadLocal st_serializer = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new PooledSerializer();
+        }
+    };
+
+    /**************************************************************************
+    * Writer given to idle pooled serializers in place of the last Writer or
+    * OutputStream they serialized to.  Never written to.
+    **************************************************************************/
+    private static final Writer st_writerNONE = new StringWriter(0);
+
+    /**************************************************************************
+    * The SystemPropsSnapshot of the system properties as last written by 
+    * writeSystemProperties(), or null if not yet written.
+    **************************************************************************/
+    private static volatile SystemPropsSnapshot st_systemProps = null;
+
     //--
     //-- Instance variables to support public properties
     //--
@@ -117,6 +238,19 @@ public class XMLUtil
     //-- Internal instance variables
     //--
 
+    //--
+    //-- Local constants
+    //--
+    private static final int intMAX_XPATHS_PER_THREAD = 256;
+    private static final String strUTF_8 = "UTF-8";
+
+    //--
+    //-- Other constants.
+    //--
+    public static final boolean blnCOMPACT = true;
+    public static final int intDEFAULT_MAX_THROWABLE_DEPTH = 10;
+    public static final int intDEFAULT_MAX_STACK_FRAMES    = 100;
+
     /**************************************************************************
     * This exception is thrown when the specified XML node doesn't exist.
     **************************************************************************/
@@ -126,6 +260,895 @@ public class XMLUtil
         public NoSuchXMLNodeException(String msg) { super(msg); }
     }
 
+    /**************************************************************************
+    * This class is a Map of compiled XPathExpressions that keeps only the
+    * most recently used ones.
+    **************************************************************************/
+    private static class XPathExpressionMap extends LinkedHashMap
+    {
+        private static final long serialVersionUID = 1L;
+        private XPathExpressionMap()
+        {
+            super(16, 0.75f, true);
+        }
+        protected boolean removeEldestEntry(Map.Entry eldest)
+        {
+            return size() > intMAX_XPATHS_PER_THREAD;
+        }
+    }
+
+    /**************************************************************************
+    * This class holds a compiled XPath:  the SimpleXPath for it, if it is
+    * simple enough, and the XPathExpression for it, if it has been needed,
+    * with the namespace prefixes it uses and the namespace URIs they were 
+    * resolved to when it was compiled.
+    **************************************************************************/
+    private static class CompiledXPath
+    {
+        private final SimpleXPath m_simple;
+        private XPathExpression   m_expression  = null;
+        private String[]          m_arrPrefixes = new String[0];
+        private String[]          m_arrURIs     = new String[0];
+        private CompiledXPath(SimpleXPath simple)
+        {
+            m_simple = simple;
+        }
+    }
+
+    /**************************************************************************
+    * This class is a pre-parsed XPath that is simple enough to be evaluated
+    * by walking the DOM directly, without the overhead of the XPath engine.
+    * Simple XPaths are those of the form:
+    *<pre>
+    *       Step/Step/...
+    *       /Step/Step/...
+    *       //Name
+    *</pre>
+    * where each Step is one of:
+    *<pre>
+    *       Name    Name[n]     *       *[n]        .
+    *       ..      (only at the start)
+    *       @Name   (only at the end)
+    *</pre>
+    * and Names have no namespace prefix.
+    **************************************************************************/
+    private static class SimpleXPath
+    {
+        /**********************************************************************
+        * This exception is thrown when the search reaches a part of the DOM
+        * that must be searched by the XPath engine instead.  A single 
+        * instance is reused, since it is only a signal.
+        **********************************************************************/
+        private static class NotSimpleException extends Exception
+        {
+            private static final long serialVersionUID = 1L;
+            private NotSimpleException() { super("Not simple"); }
+        }
+        private static final NotSimpleException st_eNOT_SIMPLE 
+                                            = new NotSimpleException();
+
+        private static final int intSTEP_ELEMENT = 0;
+        private static final int intSTEP_SELF    = 1;
+        private static final int intSTEP_PARENT  = 2;
+        private static final int intSTEP_ATTR    = 3;
+
+        private final boolean  m_blnAbsolute;
+        private final boolean  m_blnDescendant;
+        private final boolean  m_blnFirstTextNode;
+        private final int[]    m_arrTypes;
+        private final String[] m_arrNames;
+        private final int[]    m_arrPositions;
+
+        private SimpleXPath(boolean  blnAbsolute,
+                            boolean  blnDescendant,
+                            boolean  blnFirstTextNode,
+                            int[]    arrTypes,
+                            String[] arrNames,
+                            int[]    arrPositions)
+        {
+            m_blnAbsolute      = blnAbsolute;
+            m_blnDescendant    = blnDescendant;
+            m_blnFirstTextNode = blnFirstTextNode;
+            m_arrTypes         = arrTypes;
+            m_arrNames         = arrNames;
+            m_arrPositions     = arrPositions;
+        }
+
+        /**********************************************************************
+        * Parse the XPath as a SimpleXPath.
+        *@param  strXPath           The XPath.
+        *@param  blnFirstTextNode   true to select the first Text node of the
+        *                           Node at the XPath, instead of the Node 
+        *                           itself.
+        *@return                    The SimpleXPath, or null if the XPath is
+        *                           not simple.
+        **********************************************************************/
+        private static SimpleXPath parse(String  strXPath,
+                                         boolean blnFirstTextNode)
+        {
+            if (strXPath.length() == 0)
+            {
+                //-- Not a valid XPath.  Let the XPath engine report it.
+                return null;
+            }
+            boolean blnAbsolute   = false;
+            boolean blnDescendant = false;
+            String  strSteps      = strXPath;
+            if (strSteps.startsWith("//"))
+            {
+                blnAbsolute   = true;
+                blnDescendant = true;
+                strSteps = strSteps.substring(2);
+                if (!isName(strSteps))
+                {
+                    return null;
+                }
+            }
+            else if (strSteps.startsWith("/"))
+            {
+                blnAbsolute = true;
+                strSteps = strSteps.substring(1);
+            }
+            String[] arrSteps = (strSteps.length() == 0) 
+                                ? new String[0] 
+                                : strSteps.split("/", -1);
+            int[]    arrTypes     = new int[arrSteps.length];
+            String[] arrNames     = new String[arrSteps.length];
+            int[]    arrPositions = new int[arrSteps.length];
+            boolean  blnLeading   = !blnAbsolute;
+            for (int i = 0; i < arrSteps.length; i++)
+            {
+                String strStep = arrSteps[i];
+                if (strStep.equals(".."))
+                {
+                    if (!blnLeading)
+                    {
+                        return null;
+                    }
+                    arrTypes[i] = intSTEP_PARENT;
+                    continue;
+                }
+                blnLeading = false;
+                if (strStep.equals("."))
+                {
+                    arrTypes[i] = intSTEP_SELF;
+                }
+                else if (strStep.startsWith("@"))
+                {
+                    //-- XPath never treats namespace declarations as 
+                    //-- attributes.
+                    strStep = strStep.substring(1);
+                    if (i != arrSteps.length - 1 
+                        || blnFirstTextNode
+                        || !isName(strStep)
+                        || strStep.equals(XMLConstants.XMLNS_ATTRIBUTE))
+                    {
+                        return null;
+                    }
+                    arrTypes[i] = intSTEP_ATTR;
+                    arrNames[i] = strStep;
+                }
+                else
+                {
+                    int intBracket = strStep.indexOf('[');
+                    if (intBracket >= 0)
+                    {
+                        arrPositions[i] = parsePosition
+                                            (strStep.substring(intBracket));
+                        if (arrPositions[i] <= 0)
+                        {
+                            return null;
+                        }
+                        strStep = strStep.substring(0, intBracket);
+                    }
+                    if (!strStep.equals("*"))
+                    {
+                        if (!isName(strStep))
+                        {
+                            return null;
+                        }
+                        arrNames[i] = strStep;
+                    }
+                    arrTypes[i] = intSTEP_ELEMENT;
+                }
+            }
+            return new SimpleXPath(blnAbsolute,
+                                   blnDescendant,
+                                   blnFirstTextNode,
+                                   arrTypes,
+                                   arrNames,
+                                   arrPositions);
+        }
+
+        /**********************************************************************
+        * Parse a positional predicate like "[3]".
+        *@param  strPredicate   The predicate.
+        *@return                The position, or 0 if not a positional 
+        *                       predicate.
+        **********************************************************************/
+        private static int parsePosition(String strPredicate)
+        {
+            int intLength = strPredicate.length();
+            if (intLength < 3 || intLength > 11
+                || strPredicate.charAt(intLength - 1) != ']')
+            {
+                return 0;
+            }
+            int intPosition = 0;
+            for (int i = 1; i < intLength - 1; i++)
+            {
+                char c = strPredicate.charAt(i);
+                if (c < '0' || c > '9')
+                {
+                    return 0;
+                }
+                intPosition = intPosition * 10 + (c - '0');
+            }
+            return intPosition;
+        }
+
+        /**********************************************************************
+        * Check whether the string is an XML name with no namespace prefix.
+        *@param  strName    The string.
+        *@return            true if so; false otherwise.
+        **********************************************************************/
+        private static boolean isName(String strName)
+        {
+            if (strName.length() == 0)
+            {
+                return false;
+            }
+            char c = strName.charAt(0);
+            if (!(Character.isLetter(c) || c == '_'))
+            {
+                return false;
+            }
+            for (int i = 1; i < strName.length(); i++)
+            {
+                c = strName.charAt(i);
+                if (!(Character.isLetterOrDigit(c) 
+                      || c == '_' || c == '-' || c == '.'))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**********************************************************************
+        * Select the first Node matching the XPath, in document order.
+        *@param  xmlNode    Node to search from.  Not an Attr.
+        *@return            The Node, or null.
+        *@throws NotSimpleException
+        *                   When the XPath engine must be used instead.
+        **********************************************************************/
+        private Node selectSingleNode(Node xmlNode)
+                       throws NotSimpleException
+        {
+            Node xml = xmlNode;
+            if (m_blnAbsolute)
+            {
+                for (Node xmlParent = xml.getParentNode();
+                     xmlParent != null;
+                     xmlParent = xml.getParentNode())
+                {
+                    xml = xmlParent;
+                }
+                if (xml.getNodeType() != Node.DOCUMENT_NODE)
+                {
+                    throw st_eNOT_SIMPLE;
+                }
+            }
+            if (m_blnDescendant)
+            {
+                return selectDescendant(xml, false);
+            }
+            return select(xml, 0);
+        }
+
+        /**********************************************************************
+        * Select the first Node matching the steps of the XPath starting at
+        * the specified step, in document order.
+        *@param  xml        Node to search from.
+        *@param  intStep    Index of the step.
+        *@return            The Node, or null.
+        *@throws NotSimpleException
+        *                   When the XPath engine must be used instead.
+        **********************************************************************/
+        private Node select(Node xml, int intStep)
+                       throws NotSimpleException
+        {
+            if (intStep == m_arrTypes.length)
+            {
+                return selected(xml);
+            }
+            switch (m_arrTypes[intStep])
+            {
+                case intSTEP_SELF:
+                    return select(xml, intStep + 1);
+                case intSTEP_PARENT:
+                    Node xmlParent = xml.getParentNode();
+                    if (xmlParent == null)
+                    {
+                        return null;
+                    }
+                    checkSimple(xmlParent);
+                    return select(xmlParent, intStep + 1);
+                case intSTEP_ATTR:
+                    if (!(xml instanceof Element))
+                    {
+                        return null;
+                    }
+                    Attr attr = ((Element)xml).getAttributeNode
+                                                    (m_arrNames[intStep]);
+                    return (attr == null || attr.getNamespaceURI() != null)
+                           ? null 
+                           : attr;
+                default:
+                    int intCount = 0;
+                    for (Node xmlChild = xml.getFirstChild();
+                         xmlChild != null;
+                         xmlChild = xmlChild.getNextSibling())
+                    {
+                        checkSimple(xmlChild);
+                        if (!matches(xmlChild, m_arrNames[intStep]))
+                        {
+                            continue;
+                        }
+                        intCount++;
+                        if (m_arrPositions[intStep] == 0)
+                        {
+                            Node xmlFound = select(xmlChild, intStep + 1);
+                            if (xmlFound != null)
+                            {
+                                return xmlFound;
+                            }
+                        }
+                        else if (intCount == m_arrPositions[intStep])
+                        {
+                            return select(xmlChild, intStep + 1);
+                        }
+                    }
+                    return null;
+            }
+        }
+
+        /**********************************************************************
+        * Get the Node selected by the XPath, given the Node matching all of
+        * its steps.
+        *@param  xml        The Node matching all of the steps.
+        *@return            The Node, or its first Text node, or null.
+        *@throws NotSimpleException
+        *                   When the XPath engine must be used instead.
+        **********************************************************************/
+        private Node selected(Node xml)
+                       throws NotSimpleException
+        {
+            if (!m_blnFirstTextNode)
+            {
+                return xml;
+            }
+            for (Node xmlChild = xml.getFirstChild();
+                 xmlChild != null;
+                 xmlChild = xmlChild.getNextSibling())
+            {
+                checkSimple(xmlChild);
+                if (xmlChild instanceof Text)
+                {
+                    return xmlChild;
+                }
+            }
+            return null;
+        }
+
+        /**********************************************************************
+        * Select the first Node matching the "//Name" XPath among the 
+        * descendants of the Node, in document order.  Elements with the 
+        * name but with no Text node do not stop the search when selecting
+        * the first Text node, and a Text node of a nested Element with the
+        * name is selected if it precedes the first Text node of the outer 
+        * one.
+        *@param  xml        Node to search from.
+        *@param  blnMatches true if the Node itself is an Element with the 
+        *                   name.
+        *@return            The Element or Text node, or null.
+        *@throws NotSimpleException
+        *                   When the XPath engine must be used instead.
+        **********************************************************************/
+        private Node selectDescendant(Node xml, boolean blnMatches)
+                       throws NotSimpleException
+        {
+            for (Node xmlChild = xml.getFirstChild();
+                 xmlChild != null;
+                 xmlChild = xmlChild.getNextSibling())
+            {
+                checkSimple(xmlChild);
+                if (blnMatches && xmlChild instanceof Text)
+                {
+                    return xmlChild;
+                }
+                boolean blnChildMatches = matches(xmlChild, m_arrNames[0]);
+                if (blnChildMatches && !m_blnFirstTextNode)
+                {
+                    return xmlChild;
+                }
+                Node xmlFound = selectDescendant(xmlChild, blnChildMatches);
+                if (xmlFound != null)
+                {
+                    return xmlFound;
+                }
+            }
+            return null;
+        }
+
+        /**********************************************************************
+        * Check that the Node is not an EntityReference, whose children XPath
+        * treats as children of its parent.
+        *@param  xml        The Node.
+        *@throws NotSimpleException
+        *                   When the Node is an EntityReference.
+        **********************************************************************/
+        private static void checkSimple(Node xml)
+                       throws NotSimpleException
+        {
+            if (xml.getNodeType() == Node.ENTITY_REFERENCE_NODE)
+            {
+                throw st_eNOT_SIMPLE;
+            }
+        }
+
+        /**********************************************************************
+        * Check whether the Node is an Element with the name and no namespace.
+        *@param  xml        The Node.
+        *@param  strName    The name, or null for any Element.
+        *@return            true if so; false otherwise.
+        **********************************************************************/
+        private static boolean matches(Node xml, String strName)
+        {
+            if (xml.getNodeType() != Node.ELEMENT_NODE)
+            {
+                return false;
+            }
+            if (strName == null)
+            {
+                return true;
+            }
+            if (xml.getNamespaceURI() != null)
+            {
+                return false;
+            }
+            String strLocalName = xml.getLocalName();
+            return strName.equals
+                    (strLocalName == null ? xml.getNodeName() : strLocalName);
+        }
+    }
+
+    /**************************************************************************
+    * This class holds the XPath object and compiled XPathExpressions of one
+    * thread.  It is also the NamespaceContext of the XPath object, resolving
+    * namespace prefixes via the Node being searched from.
+    **************************************************************************/
+    private static class XPathCache implements NamespaceContext
+    {
+        private final XPath     m_xpath;
+        private final Map       m_mapExpressions     = new XPathExpressionMap();
+        private final Map       m_mapTextExpressions = new XPathExpressionMap();
+        private final ArrayList m_alResolved         = new ArrayList();
+        private boolean         m_blnCompiling       = false;
+        private Node            m_xmlNamespaceNode   = null;
+
+        private XPathCache()
+        {
+            m_xpath = XPathFactory.newInstance().newXPath();
+            m_xpath.setNamespaceContext(this);
+        }
+
+        /**********************************************************************
+        * Get the CompiledXPath for the XPath, creating it if not already 
+        * cached.  Only simple XPaths are cached without an XPathExpression.
+        *@param  strXPath           The XPath.
+        *@param  blnFirstTextNode   true to get the CompiledXPath for the 
+        *                           first Text node of the Node at the XPath, 
+        *                           instead of the Node itself.
+        *@return                    The CompiledXPath.
+        *@throws TransformerException
+        *                           When the XPath is invalid.
+        **********************************************************************/
+        private CompiledXPath getCompiledXPath(String  strXPath, 
+                                               boolean blnFirstTextNode)
+                       throws TransformerException
+        {
+            Map mapExpressions = blnFirstTextNode 
+                                 ? m_mapTextExpressions 
+                                 : m_mapExpressions;
+            CompiledXPath compiled = (CompiledXPath)mapExpressions.get(strXPath);
+            if (compiled == null)
+            {
+                compiled = new CompiledXPath
+                            (SimpleXPath.parse(strXPath, blnFirstTextNode));
+                if (compiled.m_simple == null)
+                {
+                    compile(compiled, strXPath, blnFirstTextNode);
+                }
+                mapExpressions.put(strXPath, compiled);
+            }
+            return compiled;
+        }
+
+        /**********************************************************************
+        * Get the compiled XPathExpression of the CompiledXPath, compiling it
+        * if not already compiled, or if the namespace prefixes it uses 
+        * resolve to different namespace URIs at m_xmlNamespaceNode than they
+        * did when it was compiled.
+        *@param  compiled           The CompiledXPath.
+        *@param  strXPath           The XPath.
+        *@param  blnFirstTextNode   true if the CompiledXPath is for the first
+        *                           Text node of the Node at the XPath, 
+        *                           instead of the Node itself.
+        *@return                    The compiled XPathExpression.
+        *@throws TransformerException
+        *                           When the XPath is invalid.
+        **********************************************************************/
+        private XPathExpression getExpression(CompiledXPath compiled,
+                                              String        strXPath, 
+                                              boolean       blnFirstTextNode)
+                       throws TransformerException
+        {
+            if (compiled.m_expression == null || !isValid(compiled))
+            {
+                compile(compiled, strXPath, blnFirstTextNode);
+            }
+            return compiled.m_expression;
+        }
+
+        /**********************************************************************
+        * Compile the XPathExpression of the CompiledXPath, resolving namespace
+        * prefixes at m_xmlNamespaceNode.
+        *@param  compiled           The CompiledXPath.
+        *@param  strXPath           The XPath.
+        *@param  blnFirstTextNode   true to compile the expression for the 
+        *                           first Text node of the Node at the XPath, 
+        *                           instead of the Node itself.
+        *@throws TransformerException
+        *                           When the XPath is invalid.
+        **********************************************************************/
+        private void compile(CompiledXPath compiled,
+                             String        strXPath, 
+                             boolean       blnFirstTextNode)
+                       throws TransformerException
+        {
+            //-- Compile it, recording the prefixes resolved by the compiler 
+            //-- via getNamespaceURI().
+            XPathExpression expression;
+            m_alResolved.clear();
+            m_blnCompiling = true;
+            try
+            {
+                //-- Note:  XPath indexes are one-based, not zero-based.
+                expression = m_xpath.compile(blnFirstTextNode
+                                             ? strXPath + "/text()[1]"
+                                             : strXPath);
+            }
+            catch (XPathExpressionException e)
+            {
+                throw new TransformerException
+                            ("Invalid XPath: " + strXPath, e);
+            }
+            finally
+            {
+                m_blnCompiling = false;
+            }
+            int intCount = m_alResolved.size() / 2;
+            String[] arrPrefixes = new String[intCount];
+            String[] arrURIs     = new String[intCount];
+            for (int i = 0; i < intCount; i++)
+            {
+                arrPrefixes[i] = (String)m_alResolved.get(2 * i);
+                arrURIs[i]     = (String)m_alResolved.get(2 * i + 1);
+            }
+            m_alResolved.clear();
+            compiled.m_expression  = expression;
+            compiled.m_arrPrefixes = arrPrefixes;
+            compiled.m_arrURIs     = arrURIs;
+        }
+
+        /**********************************************************************
+        * Check whether the namespace prefixes used by the compiled XPath 
+        * resolve at m_xmlNamespaceNode to the same namespace URIs as they 
+        * did when it was compiled.
+        *@param  compiled   The compiled XPath.
+        *@return            true if so; false otherwise.
+        **********************************************************************/
+        private boolean isValid(CompiledXPath compiled)
+        {
+            for (int i = 0; i < compiled.m_arrPrefixes.length; i++)
+            {
+                if (!compiled.m_arrURIs[i].equals
+                            (findNamespaceURI(compiled.m_arrPrefixes[i])))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**********************************************************************
+        * Evaluate the XPath from the Node, walking the DOM directly if the
+        * XPath is simple, and a single Node is wanted.
+        *@param  xmlNode            Node to search from.
+        *@param  strXPath           The XPath.
+        *@param  blnFirstTextNode   true to get the first Text node of the 
+        *                           Node at the XPath, instead of the Node 
+        *                           itself.
+        *@param  qnameReturnType    XPathConstants.NODE or NODESET.
+        *@return                    The Node, or null, or the NodeList.
+        *@throws TransformerException
+        *                           When the XPath is invalid.
+        **********************************************************************/
+        private Object evaluate(Node    xmlNode,
+                                String  strXPath,
+                                boolean blnFirstTextNode,
+                                QName   qnameReturnType)
+                       throws TransformerException
+        {
+            m_xmlNamespaceNode = xmlNode;
+            try
+            {
+                CompiledXPath compiled = getCompiledXPath
+                                            (strXPath, blnFirstTextNode);
+                if (compiled.m_simple != null 
+                    && qnameReturnType == XPathConstants.NODE
+                    && !(xmlNode instanceof Attr))
+                {
+                    try
+                    {
+                        return compiled.m_simple.selectSingleNode(xmlNode);
+                    }
+                    catch (SimpleXPath.NotSimpleException e)
+                    {
+                        //-- Use the XPath engine instead.
+                    }
+                }
+                return getExpression(compiled, strXPath, blnFirstTextNode)
+                                    .evaluate(xmlNode, qnameReturnType);
+            }
+            catch (XPathExpressionException e)
+            {
+                throw new TransformerException
+                                ("Error evaluating XPath: " + strXPath, e);
+            }
+            finally
+            {
+                m_xmlNamespaceNode = null;
+            }
+        }
+
+        /**********************************************************************
+        * Get the namespace URI declared for the prefix, in scope at the Node
+        * being searched from.
+        *@param  strPrefix  The prefix.
+        *@return            The namespace URI, or the empty string if none.
+        **********************************************************************/
+        public String getNamespaceURI(String strPrefix)
+        {
+            String strURI = findNamespaceURI(strPrefix);
+            if (m_blnCompiling)
+            {
+                m_alResolved.add(strPrefix);
+                m_alResolved.add(strURI);
+            }
+            return strURI;
+        }
+
+        /**********************************************************************
+        * Find the namespace URI declared for the prefix, in scope at the 
+        * Node being searched from.
+        *@param  strPrefix  The prefix.
+        *@return            The namespace URI, or the empty string if none.
+        **********************************************************************/
+        private String findNamespaceURI(String strPrefix)
+        {
+            if (XMLConstants.XML_NS_PREFIX.equals(strPrefix))
+            {
+                return XMLConstants.XML_NS_URI;
+            }
+            Node xml = m_xmlNamespaceNode;
+            if (xml instanceof Document)
+            {
+                xml = ((Document)xml).getDocumentElement();
+            }
+            else if (xml instanceof Attr)
+            {
+                xml = ((Attr)xml).getOwnerElement();
+            }
+            String strAttrName = (strPrefix.length() == 0)
+                                 ? XMLConstants.XMLNS_ATTRIBUTE
+                                 : XMLConstants.XMLNS_ATTRIBUTE + ":" 
+                                   + strPrefix;
+            for (; xml != null; xml = xml.getParentNode())
+            {
+                if (xml instanceof Element 
+                    && ((Element)xml).hasAttribute(strAttrName))
+                {
+                    return ((Element)xml).getAttribute(strAttrName);
+                }
+            }
+            return XMLConstants.NULL_NS_URI;
+        }
+
+        /**********************************************************************
+        * Not used by XPath evaluation.
+        **********************************************************************/
+        public String getPrefix(String strNamespaceURI)
+        {
+            return null;
+        }
+
+        /**********************************************************************
+        * Not used by XPath evaluation.
+        **********************************************************************/
+        public Iterator getPrefixes(String strNamespaceURI)
+        {
+            return Collections.EMPTY_LIST.iterator();
+        }
+    }
+
+    /**************************************************************************
+    * This class holds the symbol table and grammar pool shared by all 
+    * parsers when grammar caching is on.
+    **************************************************************************/
+    private static class SharedGrammars
+    {
+        private final SymbolTable    m_symbolTable 
+                                = new SynchronizedSymbolTable(new SymbolTable());
+        private final XMLGrammarPool m_grammarPool = new XMLGrammarPoolImpl();
+    }
+
+    /**************************************************************************
+    * This class holds the DOMParser reused by one thread, and the 
+    * SharedGrammars it was created with.
+    **************************************************************************/
+    private static class PooledParser
+    {
+        private final DOMParser      m_parser;
+        private final SharedGrammars m_sharedGrammars;
+        private boolean              m_blnInUse = false;
+        private PooledParser(SharedGrammars sharedGrammars)
+        {
+            m_sharedGrammars = sharedGrammars;
+            m_parser = (sharedGrammars == null)
+                       ? new DOMParser()
+                       : new DOMParser(sharedGrammars.m_symbolTable,
+                                       sharedGrammars.m_grammarPool);
+        }
+    }
+
+    /**************************************************************************
+    * Set whether DTD and XML Schema grammars are cached and shared among
+    * all Documents loaded by all threads.  Turning caching on or off 
+    * discards all cached grammars.
+    * Default = false.
+    *@param  blnCaching true to cache grammars; false otherwise.
+    **************************************************************************/
+    public static synchronized void setGrammarCaching(boolean blnCaching)
+    {
+        st_sharedGrammars = blnCaching ? new SharedGrammars() : null;
+    }
+
+    /**************************************************************************
+    * Get whether DTD and XML Schema grammars are cached.
+    *@return            true if grammars are cached; false otherwise.
+    **************************************************************************/
+    public static boolean getGrammarCaching()
+    {
+        return st_sharedGrammars != null;
+    }
+
+    /**************************************************************************
+    * Discard all cached grammars, so that they are reloaded by the next 
+    * parses that use them.  Has no effect if grammar caching is off.
+    **************************************************************************/
+    public static synchronized void clearGrammarCache()
+    {
+        if (st_sharedGrammars != null)
+        {
+            st_sharedGrammars = new SharedGrammars();
+        }
+    }
+
+    /**************************************************************************
+    * Get the PooledParser of the current thread, creating a new one if it 
+    * does not yet exist, is in use, or was created with other 
+    * SharedGrammars.
+    *@return            The PooledParser.
+    **************************************************************************/
+    private static PooledParser getPooledParser()
+    {
+        SharedGrammars sharedGrammars = st_sharedGrammars;
+        PooledParser   pooled         = (PooledParser)st_parser.get();
+        if (pooled == null)
+        {
+            pooled = new PooledParser(sharedGrammars);
+            st_parser.set(pooled);
+        }
+        else if (pooled.m_blnInUse)
+        {
+            //-- Nested parse during a parse.  Use a parser of its own, 
+            //-- without replacing the one in use.
+            pooled = new PooledParser(sharedGrammars);
+        }
+        else if (pooled.m_sharedGrammars != sharedGrammars)
+        {
+            pooled = new PooledParser(sharedGrammars);
+            st_parser.set(pooled);
+        }
+        return pooled;
+    }
+
+    /**************************************************************************
+    * Load the specified URL or InputSource into an XML Document, via the 
+    * PooledParser of the current thread.
+    *@param  strURL         URL containing XML to load, or null.
+    *@param  inputSource    InputSource containing XML to load, if strURL is
+    *                       null.
+    *@return                XML Document.
+    *@throws SAXException   When the XML is invalid.
+    *@throws IOException    When an error occurs reading the XML.
+    **************************************************************************/
+    private static Document parse(String strURL, InputSource inputSource)
+                 throws SAXException
+                       ,IOException
+    {
+        PooledParser pooled = getPooledParser();
+        DOMParser    parser = pooled.m_parser;
+        pooled.m_blnInUse = true;
+        try
+        {
+            if (strURL != null)
+            {
+                parser.parse(strURL);
+            }
+            else
+            {
+                parser.parse(inputSource);
+            }
+            return parser.getDocument();
+        }
+        finally
+        {
+            parser.dropDocumentReferences();
+            pooled.m_blnInUse = false;
+        }
+    }
+
+    /**************************************************************************
+    * This class holds the XMLSerializer and OutputFormats reused by one 
+    * thread.
+    **************************************************************************/
+    private static class PooledSerializer
+    {
+        private final XMLSerializer m_serializer     = new XMLSerializer();
+        private final OutputFormat  m_formatIndented = initOutputFormat();
+        private final OutputFormat  m_formatCompact  = initCompactOutputFormat();
+    }
+
+    /**************************************************************************
+    * This class holds the system properties, serialized as XML, along with 
+    * a copy of the system properties when serialized, so that changes to 
+    * them can be detected without serializing them again.
+    **************************************************************************/
+    private static class SystemPropsSnapshot
+    {
+        private final Map    m_mapProps;
+        private final String m_strXML;
+
+        private SystemPropsSnapshot(Map mapProps, String strXML)
+        {
+            m_mapProps = mapProps;
+            m_strXML   = strXML;
+        }
+    }
+
     /**************************************************************************
     * Creates an empty XML Document.
     *@return            Empty XML Document.
@@ -150,9 +1173,7 @@ public class XMLUtil
                  throws SAXException
                        ,IOException
     {
-        DOMParser parser = new DOMParser();
-        parser.parse(strURL);
-        return parser.getDocument();
+        return parse(strURL, null);
     }
 
     /**************************************************************************
@@ -170,9 +1191,7 @@ public class XMLUtil
                  throws SAXException
                        ,IOException
     {
-        DOMParser parser = new DOMParser();
-        parser.parse(inputSource);
-        return parser.getDocument();
+        return parse(null, inputSource);
     }
 
     /**************************************************************************
@@ -190,9 +1209,7 @@ public class XMLUtil
                  throws SAXException
                        ,IOException
     {
-        DOMParser parser = new DOMParser();
-        parser.parse(new InputSource(new StringReader(strXML)));
-        return parser.getDocument();
+        return parse(null, new InputSource(new StringReader(strXML)));
     }
 
     /**************************************************************************
@@ -313,6 +1330,165 @@ public class XMLUtil
         return format;
     }
 
+    /**************************************************************************
+    * Return a new OutputFormat that does no formatting at all, for the
+    * most compact serialized XML.
+    *@return            The new OutputFormat.
+    **************************************************************************/
+    private static OutputFormat initCompactOutputFormat()
+    {
+        final boolean blnPRETTY_PRINT = false;
+        final String  strDEFAULT_ENCODING = null;
+        OutputFormat format = new OutputFormat
+                                        (Method.XML, 
+                                         strDEFAULT_ENCODING, 
+                                         blnPRETTY_PRINT);
+        format.setLineWidth(0);
+        format.setPreserveSpace(true);
+        format.setOmitXMLDeclaration(true);
+        return format;
+    }
+
+    /**************************************************************************
+    * Serialize the XML Node into the specified Writer or OutputStream, 
+    * silently tolerating a null Node, via the PooledSerializer of the 
+    * current thread.
+    *@param  xml            XML Document, DocumentFragment or Element.
+    *@param  writer         The Writer to serialize to, or null.
+    *@param  out            The OutputStream to serialize to, if writer is
+    *                       null.
+    *@param  strEncoding    The encoding to write to the OutputStream, or 
+    *                       null for UTF-8.
+    *@param  blnCompact     true to serialize without indentation or line 
+    *                       breaks; false to put each Element on its own 
+    *                       line.
+    *@throws IOException    When the Node can't be serialized.
+    **************************************************************************/
+    private static void serialize(Node         xml,
+                                  Writer       writer,
+                                  OutputStream out,
+                                  String       strEncoding,
+                                  boolean      blnCompact)
+                throws IOException
+    {
+        if (xml == null)
+        {
+            return;
+        }
+        PooledSerializer pooled = (PooledSerializer)st_serializer.get();
+        OutputFormat format = blnCompact 
+                              ? pooled.m_formatCompact 
+                              : pooled.m_formatIndented;
+        format.setEncoding(strEncoding == null ? strUTF_8 : strEncoding);
+        //-- Declare the encoding of bytes written in an encoding chosen by 
+        //-- the caller, so that they can be decoded.
+        format.setOmitXMLDeclaration(writer != null || strEncoding == null);
+        XMLSerializer serializer = pooled.m_serializer;
+        serializer.setOutputFormat(format);
+        if (writer != null)
+        {
+            serializer.setOutputCharStream(writer);
+        }
+        else
+        {
+            serializer.setOutputByteStream(out);
+        }
+        boolean blnSerialized = false;
+        try
+        {
+            if (xml instanceof Document)
+            {
+                serializer.serialize((Document)xml);
+            }
+            else if (xml instanceof DocumentFragment)
+            {
+                serializer.serialize((DocumentFragment)xml);
+            }
+            else if (xml instanceof Element)
+            {
+                serializer.serialize((Element)xml);
+            }
+            else
+            {
+                throw new IOException("Unable to serialize XML Node of type " 
+                                      + xml.getNodeType());
+            }
+            blnSerialized = true;
+        }
+        finally
+        {
+            if (blnSerialized)
+            {
+                //-- Don't keep the Writer or OutputStream from being garbage 
+                //-- collected while the pooled serializer is not in use.
+                serializer.setOutputCharStream(st_writerNONE);
+            }
+            else
+            {
+                //-- The serializer can't be reset in the middle of a 
+                //-- serialization, so don't reuse it.
+                st_serializer.remove();
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Serialize the XML Node into the specified Writer, silently tolerating
+    * a null Node.
+    *@param  xml            XML Document, DocumentFragment or Element.
+    *@param  writer         The Writer to serialize to.
+    *@param  blnCompact     true to serialize without indentation or line 
+    *                       breaks; false to put each Element on its own 
+    *                       line.
+    *@return                The specified Writer.
+    *@throws IOException    When the Node can't be serialized.
+    **************************************************************************/
+    public static Writer serialize(Node xml, Writer writer, boolean blnCompact)
+                throws IOException
+    {
+        serialize(xml, writer, null, null, blnCompact);
+        return writer;
+    }
+
+    /**************************************************************************
+    * Serialize the XML Node directly into the specified OutputStream, in the
+    * specified encoding, silently tolerating a null Node.  When an encoding
+    * is specified, the XML starts with an XML declaration of the encoding.
+    *@param  xml            XML Document, DocumentFragment or Element.
+    *@param  out            The OutputStream to serialize to.
+    *@param  strEncoding    The encoding, like "UTF-8" or "ISO-8859-1", or
+    *                       null for UTF-8 with no XML declaration.
+    *@param  blnCompact     true to serialize without indentation or line 
+    *                       breaks; false to put each Element on its own 
+    *                       line.
+    *@return                The specified OutputStream.
+    *@throws IOException    When the Node can't be serialized.
+    **************************************************************************/
+    public static OutputStream serialize(Node         xml, 
+                                         OutputStream out, 
+                                         String       strEncoding,
+                                         boolean      blnCompact)
+                throws IOException
+    {
+        serialize(xml, null, out, strEncoding, blnCompact);
+        return out;
+    }
+
+    /**************************************************************************
+    * Serialize the XML Node into a string of XML.
+    *@param  xml            XML Document, DocumentFragment or Element.
+    *@param  blnCompact     true to serialize without indentation or line 
+    *                       breaks; false to put each Element on its own 
+    *                       line.
+    *@return                String of XML.
+    *@throws IOException    When the Node can't be serialized.
+    **************************************************************************/
+    public static String serialize(Node xml, boolean blnCompact)
+                throws IOException
+    {
+        return serialize(xml, new StringWriter(), blnCompact).toString();
+    }
+
     /**************************************************************************
     * Serialize the XML Document into the specified Writer, silently 
     * tolerating a null Document.
@@ -324,14 +1500,7 @@ public class XMLUtil
     public static Writer serialize(Document xml, Writer writer)
                 throws IOException
     {
-        if (xml == null)
-        {
-            return writer;
-        }
-        XMLSerializer objXMLSerializer = new XMLSerializer
-                                                (writer, 
-                                                 initOutputFormat());
-        objXMLSerializer.serialize(xml);
+        serialize(xml, writer, null, null, !blnCOMPACT);
         return writer;
     }
 
@@ -373,14 +1542,7 @@ public class XMLUtil
     public static Writer serialize(DocumentFragment xml, Writer writer)
                 throws IOException
     {
-        if (xml == null)
-        {
-            return writer;
-        }
-        XMLSerializer objXMLSerializer = new XMLSerializer
-                                                (writer, 
-                                                 initOutputFormat());
-        objXMLSerializer.serialize(xml);
+        serialize(xml, writer, null, null, !blnCOMPACT);
         return writer;
     }
 
@@ -422,14 +1584,7 @@ public class XMLUtil
     public static Writer serialize(Element xml, Writer writer)
                 throws IOException
     {
-        if (xml == null)
-        {
-            return writer;
-        }
-        XMLSerializer objXMLSerializer = new XMLSerializer
-                                                (writer, 
-                                                 initOutputFormat());
-        objXMLSerializer.serialize(xml);
+        serialize(xml, writer, null, null, !blnCOMPACT);
         return writer;
     }
 
@@ -476,16 +1631,13 @@ public class XMLUtil
         {
             return writer;
         }
-        XMLSerializer objXMLSerializer = new XMLSerializer
-                                                (writer, 
-                                                 initOutputFormat());
         for (Node xmlChild = xml.getFirstChild();
              xmlChild != null;
              xmlChild = xmlChild.getNextSibling())
         {
             if (xmlChild.getNodeType() == Node.ELEMENT_NODE)
             {
-                objXMLSerializer.serialize((Element)xmlChild);
+                serialize(xmlChild, writer, null, null, !blnCOMPACT);
             }
         }
         return writer;
@@ -521,7 +1673,134 @@ public class XMLUtil
     }
 
     /**************************************************************************
-    * Wraps the info from a Java Throwable in an XML String.
+    * Write the info from a Java Throwable as XML to the specified Writer, 
+    * in the same format as wrapThrowableInXML(), but without building a 
+    * DOM, and with the stack trace limited to intDEFAULT_MAX_THROWABLE_DEPTH
+    * Throwables and intDEFAULT_MAX_STACK_FRAMES frames per Throwable.
+    *@param  e              Throwable to write as XML.
+    *@param  objSource      Object throwing the Throwable.
+    *@param  writer         Writer to write to.
+    *@return                The Writer.
+    *@throws IOException    When an error occurs writing to the Writer.
+    **************************************************************************/
+    public static Writer writeThrowableAsXML(Throwable e, 
+                                             Object    objSource,
+                                             Writer    writer)
+                throws IOException
+    {
+        return writeThrowableAsXML(e, 
+                                   objSource, 
+                                   writer, 
+                                   intDEFAULT_MAX_THROWABLE_DEPTH,
+                                   intDEFAULT_MAX_STACK_FRAMES);
+    }
+
+    /**************************************************************************
+    * Write the info from a Java Throwable as XML to the specified Writer, 
+    * in the same format as wrapThrowableInXML(), but without building a 
+    * DOM, and with the stack trace limited in size.  
+    * The stack trace is formatted like Throwable.printStackTrace(), 
+    * showing each Throwable followed by the Throwable that caused it, 
+    * omitting the frames a cause has in common with the Throwable it 
+    * caused, and summarizing the omitted frames as "... N more".  Also:
+    *   - At most intMaxFrames other frames are shown for each Throwable, 
+    *     and the rest are included in its "... N more".
+    *   - At most intMaxDepth Throwables are shown, and the rest are 
+    *     summarized as "Caused by: ... N more".
+    *@param  e              Throwable to write as XML.
+    *@param  objSource      Object throwing the Throwable.
+    *@param  writer         Writer to write to.
+    *@param  intMaxDepth    Maximum number of Throwables to show, including
+    *                       e itself.
+    *@param  intMaxFrames   Maximum number of stack frames to show for each
+    *                       Throwable.
+    *@return                The Writer.
+    *@throws IOException    When an error occurs writing to the Writer.
+    **************************************************************************/
+    public static Writer writeThrowableAsXML(Throwable e, 
+                                             Object    objSource,
+                                             Writer    writer,
+                                             int       intMaxDepth,
+                                             int       intMaxFrames)
+                throws IOException
+    {
+        StreamingXMLWriter xmlWriter = new StreamingXMLWriter(writer);
+        xmlWriter.startElement("Error");
+        xmlWriter.writeElement("Name", e.getClass().getName());
+        xmlWriter.writeElement("Source", 
+                               (objSource == null) 
+                               ? null 
+                               : objSource.getClass().getName());
+        xmlWriter.writeElement("Message", e.getMessage());
+        xmlWriter.startElement("StackTrace");
+
+        //-- Collect the chain of causes, stopping at a cycle.
+        ArrayList alChain = new ArrayList();
+        for (Throwable t = e; t != null && !alChain.contains(t); t = t.getCause())
+        {
+            alChain.add(t);
+        }
+        int intDepth = Math.min(alChain.size(), Math.max(1, intMaxDepth));
+        StackTraceElement[] arrEnclosingFrames = null;
+        for (int i = 0; i < intDepth; i++)
+        {
+            Throwable t = (Throwable)alChain.get(i);
+            StackTraceElement[] arrFrames = t.getStackTrace();
+
+            //-- Count the frames in common with the enclosing Throwable, 
+            //-- comparing from the outermost frame, as printStackTrace() 
+            //-- does.
+            int intInCommon = 0;
+            if (arrEnclosingFrames != null)
+            {
+                int m = arrFrames.length - 1;
+                int n = arrEnclosingFrames.length - 1;
+                while (m >= 0 && n >= 0 
+                       && arrFrames[m].equals(arrEnclosingFrames[n]))
+                {
+                    m--;
+                    n--;
+                    intInCommon++;
+                }
+            }
+            int intUnique = arrFrames.length - intInCommon;
+            int intShown  = Math.min(intUnique, Math.max(0, intMaxFrames));
+
+            if (i > 0)
+            {
+                xmlWriter.writeText("Caused by: ");
+            }
+            xmlWriter.writeText(t.toString());
+            xmlWriter.writeText("\n");
+            for (int j = 0; j < intShown; j++)
+            {
+                xmlWriter.writeText("\tat ");
+                xmlWriter.writeText(arrFrames[j].toString());
+                xmlWriter.writeText("\n");
+            }
+            if (intShown < arrFrames.length)
+            {
+                xmlWriter.writeText("\t... " + (arrFrames.length - intShown) 
+                                    + " more\n");
+            }
+            arrEnclosingFrames = arrFrames;
+        }
+        if (intDepth < alChain.size())
+        {
+            xmlWriter.writeText("Caused by: ... " 
+                                + (alChain.size() - intDepth) + " more\n");
+        }
+
+        xmlWriter.endElement();
+        xmlWriter.endElement();
+        xmlWriter.flush();
+        return writer;
+    }
+
+    /**************************************************************************
+    * Wraps the info from a Java Throwable in an XML String, in the format
+    * written by writeThrowableAsXML(), with the default limits on the size
+    * of the stack trace.
     *@param  e              Throwable to wrap as XML.
     *@param  objSource      Object throwing the Throwable.
     *@return                String containing XML.
@@ -530,7 +1809,7 @@ public class XMLUtil
     public static String wrapThrowableInXMLString(Throwable e, Object objSource)
                 throws IOException
     {
-        return serialize(wrapThrowableInXML(e, objSource));
+        return writeThrowableAsXML(e, objSource, new StringWriter()).toString();
     }
 
     /**************************************************************************
@@ -567,6 +1846,41 @@ public class XMLUtil
         }
     }
 
+    /**************************************************************************
+    * Get the first node located at the specified XPath from the specified 
+    * node.
+    *@param  xmlNode    Node to search from.
+    *@param  strXPath   XPath to get from xmlNode to the desired node.
+    *@return            The node, or null if not found.
+    *@throws TransformerException
+    *                   When the specified XPath is invalid.
+    **************************************************************************/
+    public static Node selectSingleNode
+                        (Node   xmlNode,
+                         String strXPath)
+                         throws TransformerException
+    {
+        return (Node)((XPathCache)st_xpathCache.get()).evaluate
+                            (xmlNode, strXPath, false, XPathConstants.NODE);
+    }
+
+    /**************************************************************************
+    * Get all nodes located at the specified XPath from the specified node.
+    *@param  xmlNode    Node to search from.
+    *@param  strXPath   XPath to get from xmlNode to the desired nodes.
+    *@return            The nodes, in document order.
+    *@throws TransformerException
+    *                   When the specified XPath is invalid.
+    **************************************************************************/
+    public static NodeList selectNodeList
+                        (Node   xmlNode,
+                         String strXPath)
+                         throws TransformerException
+    {
+        return (NodeList)((XPathCache)st_xpathCache.get()).evaluate
+                            (xmlNode, strXPath, false, XPathConstants.NODESET);
+    }
+
     /**************************************************************************
     * Get the value of the text node that is embedded in the node that is
     * located at the specified XPath from the specified node.
@@ -584,9 +1898,8 @@ public class XMLUtil
                          throws TransformerException
                                ,NoSuchXMLNodeException
     {
-        //-- Note:  XPath indexes are one-based, not zero-based.
-        Node xmlTargetNode = 
-                    XPathAPI.selectSingleNode(xmlNode, strXPath + "/text()[1]");
+        Node xmlTargetNode = (Node)((XPathCache)st_xpathCache.get()).evaluate
+                            (xmlNode, strXPath, true, XPathConstants.NODE);
         if (xmlTargetNode == null)
         {
             throw new NoSuchXMLNodeException(strXPath);
@@ -667,7 +1980,7 @@ public class XMLUtil
                              ,NoSuchXMLNodeException
     {
         //-- Get the node at the specified XPath.
-        Node xmlTargetNode = XPathAPI.selectSingleNode(xmlNode, strXPath);
+        Node xmlTargetNode = selectSingleNode(xmlNode, strXPath);
         if (xmlTargetNode == null)
         {
             throw new NoSuchXMLNodeException(strXPath);
@@ -709,7 +2022,7 @@ public class XMLUtil
                              ,NoSuchXMLNodeException
     {
         //-- Get the node at the specified XPath.
-        Node xmlTargetNode = XPathAPI.selectSingleNode(xmlNode, strXPath);
+        Node xmlTargetNode = selectSingleNode(xmlNode, strXPath);
         if (xmlTargetNode == null)
         {
             throw new NoSuchXMLNodeException(strXPath);
@@ -732,7 +2045,7 @@ public class XMLUtil
                          String   strName)
                        throws TransformerException
     {
-        Element xmlRC = (Element)XPathAPI.selectSingleNode(xmlNode, strName);
+        Element xmlRC = (Element)selectSingleNode(xmlNode, strName);
         if (xmlRC == null)
         {
             xmlRC = appendElement(xmlNode, strName);
@@ -1005,6 +2318,54 @@ public class XMLUtil
         return dom;
     }
 
+    /**************************************************************************
+    * Write all Java system properties as XML to the specified Writer, in the
+    * format shown in getSystemProperties(), but without building a DOM, 
+    * and without whitespace between the elements.
+    * The XML is serialized once and reused until the system properties 
+    * change, so repeated calls cost little more than copying the string.
+    *@param  writer         Writer to write to.
+    *@return                The Writer.
+    *@throws IOException    When an error occurs writing to the Writer.
+    **************************************************************************/
+    public static Writer writeSystemProperties(Writer writer)
+                 throws IOException
+    {
+        //-- Note:  Comparing the properties to the copy in the snapshot is
+        //--        far cheaper than serializing them again, since unchanged
+        //--        names and values are the same String objects, and String
+        //--        equals() checks for that first.  Unlike comparing sizes 
+        //--        and hash codes, it sees every change.
+        Properties props = System.getProperties();
+        SystemPropsSnapshot snapshot = st_systemProps;
+        if (snapshot == null || !props.equals(snapshot.m_mapProps))
+        {
+            //-- Copy the properties before serializing them, so that a
+            //-- change made meanwhile is seen by the next call.
+            Map mapProps = (Map)props.clone();
+            StringWriter stringWriter = new StringWriter();
+            StreamingXMLWriter xmlWriter = new StreamingXMLWriter(stringWriter);
+            xmlWriter.startElement("SystemProps");
+            for (Enumeration enumPropNames = props.propertyNames();
+                 enumPropNames.hasMoreElements();
+                ) 
+            {
+                String strName = (String) enumPropNames.nextElement();
+                xmlWriter.startElement("SystemProp");
+                xmlWriter.writeElement("PropName", strName);
+                xmlWriter.writeElement("PropValue", props.getProperty(strName));
+                xmlWriter.endElement();
+            }
+            xmlWriter.endElement();
+            xmlWriter.flush();
+            snapshot = new SystemPropsSnapshot
+                            (mapProps, stringWriter.toString());
+            st_systemProps = snapshot;
+        }
+        writer.write(snapshot.m_strXML);
+        return writer;
+    }
+
     /**************************************************************************
     * Each class contains a Tester inner class with a main() for easier
     * unit testing.  To call main from the command line, use:
@@ -1033,6 +2394,28 @@ public class XMLUtil
             return dom;
         }
 
+        /**********************************************************************
+        * Recurse to the specified depth, and throw an Exception.
+        *@param  intDepth   Depth to recurse to.
+        *@param  strMessage Message of the Exception.
+        *@param  eCause     Cause of the Exception, or null.
+        *@throws Exception  Always.
+        **********************************************************************/
+        private static void recurse(int intDepth, 
+                                    String strMessage, 
+                                    Throwable eCause)
+                    throws Exception
+        {
+            if (intDepth > 0)
+            {
+                recurse(intDepth - 1, strMessage, eCause);
+                return;
+            }
+            Exception e = new Exception(strMessage);
+            e.initCause(eCause);
+            throw e;
+        }
+
         /**********************************************************************
         * Main testing method.
         *@param  args       Array of command line argument strings
@@ -1089,7 +2472,7 @@ public class XMLUtil
                 System.out.println ("--");
                 //-------------------------------------------------------------
                 dom = initDocument();
-                Node xmlA3b = XPathAPI.selectSingleNode(dom2, "//A3b");
+                Node xmlA3b = selectSingleNode(dom2, "//A3b");
                 insertBefore(xmlA, xmlA3b, xmlA4);
                 serialize(dom, System.out);
 
@@ -1100,6 +2483,43 @@ public class XMLUtil
                 //-------------------------------------------------------------
                 serialize(getSystemProperties(), System.out);
 
+                //-------------------------------------------------------------
+                System.out.println ("--");
+                System.out.println ("-- writeSystemProperties()");
+                System.out.println ("--");
+                //-------------------------------------------------------------
+                String strProps1 = writeSystemProperties
+                                        (new StringWriter()).toString();
+                String strProps2 = writeSystemProperties
+                                        (new StringWriter()).toString();
+                System.out.println ("Same as DOM (true) = " 
+                    + serialize(getSystemProperties(), blnCOMPACT).equals
+                        (serialize(loadDocumentFromString(strProps1), 
+                                   blnCOMPACT)));
+                System.out.println ("Same until changed (true) = " 
+                                    + strProps1.equals(strProps2));
+                System.setProperty("XMLUtil.Tester", "a < b");
+                String strProps3 = writeSystemProperties
+                                        (new StringWriter()).toString();
+                System.out.println ("New property seen (true) = " 
+                                    + (strProps3.indexOf
+                                        ("<PropValue>a &lt; b</PropValue>") 
+                                       >= 0));
+                //-- Note:  "Aa" and "BB" have the same hash code.
+                System.setProperty("XMLUtil.Tester", "Aa");
+                writeSystemProperties(new StringWriter());
+                System.setProperty("XMLUtil.Tester", "BB");
+                System.out.println ("Value with same hash code seen (true) = "
+                                    + (writeSystemProperties
+                                            (new StringWriter()).toString()
+                                        .indexOf("<PropValue>BB</PropValue>") 
+                                       >= 0));
+                System.getProperties().remove("XMLUtil.Tester");
+                System.out.println ("Removed property seen (false) = " 
+                                    + (writeSystemProperties
+                                            (new StringWriter()).toString()
+                                        .indexOf("XMLUtil.Tester") >= 0));
+
                 //-------------------------------------------------------------
                 System.out.println ("--");
                 System.out.println ("-- Modify a text value in an XML tree.");
@@ -1109,6 +2529,45 @@ public class XMLUtil
                 setTextNodeValueViaXPath(dom, "//A1b", "A1b new value");
                 serialize(dom, System.out);
 
+                //-------------------------------------------------------------
+                System.out.println ("--");
+                System.out.println ("-- writeThrowableAsXML()");
+                System.out.println ("--");
+                //-------------------------------------------------------------
+                Throwable eThrown = null;
+                for (int i = 0; i < 5; i++)
+                {
+                    try
+                    {
+                        recurse(200 + i, (i == 0) ? "<A & B>" : "Level " + i, eThrown);
+                    }
+                    catch (Exception eCaught)
+                    {
+                        eThrown = eCaught;
+                    }
+                }
+                String strError = wrapThrowableInXMLString(eThrown, new Object());
+                Document domError = loadDocumentFromString(strError);
+                String strStackTrace = getTextNodeValueViaXPath
+                                            (domError, "/Error/StackTrace");
+                System.out.println ("Message (Level 4) = " 
+                        + getTextNodeValueViaXPath(domError, "/Error/Message"));
+                System.out.println ("Escaped message (true) = " 
+                        + (strStackTrace.indexOf("<A & B>") >= 0));
+                System.out.println ("Less than printStackTrace() (true) = " 
+                        + (strStackTrace.length() 
+                           < ExcUtil.getStackTrace(eThrown).length()));
+                System.out.println ("Capped frames (true) = " 
+                        + (strStackTrace.indexOf
+                            ("\t... " + (eThrown.getStackTrace().length - 
+                                         intDEFAULT_MAX_STACK_FRAMES) 
+                             + " more") >= 0));
+                strError = writeThrowableAsXML
+                                (eThrown, new Object(), new StringWriter(), 2, 3)
+                           .toString();
+                System.out.println ("Capped depth and frames: ");
+                System.out.println (strError);
+
                 System.out.println ("...End tests.");
 
                 //-------------------------------------------------------------
@@ -1126,6 +2585,206 @@ public class XMLUtil
                 setNodeValueViaXPath(dom3, "//B2/@attr1", "new");
                 serialize(dom3, System.out);
 
+                //-------------------------------------------------------------
+                System.out.println ("--");
+                System.out.println ("-- Cached XPaths.");
+                System.out.println ("--");
+                //-------------------------------------------------------------
+                dom = initDocument();
+                System.out.println ("Number of A4 children (3) = " 
+                            + selectNodeList(dom, "/A/A4/*").getLength());
+                System.out.println ("Missing node (null) = " 
+                            + selectSingleNode(dom, "/A/NoSuchNode"));
+                int intLookups = 100000;
+                long lngStart = System.nanoTime();
+                for (int i = 0; i < intLookups; i++)
+                {
+                    getTextNodeValueViaXPath(dom, "/A/A1/A1b");
+                }
+                System.out.println ("Microseconds per lookup of /A/A1/A1b = " 
+                            + (System.nanoTime() - lngStart) / 1000.0 
+                              / intLookups);
+                System.out.println ("Walked DOM directly (A4b value) = " 
+                            + getTextNodeValueViaXPath(dom, "/A/*[3]/A4b"));
+                System.out.println ("Walked DOM directly (A4c value) = " 
+                            + getTextNodeValueViaXPath(xmlA4, "../A4/*[3]"));
+                System.out.println ("Walked DOM directly (A1b value) = " 
+                            + getTextNodeValueViaXPath(xmlA, "//A1b"));
+                Document domN1 = loadDocumentFromString
+                                    ("<A><N/><B><N>Second N</N></B></A>");
+                System.out.println ("Skipped empty first N (Second N) = " 
+                            + getTextNodeValueViaXPath(domN1, "//N"));
+                Document domN2 = loadDocumentFromString
+                                    ("<A><N><N>Inner N</N>Outer N</N></A>");
+                System.out.println ("Document order (Inner N) = " 
+                            + getTextNodeValueViaXPath(domN2, "//N"));
+                //-- Note:  Insert the EntityReference explicitly, since not
+                //--        all parsers keep them.
+                Document domEntity = loadDocumentFromString
+                                    ("<!DOCTYPE A [<!ENTITY e 'ent'>]>"
+                                     + "<A><B>x</B></A>");
+                Node xmlB = domEntity.getDocumentElement().getFirstChild();
+                xmlB.insertBefore(domEntity.createEntityReference("e"), 
+                                  xmlB.getFirstChild());
+                String[] arrEntityXPaths = { "A/B", "/A/B", "//B", "B" };
+                for (int i = 0; i < arrEntityXPaths.length; i++)
+                {
+                    Node xmlFrom = (i == 3) 
+                                   ? domEntity.getDocumentElement() 
+                                   : domEntity;
+                    //-- Note:  A predicate keeps the XPath from being 
+                    //--        simple, so it is evaluated by the XPath 
+                    //--        engine.
+                    System.out.println ("Entity reference, " 
+                            + arrEntityXPaths[i] 
+                            + ", same as XPath engine (true) = " 
+                            + getTextNodeValueViaXPath
+                                        (xmlFrom, arrEntityXPaths[i])
+                                .equals(getTextNodeValueViaXPath
+                                        (xmlFrom, 
+                                         arrEntityXPaths[i] + "[true()]")));
+                }
+                try
+                {
+                    selectSingleNode(dom, "");
+                    System.out.println ("Empty XPath: Failure!");
+                }
+                catch (TransformerException e)
+                {
+                    System.out.println ("Empty XPath: Success!");
+                }
+                Element xmlDetached = dom.createElement("Y");
+                xmlDetached.appendChild(dom.createElement("Z"));
+                System.out.println ("Absolute XPath in detached tree (null) = " 
+                            + selectSingleNode(xmlDetached, "/Y"));
+                ((Element)xmlA4).setAttribute("attr1", "attr1 value");
+                System.out.println ("Walked DOM directly (attr1 value) = " 
+                            + selectSingleNode(dom, "/A/A4/@attr1")
+                                                        .getNodeValue());
+                System.out.println ("XPath engine (A4c value) = " 
+                            + getTextNodeValueViaXPath
+                                        (dom, "/A/A4/*[last()]"));
+                Document dom4 = loadDocumentFromString
+                                    ("<p:A xmlns:p='urn:bristle:test'>" +
+                                       "<p:B>B value</p:B>" +
+                                     "</p:A>");
+                System.out.println ("Prefixed XPath (B value) = " 
+                            + getTextNodeValueViaXPath(dom4, "/p:A/p:B"));
+                Document dom5 = loadDocumentFromString
+                                    ("<p:A xmlns:p='urn:bristle:other'>" +
+                                       "<p:B>Other B value</p:B>" +
+                                     "</p:A>");
+                System.out.println ("Same prefix, other namespace" +
+                                    " (Other B value) = " 
+                            + getTextNodeValueViaXPath(dom5, "/p:A/p:B"));
+                System.out.println ("First namespace again (B value) = " 
+                            + getTextNodeValueViaXPath(dom4, "/p:A/p:B"));
+                try
+                {
+                    selectSingleNode(dom, "/A/[");
+                    System.out.println ("Invalid XPath: Failure!");
+                }
+                catch (TransformerException e)
+                {
+                    System.out.println ("Invalid XPath: Success!");
+                }
+
+                //-------------------------------------------------------------
+                System.out.println ("--");
+                System.out.println ("-- Pooled parsers.");
+                System.out.println ("--");
+                //-------------------------------------------------------------
+                try
+                {
+                    loadDocumentFromString("<A><B></A>");
+                    System.out.println ("Invalid XML: Failure!");
+                }
+                catch (SAXException e)
+                {
+                    System.out.println ("Invalid XML: Success!");
+                }
+                Document dom6 = loadDocumentFromString("<A><B>B1</B></A>");
+                Document dom7 = loadDocumentFromString("<A><B>B2</B></A>");
+                System.out.println ("Parser reused after error (B1 B2) = " 
+                            + getTextNodeValueViaXPath(dom6, "/A/B") + " "
+                            + getTextNodeValueViaXPath(dom7, "/A/B"));
+                String strDTD = "<!DOCTYPE A [<!ELEMENT A (B)>" 
+                                + "<!ELEMENT B (#PCDATA)>]>";
+                setGrammarCaching(true);
+                System.out.println ("Grammar caching (true) = " 
+                                    + getGrammarCaching());
+                Document dom8 = loadDocumentFromString
+                                        (strDTD + "<A><B>B3</B></A>");
+                clearGrammarCache();
+                Document dom9 = loadDocumentFromString
+                                        (strDTD + "<A><B>B4</B></A>");
+                setGrammarCaching(false);
+                System.out.println ("With grammar caching (B3 B4) = " 
+                            + getTextNodeValueViaXPath(dom8, "/A/B") + " "
+                            + getTextNodeValueViaXPath(dom9, "/A/B"));
+                int intParses = 10000;
+                lngStart = System.nanoTime();
+                for (int i = 0; i < intParses; i++)
+                {
+                    loadDocumentFromString("<A><B>B" + i + "</B></A>");
+                }
+                System.out.println ("Microseconds per small parse = " 
+                            + (System.nanoTime() - lngStart) / 1000.0 
+                              / intParses);
+
+                //-------------------------------------------------------------
+                System.out.println ("--");
+                System.out.println ("-- Reused and compact serializers.");
+                System.out.println ("--");
+                //-------------------------------------------------------------
+                dom = initDocument();
+                String strIndented = serialize(dom);
+                System.out.println ("Indented again (true) = " 
+                                    + strIndented.equals(serialize(dom)));
+                String strCompact = serialize(dom, blnCOMPACT);
+                System.out.println ("Compact:");
+                System.out.println (strCompact);
+                System.out.println ("Compact has no line breaks (true) = "
+                                    + (strCompact.indexOf('\n') < 0));
+                System.out.println ("Compact is shorter (true) = "
+                                    + (strCompact.length() 
+                                       < strIndented.length()));
+                setTextNodeValueViaXPath(dom, "/A/A1/A1a", "caf\u00e9");
+                ByteArrayOutputStream streamLatin1 = new ByteArrayOutputStream();
+                serialize(dom, streamLatin1, "ISO-8859-1", blnCOMPACT);
+                ByteArrayOutputStream streamUTF8 = new ByteArrayOutputStream();
+                serialize(xmlA, streamUTF8, null, blnCOMPACT);
+                String strLatin1 = streamLatin1.toString("ISO-8859-1");
+                int intDeclarationEnd = strLatin1.indexOf("?>") + 2;
+                System.out.println ("Declares its encoding (true) = "
+                                    + (strLatin1.startsWith("<?xml")
+                                       && strLatin1.substring
+                                                (0, intDeclarationEnd)
+                                            .indexOf("ISO-8859-1") > 0));
+                String strLatin1Body = strLatin1.substring(intDeclarationEnd)
+                                                .trim();
+                System.out.println ("UTF-8 is 1 byte longer (true) = "
+                                    + (streamUTF8.size() 
+                                       == strLatin1Body.getBytes("ISO-8859-1")
+                                                       .length + 1));
+                System.out.println ("Decodes to same XML (true) = "
+                                    + strLatin1Body
+                                        .equals(streamUTF8.toString("UTF-8")));
+                try
+                {
+                    serialize(xmlA.getFirstChild().getFirstChild()
+                                                  .getFirstChild(),
+                              blnCOMPACT);
+                    System.out.println ("Serialize Text node: Failure!");
+                }
+                catch (IOException e)
+                {
+                    System.out.println ("Serialize Text node: Success!");
+                }
+                System.out.println ("Reused after failure (true) = " 
+                                    + strIndented.equals
+                                        (serialize(initDocument())));
+
                 System.out.println ("...End tests.");
 
             }
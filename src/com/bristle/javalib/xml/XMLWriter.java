@@ -18,8 +18,10 @@ package com.bristle.javalib.xml;
 
 import com.bristle.javalib.log.Logger;
 
+import java.io.IOException;
 import java.io.Writer;
 import java.io.PrintWriter;
+import java.io.StringWriter;    //-- For Tester only.
 
 import org.apache.xml.serialize.LineSeparator;
 
@@ -37,12 +39,31 @@ import org.apache.xml.serialize.LineSeparator;
 *       writer.writeStartTag("abcd");
 *       writer.write("some text in the abcd tag");
 *       writer.writeEndTag("abcd");
+*
+*   - To write a large stream of XML efficiently, buffer it, and flush
+*     it when done:
+*       XMLWriter writer = new XMLWriter
+*                   (writerOut, XMLWriter.intDEFAULT_BUFFER_SIZE);
+*       ...
+*       writer.flush();
 * <b>Assumptions:</b>
 * <b>Effects:</b>
 *       - None.
 * <b>Anticipated Changes:</b>
 * <b>Notes:</b>
+*       - By default, the XMLWriter is unbuffered, and flushes the Writer
+*         after each write() or writeln(), so that each line appears 
+*         immediately.  This is appropriate for interactive progress
+*         output, but slow for large streams of XML, where each flush 
+*         can be a separate tiny write to a socket.
+*       - When buffered, the XMLWriter collects the XML in a buffer, and
+*         writes it to the Writer, and flushes the Writer, only when the 
+*         buffer is full, when flush() is called, and when 
+*         logProgressAndCheckError() checks for errors.  The caller must
+*         call flush() after writing the last of the XML.
 * <b>Implementation Notes:</b>
+*       - The buffer size is in chars, not bytes, since the XMLWriter does
+*         not know the encoding used by the Writer.
 * <b>Portability Issues:</b>
 * <b>Revision History:</b>
 *   $Log$
@@ -57,11 +78,13 @@ public class XMLWriter
     //--
     //-- Instance variables to support public properties
     //--
+    private int    m_intBufferSize = intUNBUFFERED;
 
     //--
     //-- Internal instance variables
     //--
     private Writer m_writer     = null;
+    private Writer m_out        = null;
     private String m_strNewLine = LineSeparator.Windows;
 
     //--
@@ -69,6 +92,99 @@ public class XMLWriter
     //--
     public static final boolean m_blnFORCE_LOG  = true;
     public static final boolean blnWITH_NEWLINE = true;
+    public static final int     intUNBUFFERED           = 0;
+    public static final int     intDEFAULT_BUFFER_SIZE  = 8192;
+
+    /**************************************************************************
+    * This class is a Writer that collects chars in a buffer, and writes 
+    * them to the nested Writer, and flushes it, only when the buffer is 
+    * full or when flushed explicitly.  Unlike java.io.BufferedWriter, it
+    * flushes the nested Writer each time it writes to it, so that the 
+    * chars reach their final destination in chunks of the buffer size.
+    **************************************************************************/
+    private static class BufferingWriter extends Writer
+    {
+        private final Writer m_writer;
+        private final char[] m_arrBuffer;
+        private int          m_intCount = 0;
+
+        private BufferingWriter(Writer writer, int intBufferSize)
+        {
+            m_writer    = writer;
+            m_arrBuffer = new char[intBufferSize];
+        }
+
+        private void writeBuffer()
+                     throws IOException
+        {
+            if (m_intCount > 0)
+            {
+                m_writer.write(m_arrBuffer, 0, m_intCount);
+                m_intCount = 0;
+            }
+        }
+
+        private void makeRoom(int intLength)
+                     throws IOException
+        {
+            if (m_intCount + intLength > m_arrBuffer.length)
+            {
+                flush();
+            }
+        }
+
+        public void write(int intChar)
+                    throws IOException
+        {
+            makeRoom(1);
+            m_arrBuffer[m_intCount++] = (char)intChar;
+        }
+
+        public void write(char[] arrChars, int intOffset, int intLength)
+                    throws IOException
+        {
+            makeRoom(intLength);
+            if (intLength > m_arrBuffer.length)
+            {
+                m_writer.write(arrChars, intOffset, intLength);
+                m_writer.flush();
+                return;
+            }
+            System.arraycopy(arrChars, intOffset, 
+                             m_arrBuffer, m_intCount, 
+                             intLength);
+            m_intCount += intLength;
+        }
+
+        public void write(String str, int intOffset, int intLength)
+                    throws IOException
+        {
+            makeRoom(intLength);
+            if (intLength > m_arrBuffer.length)
+            {
+                m_writer.write(str, intOffset, intLength);
+                m_writer.flush();
+                return;
+            }
+            str.getChars(intOffset, intOffset + intLength, 
+                         m_arrBuffer, m_intCount);
+            m_intCount += intLength;
+        }
+
+        public void flush()
+                    throws IOException
+        {
+            writeBuffer();
+            m_writer.flush();
+        }
+
+        public void close()
+                    throws IOException
+        {
+            flush();
+            m_writer.close();
+        }
+    }
 
     /**************************************************************************
     * Constructor.
@@ -77,6 +193,62 @@ public class XMLWriter
     public XMLWriter(Writer writer)
     {
         m_writer = writer;
+        m_out    = writer;
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  writer         The Writer to write the XML to.
+    *@param  intBufferSize  The number of chars to buffer before writing 
+    *                       them to the Writer, or intUNBUFFERED.
+    **************************************************************************/
+    public XMLWriter(Writer writer, int intBufferSize)
+    {
+        this(writer);
+        if (intBufferSize > 0)
+        {
+            m_intBufferSize = intBufferSize;
+            m_out = new BufferingWriter(writer, intBufferSize);
+        }
+    }
+
+    /**************************************************************************
+    * Set the number of chars to buffer before writing them to the Writer,
+    * flushing any chars already buffered.
+    * Default = intUNBUFFERED, meaning flush the Writer after each write() 
+    * or writeln().
+    *@param  intNew     The new value, or intUNBUFFERED.
+    *@throws java.io.IOException
+    *                   When an error occurs flushing to the Writer.
+    **************************************************************************/
+    public void setBufferSize(int intNew)
+                 throws java.io.IOException
+    {
+        flush();
+        m_intBufferSize = (intNew > 0) ? intNew : intUNBUFFERED;
+        m_out = (intNew > 0) 
+                ? new BufferingWriter(m_writer, intNew)
+                : m_writer;
+    }
+
+    /**************************************************************************
+    * Get the number of chars buffered before writing them to the Writer.
+    *@return            The buffer size, or intUNBUFFERED.
+    **************************************************************************/
+    public int getBufferSize()
+    {
+        return m_intBufferSize;
+    }
+
+    /**************************************************************************
+    * Write any buffered chars to the Writer, and flush the Writer.
+    *@throws java.io.IOException
+    *                   When an error occurs writing to the Writer.
+    **************************************************************************/
+    public void flush()
+                 throws java.io.IOException
+    {
+        m_out.flush();
     }
 
     /**************************************************************************
@@ -101,6 +273,32 @@ public class XMLWriter
         return m_strNewLine;
     }
 
+    /**************************************************************************
+    * Get the Writer that all output of this XMLWriter goes to, which is 
+    * the internal buffer, if buffered.  For use by subclasses that write
+    * output of their own.
+    *@return            The Writer.
+    **************************************************************************/
+    protected Writer getOutputWriter()
+    {
+        return m_out;
+    }
+
+    /**************************************************************************
+    * Flush the Writer if unbuffered, as done after each write().  For use
+    * by subclasses that write output of their own.
+    *@throws java.io.IOException
+    *                   When an error occurs flushing the Writer.
+    **************************************************************************/
+    protected void flushIfUnbuffered()
+                 throws java.io.IOException
+    {
+        if (m_intBufferSize == intUNBUFFERED)
+        {
+            m_writer.flush();
+        }
+    }
+
     /**************************************************************************
     * Write the line of text to the Writer.
     *@param  strText    String of text.
@@ -110,13 +308,14 @@ public class XMLWriter
     public void write(String strText)
                  throws java.io.IOException
     {
-        m_writer.write(strText);
-        //?? Delete the flush() call?  Is it needed for anything?
-        //?? Doing a flush() for every write() is slow.  A simple test
-        //?? case with a tight loop writing "x" then calling flush() 
-        //?? runs 100 times faster without the flush() calls, when 
-        //?? called by a Web server to write to a Web browser.
-        m_writer.flush();
+        m_out.write(strText);
+        //-- Note:  Doing a flush() for every write() is slow.  A simple test
+        //--        case with a tight loop writing "x" then calling flush() 
+        //--        runs 100 times faster without the flush() calls, when 
+        //--        called by a Web server to write to a Web browser.  
+        //--        Therefore, flush() only when unbuffered, so that 
+        //--        interactive progress output appears immediately.
+        flushIfUnbuffered();
     }
 
     /**************************************************************************
@@ -155,7 +354,7 @@ public class XMLWriter
     public void writeStartTag(String strTag, boolean blnNewLine)
                  throws java.io.IOException
     {
-        XMLUtil.writeStartTag(m_writer, strTag);
+        XMLUtil.writeStartTag(m_out, strTag);
         if (blnNewLine)
         {
             writeln();
@@ -191,7 +390,7 @@ public class XMLWriter
                                            boolean blnNewLine)
                  throws java.io.IOException
     {
-        XMLUtil.writeStartTagAndAttributes(m_writer, strTag, strAttributes);
+        XMLUtil.writeStartTagAndAttributes(m_out, strTag, strAttributes);
         if (blnNewLine)
         {
             writeln();
@@ -226,7 +425,7 @@ public class XMLWriter
     public void writeEndTag(String strTag, boolean blnNewLine)
                  throws java.io.IOException
     {
-        XMLUtil.writeEndTag(m_writer, strTag);
+        XMLUtil.writeEndTag(m_out, strTag);
         if (blnNewLine)
         {
             writeln();
@@ -284,6 +483,7 @@ public class XMLWriter
 
     /**************************************************************************
     * Check for errors in the nested Writer, if it's a PrintWriter.
+    * Any buffered chars are not checked until written to the Writer.
     *@return            True if errors have occurred;
     *                   False if no errors, or the nested Writer is not 
     *                   a PrintWriter.
@@ -360,10 +560,23 @@ public class XMLWriter
         //--        - The user moves to a different Web page.
         //--        - The user closes the browser.
         //--        - The browser crashes.
+        //--        When buffered, flush first, so that errors writing the 
+        //--        buffered chars are detected, and so that the buffered 
+        //--        chars are sent at least this often.
         final int intCHECK_ERROR_FREQUENCY = 100;
         if (intCount % intCHECK_ERROR_FREQUENCY == 0)
-        if (intCount % 100 == 0)
         {
+            if (m_intBufferSize != intUNBUFFERED)
+            {
+                try
+                {
+                    flush();
+                }
+                catch (IOException e)
+                {
+                    return true;
+                }
+            }
             if (checkError())
             {
                 return true;
@@ -410,6 +623,52 @@ public class XMLWriter
             try
             {
                 System.out.println ("Begin tests...");
+
+                final int[] arrFlushes = new int[1];
+                StringWriter writerStrict = new StringWriter()
+                {
+                    public void flush() { arrFlushes[0]++; }
+                };
+                XMLWriter writer = new XMLWriter(writerStrict);
+                arrFlushes[0] = 0;
+                for (int i = 0; i < 1000; i++)
+                {
+                    writer.writeTagAndValue("Row", "Value " + i);
+                }
+                int intStrictFlushes = arrFlushes[0];
+                System.out.println ("Unbuffered flushes (2000) = " 
+                                    + intStrictFlushes);
+
+                StringWriter writerBuffered = new StringWriter()
+                {
+                    public void flush() { arrFlushes[0]++; }
+                };
+                writer = new XMLWriter(writerBuffered, 1024);
+                arrFlushes[0] = 0;
+                for (int i = 0; i < 1000; i++)
+                {
+                    writer.writeTagAndValue("Row", "Value " + i);
+                }
+                int intLength = writerStrict.getBuffer().length();
+                System.out.println ("Last chars still buffered (true) = "
+                        + (writerBuffered.getBuffer().length() < intLength));
+                writer.flush();
+                System.out.println ("One flush per 1024 chars (true) = " 
+                        + (arrFlushes[0] == (intLength + 1023) / 1024));
+                System.out.println ("Same output (true) = " 
+                                    + writerStrict.toString().equals
+                                            (writerBuffered.toString()));
+
+                writer.setBufferSize(intDEFAULT_BUFFER_SIZE);
+                writer.writeTagAndValue("Row", "Last");
+                writer.logProgressAndCheckError(null, 100);
+                System.out.println ("Flushed at checkpoint (true) = " 
+                        + writerBuffered.toString().endsWith
+                                ("<Row>Last</Row>" + LineSeparator.Windows));
+                writer.setBufferSize(intUNBUFFERED);
+                System.out.println ("Unbuffered again (0) = " 
+                                    + writer.getBufferSize());
+
                 System.out.println ("...End tests.");
             }
             catch (Throwable e)
@@ -0,0 +1,600 @@
+// Copyright (C) 2005-2012 Bristle Software, Inc.
+// 
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 1, or (at your option)
+// any later version.
+// 
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with this program; if not, write to the Free Software
+// Foundation, Inc.
+
+package com.bristle.javalib.xml;
+
+import com.bristle.javalib.io.FileTreeIterator;
+import com.bristle.javalib.io.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import java.io.FileWriter;                              //-- For Tester only.
+import java.util.Set;                                   //-- For Tester only.
+
+// XSLBatchTransformer
+/******************************************************************************
+* This class applies one XSL transformation to all of the XML files in a
+* directory tree, in parallel, writing the generated XML to files of the
+* same names in another directory tree.
+*<pre>
+*<b>Usage:</b>
+*   - The typical scenario for using this class is:
+*       XSLBatchTransformer batch = new XSLBatchTransformer
+*                                       ("file:///my/xsl/convert.xsl");
+*       XSLBatchTransformer.Report report = batch.transformTree
+*                                       ("/my/input", "/my/output");
+*       System.out.println(report);
+*       for (Iterator i = report.getFailures().entrySet().iterator();
+*            i.hasNext(); )
+*       {
+*           Map.Entry entry = (Map.Entry)i.next();
+*           File      file  = (File)entry.getKey();
+*           Throwable e     = (Throwable)entry.getValue();
+*           ...
+*       }
+*
+*   - To control the number of threads, the files transformed, and the
+*     values of the xsl:param parameters of the XSL:
+*       batch.setThreadCount(8);
+*       batch.setFilenameFilter
+*               (new FileUtil.ExtensionFilenameFilter("xml,xhtml"));
+*       batch.setParameters(mapParams);
+*
+*   - See the source code of the inner Tester class for more examples.
+*
+*<b>Assumptions:</b>
+*       - The input and output directory trees do not overlap.
+*<b>Effects:</b>
+*       - Creates and overwrites files and directories in the output
+*         directory tree.
+*<b>Anticipated Changes:</b>
+*<b>Notes:</b>
+*       - A file that can't be transformed is reported as a failure, and
+*         the other files are still transformed.  Its output file, if
+*         partly written, is deleted.
+*       - By default, uses one thread per available processor, and
+*         transforms only files with the extension ".xml".
+*<b>Implementation Notes:</b>
+*       - The XSL is compiled once, into a Templates object.  Each thread
+*         reuses its own Transformer for all of the files it transforms,
+*         via XSLUtil.transform().
+*       - Each file is streamed from its input file to its output file,
+*         with no DOM.
+*       - The output path of each file is its path relative to the 
+*         canonical input directory, so the input directory can be 
+*         specified in any form, with or without a trailing separator.
+*       - The files are found via a FileTreeIterator, and handed to a fixed
+*         pool of threads via a queue that holds only a few files per
+*         thread.  When the queue is full, the calling thread transforms
+*         the next file itself, so it never gets far ahead of the pool.
+*<b>Portability Issues:</b>
+*<b>Revision History:</b>
+*   $Log$
+*</pre>
+******************************************************************************/
+public class XSLBatchTransformer
+{
+    //--
+    //-- Class variables
+    //--
+
+    //--
+    //-- Instance variables to support public properties
+    //--
+    private int            m_intThreadCount
+                                = Runtime.getRuntime().availableProcessors();
+    private FilenameFilter m_filenameFilter
+                                = new FileUtil.ExtensionFilenameFilter("xml");
+    private Map            m_mapParams = null;
+
+    //--
+    //-- Internal instance variables
+    //--
+    private final Templates m_templates;
+
+    //--
+    //-- Local constants
+    //--
+    private static final int intQUEUED_FILES_PER_THREAD = 4;
+
+    /**************************************************************************
+    * This class is the report of the results of a batch of transformations.
+    **************************************************************************/
+    public static class Report
+    {
+        private final AtomicInteger m_intSucceeded  = new AtomicInteger();
+        private final AtomicInteger m_intFailed     = new AtomicInteger();
+        private final Map           m_mapFailures
+                            = Collections.synchronizedMap(new TreeMap());
+        private long                m_lngElapsedMillis = 0;
+
+        /**********************************************************************
+        * Get the number of files transformed successfully.
+        *@return            The number of files.
+        **********************************************************************/
+        public int getSucceededCount()
+        {
+            return m_intSucceeded.get();
+        }
+
+        /**********************************************************************
+        * Get the number of files that could not be transformed.
+        *@return            The number of files.
+        **********************************************************************/
+        public int getFailedCount()
+        {
+            return m_intFailed.get();
+        }
+
+        /**********************************************************************
+        * Get the number of files processed, successfully or not.
+        *@return            The number of files.
+        **********************************************************************/
+        public int getFileCount()
+        {
+            return getSucceededCount() + getFailedCount();
+        }
+
+        /**********************************************************************
+        * Get the files that could not be transformed.
+        *@return            Map from each input File to the Throwable that
+        *                   prevented its transformation, sorted by File.
+        **********************************************************************/
+        public Map getFailures()
+        {
+            return m_mapFailures;
+        }
+
+        /**********************************************************************
+        * Get the elapsed time of the batch.
+        *@return            The elapsed time in milliseconds.
+        **********************************************************************/
+        public long getElapsedMillis()
+        {
+            return m_lngElapsedMillis;
+        }
+
+        /**********************************************************************
+        * Get the throughput of the batch.
+        *@return            The number of files processed per second.
+        **********************************************************************/
+        public double getFilesPerSecond()
+        {
+            return getFileCount() * 1000.0 / Math.max(1, m_lngElapsedMillis);
+        }
+
+        /**********************************************************************
+        * Get a one-line summary of the report.
+        *@return            The summary.
+        **********************************************************************/
+        public String toString()
+        {
+            return getFileCount() + " files (" + getSucceededCount()
+                   + " succeeded, " + getFailedCount() + " failed) in "
+                   + m_lngElapsedMillis + " ms ("
+                   + Math.round(getFilesPerSecond()) + " files/sec)";
+        }
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  templates  Compiled XSL transformation
+    **************************************************************************/
+    public XSLBatchTransformer(Templates templates)
+    {
+        m_templates = templates;
+    }
+
+    /**************************************************************************
+    * Constructor.
+    *@param  strXSLURL  URL of the XSL transformation
+    *@throws TransformerConfigurationException
+    *                   When the XSL cannot be compiled.
+    **************************************************************************/
+    public XSLBatchTransformer(String strXSLURL)
+                 throws TransformerConfigurationException
+    {
+        this(XSLUtil.getTemplatesFromURL(strXSLURL));
+    }
+
+    /**************************************************************************
+    * Set the number of threads.
+    * Default = the number of available processors.
+    *@param  intNew     The new value.  1 to transform the files one at a
+    *                   time, in the calling thread.
+    **************************************************************************/
+    public void setThreadCount(int intNew)
+    {
+        m_intThreadCount = Math.max(1, intNew);
+    }
+
+    /**************************************************************************
+    * Get the number of threads.
+    *@return            The number of threads.
+    **************************************************************************/
+    public int getThreadCount()
+    {
+        return m_intThreadCount;
+    }
+
+    /**************************************************************************
+    * Set the filter that selects the files to transform.
+    * Default = files with the extension ".xml".
+    *@param  filterNew  The new value, or null for all files.
+    **************************************************************************/
+    public void setFilenameFilter(FilenameFilter filterNew)
+    {
+        m_filenameFilter = filterNew;
+    }
+
+    /**************************************************************************
+    * Get the filter that selects the files to transform.
+    *@return            The FilenameFilter, or null for all files.
+    **************************************************************************/
+    public FilenameFilter getFilenameFilter()
+    {
+        return m_filenameFilter;
+    }
+
+    /**************************************************************************
+    * Set the values of the xsl:param parameters of the XSL.
+    * Default = null.
+    *@param  mapNew     Map from parameter names to values, or null.
+    **************************************************************************/
+    public void setParameters(Map mapNew)
+    {
+        m_mapParams = mapNew;
+    }
+
+    /**************************************************************************
+    * Get the values of the xsl:param parameters of the XSL.
+    *@return            Map from parameter names to values, or null.
+    **************************************************************************/
+    public Map getParameters()
+    {
+        return m_mapParams;
+    }
+
+    /**************************************************************************
+    * Transform one file, streaming it from the input file to the output
+    * file, and creating the directory of the output file if necessary.
+    *@param  fileIn     The input file.
+    *@param  fileOut    The output file.
+    *@throws Exception  When the file can't be transformed.
+    **************************************************************************/
+    public void transformFile(File fileIn, File fileOut)
+                 throws Exception
+    {
+        File fileOutDir = fileOut.getParentFile();
+        if (fileOutDir != null && !fileOutDir.isDirectory()
+            && !fileOutDir.mkdirs() && !fileOutDir.isDirectory())
+        {
+            throw new IOException("Unable to create directory " + fileOutDir);
+        }
+        InputStream  in  = new BufferedInputStream(new FileInputStream(fileIn));
+        OutputStream out = null;
+        boolean      blnSucceeded = false;
+        try
+        {
+            out = new BufferedOutputStream(new FileOutputStream(fileOut));
+            StreamSource source = new StreamSource(in);
+            source.setSystemId(fileIn);
+            XSLUtil.transform(source,
+                              m_templates,
+                              m_mapParams,
+                              new StreamResult(out));
+            out.close();
+            out = null;
+            blnSucceeded = true;
+        }
+        finally
+        {
+            in.close();
+            if (out != null)
+            {
+                try
+                {
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                    //-- Report the original exception instead.
+                }
+            }
+            if (!blnSucceeded)
+            {
+                fileOut.delete();
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Transform one file, recording the result in the Report.
+    *@param  fileIn     The input file.
+    *@param  fileOut    The output file.
+    *@param  report     The Report.
+    **************************************************************************/
+    private void transformFile(File fileIn, File fileOut, Report report)
+    {
+        try
+        {
+            transformFile(fileIn, fileOut);
+            report.m_intSucceeded.incrementAndGet();
+        }
+        catch (Throwable e)
+        {
+            report.m_mapFailures.put(fileIn, e);
+            report.m_intFailed.incrementAndGet();
+        }
+    }
+
+    /**************************************************************************
+    * Transform all of the selected files in the input directory tree,
+    * writing the output files to the same relative paths in the output
+    * directory tree.
+    *@param  strInputDir    Name of the input directory.
+    *@param  strOutputDir   Name of the output directory.
+    *@return                The Report of the results.
+    *@throws IOException    When the name of the input directory can't be
+    *                       resolved.
+    *@throws InterruptedException
+    *                       When interrupted while waiting for the threads
+    *                       to finish.
+    **************************************************************************/
+    public Report transformTree(String strInputDir, String strOutputDir)
+                 throws IOException,
+                        InterruptedException
+    {
+        //-- Iterate from the canonical name of the input directory, so that
+        //-- the path of each file, relative to it, is found by removing 
+        //-- a known prefix, however the name was specified.
+        String strCanonicalInputDir = new File(strInputDir).getCanonicalPath();
+        int    intPrefixLength      = strCanonicalInputDir.length();
+        if (!strCanonicalInputDir.endsWith(File.separator))
+        {
+            intPrefixLength++;
+        }
+        File   fileOutputDir        = new File(strOutputDir);
+
+        final Report report = new Report();
+        long lngStart = System.currentTimeMillis();
+        ThreadPoolExecutor executor = null;
+        if (m_intThreadCount > 1)
+        {
+            executor = new ThreadPoolExecutor
+                    (m_intThreadCount,
+                     m_intThreadCount,
+                     0L,
+                     TimeUnit.MILLISECONDS,
+                     new ArrayBlockingQueue
+                            (m_intThreadCount * intQUEUED_FILES_PER_THREAD),
+                     new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        try
+        {
+            for (Iterator i = new FileTreeIterator(strCanonicalInputDir);
+                 i.hasNext(); )
+            {
+                final File fileIn = (File)i.next();
+                if (fileIn.isDirectory()
+                    || (m_filenameFilter != null
+                        && !m_filenameFilter.accept(fileIn.getParentFile(),
+                                                    fileIn.getName())))
+                {
+                    continue;
+                }
+                //-- FileTreeIterator returns the paths of the files starting
+                //-- with the name of the input directory and a separator.
+                final File fileOut = new File
+                        (fileOutputDir,
+                         fileIn.getPath().substring(intPrefixLength));
+                if (executor == null)
+                {
+                    transformFile(fileIn, fileOut, report);
+                }
+                else
+                {
+                    executor.execute(new Runnable()
+                    {
+                        public void run()
+                        {
+                            transformFile(fileIn, fileOut, report);
+                        }
+                    });
+                }
+            }
+        }
+        finally
+        {
+            if (executor != null)
+            {
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            report.m_lngElapsedMillis = System.currentTimeMillis() - lngStart;
+        }
+        return report;
+    }
+
+    /**************************************************************************
+    * Each class contains a Tester inner class with a main() for easier
+    * unit testing.  To call main from the command line, use:
+    * <pre>
+    *   java class$Tester
+    *</pre>
+    * where "class" is the name of the outer class.
+    **************************************************************************/
+    public static class Tester
+    {
+        /**********************************************************************
+        * Write the string to the file.
+        *@param  file       The file.
+        *@param  str        The string.
+        *@throws IOException    When an error occurs writing the file.
+        **********************************************************************/
+        private static void writeFile(File file, String str)
+                    throws IOException
+        {
+            file.getParentFile().mkdirs();
+            FileWriter writer = new FileWriter(file);
+            writer.write(str);
+            writer.close();
+        }
+
+        /**********************************************************************
+        * Get the names of the files.
+        *@param  setFiles   The files.
+        *@return            The names, as a String like "[a.xml, b.xml]".
+        **********************************************************************/
+        private static String getNames(Set setFiles)
+        {
+            StringBuffer sb = new StringBuffer("[");
+            synchronized (setFiles)
+            {
+                for (Iterator i = setFiles.iterator(); i.hasNext(); )
+                {
+                    sb.append(((File)i.next()).getName());
+                    sb.append(i.hasNext() ? ", " : "");
+                }
+            }
+            return sb.append("]").toString();
+        }
+
+        /**********************************************************************
+        * Delete the directory tree.
+        *@param  file       The directory.
+        **********************************************************************/
+        private static void deleteTree(File file)
+        {
+            File[] arrFiles = file.listFiles();
+            for (int i = 0; arrFiles != null && i < arrFiles.length; i++)
+            {
+                deleteTree(arrFiles[i]);
+            }
+            file.delete();
+        }
+
+        /**********************************************************************
+        * Main testing method.
+        *@param  args       Array of command line argument strings
+        **********************************************************************/
+        public static void main(String[] args)
+        {
+            try
+            {
+                System.out.println ("Begin tests...");
+
+                File fileTemp = File.createTempFile("XSLBatchTransformer", "");
+                fileTemp.delete();
+                String strInputDir  = fileTemp.getPath() + File.separator + "in";
+                String strOutputDir = fileTemp.getPath() + File.separator + "out";
+                int intFiles = 500;
+                for (int i = 0; i < intFiles; i++)
+                {
+                    writeFile(new File(strInputDir + File.separator
+                                       + "dir" + (i % 5) + File.separator
+                                       + "file" + i + ".xml"),
+                              "<A><B>" + i + "</B></A>");
+                }
+                writeFile(new File(strInputDir + File.separator + "bad.xml"),
+                          "<A><B></A>");
+                writeFile(new File(strInputDir + File.separator + "skip.txt"),
+                          "Not XML");
+
+                XSLBatchTransformer batch = new XSLBatchTransformer
+                        (XSLUtil.getTemplatesFromString
+                            ("<xsl:stylesheet version='1.0'"
+                             + " xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+                             + "<xsl:param name='prefix'/>"
+                             + "<xsl:output omit-xml-declaration='yes'/>"
+                             + "<xsl:template match='/'>"
+                             + "<C><xsl:value-of select='$prefix'/>"
+                             + "<xsl:value-of select='A/B'/></C>"
+                             + "</xsl:template>"
+                             + "</xsl:stylesheet>"));
+                Map mapParams = new TreeMap();
+                mapParams.put("prefix", "Value ");
+                batch.setParameters(mapParams);
+                batch.setThreadCount(4);
+                Report report = batch.transformTree(strInputDir, strOutputDir);
+                System.out.println ("Report = " + report);
+                System.out.println ("Succeeded (" + intFiles + ") = "
+                                    + report.getSucceededCount());
+                System.out.println ("Failed (1) = " + report.getFailedCount());
+                System.out.println ("Failed file ([bad.xml]) = "
+                        + getNames(report.getFailures().keySet()));
+                File fileOut = new File(strOutputDir + File.separator + "dir2"
+                                        + File.separator + "file7.xml");
+                System.out.println ("Output file (<C>Value 7</C>) = "
+                        + FileUtil.getTextFileContents(fileOut.getPath()));
+                System.out.println ("No output for bad file (false) = "
+                        + new File(strOutputDir + File.separator
+                                   + "bad.xml").exists());
+                System.out.println ("Skipped other files (false) = "
+                        + new File(strOutputDir + File.separator
+                                   + "skip.txt").exists());
+
+                batch.setThreadCount(1);
+                report = batch.transformTree(strInputDir, strOutputDir);
+                System.out.println ("Single thread = " + report);
+
+                //-- Input directory with a trailing separator, and not in
+                //-- canonical form.
+                String strOutputDir2 = fileTemp.getPath() + File.separator
+                                       + "out2";
+                report = batch.transformTree
+                                (strInputDir + File.separator + "dir2"
+                                 + File.separator + ".." + File.separator,
+                                 strOutputDir2);
+                System.out.println ("Other spelling, failed (1) = "
+                                    + report.getFailedCount());
+                System.out.println ("Output in output directory (true) = "
+                        + new File(strOutputDir2 + File.separator + "dir2"
+                                   + File.separator + "file7.xml").exists());
+
+                deleteTree(fileTemp);
+
+                System.out.println ("...End tests.");
+            }
+            catch (Throwable e)
+            {
+                System.out.println("Error in main(): ");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -18,18 +18,37 @@ package com.bristle.javalib.xml;
 
 import org.w3c.dom.Node;
 import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
 import org.xml.sax.SAXException;
 
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Source;
+import javax.xml.transform.Result;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerConfigurationException;
 
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamSource;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.bristle.javalib.util.ObjUtil;
+import javax.xml.transform.stream.StreamResult;     //-- For Tester only.
+import java.io.StringWriter;                        //-- For Tester only.
 
 // XSLUtil
 /******************************************************************************
@@ -41,6 +60,32 @@ import com.bristle.javalib.util.ObjUtil;
 *     - To apply an XSL transformation to an XML tree:
 *           xmlXML2 = XSLUtil.transform(xmlXML1, xmlXSL);
 *
+*     - To apply the same XSL transformation to many XML trees, without
+*       even looking it up in the cache of compiled stylesheets each time:
+*           Templates templates = XSLUtil.getTemplates(xmlXSL);
+*           xmlXML2 = XSLUtil.transform(xmlXML1, templates);
+*           xmlXML4 = XSLUtil.transform(xmlXML3, templates);
+*
+*     - To get a compiled stylesheet from a string or from a URL:
+*           Templates templates = XSLUtil.getTemplatesFromString(strXSL);
+*           Templates templates = XSLUtil.getTemplatesFromURL
+*                                       ("file:/my/xsl/file.xsl");
+*
+*     - To transform a large XML file to another file, without loading 
+*       either into a DOM:
+*           XSLUtil.transform(new StreamSource("/my/xml/in.xml"),
+*                             templates,
+*                             new StreamResult("/my/xml/out.xml"));
+*
+*     - To apply several XSL transformations in sequence, streaming the 
+*       output of each to the next, with no intermediate DOM or file:
+*           XSLUtil.transform(new StreamSource("/my/xml/in.xml"),
+*                             new Templates[] {templates1, templates2},
+*                             new StreamResult("/my/xml/out.xml"));
+*
+*       Any type of Source and Result can be used, including SAXSource, 
+*       SAXResult, and, with Java 6 or later, StAXSource and StAXResult.
+*
 *     - To copy an XML tree:   
 *           xml2 = XSLUtil.copy(xml1);
 *
@@ -225,7 +270,44 @@ import com.bristle.javalib.util.ObjUtil;
 *           Node        Could be any of the above, or an XML attribute, CDATA,
 *                       comment, document type, entity, etc.
 *         See the org.w3c.dom.Node documentation for details.            
+*       - Compiled stylesheets are cached, so each stylesheet is compiled
+*         only once, no matter how many times it is used.  The cache holds
+*         the intDEFAULT_TEMPLATES_CACHE_SIZE most recently used stylesheets,
+*         by default.  See setTemplatesCacheSize() and clearTemplatesCache().
+*       - A stylesheet specified as a Node is cached by its content, so it
+*         can be modified or re-created between transformations.
+*         A stylesheet specified as a URL is cached by the URL, so changes
+*         to its content are not seen until it is evicted from the cache
+*         or the cache is cleared.
+*       - The stylesheets used by copy(), stripComments() and sortElements()
+*         are compiled only once.  sortElements() compiles one stylesheet 
+*         for each combination of parent and sort key XPaths, and passes
+*         the data type, order and case order to it as parameters.
+*       - ElementSorter sorts Elements directly in the DOM, without XSL,
+*         which is faster than sortElements(), especially in place.
+*       - The transformations that take a Source and Result, rather than a
+*         Node, never build a DOM of the input or output.  However, the XSL
+*         processor still builds its own internal read-only tree of the
+*         input of each transformation, since XSLT can select any node of
+*         the input at any time.  Such trees are typically much smaller 
+*         than a DOM of the same XML.
 *<b>Implementation Notes:</b>
+*       - Each thread keeps a Transformer for each of the stylesheets it
+*         most recently used, resetting and reusing it for the next
+*         transformation by the same stylesheet on the same thread, since a
+*         Transformer is not thread-safe, but a Templates is.
+*       - Each such Transformer is given an ErrorListener that rethrows 
+*         errors, so that an error in the input, like malformed XML, fails
+*         the transformation, even with XSL processors (like Xalan) that 
+*         would otherwise only report it.
+*       - The cache of compiled stylesheets is a LinkedHashMap in access
+*         order, evicting the least recently used stylesheet when full.
+*       - A stylesheet specified as a Node or a string is cached by a 
+*         SHA-256 digest of its content, so the cache holds no copy of 
+*         the content and compares keys of fixed size.
+*       - A single TransformerFactory is created and shared, rather than
+*         creating one for each transformation.  Its use is synchronized
+*         since it is not thread-safe.
 *<b>Portability Issues:</b>
 *<b>Revision History:</b>
 *   $Log$
@@ -233,9 +315,107 @@ import com.bristle.javalib.util.ObjUtil;
 ******************************************************************************/
 public class XSLUtil
 {
+    //--
+    //-- Constants for readability
+    //--
+
+    /**************************************************************************
+    * Default maximum number of compiled stylesheets to cache.
+    **************************************************************************/
+    public static final int intDEFAULT_TEMPLATES_CACHE_SIZE = 100;
+
     //--
     //-- Class variables
     //--
+    private static TransformerFactory st_factory = null;
+    private static Templates st_templatesIdentity = null;
+    private static Templates st_templatesStripComments = null;
+    private static int st_intTemplatesCacheSize = intDEFAULT_TEMPLATES_CACHE_SIZE;
+
+    /**************************************************************************
+    * ErrorListener that rethrows errors, since some XSL processors (like 
+    * Xalan) otherwise report errors in the input, like malformed XML, 
+    * without failing the transformation.  Warnings are ignored.
+    **************************************************************************/
+    private static final ErrorListener st_errorListenerRETHROW = 
+                                                        new ErrorListener()
+    {
+        public void warning(TransformerException e)
+        {
+        }
+        public void error(TransformerException e)
+                    throws TransformerException
+        {
+            throw e;
+        }
+        public void fatalError(TransformerException e)
+                    throws TransformerException
+        {
+            throw e;
+        }
+    };
+
+    /**************************************************************************
+    * MessageDigest used by each thread to digest the content of stylesheets
+    * into cache keys, or null if SHA-256 is not available.
+    **************************************************************************/
+    private static final ThreadLocal st_digest = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            try
+            {
+                return MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                return null;
+            }
+        }
+    };
+
+    /**************************************************************************
+    * Hex digits of the digests in cache keys.
+    **************************************************************************/
+    private static final char[] st_arrHexDigits 
+                                    = "0123456789abcdef".toCharArray();
+
+    /**************************************************************************
+    * Cache of compiled stylesheets, keyed by digest of content or by URL, 
+    * in least recently used order.
+    **************************************************************************/
+    private static final Map st_mapTemplates = new LinkedHashMap(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+        protected boolean removeEldestEntry(Map.Entry eldest)
+        {
+            return size() > st_intTemplatesCacheSize;
+        }
+    };
+
+    /**************************************************************************
+    * Map, for each thread, from the stylesheets it most recently used to
+    * the idle Transformer of each, in least recently used order.
+    **************************************************************************/
+    private static final ThreadLocal st_transformers = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new LinkedHashMap(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+                protected boolean removeEldestEntry(Map.Entry eldest)
+                {
+                    return size() > intMAX_TRANSFORMERS_PER_THREAD;
+                }
+            };
+        }
+    };
+
+    //--
+    //-- Local constants
+    //--
+    private static final int intMAX_TRANSFORMERS_PER_THREAD = 16;
 
     //--
     //-- Instance variables to support public properties
@@ -318,6 +498,27 @@ public class XSLUtil
                                 (getIdentityTransformationStylesheetString()); 
     }
 
+    /**************************************************************************
+    * Returns the identity transformation stylesheet, compiled.  It is 
+    * compiled only once, and shared by all callers.
+    * This stylesheet can be applied to an XML tree, causing all XML nodes
+    * to be copied unchanged. 
+    *@return The compiled XSL transformation stylesheet.
+    *@throws TransformerConfigurationException
+    *                       Should never happen, unless there is an error in
+    *                       this class.  
+    **************************************************************************/
+    public static synchronized Templates getIdentityTransformationTemplates()
+                            throws TransformerConfigurationException
+    {
+        if (st_templatesIdentity == null)
+        {
+            st_templatesIdentity = getTemplatesFromString
+                                (getIdentityTransformationStylesheetString()); 
+        }
+        return st_templatesIdentity;
+    }
+
     /**************************************************************************
     * Returns a "strip comments" transformation template as a string of XSL.
     * Unlike getStripCommentsTransformationStylesheetString(), this is not a 
@@ -374,6 +575,27 @@ public class XSLUtil
                             (getStripCommentsTransformationStylesheetString()); 
     }
 
+    /**************************************************************************
+    * Returns a "strip comments" transformation stylesheet, compiled.  It is 
+    * compiled only once, and shared by all callers.
+    * This stylesheet can be applied to an XML tree, causing all non-comment 
+    * XML nodes to be copied unchanged, but omitting comments. 
+    *@return The compiled XSL transformation stylesheet.
+    *@throws TransformerConfigurationException
+    *                       Should never happen, unless there is an error in
+    *                       this class.  
+    **************************************************************************/
+    public static synchronized Templates getStripCommentsTransformationTemplates()
+                            throws TransformerConfigurationException
+    {
+        if (st_templatesStripComments == null)
+        {
+            st_templatesStripComments = getTemplatesFromString
+                            (getStripCommentsTransformationStylesheetString()); 
+        }
+        return st_templatesStripComments;
+    }
+
     /**************************************************************************
     * This class represents an enumerated type that identifies data types to
     * sort by.  
@@ -601,6 +823,108 @@ public class XSLUtil
                              caseOrder));
     }
 
+    /**************************************************************************
+    * Returns a parameterized sort transformation stylesheet as a string of 
+    * XSL.  Unlike getSortElementsTransformationStylesheetString(), the data 
+    * type, order and case order of the sort are not part of the stylesheet.
+    * They are specified as the parameters returned by 
+    * getSortElementsTransformationParameters().
+    *@param strParentElementXPath
+    *                           XPath of parent Elements whose child Elements 
+    *                           are to be sorted
+    *@param strSortKeyXPath     XPath of XML Node to be used as the sort key 
+    *                           within each Element to be sorted.
+    *@return The XSL transformation stylesheet string
+    **************************************************************************/
+    private static String getParameterizedSortElementsStylesheetString
+                            (String        strParentElementXPath,
+                             String        strSortKeyXPath)
+    {
+        //-- Note:  XSLT 1.0 does not allow parameters in match patterns, and
+        //--        cannot evaluate a parameter as an XPath, so the XPaths 
+        //--        must be part of the stylesheet.
+        return wrapInXSLStylesheet
+            ( "  <xsl:param name='sortDataType'      select=\"'text'\"/>\n"
+            + "  <xsl:param name='sortOrder'         select=\"'ascending'\"/>\n"
+            + "  <xsl:param name='sortCaseOrder'     select=\"'upper-first'\"/>\n"
+            + "  <xsl:param name='sortTranslateFrom' select=\"''\"/>\n"
+            + "  <xsl:param name='sortTranslateTo'   select=\"''\"/>\n"
+            // Identity template followed by the sort template, so that 
+            // things irrelevant to the sort are copied unchanged.
+            + getIdentityTransformationTemplateString()
+            + "  <!-- Sorting transformation -->\n"
+            + "  <xsl:template match='" + strParentElementXPath + "'>\n"
+            + "   <xsl:copy>\n"
+            + "    <!-- Copy all child Nodes except Elements unchanged. -->\n"
+            + "    <xsl:apply-templates "
+            +         "select='@*|text()|processing-instruction()|comment()'/>\n"
+            + "    <!-- Copy Elements in sorted order. -->\n"
+            + "    <xsl:apply-templates select='*'>\n"
+            + "     <xsl:sort select='translate(" + strSortKeyXPath + ","
+            +                       " $sortTranslateFrom, $sortTranslateTo)'"
+            +              " data-type='{$sortDataType}'"
+            +              " order='{$sortOrder}'"
+            +              " case-order='{$sortCaseOrder}'/>\n"
+            + "    </xsl:apply-templates>\n"
+            + "   </xsl:copy>\n"
+            + "  </xsl:template>\n"
+            );
+    }
+
+    /**************************************************************************
+    * Returns a sort transformation stylesheet, compiled, with the data type,
+    * order and case order of the sort specified as parameters, so that the
+    * same compiled stylesheet can be used for all sorts by the same XPaths.
+    * Pass it the parameters returned by 
+    * getSortElementsTransformationParameters().
+    *@param strParentElementXPath
+    *                           XPath of parent Elements whose child Elements 
+    *                           are to be sorted
+    *@param strSortKeyXPath     XPath of XML Node to be used as the sort key 
+    *                           within each Element to be sorted.
+    *@return The compiled XSL transformation stylesheet.
+    *@throws TransformerConfigurationException
+    *                           When an XPath is invalid.
+    **************************************************************************/
+    public static Templates getSortElementsTransformationTemplates
+                            (String        strParentElementXPath,
+                             String        strSortKeyXPath)
+                            throws TransformerConfigurationException
+    {
+        return getTemplatesFromString
+                (getParameterizedSortElementsStylesheetString
+                            (strParentElementXPath, strSortKeyXPath));
+    }
+
+    /**************************************************************************
+    * Returns the parameters to pass to the stylesheet returned by 
+    * getSortElementsTransformationTemplates().
+    *@param dataType            Data type of the sort key
+    *@param order               Order of the sort
+    *@param caseOrder           Effect of case on the sort order
+    *@return The Map from parameter names to values.
+    **************************************************************************/
+    public static Map getSortElementsTransformationParameters
+                            (SortDataType  dataType,
+                             SortOrder     order,
+                             SortCaseOrder caseOrder)
+    {
+        Map mapParams = new HashMap();
+        mapParams.put("sortDataType", 
+                      dataType == SortDataType.NUMBER ? "number" : "text");
+        mapParams.put("sortOrder", 
+                      order == SortOrder.DESCENDING ? "descending" : "ascending");
+        mapParams.put("sortCaseOrder", 
+                      caseOrder == SortCaseOrder.LOWER_CASE_FIRST 
+                      ? "lower-first" : "upper-first");
+        if (caseOrder == SortCaseOrder.CASE_INSENSITIVE)
+        {
+            mapParams.put("sortTranslateFrom", "ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+            mapParams.put("sortTranslateTo",   "abcdefghijklmnopqrstuvwxyz");
+        }
+        return mapParams;
+    }
+
     /**************************************************************************
     * Applies the specified XSL transformation to the specified XML Document,
     * DocumentFragment or Element, leaving the original XML untouched, storing 
@@ -626,13 +950,99 @@ public class XSLUtil
                                TransformerException                               
     
     {
-        TransformerFactory factory = TransformerFactory.newInstance();
-        Transformer transformer = factory.newTransformer(new DOMSource(xmlXSL));
+        return transform(xmlXML, getTemplates(xmlXSL), xmlResult);
+    }
+
+    /**************************************************************************
+    * Set the maximum number of compiled stylesheets to cache, evicting the
+    * least recently used ones if there are already more than that.
+    * Default = intDEFAULT_TEMPLATES_CACHE_SIZE.
+    *@param  intSize    The maximum number.  Zero for no caching.
+    **************************************************************************/
+    public static void setTemplatesCacheSize(int intSize)
+    {
+        synchronized (st_mapTemplates)
+        {
+            st_intTemplatesCacheSize = Math.max(0, intSize);
+            while (st_mapTemplates.size() > st_intTemplatesCacheSize)
+            {
+                st_mapTemplates.remove
+                            (st_mapTemplates.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**************************************************************************
+    * Get the maximum number of compiled stylesheets to cache.
+    *@return            The maximum number.
+    **************************************************************************/
+    public static int getTemplatesCacheSize()
+    {
+        synchronized (st_mapTemplates)
+        {
+            return st_intTemplatesCacheSize;
+        }
+    }
+
+    /**************************************************************************
+    * Remove all compiled stylesheets from the cache, so that they are
+    * compiled again on next use.
+    **************************************************************************/
+    public static void clearTemplatesCache()
+    {
+        synchronized (st_mapTemplates)
+        {
+            st_mapTemplates.clear();
+        }
+    }
+
+    /**************************************************************************
+    * Get the shared TransformerFactory, creating it if necessary.
+    *@return            The TransformerFactory.
+    **************************************************************************/
+    private static synchronized TransformerFactory getTransformerFactory()
+    {
+        if (st_factory == null)
+        {
+            st_factory = TransformerFactory.newInstance();
+        }
+        return st_factory;
+    }
+
+    /**************************************************************************
+    * Get the compiled stylesheet cached for the key, or compile and cache
+    * the stylesheet.
+    *@param  strKey     The cache key.
+    *@param  source     The stylesheet.
+    *@return            The compiled stylesheet.
+    *@throws TransformerConfigurationException
+    *                   When the stylesheet cannot be compiled.
+    **************************************************************************/
+    private static Templates getTemplates(String strKey, Source source)
+                        throws TransformerConfigurationException
+    {
+        Templates templates;
+        synchronized (st_mapTemplates)
+        {
+            templates = (Templates)st_mapTemplates.get(strKey);
+        }
+        if (templates != null)
+        {
+            return templates;
+        }
+
+        //-- Compile without holding the cache lock, so that other threads
+        //-- can use other cached stylesheets meanwhile.
+        TransformerFactory factory = getTransformerFactory();
+        synchronized (factory)
+        {
+            templates = factory.newTemplates(source);
+        }
         //?? In Java 5.0, using Apache Xalan for transformations, when the 
         //?? following are in the CLASSPATH:
         //??    C:\Apps\Apache\xalan-j_2_7_1\xercesImpl.jar
         //??    C:\Apps\Apache\xalan-j_2_7_1\xml-apis.jar        
-        //?? this call to newTransformer() writes warnings and errors to 
+        //?? this call to newTemplates() writes warnings and errors to 
         //?? stdout, and doesn't throw an exception on warnings.  
         //??
         //?? For errors, the stdout text looks like:
@@ -675,10 +1085,439 @@ public class XSLUtil
         //??
         //?? Should find a better parser perhaps.
         //??
-        transformer.transform(new DOMSource(xmlXML), xmlResult);
+
+        synchronized (st_mapTemplates)
+        {
+            //-- Use the one cached by another thread meanwhile, if any.
+            Templates templatesCached = (Templates)st_mapTemplates.get(strKey);
+            if (templatesCached != null)
+            {
+                return templatesCached;
+            }
+            if (st_intTemplatesCacheSize > 0)
+            {
+                st_mapTemplates.put(strKey, templates);
+            }
+        }
+        return templates;
+    }
+
+    /**************************************************************************
+    * Get the cache key for the content of a stylesheet:  the kind of 
+    * stylesheet followed by a SHA-256 digest of the content, or by the 
+    * content itself if SHA-256 is not available.
+    *@param  chKind     The kind of stylesheet, which keeps stylesheets of 
+    *                   different kinds with the same content apart.
+    *@param  strContent The content.
+    *@return            The cache key.
+    **************************************************************************/
+    private static String getDigestKey(char chKind, String strContent)
+    {
+        MessageDigest digest = (MessageDigest)st_digest.get();
+        if (digest == null)
+        {
+            return chKind + strContent;
+        }
+        byte[] abDigest;
+        try
+        {
+            abDigest = digest.digest(strContent.getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            return chKind + strContent;
+        }
+        StringBuffer sb = new StringBuffer(1 + 2 * abDigest.length);
+        sb.append(chKind);
+        for (int i = 0; i < abDigest.length; i++)
+        {
+            sb.append(st_arrHexDigits[(abDigest[i] >> 4) & 0x0F]);
+            sb.append(st_arrHexDigits[abDigest[i] & 0x0F]);
+        }
+        return sb.toString();
+    }
+
+    /**************************************************************************
+    * Append a length-prefixed String to a cache key, so that the boundaries
+    * of Strings in the key are unambiguous.
+    *@param  sb         The cache key.
+    *@param  str        The String, or null.
+    **************************************************************************/
+    private static void appendToKey(StringBuffer sb, String str)
+    {
+        if (str == null)
+        {
+            sb.append('-');
+        }
+        else
+        {
+            sb.append(str.length()).append(':').append(str);
+        }
+    }
+
+    /**************************************************************************
+    * Append the content of an XML Node and its descendants to a cache key.
+    *@param  sb         The cache key.
+    *@param  node       The Node.
+    **************************************************************************/
+    private static void appendToKey(StringBuffer sb, Node node)
+    {
+        sb.append('(').append(node.getNodeType()).append(' ');
+        appendToKey(sb, node.getNamespaceURI());
+        appendToKey(sb, node.getNodeName());
+        appendToKey(sb, node.getNodeValue());
+        if (node.getNodeType() == Node.ATTRIBUTE_NODE)
+        {
+            //-- The value of an Attribute is its content.
+            sb.append(')');
+            return;
+        }
+        NamedNodeMap attributes = node.getAttributes();
+        if (attributes != null)
+        {
+            for (int i = 0; i < attributes.getLength(); i++)
+            {
+                appendToKey(sb, attributes.item(i));
+            }
+        }
+        for (Node child = node.getFirstChild(); 
+             child != null; 
+             child = child.getNextSibling())
+        {
+            appendToKey(sb, child);
+        }
+        sb.append(')');
+    }
+
+    /**************************************************************************
+    * Get the compiled form of the specified XSL stylesheet, compiling it
+    * only if the same stylesheet content is not already in the cache.
+    *@param  xmlXSL     XSL transformation
+    *@return            The compiled stylesheet.
+    *@throws TransformerConfigurationException
+    *                   When the stylesheet cannot be compiled.
+    **************************************************************************/
+    public static Templates getTemplates(Node xmlXSL)
+                        throws TransformerConfigurationException
+    {
+        //-- Walking the stylesheet tree and digesting it to build the key 
+        //-- costs far less than compiling it.
+        StringBuffer sb = new StringBuffer(4096);
+        appendToKey(sb, xmlXSL);
+        return getTemplates(getDigestKey('N', sb.toString()), 
+                            new DOMSource(xmlXSL));
+    }
+
+    /**************************************************************************
+    * Get the compiled form of the specified XSL stylesheet string,
+    * compiling it only if the same string is not already in the cache.
+    *@param  strXSL     XSL transformation
+    *@return            The compiled stylesheet.
+    *@throws TransformerConfigurationException
+    *                   When the stylesheet cannot be compiled.
+    **************************************************************************/
+    public static Templates getTemplatesFromString(String strXSL)
+                        throws TransformerConfigurationException
+    {
+        return getTemplates(getDigestKey('S', strXSL), 
+                            new StreamSource(new StringReader(strXSL)));
+    }
+
+    /**************************************************************************
+    * Get the compiled form of the XSL stylesheet at the specified URL,
+    * compiling it only if the same URL is not already in the cache.
+    *@param  strURL     URL of the XSL transformation
+    *@return            The compiled stylesheet.
+    *@throws TransformerConfigurationException
+    *                   When the stylesheet cannot be read or compiled.
+    **************************************************************************/
+    public static Templates getTemplatesFromURL(String strURL)
+                        throws TransformerConfigurationException
+    {
+        return getTemplates("U" + strURL, new StreamSource(strURL));
+    }
+
+    /**************************************************************************
+    * Applies the specified compiled XSL transformation to the specified XML 
+    * Document, DocumentFragment or Element, leaving the original XML 
+    * untouched, storing the generated XML in the specified DOMResult (which 
+    * should refer to an XML Document, DocumentFragment or Element), and 
+    * returning the generated XML as a Node.  See transform(Node, Node, 
+    * DOMResult) for details.
+    *@param  xmlXML     XML to be transformed
+    *@param  templates  Compiled XSL transformation
+    *@param  xmlResult  The XML Document, DocumentFragment, or Element in
+    *                   which to store the generated XML.
+    *@throws TransformerConfigurationException
+    *                   When the Transformer cannot be constructed.
+    *@throws TransformerException               
+    *                   When the transformation fails.
+    *@return            The transformed XML
+    **************************************************************************/
+    public static Node transform(Node      xmlXML, 
+                                 Templates templates, 
+                                 DOMResult xmlResult)
+                        throws TransformerConfigurationException,
+                               TransformerException                               
+    {
+        return transform(xmlXML, templates, null, xmlResult);
+    }
+
+    /**************************************************************************
+    * Applies the specified compiled XSL transformation to the specified XML 
+    * Document, DocumentFragment or Element, passing it the specified values
+    * of its xsl:param parameters, leaving the original XML untouched, 
+    * storing the generated XML in the specified DOMResult (which should 
+    * refer to an XML Document, DocumentFragment or Element), and returning 
+    * the generated XML as a Node.  See transform(Node, Node, DOMResult) for 
+    * details.
+    *@param  xmlXML     XML to be transformed
+    *@param  templates  Compiled XSL transformation
+    *@param  mapParams  Map from parameter names to values, or null.
+    *@param  xmlResult  The XML Document, DocumentFragment, or Element in
+    *                   which to store the generated XML.
+    *@throws TransformerConfigurationException
+    *                   When the Transformer cannot be constructed.
+    *@throws TransformerException               
+    *                   When the transformation fails.
+    *@return            The transformed XML
+    **************************************************************************/
+    public static Node transform(Node      xmlXML, 
+                                 Templates templates, 
+                                 Map       mapParams,
+                                 DOMResult xmlResult)
+                        throws TransformerConfigurationException,
+                               TransformerException                               
+    {
+        transform(new DOMSource(xmlXML), templates, mapParams, xmlResult);
         return xmlResult.getNode();
     }
 
+    /**************************************************************************
+    * Applies the specified compiled XSL transformation to the specified 
+    * Source, passing it the specified values of its xsl:param parameters, 
+    * and storing the generated XML in the specified Result.
+    *@param  source     XML to be transformed
+    *@param  templates  Compiled XSL transformation
+    *@param  mapParams  Map from parameter names to values, or null.
+    *@param  result     The Result in which to store the generated XML.
+    *@throws TransformerConfigurationException
+    *                   When the Transformer cannot be constructed.
+    *@throws TransformerException               
+    *                   When the transformation fails.
+    **************************************************************************/
+    public static void transform(Source    source, 
+                                 Templates templates, 
+                                 Map       mapParams,
+                                 Result    result)
+                        throws TransformerConfigurationException,
+                               TransformerException                               
+    {
+        //-- Remove the Transformer from the map while in use, so that a 
+        //-- nested transformation on the same thread (from an extension
+        //-- function, for example) uses a different one.
+        Map mapTransformers = (Map)st_transformers.get();
+        Transformer transformer = (Transformer)mapTransformers.remove(templates);
+        if (transformer == null)
+        {
+            transformer = templates.newTransformer();
+        }
+        //-- Set on each use, since reset() restores the original listener.
+        transformer.setErrorListener(st_errorListenerRETHROW);
+        if (mapParams != null)
+        {
+            for (Iterator i = mapParams.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry)i.next();
+                transformer.setParameter((String)entry.getKey(), 
+                                         entry.getValue());
+            }
+        }
+        transformer.transform(source, result);
+
+        //-- Reuse it only after a successful transformation, so that a 
+        //-- failed one cannot leave any state behind.  reset() clears the
+        //-- parameters.
+        transformer.reset();
+        mapTransformers.put(templates, transformer);
+    }
+
+    /**************************************************************************
+    * Applies the specified compiled XSL transformation to the specified 
+    * Source, storing the generated XML in the specified Result.
+    *@param  source     XML to be transformed
+    *@param  templates  Compiled XSL transformation
+    *@param  result     The Result in which to store the generated XML.
+    *@throws TransformerConfigurationException
+    *                   When the Transformer cannot be constructed.
+    *@throws TransformerException               
+    *                   When the transformation fails.
+    **************************************************************************/
+    public static void transform(Source    source, 
+                                 Templates templates, 
+                                 Result    result)
+                        throws TransformerConfigurationException,
+                               TransformerException                               
+    {
+        transform(source, templates, null, result);
+    }
+
+    /**************************************************************************
+    * Applies the specified compiled XSL transformations in sequence to the
+    * specified Source, streaming the output of each to the next as SAX 
+    * events, passing each the specified values of its xsl:param parameters,
+    * and storing the generated XML of the last in the specified Result.
+    *@param  source         XML to be transformed
+    *@param  arrTemplates   Compiled XSL transformations, in the order to be
+    *                       applied.  If empty, the XML is copied unchanged.
+    *@param  arrParams      Maps from parameter names to values, one for 
+    *                       each transformation, any of which may be null.  
+    *                       May be null instead.
+    *@param  result         The Result in which to store the generated XML.
+    *@throws TransformerConfigurationException
+    *                       When a Transformer cannot be constructed, or the
+    *                       TransformerFactory does not support SAX.
+    *@throws TransformerException               
+    *                       When a transformation fails.
+    **************************************************************************/
+    public static void transform(Source      source, 
+                                 Templates[] arrTemplates, 
+                                 Map[]       arrParams,
+                                 Result      result)
+                        throws TransformerConfigurationException,
+                               TransformerException                               
+    {
+        if (arrTemplates.length == 0)
+        {
+            transform(source, getIdentityTransformationTemplates(), result);
+            return;
+        }
+
+        //-- Build the pipeline from the end, connecting each stage after 
+        //-- the first to the Result of the previous stage.
+        SAXTransformerFactory factory = getSAXTransformerFactory();
+        Result resultNext = result;
+        for (int i = arrTemplates.length - 1; i >= 1; i--)
+        {
+            TransformerHandler handler;
+            synchronized (factory)
+            {
+                handler = factory.newTransformerHandler(arrTemplates[i]);
+            }
+            Map mapParams = (arrParams == null) ? null : arrParams[i];
+            if (mapParams != null)
+            {
+                for (Iterator iter = mapParams.entrySet().iterator(); 
+                     iter.hasNext(); )
+                {
+                    Map.Entry entry = (Map.Entry)iter.next();
+                    handler.getTransformer().setParameter
+                                ((String)entry.getKey(), entry.getValue());
+                }
+            }
+            handler.setResult(resultNext);
+            SAXResult saxResult = new SAXResult(handler);
+            saxResult.setLexicalHandler(handler);
+            resultNext = saxResult;
+        }
+
+        //-- The first stage reads the Source, driving the whole pipeline.
+        transform(source, 
+                  arrTemplates[0], 
+                  (arrParams == null) ? null : arrParams[0],
+                  resultNext);
+    }
+
+    /**************************************************************************
+    * Applies the specified compiled XSL transformations in sequence to the
+    * specified Source, streaming the output of each to the next as SAX 
+    * events, and storing the generated XML of the last in the specified 
+    * Result.
+    *@param  source         XML to be transformed
+    *@param  arrTemplates   Compiled XSL transformations, in the order to be
+    *                       applied.  If empty, the XML is copied unchanged.
+    *@param  result         The Result in which to store the generated XML.
+    *@throws TransformerConfigurationException
+    *                       When a Transformer cannot be constructed, or the
+    *                       TransformerFactory does not support SAX.
+    *@throws TransformerException               
+    *                       When a transformation fails.
+    **************************************************************************/
+    public static void transform(Source      source, 
+                                 Templates[] arrTemplates, 
+                                 Result      result)
+                        throws TransformerConfigurationException,
+                               TransformerException                               
+    {
+        transform(source, arrTemplates, null, result);
+    }
+
+    /**************************************************************************
+    * Get the shared TransformerFactory as a SAXTransformerFactory.
+    *@return            The SAXTransformerFactory.
+    *@throws TransformerConfigurationException
+    *                   When the TransformerFactory does not support SAX.
+    **************************************************************************/
+    private static SAXTransformerFactory getSAXTransformerFactory()
+                        throws TransformerConfigurationException
+    {
+        TransformerFactory factory = getTransformerFactory();
+        if (!factory.getFeature(SAXTransformerFactory.FEATURE))
+        {
+            throw new TransformerConfigurationException
+                        ("TransformerFactory " + factory.getClass().getName()
+                         + " does not support SAX.");
+        }
+        return (SAXTransformerFactory)factory;
+    }
+
+    /**************************************************************************
+    * Applies the specified compiled XSL transformation to the specified XML 
+    * Document, DocumentFragment or Element, leaving the original XML 
+    * untouched, storing the generated XML in the specified result Node 
+    * (which should refer to an XML Document, DocumentFragment or Element), 
+    * and returning the generated XML as a Node.  See transform(Node, Node, 
+    * Node) for details.
+    *@param  xmlXML     XML to be transformed
+    *@param  templates  Compiled XSL transformation
+    *@param  xmlResult  The XML Document, DocumentFragment, or Element in
+    *                   which to store the generated XML.
+    *@throws TransformerConfigurationException
+    *                   When the Transformer cannot be constructed.
+    *@throws TransformerException               
+    *                   When the transformation fails.
+    *@return            The transformed XML
+    **************************************************************************/
+    public static Node transform(Node xmlXML, Templates templates, Node xmlResult)
+                        throws TransformerConfigurationException,
+                               TransformerException                               
+    {
+        DOMResult domResult = xmlResult == null 
+                              ? new DOMResult()
+                              : new DOMResult(xmlResult);
+        return transform(xmlXML, templates, domResult); 
+    }
+
+    /**************************************************************************
+    * Applies the specified compiled XSL transformation to the specified XML 
+    * Document, DocumentFragment or Element, leaving the original XML 
+    * untouched, and returning a new Document.
+    *@param  xmlXML     XML to be transformed
+    *@param  templates  Compiled XSL transformation
+    *@throws TransformerConfigurationException
+    *                   When the Transformer cannot be constructed.
+    *@throws TransformerException               
+    *                   When the transformation fails.
+    *@return            The transformed XML
+    **************************************************************************/
+    public static Document transform(Node xmlXML, Templates templates)
+                        throws TransformerConfigurationException,
+                               TransformerException                               
+    {
+        return XMLUtil.getOwnerDocument
+                            (transform(xmlXML, templates, (Node)null)); 
+    }
+
     /**************************************************************************
     * Applies the specified XSL transformation to the specified XML Document,
     * DocumentFragment or Element, leaving the original XML untouched, storing 
@@ -764,7 +1603,7 @@ public class XSLUtil
     {
         return transform
                     (xmlXML, 
-                     getIdentityTransformationStylesheetDocument(),
+                     getIdentityTransformationTemplates(),
                      xmlResult);
     }
 
@@ -860,7 +1699,7 @@ public class XSLUtil
     {
         return transform
                     (xmlXML, 
-                     getStripCommentsTransformationStylesheetDocument(),
+                     getStripCommentsTransformationTemplates(),
                      xmlResult);
     }
 
@@ -989,9 +1828,13 @@ public class XSLUtil
                                    TransformerException
                                    
     {
-        Document xmlXSL = getSortElementsTransformationStylesheetDocument
-           (strParentElementXPath, strSortKeyXPath, dataType, order, caseOrder);
-        return transform(xmlXML, xmlXSL, xmlResult);
+        return transform
+                (xmlXML, 
+                 getSortElementsTransformationTemplates
+                            (strParentElementXPath, strSortKeyXPath),
+                 getSortElementsTransformationParameters
+                            (dataType, order, caseOrder),
+                 xmlResult);
     }
 
     /**************************************************************************
@@ -2425,6 +3268,107 @@ public class XSLUtil
                                        "\nText node 4 inside A\n" +
                                      "</A>"));
 
+                //-------------------------------------------------------------
+                System.out.println("--");
+                System.out.println("-- getTemplates() and transform(XML, " +
+                                   "Templates)");
+                System.out.println("--");
+                //-------------------------------------------------------------
+                Templates templates1 = getTemplates
+                                (getIdentityTransformationStylesheetDocument());
+                Templates templates2 = getTemplates
+                                (getIdentityTransformationStylesheetDocument());
+                System.out.println("Same stylesheet content cached (true) = " 
+                                   + (templates1 == templates2));
+                System.out.println("Different content not cached (false) = " 
+                                   + (templates1 == getTemplates
+                            (getStripCommentsTransformationStylesheetDocument())));
+                System.out.println("Same string cached (true) = " 
+                                   + (getTemplatesFromString
+                                    (getIdentityTransformationStylesheetString())
+                                      == getTemplatesFromString
+                                    (getIdentityTransformationStylesheetString())));
+                xmlBefore = initDocument(); 
+                testTransform(xmlBefore, 
+                              transform(xmlBefore, templates1), 
+                              xmlBefore);
+                System.out.println("Transformer reused:");
+                testTransform(xmlBefore, 
+                              transform(xmlBefore, templates1), 
+                              xmlBefore);
+                setTemplatesCacheSize(0);
+                System.out.println("Not cached with cache size 0 (false) = " 
+                                   + (getTemplates
+                                (getIdentityTransformationStylesheetDocument())
+                                      == getTemplates
+                                (getIdentityTransformationStylesheetDocument())));
+                setTemplatesCacheSize(intDEFAULT_TEMPLATES_CACHE_SIZE);
+
+                //-------------------------------------------------------------
+                System.out.println("--");
+                System.out.println("-- getSortElementsTransformationTemplates()");
+                System.out.println("--");
+                //-------------------------------------------------------------
+                System.out.println("Same XPaths share one stylesheet (true) = " 
+                                   + (getSortElementsTransformationTemplates
+                                                                ("A", "C")
+                                      == getSortElementsTransformationTemplates
+                                                                ("A", "C")));
+                System.out.println("-- sortElements" +
+                                   "(TEXT, ASCENDING, CASE_INSENSITIVE)");
+                xmlBefore = XMLUtil.loadDocumentFromString
+                                    ("<A>" +
+                                       "<B><C>b</C></B>" +
+                                       "<B><C>C</C></B>" +
+                                       "<B><C>a</C></B>" +
+                                     "</A>");
+                testTransform
+                    (xmlBefore, 
+                     sortElements
+                            (xmlBefore, 
+                             "A",
+                             "C",
+                             SortDataType.TEXT, 
+                             SortOrder.ASCENDING, 
+                             SortCaseOrder.CASE_INSENSITIVE),
+                     XMLUtil.loadDocumentFromString
+                                    ("<A>" +
+                                       "<B><C>a</C></B>" +
+                                       "<B><C>b</C></B>" +
+                                       "<B><C>C</C></B>" +
+                                     "</A>"));
+
+                //-------------------------------------------------------------
+                System.out.println("--");
+                System.out.println("-- transform(Source, Templates[], Result)");
+                System.out.println("--");
+                //-------------------------------------------------------------
+                String strXML = "<A><!-- comment -->" +
+                                  "<B><C>b</C></B>" +
+                                  "<B><C>c</C></B>" +
+                                  "<B><C>a</C></B>" +
+                                "</A>";
+                StringWriter writer = new StringWriter();
+                transform(new StreamSource(new StringReader(strXML)),
+                          new Templates[] 
+                                {getStripCommentsTransformationTemplates(),
+                                 getSortElementsTransformationTemplates
+                                                                ("A", "C"),
+                                 getIdentityTransformationTemplates()},
+                          new Map[] 
+                                {null,
+                                 getSortElementsTransformationParameters
+                                            (SortDataType.TEXT,
+                                             SortOrder.DESCENDING,
+                                             SortCaseOrder.UPPER_CASE_FIRST),
+                                 null},
+                          new StreamResult(writer));
+                System.out.println("Sorted descending, without comment:");
+                System.out.println(writer.toString());
+                System.out.println("Expected:");
+                System.out.println("<A><B><C>c</C></B><B><C>b</C></B>" +
+                                   "<B><C>a</C></B></A>");
+
                 System.out.println("...End tests.");
             }
             catch (Throwable e)